@@ -0,0 +1,107 @@
+/*-
+ * #%L
+ * Multiview stitching of large datasets.
+ * %%
+ * Copyright (C) 2016 - 2024 Big Stitcher developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.stitcher.benchmark;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.imglib2.FinalInterval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.realtransform.AffineTransform;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+import net.preibisch.mvrecon.Threads;
+import net.preibisch.stitcher.algorithm.lucaskanade.Align;
+import net.preibisch.stitcher.algorithm.lucaskanade.TranslationWarp;
+
+/**
+ * Lucas-Kanade alignment (translation warp) of the overlap of a pair of fractal tiles,
+ * including the precomputation of gradients, steepest descent images and Hessian.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class AlignBenchmark
+{
+	/* misalignment (in x) of the overlaps */
+	static final int SHIFT = 2;
+
+	@Param( { "2", "3" } )
+	public int numDimensions;
+
+	RandomAccessibleInterval< FloatType > template, image;
+	ExecutorService service;
+
+	@Setup( Level.Trial )
+	public void setup()
+	{
+		service = Executors.newFixedThreadPool( Threads.numThreads() );
+
+		final Img< FloatType >[] tiles = BenchmarkData.createTilePair( numDimensions );
+		final int[] offset = BenchmarkData.getTileOffset( numDimensions );
+
+		// overlap in the coordinates of tile 1 and (slightly misaligned) tile 2
+		final long[] min1 = new long[numDimensions];
+		final long[] max1 = tiles[0].maxAsLongArray();
+		min1[0] = offset[0] + SHIFT;
+		final long[] min2 = new long[numDimensions];
+		final long[] max2 = tiles[1].maxAsLongArray();
+		max2[0] = max1[0] - offset[0];
+
+		template = Views.zeroMin( Views.interval( tiles[0], new FinalInterval( min1, max1 ) ) );
+		image = Views.zeroMin( Views.interval( tiles[1], new FinalInterval( min2, max2 ) ) );
+		image = Views.interval( image, template );
+	}
+
+	@TearDown( Level.Trial )
+	public void tearDown()
+	{
+		service.shutdown();
+	}
+
+	@Benchmark
+	public AffineTransform align()
+	{
+		final Align< FloatType > lk = new Align<>( template, new ArrayImgFactory<>( new FloatType() ), new TranslationWarp( numDimensions ) );
+		return lk.align( image, 100, 0.01, service );
+	}
+}
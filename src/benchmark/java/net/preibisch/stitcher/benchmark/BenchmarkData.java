@@ -0,0 +1,132 @@
+/*-
+ * #%L
+ * Multiview stitching of large datasets.
+ * %%
+ * Copyright (C) 2016 - 2024 Big Stitcher developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.stitcher.benchmark;
+
+import java.util.List;
+
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.loops.LoopBuilder;
+import net.imglib2.realtransform.AffineGet;
+import net.imglib2.realtransform.AffineTransform2D;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.numeric.integer.LongType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.preibisch.stitcher.input.FractalImgLoader;
+import net.preibisch.stitcher.input.FractalSpimDataGenerator;
+
+/**
+ * Synthetic, reproducible inputs for the benchmarks: two neighboring tiles of a
+ * fractal rendered into ArrayImgs (so the fractal itself is not measured).
+ */
+public class BenchmarkData
+{
+	/* overlap of the two tiles (in x), as fraction of the tile size */
+	public static final double OVERLAP = 0.2;
+
+	/* tile size per dimension for 2d and 3d inputs */
+	public static final int TILE_SIZE_2D = 512;
+	public static final int TILE_SIZE_3D = 128;
+
+	public static int getTileSize(final int numDimensions)
+	{
+		return numDimensions == 2 ? TILE_SIZE_2D : TILE_SIZE_3D;
+	}
+
+	/**
+	 * @param numDimensions 2 or 3
+	 * @return two overlapping tiles, the second one shifted by (1-OVERLAP) * tile size in x
+	 */
+	public static Img< FloatType >[] createTilePair(final int numDimensions)
+	{
+		final int size = getTileSize( numDimensions );
+
+		final long[] min = new long[numDimensions];
+		final long[] max = new long[numDimensions];
+		for (int d = 0; d < numDimensions; d++)
+			max[d] = size - 1;
+
+		final List< Interval > intervals = FractalSpimDataGenerator.generateTileList( new FinalInterval( min, max ), 2, 1, OVERLAP );
+
+		final FractalSpimDataGenerator fsdg = new FractalSpimDataGenerator( numDimensions );
+		fsdg.addFractal( getFractalTransform( numDimensions, size ) );
+
+		final FractalImgLoader imgLoader = (FractalImgLoader) fsdg.generateSpimData( intervals ).getSequenceDescription().getImgLoader();
+
+		@SuppressWarnings("unchecked")
+		final Img< FloatType >[] tiles = new Img[intervals.size()];
+		for (int i = 0; i < tiles.length; i++)
+			tiles[i] = render( imgLoader.getImageAtInterval( intervals.get( i ) ) );
+
+		return tiles;
+	}
+
+	/**
+	 * @param numDimensions 2 or 3
+	 * @return the shift of the second tile of {@link #createTilePair(int)} relative to the first
+	 */
+	public static int[] getTileOffset(final int numDimensions)
+	{
+		final int[] offset = new int[numDimensions];
+		offset[0] = (int) ( ( 1 - OVERLAP ) * getTileSize( numDimensions ) );
+		return offset;
+	}
+
+	/* scale the fractal so that the tiles contain structure at all scales */
+	private static AffineGet getFractalTransform(final int numDimensions, final int size)
+	{
+		final double scale = size / 2.0;
+		final double shift = size / 4.0;
+
+		if (numDimensions == 2)
+		{
+			final AffineTransform2D m = new AffineTransform2D();
+			m.set( scale, 0.0, shift,
+				   0.0, scale, shift );
+			return m;
+		}
+
+		final AffineTransform3D m = new AffineTransform3D();
+		m.set( scale, 0.0, 0.0, shift,
+			   0.0, scale, 0.0, shift,
+			   0.0, 0.0, scale, shift );
+		return m;
+	}
+
+	public static Img< FloatType > render(final RandomAccessibleInterval< LongType > src)
+	{
+		final Img< FloatType > img = ArrayImgs.floats( Intervals.dimensionsAsLongArray( src ) );
+		LoopBuilder.setImages( src, img ).forEachPixel( (s, t) -> t.setReal( s.getRealDouble() ) );
+		return img;
+	}
+
+	public static Img< FloatType > copy(final RandomAccessibleInterval< FloatType > src)
+	{
+		final Img< FloatType > img = ArrayImgs.floats( Intervals.dimensionsAsLongArray( src ) );
+		LoopBuilder.setImages( src, img ).forEachPixel( (s, t) -> t.set( s ) );
+		return img;
+	}
+}
@@ -0,0 +1,116 @@
+/*-
+ * #%L
+ * Multiview stitching of large datasets.
+ * %%
+ * Copyright (C) 2016 - 2024 Big Stitcher developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.stitcher.benchmark;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.real.FloatType;
+import net.preibisch.mvrecon.Threads;
+import net.preibisch.stitcher.algorithm.fastfusion.FastFusionTools;
+
+/**
+ * Translation-only fusion of a pair of fractal tiles: weighting and adding into the output.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class FastFusionBenchmark
+{
+	@Param( { "2", "3" } )
+	public int numDimensions;
+
+	Img< FloatType > tile;
+	Img< FloatType > image, weightImage, fused;
+	int[] offset;
+	float[] renderOffset, border, blending;
+	ExecutorService service;
+
+	@Setup( Level.Trial )
+	public void setup()
+	{
+		service = Executors.newFixedThreadPool( Threads.numThreads() );
+
+		tile = BenchmarkData.createTilePair( numDimensions )[1];
+		offset = BenchmarkData.getTileOffset( numDimensions );
+
+		renderOffset = new float[numDimensions];
+		border = new float[numDimensions];
+		blending = new float[numDimensions];
+		for (int d = 0; d < numDimensions; d++)
+			blending[d] = BenchmarkData.getTileSize( numDimensions ) / 10;
+
+		// output big enough for both tiles
+		final long[] fusedSize = tile.dimensionsAsLongArray();
+		fusedSize[0] += offset[0];
+		fused = ArrayImgs.floats( fusedSize );
+	}
+
+	/* applyWeights works in place and addTranslated accumulates, so start from fresh images every time */
+	@Setup( Level.Invocation )
+	public void resetImage()
+	{
+		image = BenchmarkData.copy( tile );
+		weightImage = ArrayImgs.floats( tile.dimensionsAsLongArray() );
+		fused.forEach( FloatType::setZero );
+	}
+
+	@TearDown( Level.Trial )
+	public void tearDown()
+	{
+		service.shutdown();
+	}
+
+	@Benchmark
+	public Img< FloatType > addTranslated()
+	{
+		FastFusionTools.addTranslated( tile, fused, offset, service );
+		return fused;
+	}
+
+	@Benchmark
+	public Img< FloatType > applyWeights()
+	{
+		FastFusionTools.applyWeights( image, weightImage, renderOffset, border, blending, false, service );
+		return weightImage;
+	}
+}
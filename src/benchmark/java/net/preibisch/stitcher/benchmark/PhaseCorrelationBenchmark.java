@@ -0,0 +1,177 @@
+/*-
+ * #%L
+ * Multiview stitching of large datasets.
+ * %%
+ * Copyright (C) 2016 - 2024 Big Stitcher developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.stitcher.benchmark;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.imglib2.Localizable;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.algorithm.phasecorrelation.FourNeighborhoodExtrema;
+import net.imglib2.algorithm.phasecorrelation.PhaseCorrelation2;
+import net.imglib2.algorithm.phasecorrelation.PhaseCorrelation2Util;
+import net.imglib2.algorithm.phasecorrelation.PhaseCorrelationEngine;
+import net.imglib2.algorithm.phasecorrelation.PhaseCorrelationPeak2;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.type.numeric.complex.ComplexFloatType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.util.Pair;
+import net.imglib2.view.Views;
+import net.preibisch.mvrecon.Threads;
+import net.preibisch.stitcher.algorithm.PairwiseStitching;
+
+/**
+ * PCM calculation, peak search and cross correlation of a pair of fractal tiles.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+public class PhaseCorrelationBenchmark
+{
+	@Param( { "2", "3" } )
+	public int numDimensions;
+
+	Img< FloatType > img1, img2;
+	int[] extension;
+	RandomAccessibleInterval< FloatType > pcm;
+	PhaseCorrelationPeak2 peak;
+	List< PhaseCorrelationPeak2 > peaks;
+	PhaseCorrelationEngine engine;
+	ExecutorService service;
+
+	@Setup( Level.Trial )
+	public void setup()
+	{
+		service = Executors.newFixedThreadPool( Threads.numThreads() );
+
+		final Img< FloatType >[] tiles = BenchmarkData.createTilePair( numDimensions );
+		img1 = tiles[0];
+		img2 = tiles[1];
+
+		extension = new int[numDimensions];
+		Arrays.fill( extension, PairwiseStitching.PCM_EXTENSION );
+
+		pcm = calculatePCM();
+
+		// the best peak, its shift is used for the cross correlation benchmark
+		peak = PhaseCorrelation2.getShift( pcm, img1, img2, 5, 0, false, false, service );
+
+		// all possible shifts of the 5 highest peaks, as checked by the cross correlation in getShift()
+		peaks = PhaseCorrelation2Util.getPCMMaxima( pcm, service, 5, false );
+		PhaseCorrelation2Util.expandPeakListToPossibleShifts( peaks, pcm, img1, img2 );
+
+		engine = new PhaseCorrelationEngine();
+	}
+
+	@TearDown( Level.Trial )
+	public void tearDown()
+	{
+		engine.clear();
+		service.shutdown();
+	}
+
+	@Benchmark
+	public RandomAccessibleInterval< FloatType > calculatePCM()
+	{
+		return PhaseCorrelation2.calculatePCM( img1, img2, extension,
+				new ArrayImgFactory<>( new FloatType() ), new FloatType(),
+				new ArrayImgFactory<>( new ComplexFloatType() ), new ComplexFloatType(), service );
+	}
+
+	@Benchmark
+	public ArrayList< Pair< Localizable, Double > > findMaxMT()
+	{
+		return FourNeighborhoodExtrema.findMaxMT( Views.extendPeriodic( pcm ), pcm, 5, service );
+	}
+
+	@Benchmark
+	public Pair< Float, ArrayList< Pair< Localizable, Double > > > findMinAndMaxFlat()
+	{
+		final float[] data = ( (FloatArray) ( (ArrayImg< ?, ? >) pcm ).update( null ) ).getCurrentStorageArray();
+		return FourNeighborhoodExtrema.findMinAndMaxFlat( data, Intervals.dimensionsAsLongArray( pcm ), 5, service );
+	}
+
+	@Benchmark
+	public double calculateCrossCorr()
+	{
+		final PhaseCorrelationPeak2 p = new PhaseCorrelationPeak2( peak );
+		p.calculateCrossCorr( img1, img2, 0 );
+		return p.getCrossCorr();
+	}
+
+	@Benchmark
+	public List< PhaseCorrelationPeak2 > calculateCrossCorrParallel()
+	{
+		final List< PhaseCorrelationPeak2 > p = copyPeaks();
+		PhaseCorrelation2Util.calculateCrossCorrParallel( p, img1, img2, 0, service );
+		return p;
+	}
+
+	@Benchmark
+	public List< PhaseCorrelationPeak2 > calculateCrossCorrFlat()
+	{
+		final List< PhaseCorrelationPeak2 > p = copyPeaks();
+		PhaseCorrelation2Util.calculateCrossCorrFlat( p, img1, img2, 0, service );
+		return p;
+	}
+
+	@Benchmark
+	public List< PhaseCorrelationPeak2 > calculateCrossCorrFlatReusedBuffers()
+	{
+		final List< PhaseCorrelationPeak2 > p = copyPeaks();
+		PhaseCorrelation2Util.calculateCrossCorrFlat( p, img1, img2, 0, engine, service );
+		return p;
+	}
+
+	private List< PhaseCorrelationPeak2 > copyPeaks()
+	{
+		final List< PhaseCorrelationPeak2 > copy = new ArrayList<>( peaks.size() );
+		for ( final PhaseCorrelationPeak2 p : peaks )
+			copy.add( new PhaseCorrelationPeak2( p ) );
+		return copy;
+	}
+}
@@ -32,7 +32,6 @@ import net.imglib2.Point;
 import net.imglib2.RandomAccess;
 import net.imglib2.RandomAccessible;
 import net.imglib2.RandomAccessibleInterval;
-import net.imglib2.RealRandomAccess;
 import net.imglib2.Sampler;
 import net.imglib2.algorithm.phasecorrelation.deprecated.Blending;
 import net.imglib2.img.Img;
@@ -42,13 +41,14 @@ import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.real.FloatType;
 import net.imglib2.util.Intervals;
 import net.imglib2.view.Views;
-import net.preibisch.mvrecon.process.fusion.transformed.weights.BlendingRealRandomAccessible;
+import net.preibisch.stitcher.algorithm.fastfusion.BlendingProfiles;
 
 
 public class BlendedExtendedMirroredRandomAccesible2 <T extends RealType<T>>implements RandomAccessible<T> {
 
 	private RandomAccessibleInterval<T> img;
-	BlendingRealRandomAccessible blending;
+	// separable blending weights along each dimension of extDims
+	final float[][] blendingProfiles;
 	private int numDimensions;
 	private FinalInterval extDims;
 	
@@ -67,7 +67,7 @@ public class BlendedExtendedMirroredRandomAccesible2 <T extends RealType<T>>impl
 			border2[i] = 0.0f;
 		}
 		
-		this.blending = new BlendingRealRandomAccessible(extDims, border2, blendingBorder);
+		this.blendingProfiles = BlendingProfiles.getProfiles(Intervals.dimensionsAsLongArray(extDims), null, border2, blendingBorder);
 	}
 	
 	
@@ -97,12 +97,20 @@ public class BlendedExtendedMirroredRandomAccesible2 <T extends RealType<T>>impl
 		}
 
 		RandomAccess<T> imgRA = Views.extendMirrorSingle(img).randomAccess();
-		RealRandomAccess<FloatType> blendRA = blending.realRandomAccess();
 		T val = imgRA.get().createVariable();
 
 		@Override
 		public T get() {
-			val.setReal(imgRA.get().getRealFloat() * blendRA.get().getRealFloat());
+			float w = 1;
+			for (int d = 0; d < n; d++)
+			{
+				final long x = position[d] - extDims.min(d);
+				if (x < 0 || x >= blendingProfiles[d].length)
+					w = 0;
+				else
+					w *= blendingProfiles[d][(int) x];
+			}
+			val.setReal(imgRA.get().getRealFloat() * w);
 			return val;
 		}
 
@@ -110,84 +118,72 @@ public class BlendedExtendedMirroredRandomAccesible2 <T extends RealType<T>>impl
 		public void fwd(int d) {
 			super.fwd(d);
 			imgRA.fwd(d);
-			blendRA.fwd(d);
 		}
 
 		@Override
 		public void bck(int d) {
 			super.bck(d);
 			imgRA.bck(d);
-			blendRA.bck(d);
 		}
 
 		@Override
 		public void move(int distance, int d) {
 			super.move(distance, d);
 			imgRA.move(distance, d);
-			blendRA.move(distance, d);
 		}
 
 		@Override
 		public void move(long distance, int d) {
 			super.move(distance, d);
 			imgRA.move(distance, d);
-			blendRA.move(distance, d);
 		}
 
 		@Override
 		public void move(Localizable localizable) {
 			super.move(localizable);
 			imgRA.move(localizable);
-			blendRA.move(localizable);
 		}
 
 		@Override
 		public void move(int[] distance) {
 			super.move(distance);
 			imgRA.move(distance);
-			blendRA.move(distance);
 		}
 
 		@Override
 		public void move(long[] distance) {
 			super.move(distance);
 			imgRA.move(distance);
-			blendRA.move(distance);
 		}
 
 		@Override
 		public void setPosition(Localizable localizable) {
 			super.setPosition(localizable);
 			imgRA.setPosition(localizable);
-			blendRA.setPosition(localizable);
 		}
 
 		@Override
 		public void setPosition(int[] position) {
 			super.setPosition(position);
 			imgRA.setPosition(position);
-			blendRA.setPosition(position);
 		}
 
 		@Override
 		public void setPosition(long[] position) {
 			super.setPosition(position);
 			imgRA.setPosition(position);
-			blendRA.setPosition(position);
 		}
 
 		@Override
 		public void setPosition(int position, int d) {
 			super.setPosition(position, d);
 			imgRA.setPosition(position, d);
-			blendRA.setPosition(position, d);
 		}
 
 		@Override
 		public void setPosition(long position, int d) {
 			super.setPosition(position, d);
 			imgRA.setPosition(position, d);
-			blendRA.setPosition(position, d);
 		}
 
 		@Override
@@ -37,10 +37,13 @@ import net.imglib2.Point;
 import net.imglib2.RandomAccess;
 import net.imglib2.RandomAccessible;
 import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.IntervalIndexer;
 import net.imglib2.util.Pair;
 import net.imglib2.util.Util;
 import net.imglib2.util.ValuePair;
 import net.imglib2.view.Views;
+import net.preibisch.mvrecon.process.fusion.FusionTools;
+import net.preibisch.mvrecon.process.fusion.ImagePortion;
 
 public class FourNeighborhoodExtrema
 {
@@ -240,6 +243,183 @@ A:		while ( c.hasNext() )
 		return list;
 	}
 
+	/**
+	 * find the minimum and the maxN highest local maxima (in a periodic 2*n-neighborhood, like {@link #findMaxMT}
+	 * on a periodically extended image) of an image stored in a flat array in one parallel pass.
+	 * Every task keeps its maxima in a fixed-size primitive heap, periodic neighbors are only computed
+	 * for the first and last pixel of a line and for lines at the border.
+	 * @param data the image as a flat array
+	 * @param dims dimensions of the image
+	 * @param maxN maximum number of maxima to return
+	 * @param service thread pool
+	 * @return the minimum and the maxima (sorted by descending value), null if any of the tasks failed
+	 */
+	public static Pair< Float, ArrayList< Pair< Localizable, Double > > > findMinAndMaxFlat( final float[] data, final long[] dims, final int maxN, final ExecutorService service )
+	{
+		final int n = dims.length;
+		final int lineLength = (int) dims[ 0 ];
+		final long numLines = data.length / lineLength;
+
+		final int[] strides = new int[ n ];
+		strides[ 0 ] = 1;
+		for ( int d = 1; d < n; ++d )
+			strides[ d ] = strides[ d - 1 ] * (int) dims[ d - 1 ];
+
+		final List< Future< Pair< Float, MaxHeap > > > futures = new ArrayList<>();
+
+		for ( final ImagePortion portion : FusionTools.divideIntoPortions( numLines ) )
+		{
+			futures.add( service.submit( () ->
+			{
+				final MaxHeap heap = new MaxHeap( maxN );
+				final int[] fwd = new int[ n ];
+				final int[] bck = new int[ n ];
+				float min = Float.MAX_VALUE;
+
+				final long end = portion.getStartPosition() + portion.getLoopSize();
+				for ( long line = portion.getStartPosition(); line < end; ++line )
+				{
+					final int o = (int) line * lineLength;
+
+					// offsets to the neighbors in dimensions > 0 (periodic at the border)
+					long rest = line;
+					for ( int d = 1; d < n; ++d )
+					{
+						final long p = rest % dims[ d ];
+						rest /= dims[ d ];
+						fwd[ d ] = p == dims[ d ] - 1 ? -(int) ( p * strides[ d ] ) : strides[ d ];
+						bck[ d ] = p == 0 ? (int) ( ( dims[ d ] - 1 ) * strides[ d ] ) : -strides[ d ];
+					}
+
+					for ( int x = 0; x < lineLength; ++x )
+					{
+						final int i = o + x;
+						final float v = data[ i ];
+
+						if ( v < min )
+							min = v;
+
+						// dimension 0
+						final int f = x == lineLength - 1 ? o : i + 1;
+						final int b = x == 0 ? o + lineLength - 1 : i - 1;
+						if ( v < data[ f ] || v < data[ b ] || ( heap.isFull() && v <= heap.minValue() ) )
+							continue;
+
+						boolean isMax = true;
+						for ( int d = 1; d < n && isMax; ++d )
+							isMax = v >= data[ i + fwd[ d ] ] && v >= data[ i + bck[ d ] ];
+
+						if ( isMax )
+							heap.add( v, i );
+					}
+				}
+
+				return new ValuePair<>( min, heap );
+			}));
+		}
+
+		float min = Float.MAX_VALUE;
+		final MaxHeap all = new MaxHeap( maxN );
+
+		for ( final Future< Pair< Float, MaxHeap > > f : futures )
+		{
+			try
+			{
+				final Pair< Float, MaxHeap > r = f.get();
+				min = Math.min( min, r.getA() );
+				for ( int j = 0; j < r.getB().size; ++j )
+					all.add( r.getB().values[ j ], r.getB().indices[ j ] );
+			}
+			catch ( InterruptedException | ExecutionException e )
+			{
+				// the maxima of the other tasks are not the maxima of the image
+				e.printStackTrace();
+				return null;
+			}
+		}
+
+		final ArrayList< Pair< Localizable, Double > > maxima = new ArrayList<>();
+		for ( final int j : all.sortedDescending() )
+		{
+			final long[] position = new long[ n ];
+			IntervalIndexer.indexToPosition( all.indices[ j ], dims, position );
+			maxima.add( new ValuePair<>( new Point( position ), (double) all.values[ j ] ) );
+		}
+
+		return new ValuePair<>( min, maxima );
+	}
+
+	/*
+	 * fixed-size min-heap keeping the highest values (and their flat indices)
+	 */
+	private static class MaxHeap
+	{
+		final float[] values;
+		final int[] indices;
+		int size = 0;
+
+		MaxHeap( final int capacity )
+		{
+			this.values = new float[ capacity ];
+			this.indices = new int[ capacity ];
+		}
+
+		boolean isFull() { return size == values.length; }
+
+		float minValue() { return values[ 0 ]; }
+
+		void add( final float v, final int index )
+		{
+			if ( values.length == 0 )
+				return;
+
+			if ( !isFull() )
+			{
+				// sift up
+				int i = size++;
+				while ( i > 0 && values[ ( i - 1 ) / 2 ] > v )
+				{
+					values[ i ] = values[ ( i - 1 ) / 2 ];
+					indices[ i ] = indices[ ( i - 1 ) / 2 ];
+					i = ( i - 1 ) / 2;
+				}
+				values[ i ] = v;
+				indices[ i ] = index;
+			}
+			else if ( v > values[ 0 ] )
+			{
+				// replace the smallest, sift down
+				int i = 0;
+				while ( true )
+				{
+					int c = 2 * i + 1;
+					if ( c >= size )
+						break;
+					if ( c + 1 < size && values[ c + 1 ] < values[ c ] )
+						++c;
+					if ( values[ c ] >= v )
+						break;
+					values[ i ] = values[ c ];
+					indices[ i ] = indices[ c ];
+					i = c;
+				}
+				values[ i ] = v;
+				indices[ i ] = index;
+			}
+		}
+
+		// heap positions sorted by descending value (ascending index for equal values)
+		List< Integer > sortedDescending()
+		{
+			final List< Integer > order = new ArrayList<>();
+			for ( int j = 0; j < size; ++j )
+				order.add( j );
+
+			order.sort( ( a, b ) -> values[ a ] != values[ b ] ? Float.compare( values[ b ], values[ a ] ) : Integer.compare( indices[ a ], indices[ b ] ) );
+			return order;
+		}
+	}
+
 	public static void main( String[] args )
 	{
 		int maxN = 3;
@@ -30,7 +30,7 @@ import java.util.concurrent.Executors;
 
 import ij.ImageJ;
 import net.imglib2.Dimensions;
-import net.imglib2.FinalInterval;
+import net.imglib2.Localizable;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.algorithm.fft2.FFT;
 import net.imglib2.algorithm.fft2.FFTMethods;
@@ -44,6 +44,7 @@ import net.imglib2.type.numeric.ComplexType;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.complex.ComplexFloatType;
 import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Pair;
 import net.imglib2.view.Views;
 import net.preibisch.stitcher.algorithm.PairwiseStitching;
 
@@ -163,23 +164,71 @@ public class PhaseCorrelation2 {
 		
 		// TODO: Extension absolute per dimension in pixels, i.e. int[] extension
 		// TODO: not bigger than the image dimension because the second mirroring is identical to the image
-		
+
+		long[] paddedDimensions = getPaddedDimensions(img1, img2, extension);
+
+		RandomAccessibleInterval<C> fft1 = calculateFFT(img1, extension, paddedDimensions, fftFactory, fftType, service);
+		RandomAccessibleInterval<C> fft2 = calculateFFT(img2, extension, paddedDimensions, fftFactory, fftType, service);
+
+		RandomAccessibleInterval<R> pcm = calculatePCMInPlace(fft1, fft2, factory, type, service);
+		return pcm;
+
+	}
+
+	/*
+	 * get the (fast) padded real size of the FFT input when calculating the PCM of two images
+	 * with the given extension
+	 * @param img1
+	 * @param img2
+	 * @param extension: number of blending pixels to add at each side in each dimension
+	 * @return
+	 */
+	public static long[] getPaddedDimensions(Dimensions img1, Dimensions img2, int[] extension)
+	{
 		Dimensions extSize = PhaseCorrelation2Util.getExtendedSize(img1, img2, extension);
 		long[] paddedDimensions = new long[extSize.numDimensions()];
 		long[] fftSize = new long[extSize.numDimensions()];
 		FFTMethods.dimensionsRealToComplexFast(extSize, paddedDimensions, fftSize);
-		
-		RandomAccessibleInterval<C> fft1 = fftFactory.create(fftSize, fftType);
-		RandomAccessibleInterval<C> fft2 = fftFactory.create(fftSize, fftType);
-		
-		FFT.realToComplex(Views.interval(PhaseCorrelation2Util.extendImageByFactor(img1, extension), 
-				FFTMethods.paddingIntervalCentered(img1, new FinalInterval(paddedDimensions))), fft1, service);
-		FFT.realToComplex(Views.interval(PhaseCorrelation2Util.extendImageByFactor(img2, extension), 
-				FFTMethods.paddingIntervalCentered(img2, new FinalInterval(paddedDimensions))), fft2, service);
-		
-		RandomAccessibleInterval<R> pcm = calculatePCMInPlace(fft1, fft2, factory, type, service);
-		return pcm;
-		
+		return paddedDimensions;
+	}
+
+	/*
+	 * calculate the FFT of a single image, extended by mirroring and blending and padded (centered) to paddedDimensions.
+	 * the result only depends on img, extension and paddedDimensions, so it can be re-used for every PCM
+	 * calculated with the same padded size
+	 * @param img
+	 * @param extension: number of blending pixels to add at each side in each dimension
+	 * @param paddedDimensions: padded size, see getPaddedDimensions()
+	 * @return
+	 */
+	public static <T extends RealType<T>, C extends ComplexType<C>> RandomAccessibleInterval<C> calculateFFT(
+			RandomAccessibleInterval<T> img, int[] extension, long[] paddedDimensions,
+			ImgFactory<C> fftFactory, C fftType, ExecutorService service)
+	{
+		// real-to-complex: the first dimension is halved
+		long[] fftSize = paddedDimensions.clone();
+		fftSize[0] = paddedDimensions[0] / 2 + 1;
+
+		RandomAccessibleInterval<C> fft = fftFactory.create(fftSize, fftType);
+
+		calculateFFT(img, extension, paddedDimensions, fft, service);
+
+		return fft;
+	}
+
+	/*
+	 * calculate the FFT of a single image (see above) into an existing image
+	 * @param img
+	 * @param extension: number of blending pixels to add at each side in each dimension
+	 * @param paddedDimensions: padded size, see getPaddedDimensions()
+	 * @param fft: output, size paddedDimensions with the first dimension halved (+1), will be overwritten
+	 */
+	public static <T extends RealType<T>, C extends ComplexType<C>> void calculateFFT(
+			RandomAccessibleInterval<T> img, int[] extension, long[] paddedDimensions,
+			RandomAccessibleInterval<C> fft, ExecutorService service)
+	{
+		// materialize the extended input once instead of reading the lazy blended mirror view pixel by pixel
+		FFT.realToComplex(PhaseCorrelation2Util.extendImageToPaddedFlat(img, extension, paddedDimensions, service), fft, service);
 	}
 
 	/*
@@ -215,11 +264,88 @@ public class PhaseCorrelation2 {
 	public static <T extends RealType<T>, S extends RealType<S>, R extends RealType<R>> PhaseCorrelationPeak2 getShift(
 			RandomAccessibleInterval<R> pcm, RandomAccessibleInterval<T> img1, RandomAccessibleInterval<S> img2, int nHighestPeaks,
 			long minOverlap, boolean subpixelAccuracy, boolean interpolateSubpixel, ExecutorService service)
+	{
+		return getShift(pcm, img1, img2, nHighestPeaks, minOverlap, subpixelAccuracy, interpolateSubpixel, -1, service);
+	}
+
+	/**
+	 * calculate the shift between two images from the phase correlation matrix,
+	 * only considering shifts up to maxShift in every dimension
+	 * @param pcm the phase correlation matrix of img1 and img2
+	 * @param img1 source image 1
+	 * @param img2 source image 2
+	 * @param nHighestPeaks the number of peaks in pcm to check via cross. corr.
+	 * @param minOverlap minimal overlap (in pixels)
+	 * @param subpixelAccuracy whether to do subpixel shift peak localization or not
+	 * @param interpolateSubpixel whether to interpolate the subpixel shift in cross. corr.
+	 * @param maxShift maximal absolute shift in every dimension, negative for no limit
+	 * @param service thread pool
+	 * @param <R> PCM pixel type
+	 * @param <T> image 1 pixel type
+	 * @param <S> image 2 pixel type
+	 * @return best (highest c.c.) shift peak or null if there is none within maxShift
+	 */
+	public static <T extends RealType<T>, S extends RealType<S>, R extends RealType<R>> PhaseCorrelationPeak2 getShift(
+			RandomAccessibleInterval<R> pcm, RandomAccessibleInterval<T> img1, RandomAccessibleInterval<S> img2, int nHighestPeaks,
+			long minOverlap, boolean subpixelAccuracy, boolean interpolateSubpixel, long maxShift, ExecutorService service)
+	{
+		return getShift(pcm, null, img1, img2, nHighestPeaks, minOverlap, subpixelAccuracy, interpolateSubpixel, maxShift, service);
+	}
+
+	/**
+	 * calculate the shift between two images from the phase correlation matrix and its already detected local maxima
+	 * (e.g. from PairwiseStitching.normalizePCMAndFindMaxima()), only considering shifts up to maxShift in every dimension
+	 * @param pcm the phase correlation matrix of img1 and img2
+	 * @param maxima the nHighestPeaks highest local maxima of pcm, null to detect them here
+	 * @param img1 source image 1
+	 * @param img2 source image 2
+	 * @param nHighestPeaks the number of peaks in pcm to check via cross. corr.
+	 * @param minOverlap minimal overlap (in pixels)
+	 * @param subpixelAccuracy whether to do subpixel shift peak localization or not
+	 * @param interpolateSubpixel whether to interpolate the subpixel shift in cross. corr.
+	 * @param maxShift maximal absolute shift in every dimension, negative for no limit
+	 * @param service thread pool
+	 * @param <R> PCM pixel type
+	 * @param <T> image 1 pixel type
+	 * @param <S> image 2 pixel type
+	 * @return best (highest c.c.) shift peak or null if there is none within maxShift
+	 */
+	public static <T extends RealType<T>, S extends RealType<S>, R extends RealType<R>> PhaseCorrelationPeak2 getShift(
+			RandomAccessibleInterval<R> pcm, List<Pair<Localizable, Double>> maxima, RandomAccessibleInterval<T> img1, RandomAccessibleInterval<S> img2,
+			int nHighestPeaks, long minOverlap, boolean subpixelAccuracy, boolean interpolateSubpixel, long maxShift, ExecutorService service)
+	{
+		return getShift(pcm, maxima, img1, img2, nHighestPeaks, minOverlap, subpixelAccuracy, interpolateSubpixel, maxShift, null, service);
+	}
+
+	/**
+	 * calculate the shift between two images from the phase correlation matrix and its already detected local maxima
+	 * (e.g. from PairwiseStitching.normalizePCMAndFindMaxima()), only considering shifts up to maxShift in every dimension
+	 * @param pcm the phase correlation matrix of img1 and img2
+	 * @param maxima the nHighestPeaks highest local maxima of pcm, null to detect them here
+	 * @param img1 source image 1
+	 * @param img2 source image 2
+	 * @param nHighestPeaks the number of peaks in pcm to check via cross. corr.
+	 * @param minOverlap minimal overlap (in pixels)
+	 * @param subpixelAccuracy whether to do subpixel shift peak localization or not
+	 * @param interpolateSubpixel whether to interpolate the subpixel shift in cross. corr.
+	 * @param maxShift maximal absolute shift in every dimension, negative for no limit
+	 * @param engine re-uses its buffers for the cross correlation, may be null
+	 * @param service thread pool
+	 * @param <R> PCM pixel type
+	 * @param <T> image 1 pixel type
+	 * @param <S> image 2 pixel type
+	 * @return best (highest c.c.) shift peak or null if there is none within maxShift
+	 */
+	public static <T extends RealType<T>, S extends RealType<S>, R extends RealType<R>> PhaseCorrelationPeak2 getShift(
+			RandomAccessibleInterval<R> pcm, List<Pair<Localizable, Double>> maxima, RandomAccessibleInterval<T> img1, RandomAccessibleInterval<S> img2,
+			int nHighestPeaks, long minOverlap, boolean subpixelAccuracy, boolean interpolateSubpixel, long maxShift, PhaseCorrelationEngine engine, ExecutorService service)
 	{
 		if ( PairwiseStitching.debug )
 			System.out.println( "PCM" );
 
-		List<PhaseCorrelationPeak2> peaks = PhaseCorrelation2Util.getPCMMaxima(pcm, service, nHighestPeaks, subpixelAccuracy);
+		List<PhaseCorrelationPeak2> peaks = maxima == null ?
+				PhaseCorrelation2Util.getPCMMaxima(pcm, service, nHighestPeaks, subpixelAccuracy) :
+				PhaseCorrelation2Util.getPCMMaxima(pcm, maxima, subpixelAccuracy);
 		//peaks = PhaseCorrelation2Util.getHighestPCMMaxima(peaks, nHighestPeaks);
 
 		if ( PairwiseStitching.debug )
@@ -227,12 +353,25 @@ public class PhaseCorrelation2 {
 
 		PhaseCorrelation2Util.expandPeakListToPossibleShifts(peaks, pcm, img1, img2);
 
+		// only look at shifts close to the expected one
+		if (maxShift >= 0)
+			peaks.removeIf( p -> {
+				for (int d = 0; d < p.getShift().numDimensions(); d++)
+					if (Math.abs( p.getShift().getLongPosition( d ) ) > maxShift)
+						return true;
+				return false;
+			});
+
 		if ( PairwiseStitching.debug )
 			System.out.print( "cross " );
 
 		long t = System.currentTimeMillis();
 
-		PhaseCorrelation2Util.calculateCrossCorrParallel(peaks, img1, img2, minOverlap, service, interpolateSubpixel);
+		// the flat kernel does not support interpolated subpixel shifts
+		if (interpolateSubpixel)
+			PhaseCorrelation2Util.calculateCrossCorrParallel(peaks, img1, img2, minOverlap, service, interpolateSubpixel);
+		else
+			PhaseCorrelation2Util.calculateCrossCorrFlat(peaks, img1, img2, minOverlap, engine, service);
 
 		if ( PairwiseStitching.debug )
 		{
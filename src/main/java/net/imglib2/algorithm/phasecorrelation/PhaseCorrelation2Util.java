@@ -23,6 +23,7 @@ package net.imglib2.algorithm.phasecorrelation;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Vector;
@@ -44,7 +45,9 @@ import net.imglib2.RandomAccess;
 import net.imglib2.RandomAccessible;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.RealPoint;
+import net.imglib2.algorithm.fft2.FFTMethods;
 import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
 import net.imglib2.img.array.ArrayImgFactory;
 import net.imglib2.realtransform.AffineTransform3D;
 import net.imglib2.realtransform.Translation3D;
@@ -52,6 +55,7 @@ import net.imglib2.type.numeric.ComplexType;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.real.FloatType;
 import net.imglib2.util.BenchmarkHelper;
+import net.imglib2.util.Intervals;
 import net.imglib2.util.Pair;
 import net.imglib2.util.Util;
 import net.imglib2.util.ValuePair;
@@ -60,6 +64,7 @@ import net.preibisch.mvrecon.process.fusion.FusionTools;
 import net.preibisch.mvrecon.process.fusion.ImagePortion;
 import net.preibisch.stitcher.algorithm.PairwiseStitching;
 import net.preibisch.stitcher.algorithm.PairwiseStitchingParameters;
+import net.preibisch.stitcher.algorithm.fastfusion.BlendingProfiles;
 
 
 
@@ -190,6 +195,140 @@ public class PhaseCorrelation2Util {
 		return new BlendedExtendedMirroredRandomAccesible2<T>(img, extEachSide);
 	}
 
+	/*
+	 * materialize the mirrored, blended extension of img (see extendImageByFactor) over the centered padding
+	 * interval of size paddedDimensions (see FFTMethods.paddingIntervalCentered()), i.e. exactly the input
+	 * the FFT of img sees, but written line by line into a flat array instead of being read lazily
+	 * @param img
+	 * @param extension: number of blending pixels to add at each side in each dimension
+	 * @param paddedDimensions: padded size, see PhaseCorrelation2.getPaddedDimensions()
+	 * @param service
+	 * @return zero-min image of size paddedDimensions
+	 */
+	public static <T extends RealType<T>> Img<FloatType> extendImageToPaddedFlat(
+			final RandomAccessibleInterval<T> img, final int[] extension, final long[] paddedDimensions, final ExecutorService service)
+	{
+		return extendImageToPaddedFlat( img, extension, paddedDimensions, null, null, service );
+	}
+
+	/*
+	 * same as above, but written into existing arrays (e.g. buffers of a PhaseCorrelationEngine), their old content is overwritten
+	 * @param img
+	 * @param extension: number of blending pixels to add at each side in each dimension
+	 * @param paddedDimensions: padded size, see PhaseCorrelation2.getPaddedDimensions()
+	 * @param sourceBuffer: for the copy of img, at least its size (allocated if null)
+	 * @param targetBuffer: backs the result, at least paddedDimensions in size (allocated if null)
+	 * @param service
+	 * @return zero-min image of size paddedDimensions, backed by targetBuffer
+	 */
+	public static <T extends RealType<T>> Img<FloatType> extendImageToPaddedFlat(
+			final RandomAccessibleInterval<T> img, final int[] extension, final long[] paddedDimensions,
+			final float[] sourceBuffer, final float[] targetBuffer, final ExecutorService service)
+	{
+		final int n = img.numDimensions();
+		final Interval padding = FFTMethods.paddingIntervalCentered( img, new FinalInterval( paddedDimensions ) );
+
+		final float[] source = sourceBuffer != null ? sourceBuffer : new float[ (int) Intervals.numElements( img ) ];
+		copyToFlatArray( img, source, service );
+
+		// per dimension: index into img (mirrored) and blending weight of every position of the padding interval
+		final int[][] sourceIndex = new int[ n ][];
+		final float[][] weight = new float[ n ][];
+		long stride = 1;
+		for ( int d = 0; d < n; ++d )
+		{
+			final int size = (int) img.dimension( d );
+			final int ext = Math.min( size, extension[ d ] );
+			final int padded = (int) paddedDimensions[ d ];
+
+			// same blending as BlendedExtendedMirroredRandomAccesible2
+			final float[] profile = BlendingProfiles.getProfile( size + 2 * ext, 0, 0, ext );
+
+			sourceIndex[ d ] = new int[ padded ];
+			weight[ d ] = new float[ padded ];
+			for ( int i = 0; i < padded; ++i )
+			{
+				// position relative to img.min()
+				final long x = padding.min( d ) + i - img.min( d );
+				final long p = x + ext;
+
+				sourceIndex[ d ][ i ] = (int) ( mirrorSingle( x, size ) * stride );
+				weight[ d ][ i ] = p < 0 || p >= profile.length ? 0 : profile[ (int) p ];
+			}
+			stride *= size;
+		}
+
+		final int numElements = (int) Intervals.numElements( paddedDimensions );
+		final float[] target = targetBuffer != null ? targetBuffer : new float[ numElements ];
+		final int lineLength = (int) paddedDimensions[ 0 ];
+		final long numLines = numElements / lineLength;
+
+		final ArrayList<Future<?>> futures = new ArrayList<>();
+		for ( final ImagePortion ip : FusionTools.divideIntoPortions( numLines ) )
+		{
+			futures.add( service.submit( () ->
+			{
+				final long end = ip.getStartPosition() + ip.getLoopSize();
+				for ( long line = ip.getStartPosition(); line < end; ++line )
+				{
+					int base = 0;
+					float w = 1;
+					long rest = line;
+					for ( int d = 1; d < n; ++d )
+					{
+						final int i = (int) ( rest % paddedDimensions[ d ] );
+						rest /= paddedDimensions[ d ];
+						base += sourceIndex[ d ][ i ];
+						w *= weight[ d ][ i ];
+					}
+
+					final int o = (int) line * lineLength;
+					if ( w == 0 )
+					{
+						// the target may be a re-used buffer
+						Arrays.fill( target, o, o + lineLength, 0 );
+						continue;
+					}
+
+					final int[] index0 = sourceIndex[ 0 ];
+					final float[] weight0 = weight[ 0 ];
+					for ( int x = 0; x < lineLength; ++x )
+						target[ o + x ] = source[ base + index0[ x ] ] * weight0[ x ] * w;
+				}
+			}));
+		}
+
+		for ( final Future<?> f : futures )
+		{
+			try
+			{
+				f.get();
+			}
+			catch ( InterruptedException | ExecutionException e )
+			{
+				throw new RuntimeException( "Failed to extend image: " + e );
+			}
+		}
+
+		return ArrayImgs.floats( target, paddedDimensions );
+	}
+
+	/*
+	 * mirror a position into [0, size) without repeating the border pixel (like Views.extendMirrorSingle())
+	 */
+	private static long mirrorSingle( final long x, final long size )
+	{
+		if ( size == 1 )
+			return 0;
+
+		final long period = 2 * size - 2;
+		long p = x % period;
+		if ( p < 0 )
+			p += period;
+
+		return p < size ? p : period - p;
+	}
+
 
 	public static <T extends RealType<T>, S extends RealType<S>> void calculateCrossCorrParallel(
 			List<PhaseCorrelationPeak2> peaks, final RandomAccessibleInterval<T> img1, final RandomAccessibleInterval<S> img2,
@@ -235,6 +374,238 @@ public class PhaseCorrelation2Util {
 		}
 	}
 	
+	/*
+	 * calculate the crosscorrelation of img1 and img2 for all shifts represented by a PhasecorrelationPeak List,
+	 * same as calculateCrossCorrParallel() without subpixel interpolation, but the images are copied to flat
+	 * float arrays once and the correlation for each peak is computed in a single pass over those arrays,
+	 * with the overlap of each peak split across the threads of service
+	 * @param peaks
+	 * @param img1
+	 * @param img2
+	 * @param minOverlapPx minimal number of overlapping pixels
+	 * @param service
+	 */
+	public static <T extends RealType<T>, S extends RealType<S>> void calculateCrossCorrFlat(
+			List<PhaseCorrelationPeak2> peaks, final RandomAccessibleInterval<T> img1, final RandomAccessibleInterval<S> img2,
+			final long minOverlapPx, ExecutorService service)
+	{
+		calculateCrossCorrFlat( peaks, img1, img2, minOverlapPx, null, service );
+	}
+
+	/*
+	 * same as calculateCrossCorrFlat() above, copying the images into the flat arrays of engine
+	 * (re-used by the next pairs of the same thread) instead of new ones
+	 * @param peaks
+	 * @param img1
+	 * @param img2
+	 * @param minOverlapPx minimal number of overlapping pixels
+	 * @param engine - owner of the flat arrays, may be null to allocate them for this call
+	 * @param service
+	 */
+	public static <T extends RealType<T>, S extends RealType<S>> void calculateCrossCorrFlat(
+			List<PhaseCorrelationPeak2> peaks, final RandomAccessibleInterval<T> img1, final RandomAccessibleInterval<S> img2,
+			final long minOverlapPx, final PhaseCorrelationEngine engine, ExecutorService service)
+	{
+		final long size1 = Views.iterable( img1 ).size();
+		final long size2 = Views.iterable( img2 ).size();
+
+		// flat arrays are limited to int indices
+		if ( size1 > Integer.MAX_VALUE || size2 > Integer.MAX_VALUE )
+		{
+			calculateCrossCorrParallel( peaks, img1, img2, minOverlapPx, service, false );
+			return;
+		}
+
+		final float[] data1 = engine == null ? new float[ (int) size1 ] : engine.getFlatBuffer( 0, (int) size1 );
+		final float[] data2 = engine == null ? new float[ (int) size2 ] : engine.getFlatBuffer( 1, (int) size2 );
+
+		// the means of the whole images, subtracted before summing up to avoid cancellation in the single-pass variance
+		final double offset1 = copyToFlatArray( Views.zeroMin( img1 ), data1, service ) / size1;
+		final double offset2 = copyToFlatArray( Views.zeroMin( img2 ), data2, service ) / size2;
+
+		final long[] dims1 = new long[ img1.numDimensions() ];
+		final long[] dims2 = new long[ img2.numDimensions() ];
+		img1.dimensions( dims1 );
+		img2.dimensions( dims2 );
+
+		for ( final PhaseCorrelationPeak2 p : peaks )
+		{
+			final Pair<Interval, Interval> intervals = getOverlapIntervals( img1, img2, p.getShift() );
+
+			// no overlap found
+			if ( intervals == null )
+			{
+				p.setCrossCorr( Double.NEGATIVE_INFINITY );
+				p.setnPixel( 0 );
+				continue;
+			}
+
+			final long nPixel = Views.iterable( Views.interval( img1, intervals.getA() ) ).size();
+
+			if ( nPixel < minOverlapPx )
+			{
+				p.setCrossCorr( Double.NEGATIVE_INFINITY );
+				p.setnPixel( 0 );
+				continue;
+			}
+
+			p.setnPixel( nPixel );
+			p.setCrossCorr( getCorrelationFlat( data1, dims1, offset1, data2, dims2, offset2, intervals.getA(), intervals.getB(), service ) );
+		}
+	}
+
+	/*
+	 * copy an image to a flat float array (in flat iteration order)
+	 * @param img
+	 * @param data - array of at least the size of img, the remainder is not touched
+	 * @param service
+	 * @return the sum of all pixels
+	 */
+	public static <T extends RealType<T>> double copyToFlatArray( final RandomAccessibleInterval<T> img, final float[] data, final ExecutorService service )
+	{
+		final Vector<ImagePortion> portions = FusionTools.divideIntoPortions( Views.iterable( img ).size() );
+		final ArrayList<Future<Double>> futures = new ArrayList<>();
+
+		for ( final ImagePortion ip : portions )
+		{
+			futures.add( service.submit( () ->
+			{
+				final Cursor<T> c = Views.flatIterable( img ).cursor();
+				c.jumpFwd( ip.getStartPosition() );
+
+				final int start = (int) ip.getStartPosition();
+				final int end = start + (int) ip.getLoopSize();
+
+				double sum = 0;
+				for ( int i = start; i < end; ++i )
+				{
+					final float v = c.next().getRealFloat();
+					data[ i ] = v;
+					sum += v;
+				}
+				return sum;
+			}));
+		}
+
+		double sum = 0;
+		for ( final Future<Double> f : futures )
+		{
+			try
+			{
+				sum += f.get();
+			}
+			catch ( InterruptedException | ExecutionException e )
+			{
+				throw new RuntimeException( "Failed to copy image: " + e );
+			}
+		}
+		return sum;
+	}
+
+	/*
+	 * get pixel-value correlation of the overlap intervals of two images stored in flat arrays,
+	 * computing sums, sums of squares and cross products in one pass
+	 * @param data1 - flat array of image 1
+	 * @param dims1 - dimensions of image 1
+	 * @param offset1 - value to subtract from image 1 (e.g. the mean) for numerical stability
+	 * @param data2 - flat array of image 2
+	 * @param dims2 - dimensions of image 2
+	 * @param offset2 - value to subtract from image 2
+	 * @param interval1 - overlap in image 1
+	 * @param interval2 - overlap in image 2, same size as interval1
+	 * @param service
+	 * @return
+	 */
+	public static double getCorrelationFlat(
+			final float[] data1, final long[] dims1, final double offset1,
+			final float[] data2, final long[] dims2, final double offset2,
+			final Interval interval1, final Interval interval2, final ExecutorService service )
+	{
+		final int n = interval1.numDimensions();
+		final int lineLength = (int) interval1.dimension( 0 );
+
+		long numLines = 1;
+		for ( int d = 1; d < n; ++d )
+			numLines *= interval1.dimension( d );
+
+		final Vector<ImagePortion> portions = FusionTools.divideIntoPortions( numLines );
+		final ArrayList<Future<double[]>> futures = new ArrayList<>();
+
+		for ( final ImagePortion ip : portions )
+		{
+			futures.add( service.submit( () ->
+			{
+				final double[] sums = new double[ 5 ];
+				final long[] pos = new long[ n ];
+
+				for ( long l = ip.getStartPosition(); l < ip.getStartPosition() + ip.getLoopSize(); ++l )
+				{
+					// position of the line within the overlap
+					long rest = l;
+					for ( int d = 1; d < n; ++d )
+					{
+						pos[ d ] = rest % interval1.dimension( d );
+						rest /= interval1.dimension( d );
+					}
+
+					long i1 = 0, i2 = 0, stride1 = 1, stride2 = 1;
+					for ( int d = 0; d < n; ++d )
+					{
+						i1 += ( interval1.min( d ) + pos[ d ] ) * stride1;
+						i2 += ( interval2.min( d ) + pos[ d ] ) * stride2;
+						stride1 *= dims1[ d ];
+						stride2 *= dims2[ d ];
+					}
+
+					double s1 = 0, s2 = 0, s11 = 0, s22 = 0, s12 = 0;
+					for ( int x = 0; x < lineLength; ++x )
+					{
+						final double a = data1[ (int) i1 + x ] - offset1;
+						final double b = data2[ (int) i2 + x ] - offset2;
+						s1 += a;
+						s2 += b;
+						s11 += a * a;
+						s22 += b * b;
+						s12 += a * b;
+					}
+
+					sums[ 0 ] += s1;
+					sums[ 1 ] += s2;
+					sums[ 2 ] += s11;
+					sums[ 3 ] += s22;
+					sums[ 4 ] += s12;
+				}
+				return sums;
+			}));
+		}
+
+		final double[] sums = new double[ 5 ];
+		for ( final Future<double[]> f : futures )
+		{
+			try
+			{
+				final double[] s = f.get();
+				for ( int i = 0; i < 5; ++i )
+					sums[ i ] += s[ i ];
+			}
+			catch ( InterruptedException | ExecutionException e )
+			{
+				throw new RuntimeException( "Failed to compute correlation: " + e );
+			}
+		}
+
+		final double nPixel = (double) lineLength * numLines;
+		final double sum11 = sums[ 2 ] - sums[ 0 ] * sums[ 0 ] / nPixel;
+		final double sum22 = sums[ 3 ] - sums[ 1 ] * sums[ 1 ] / nPixel;
+		final double sum12 = sums[ 4 ] - sums[ 0 ] * sums[ 1 ] / nPixel;
+
+		// all pixels had the same color (see getCorrelation())
+		if ( sum11 <= 0 || sum22 <= 0 )
+			return 0;
+
+		return sum12 / Math.sqrt( sum11 * sum22 );
+	}
+
 	/*
 	 * find local maxima in PCM
 	 * @param pcm
@@ -249,8 +620,20 @@ public class PhaseCorrelation2Util {
 		ArrayList<Pair<Localizable, Double>> maxima = FourNeighborhoodExtrema.findMaxMT(Views.extendPeriodic(pcm), pcm, maxN, service);
 		//ArrayList<Pair<Localizable, Double>> maxima = FourNeighborhoodExtrema.findMax(Views.extendPeriodic(pcm), pcm, maxN);
 		
-		
-				
+		return getPCMMaxima(pcm, maxima, subpixelAccuracy);
+	}
+
+	/*
+	 * create PCM peaks from already detected local maxima in PCM (e.g. from FourNeighborhoodExtrema.findMinAndMaxFlat())
+	 * @param pcm
+	 * @param maxima
+	 * @param subpixelAccuracy
+	 * @return
+	 */
+	public static <T extends RealType<T>> List<PhaseCorrelationPeak2> getPCMMaxima(RandomAccessibleInterval<T> pcm, List<Pair<Localizable, Double>> maxima, boolean subpixelAccuracy){
+
+		List<PhaseCorrelationPeak2> res = new ArrayList<PhaseCorrelationPeak2>();
+
 		for (Pair<Localizable, Double> p: maxima){
 			PhaseCorrelationPeak2 pcp = new PhaseCorrelationPeak2(p.getA(), p.getB());
 			if (subpixelAccuracy)
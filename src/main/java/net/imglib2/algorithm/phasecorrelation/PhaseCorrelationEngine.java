@@ -0,0 +1,271 @@
+/*-
+ * #%L
+ * Multiview stitching of large datasets.
+ * %%
+ * Copyright (C) 2016 - 2024 Big Stitcher developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.imglib2.algorithm.phasecorrelation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.algorithm.fft2.FFT;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.complex.ComplexFloatType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+
+/**
+ * Calculates phase correlation matrices re-using the complex and real buffers between calls
+ * instead of allocating new images for every pair.
+ * 
+ * Buffers are kept per thread and per padded size (the sizes FFTMethods.dimensionsRealToComplexFast returns),
+ * for the last few sizes used by each thread. The PCM returned is one of these buffers, i.e. it is
+ * only valid until the next call of the same thread with the same padded size, it also holds the padded
+ * FFT input before. Additionally, every thread keeps flat arrays for copies of the (unpadded) images,
+ * which grow to the largest image it has seen.
+ * Call {@link #clear()} once a run is done, so the buffers of (pooled) threads do not stay alive.
+ */
+public class PhaseCorrelationEngine
+{
+	// neighbors in x, y and z usually have different overlap shapes
+	public static int defaultMaxSizesPerThread = 3;
+
+	private final int maxSizesPerThread;
+	private final ThreadLocal< ThreadBuffers > buffers;
+
+	// the buffers of all threads, so they can be released from any thread
+	private final List< ThreadBuffers > allBuffers = new ArrayList<>();
+
+	/**
+	 * @param maxSizesPerThread how many different padded sizes each thread keeps buffers for
+	 */
+	public PhaseCorrelationEngine( final int maxSizesPerThread )
+	{
+		this.maxSizesPerThread = maxSizesPerThread;
+		this.buffers = ThreadLocal.withInitial( () -> new ThreadBuffers() );
+	}
+
+	public PhaseCorrelationEngine()
+	{
+		this( defaultMaxSizesPerThread );
+	}
+
+	/**
+	 * release the buffers of all threads (PCMs returned earlier stay valid for their callers)
+	 */
+	public void clear()
+	{
+		synchronized ( allBuffers )
+		{
+			for ( final ThreadBuffers threadBuffers : allBuffers )
+			{
+				synchronized ( threadBuffers )
+				{
+					threadBuffers.clear();
+					threadBuffers.flat = new float[ 2 ][];
+					threadBuffers.registered = false;
+				}
+			}
+
+			allBuffers.clear();
+		}
+	}
+
+	/*
+	 * calculate the phase correlation matrix of two images (same as PhaseCorrelation2.calculatePCM( img1, img2, extension, ... ))
+	 * @param img1
+	 * @param img2
+	 * @param extension: number of blending pixels to add at each side in each dimension
+	 * @return the PCM, valid until the next call of this thread with the same padded size
+	 */
+	public < T extends RealType< T >, S extends RealType< S > > RandomAccessibleInterval< FloatType > calculatePCM(
+			final RandomAccessibleInterval< T > img1, final RandomAccessibleInterval< S > img2, final int[] extension,
+			final ExecutorService service )
+	{
+		final long[] paddedDimensions = PhaseCorrelation2.getPaddedDimensions( img1, img2, extension );
+		final Buffers b = getBuffers( paddedDimensions );
+
+		calculateFFT( img1, extension, paddedDimensions, b, b.fft1, service );
+		calculateFFT( img2, extension, paddedDimensions, b, b.fft2, service );
+
+		// the ffts are our buffers, so they can be altered
+		PhaseCorrelation2.calculatePCMInPlace( b.fft1, b.fft2, b.pcm, service );
+
+		return b.pcm;
+	}
+
+	/*
+	 * same as PhaseCorrelation2.calculateFFT(), the padded input is written into the PCM buffer
+	 * (it is only computed after both FFTs) and the copy of img into a flat buffer of the thread
+	 */
+	private < T extends RealType< T > > void calculateFFT(
+			final RandomAccessibleInterval< T > img, final int[] extension, final long[] paddedDimensions,
+			final Buffers b, final RandomAccessibleInterval< ComplexFloatType > fft, final ExecutorService service )
+	{
+		final float[] source = getFlatBuffer( 0, (int) Intervals.numElements( img ) );
+		final float[] target = b.pcm.update( null ).getCurrentStorageArray();
+
+		FFT.realToComplex( PhaseCorrelation2Util.extendImageToPaddedFlat( img, extension, paddedDimensions, source, target, service ), fft, service );
+	}
+
+	/*
+	 * calculate the phase correlation matrix of two FFTs (e.g. from PhaseCorrelation2.calculateFFT()),
+	 * the FFTs are not altered
+	 * @param fft1
+	 * @param fft2
+	 * @param paddedDimensions: the real size the FFTs were computed from
+	 * @return the PCM, valid until the next call of this thread with the same padded size
+	 */
+	public RandomAccessibleInterval< FloatType > calculatePCM(
+			final RandomAccessibleInterval< ComplexFloatType > fft1, final RandomAccessibleInterval< ComplexFloatType > fft2, final long[] paddedDimensions,
+			final ExecutorService service )
+	{
+		final Buffers b = getBuffers( paddedDimensions );
+
+		PhaseCorrelation2.calculatePCM( fft1, b.fft1, fft2, b.fft2, b.pcm, service );
+
+		return b.pcm;
+	}
+
+	/*
+	 * get a flat array of the calling thread, e.g. for copying an image in PhaseCorrelation2Util.calculateCrossCorrFlat()
+	 * @param index: which of the two arrays of the thread (0 or 1)
+	 * @param minLength: minimal length, the array may be longer
+	 * @return the array, valid until the next call of this thread with the same index
+	 */
+	float[] getFlatBuffer( final int index, final int minLength )
+	{
+		final ThreadBuffers threadBuffers = getThreadBuffers();
+
+		synchronized ( threadBuffers )
+		{
+			if ( threadBuffers.flat[ index ] == null || threadBuffers.flat[ index ].length < minLength )
+				threadBuffers.flat[ index ] = new float[ minLength ];
+
+			return threadBuffers.flat[ index ];
+		}
+	}
+
+	private ThreadBuffers getThreadBuffers()
+	{
+		final ThreadBuffers threadBuffers = buffers.get();
+
+		synchronized ( allBuffers )
+		{
+			if ( !threadBuffers.registered )
+			{
+				allBuffers.add( threadBuffers );
+				threadBuffers.registered = true;
+			}
+		}
+
+		return threadBuffers;
+	}
+
+	private Buffers getBuffers( final long[] paddedDimensions )
+	{
+		final ThreadBuffers threadBuffers = getThreadBuffers();
+		final PaddedSize key = new PaddedSize( paddedDimensions );
+
+		synchronized ( threadBuffers )
+		{
+			Buffers b = threadBuffers.get( key );
+
+			if ( b == null )
+			{
+				b = new Buffers( paddedDimensions );
+				threadBuffers.put( key, b );
+			}
+
+			return b;
+		}
+	}
+
+	/*
+	 * the buffers of one thread, least recently used sizes are dropped first
+	 */
+	private class ThreadBuffers extends LinkedHashMap< PaddedSize, Buffers >
+	{
+		private static final long serialVersionUID = 1L;
+
+		boolean registered = false;
+
+		// copies of the images for the cross correlation (not per padded size)
+		float[][] flat = new float[ 2 ][];
+
+		ThreadBuffers()
+		{
+			super( 16, 0.75f, true );
+		}
+
+		@Override
+		protected boolean removeEldestEntry( final Map.Entry< PaddedSize, Buffers > eldest )
+		{
+			return size() > maxSizesPerThread;
+		}
+	}
+
+	private static class Buffers
+	{
+		final ArrayImg< ComplexFloatType, FloatArray > fft1;
+		final ArrayImg< ComplexFloatType, FloatArray > fft2;
+		final ArrayImg< FloatType, FloatArray > pcm;
+
+		Buffers( final long[] paddedDimensions )
+		{
+			// real-to-complex: the first dimension is halved
+			final long[] fftSize = paddedDimensions.clone();
+			fftSize[ 0 ] = paddedDimensions[ 0 ] / 2 + 1;
+
+			this.fft1 = ArrayImgs.complexFloats( fftSize );
+			this.fft2 = ArrayImgs.complexFloats( fftSize );
+			this.pcm = ArrayImgs.floats( paddedDimensions );
+		}
+	}
+
+	private static class PaddedSize
+	{
+		final long[] dimensions;
+
+		PaddedSize( final long[] dimensions )
+		{
+			this.dimensions = dimensions.clone();
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return Arrays.hashCode( dimensions );
+		}
+
+		@Override
+		public boolean equals( final Object obj )
+		{
+			return obj instanceof PaddedSize && Arrays.equals( dimensions, ( (PaddedSize) obj ).dimensions );
+		}
+	}
+}
@@ -22,12 +22,16 @@
 package net.preibisch.stitcher.algorithm;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.stream.IntStream;
 
 import mpicbg.spim.data.sequence.ViewId;
 import net.imglib2.RealPoint;
@@ -112,11 +116,92 @@ public class FilteredStitchingResults
 		}
 	}
 
+	/**
+	 * indices of links sorted by a (per-link) value, for range queries
+	 */
+	private static class SortedIndex
+	{
+		final int[] order;
+		final double[] sortedValues;
+
+		SortedIndex( final double[] values )
+		{
+			// NaN sorts as +infinity, so that NaN values are part of every range that is open towards +infinity
+			final double[] keys = new double[ values.length ];
+			for ( int i = 0; i < values.length; ++i )
+				keys[ i ] = Double.isNaN( values[ i ] ) ? Double.POSITIVE_INFINITY : values[ i ];
+
+			this.order = IntStream.range( 0, values.length ).boxed().sorted( (a, b) -> Double.compare( keys[ a ], keys[ b ] ) ).mapToInt( i -> i ).toArray();
+			this.sortedValues = new double[ values.length ];
+			for ( int i = 0; i < values.length; ++i )
+				sortedValues[ i ] = keys[ order[ i ] ];
+		}
+
+		/**
+		 * mark all links with min &lt;= value &lt;= max
+		 */
+		void query( final double min, final double max, final BitSet result )
+		{
+			if ( !( min <= max ) )
+				return;
+
+			for ( int i = lowerBound( min ); i < sortedValues.length && sortedValues[ i ] <= max; ++i )
+				result.set( order[ i ] );
+		}
+
+		// first position with a value &gt;= min
+		int lowerBound( final double min )
+		{
+			int lo = 0, hi = sortedValues.length;
+
+			while ( lo < hi )
+			{
+				final int mid = ( lo + hi ) >>> 1;
+				if ( sortedValues[ mid ] < min )
+					lo = mid + 1;
+				else
+					hi = mid;
+			}
+
+			return lo;
+		}
+	}
+
+	// all instances by the results they wrap, so code changing results can invalidate their indices
+	private static final Map< StitchingResults, Set< FilteredStitchingResults > > instances = new WeakHashMap<>();
+
+	/**
+	 * call after pairwise results were added, replaced or removed, so that all filtered views of them re-index
+	 * @param results the changed results
+	 */
+	public static void resultsChanged( final StitchingResults results )
+	{
+		final List< FilteredStitchingResults > toInvalidate;
+
+		synchronized ( instances )
+		{
+			final Set< FilteredStitchingResults > filtered = instances.get( results );
+			if ( filtered == null )
+				return;
+			toInvalidate = new ArrayList<>( filtered );
+		}
+
+		toInvalidate.forEach( FilteredStitchingResults::invalidateIndex );
+	}
+
 	private Map< Pair< Group< ViewId >, Group< ViewId > >, PairwiseStitchingResult< ViewId > > filteredPairwiseResults;
 	private DemoLinkOverlay demoOverlay; // can be null
 	private StitchingResults wrapped;
 	private List<Filter> filters;
 
+	// index of the wrapped results, so that changing a filter only needs to re-check the links crossing the thresholds
+	private volatile int indexedSize = -1;
+	private List< Pair< Group< ViewId >, Group< ViewId > > > keys;
+	private List< PairwiseStitchingResult< ViewId > > values;
+	private SortedIndex byR, byMagnitude;
+	private SortedIndex[] byAbsShift;
+	private int[] numRejections; // how many filters reject each link
+
 	public FilteredStitchingResults(StitchingResults wrapped )
 	{
 		this( wrapped, null );
@@ -129,62 +214,255 @@ public class FilteredStitchingResults
 		filteredPairwiseResults = new HashMap<>();
 		filters = new ArrayList<>();
 		updateFilteredResults();
+
+		synchronized ( instances )
+		{
+			instances.computeIfAbsent( wrapped, k -> Collections.newSetFromMap( new WeakHashMap<>() ) ).add( this );
+		}
 	}
 
+	/**
+	 * (re-)index the wrapped results and apply all filters to all links
+	 */
 	void updateFilteredResults()
 	{
+		final int n = wrapped.getPairwiseResults().size();
+
+		keys = new ArrayList<>( n );
+		values = new ArrayList<>( n );
+
+		wrapped.getPairwiseResults().forEach( (k, v) -> { keys.add( k ); values.add( v ); } );
+
+		int numDimensions = 0;
+		for ( final PairwiseStitchingResult< ViewId > v : values )
+			numDimensions = Math.max( numDimensions, v.getTransform().numDimensions() );
+
+		final double[] r = new double[ n ];
+		final double[] magnitude = new double[ n ];
+		final double[][] absShift = new double[ numDimensions ][ n ];
+
+		for ( int i = 0; i < n; ++i )
+		{
+			final PairwiseStitchingResult< ViewId > result = values.get( i );
+
+			// same computations as in the filters, so that the index agrees with them
+			final double[] v = new double[result.getTransform().numDimensions()];
+			final double[] vt = new double[result.getTransform().numDimensions()];
+			result.getTransform().apply( v, vt );
+
+			r[ i ] = result.r();
+			magnitude[ i ] = Util.distance( new RealPoint( v ), new RealPoint( vt ) );
+
+			for ( int d = 0; d < vt.length; ++d )
+				absShift[ d ][ i ] = Math.abs( vt[ d ] );
+		}
+
+		byR = new SortedIndex( r );
+		byMagnitude = new SortedIndex( magnitude );
+		byAbsShift = new SortedIndex[ numDimensions ];
+		for ( int d = 0; d < numDimensions; ++d )
+			byAbsShift[ d ] = new SortedIndex( absShift[ d ] );
+
+		numRejections = new int[ n ];
 		filteredPairwiseResults.clear();
-		wrapped.getPairwiseResults().forEach( (k, v) -> 
+
+		for ( int i = 0; i < n; ++i )
 		{
 			for (Filter filter : filters)
-				if (!filter.conforms(v))
-					return;
-			filteredPairwiseResults.put( k, v );
-		});
+				if (!filter.conforms( values.get( i ) ))
+					++numRejections[ i ];
+
+			if ( numRejections[ i ] == 0 )
+				filteredPairwiseResults.put( keys.get( i ), values.get( i ) );
+		}
+
+		indexedSize = n;
+	}
+
+	/**
+	 * call if the wrapped results changed (see also {@link #resultsChanged(StitchingResults)}),
+	 * the index is rebuilt on next access
+	 */
+	public void invalidateIndex()
+	{
+		indexedSize = -1;
+	}
+
+	private void ensureIndex()
+	{
+		if ( indexedSize != wrapped.getPairwiseResults().size() )
+			updateFilteredResults();
+	}
+
+	/**
+	 * incrementally replace a filter, re-checking only the links whose state might change
+	 * @param oldFilter the filter to remove (or null)
+	 * @param newFilter the filter to add (or null)
+	 */
+	private void replaceFilter( final Filter oldFilter, final Filter newFilter )
+	{
+		final BitSet candidates = getCandidates( oldFilter, newFilter );
+
+		for ( int i = candidates.nextSetBit( 0 ); i >= 0; i = candidates.nextSetBit( i + 1 ) )
+		{
+			final PairwiseStitchingResult< ViewId > result = values.get( i );
+
+			final boolean wasRejected = oldFilter != null && !oldFilter.conforms( result );
+			final boolean isRejected = newFilter != null && !newFilter.conforms( result );
+
+			if ( wasRejected == isRejected )
+				continue;
+
+			if ( isRejected )
+			{
+				if ( numRejections[ i ]++ == 0 )
+					filteredPairwiseResults.remove( keys.get( i ) );
+			}
+			else
+			{
+				if ( --numRejections[ i ] == 0 )
+					filteredPairwiseResults.put( keys.get( i ), result );
+			}
+		}
+	}
+
+	/**
+	 * @return all links whose state could differ between the old and the new filter (a superset is fine)
+	 */
+	private BitSet getCandidates( final Filter oldFilter, final Filter newFilter )
+	{
+		final BitSet candidates = new BitSet( indexedSize );
+		final Filter any = oldFilter != null ? oldFilter : newFilter;
+
+		if ( any == null )
+			return candidates;
+
+		final boolean sameType = oldFilter == null || newFilter == null || oldFilter.getClass() == newFilter.getClass();
+
+		if ( sameType && any.getClass() == CorrelationFilter.class )
+		{
+			final CorrelationFilter o = (CorrelationFilter) oldFilter;
+			final CorrelationFilter f = (CorrelationFilter) newFilter;
+
+			if ( o == null || f == null )
+			{
+				// everything a single filter rejects
+				byR.query( Double.NEGATIVE_INFINITY, ( (CorrelationFilter) any ).minR, candidates );
+				byR.query( ( (CorrelationFilter) any ).maxR, Double.POSITIVE_INFINITY, candidates );
+			}
+			else
+			{
+				byR.query( Math.min( o.minR, f.minR ), Math.max( o.minR, f.minR ), candidates );
+				byR.query( Math.min( o.maxR, f.maxR ), Math.max( o.maxR, f.maxR ), candidates );
+			}
+		}
+		else if ( sameType && any.getClass() == ShiftMagnitudeFilter.class )
+		{
+			final ShiftMagnitudeFilter o = (ShiftMagnitudeFilter) oldFilter;
+			final ShiftMagnitudeFilter f = (ShiftMagnitudeFilter) newFilter;
+
+			if ( o == null || f == null )
+				byMagnitude.query( ( (ShiftMagnitudeFilter) any ).maxShift, Double.POSITIVE_INFINITY, candidates );
+			else
+				byMagnitude.query( Math.min( o.maxShift, f.maxShift ), Math.max( o.maxShift, f.maxShift ), candidates );
+		}
+		else if ( sameType && any.getClass() == AbsoluteShiftFilter.class )
+		{
+			final AbsoluteShiftFilter o = (AbsoluteShiftFilter) oldFilter;
+			final AbsoluteShiftFilter f = (AbsoluteShiftFilter) newFilter;
+
+			for ( int d = 0; d < byAbsShift.length; ++d )
+			{
+				if ( o == null || f == null )
+				{
+					final double t = ( (AbsoluteShiftFilter) any ).minMaxShift[ d ];
+
+					// positive: rejects shifts above t, negative: rejects shifts below -t
+					if ( t >= 0 )
+						byAbsShift[ d ].query( t, Double.POSITIVE_INFINITY, candidates );
+					else
+						byAbsShift[ d ].query( Double.NEGATIVE_INFINITY, -t, candidates );
+				}
+				else
+				{
+					final double to = o.minMaxShift[ d ];
+					final double tf = f.minMaxShift[ d ];
+
+					if ( ( to >= 0 ) == ( tf >= 0 ) )
+						byAbsShift[ d ].query( Math.min( Math.abs( to ), Math.abs( tf ) ), Math.max( Math.abs( to ), Math.abs( tf ) ), candidates );
+					else
+						candidates.set( 0, indexedSize );
+				}
+			}
+		}
+		else
+		{
+			// unknown filter, test all links
+			candidates.set( 0, indexedSize );
+		}
+
+		return candidates;
 	}
 
 	public void clearFilter(Class<? extends Filter> filterClass)
 	{
+		ensureIndex();
+
 		// clear previous instances
 		for (int i = filters.size() - 1; i >= 0; i--)
 		{
 			if (filters.get( i ).getClass().isAssignableFrom( filterClass ))
-				filters.remove( i );
+				replaceFilter( filters.remove( i ), null );
 		}
-		updateFilteredResults();
 	}
 
 	public void addFilter(Filter filter)
 	{
-		// remove existing instance
-		clearFilter( filter.getClass() );
+		ensureIndex();
+
+		// replace existing instance
+		Filter oldFilter = null;
+		for (int i = filters.size() - 1; i >= 0; i--)
+		{
+			if (filters.get( i ).getClass().isAssignableFrom( filter.getClass() ))
+			{
+				if ( oldFilter != null )
+					replaceFilter( oldFilter, null );
+
+				oldFilter = filters.remove( i );
+			}
+		}
+
 		filters.add( filter );
-		updateFilteredResults();
+		replaceFilter( oldFilter, filter );
 	}
 
+	@SuppressWarnings("unchecked")
 	public void applyToWrappedSubset( Collection< Pair< Group< ViewId >, Group< ViewId > > > targets)
 	{
-		final Map< Pair< Group< ViewId >, Group< ViewId > >, PairwiseStitchingResult< ViewId > > filteredTmp = new HashMap<>();
-		filteredTmp.putAll( wrapped.getPairwiseResults() );
+		ensureIndex();
 
-		if ( demoOverlay != null )
-			demoOverlay.getFilteredResults().clear();
+		final Set< Pair< Group< ViewId >, Group< ViewId > > > targetSet =
+				Set.class.isInstance( targets ) ? (Set< Pair< Group< ViewId >, Group< ViewId > > >) targets : new HashSet<>( targets );
+
+		// the links rejected by any filter are exactly the ones with rejections
+		final List< Pair< Group< ViewId >, Group< ViewId > > > toRemove = new ArrayList<>();
+		for ( int i = 0; i < indexedSize; ++i )
+			if ( numRejections[ i ] > 0 && targetSet.contains( keys.get( i ) ) )
+				toRemove.add( keys.get( i ) );
 
-		wrapped.getPairwiseResults().forEach( (k, v) -> 
+		for ( final Pair< Group< ViewId >, Group< ViewId > > k : toRemove )
+			wrapped.getPairwiseResults().remove( k );
+
+		if ( demoOverlay != null )
 		{
-			if (!targets.contains( k ))
-				return;
-			for (Filter filter : filters)
-				if (!filter.conforms(v))
-				{
-					filteredTmp.remove( k );
-					if ( demoOverlay != null )
-						demoOverlay.getFilteredResults().add( k );
-				}
-		});
+			demoOverlay.setFilteredResults( toRemove );
+			demoOverlay.invalidateIndex();
+		}
 
-		wrapped.getPairwiseResults().clear();
-		wrapped.getPairwiseResults().putAll( filteredTmp );
+		// removed links were not part of the filtered results, only the index is outdated
+		if ( toRemove.size() > 0 )
+			invalidateIndex();
 	}
 
 	public void applyToWrappedAll()
@@ -194,6 +472,7 @@ public class FilteredStitchingResults
 
 	public Map< Pair< Group< ViewId >, Group< ViewId > >, PairwiseStitchingResult< ViewId > > getPairwiseResults()
 	{
+		ensureIndex();
 		return filteredPairwiseResults;
 	}
 
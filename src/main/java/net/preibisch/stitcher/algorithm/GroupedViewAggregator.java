@@ -30,41 +30,18 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
-import ij.ImageJ;
 import mpicbg.spim.data.generic.base.Entity;
 import mpicbg.spim.data.generic.sequence.AbstractSequenceDescription;
 import mpicbg.spim.data.generic.sequence.BasicViewDescription;
-import mpicbg.spim.data.generic.sequence.ImgLoaderHint;
-import mpicbg.spim.data.registration.ViewRegistration;
-import mpicbg.spim.data.sequence.Angle;
-import mpicbg.spim.data.sequence.Channel;
-import mpicbg.spim.data.sequence.FinalVoxelDimensions;
-import mpicbg.spim.data.sequence.Illumination;
-import mpicbg.spim.data.sequence.ImgLoader;
-import mpicbg.spim.data.sequence.MissingViews;
-import mpicbg.spim.data.sequence.SequenceDescription;
-import mpicbg.spim.data.sequence.SetupImgLoader;
-import mpicbg.spim.data.sequence.Tile;
 import mpicbg.spim.data.sequence.TimePoint;
-import mpicbg.spim.data.sequence.TimePoints;
 import mpicbg.spim.data.sequence.ViewId;
-import mpicbg.spim.data.sequence.ViewSetup;
-import mpicbg.spim.data.sequence.VoxelDimensions;
-import net.imglib2.Dimensions;
-import net.imglib2.FinalDimensions;
+import net.imglib2.Interval;
 import net.imglib2.IterableInterval;
 import net.imglib2.RandomAccessibleInterval;
-import net.imglib2.img.Img;
-import net.imglib2.img.array.ArrayImgFactory;
-import net.imglib2.img.display.imagej.ImageJFunctions;
 import net.imglib2.realtransform.AffineTransform3D;
 import net.imglib2.type.numeric.RealType;
-import net.imglib2.type.numeric.integer.UnsignedShortType;
-import net.imglib2.type.numeric.real.FloatType;
 import net.imglib2.view.Views;
-import net.preibisch.mvrecon.Threads;
 import net.preibisch.mvrecon.process.deconvolution.normalization.AdjustInput;
 import net.preibisch.mvrecon.process.downsampling.DownsampleTools;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
@@ -329,6 +306,25 @@ public class GroupedViewAggregator
 		}
 	}
 
+	/**
+	 * @return a string describing all actions of this aggregator (e.g. to check if results were computed with the same aggregation)
+	 */
+	public String getKey()
+	{
+		final StringBuilder sb = new StringBuilder();
+		for ( final Action action : actions )
+		{
+			sb.append( action.actionType );
+			for ( int i = 0; i < action.entityClasses.size(); i++ )
+			{
+				final Entity instance = action.instances.get( i );
+				sb.append( "," + action.entityClasses.get( i ).getSimpleName() + "=" + ( instance == null ? "" : instance.getId() ) );
+			}
+			sb.append( ";" );
+		}
+		return sb.toString();
+	}
+
 	public <T extends RealType<T>> RandomAccessibleInterval< T > aggregate(
 			List<RandomAccessibleInterval< T >> rais,
 			List<? extends ViewId> vids,
@@ -360,6 +356,27 @@ public class GroupedViewAggregator
 												long[] downsampleFactors,
 												final AffineTransform3D dsCorrectionT,
 												final ExecutorService service){
+		return aggregate( gv, sd, downsampleFactors, dsCorrectionT, service, null );
+	}
+
+	/**
+	 * aggregate a group of views into one image, only loading the given region of the views
+	 * @param gv the group
+	 * @param sd the sequence description
+	 * @param downsampleFactors downsampling relative to full resolution
+	 * @param dsCorrectionT will be set to the transformation mapping downsampled to full resolution pixel coordinates
+	 * @param service executor service to use
+	 * @param region the part of the downsampled views that will be read, may be null for all of it
+	 * (see {@link RAIProxy#RAIProxy(mpicbg.spim.data.generic.sequence.BasicImgLoader, ViewId, long[], net.imglib2.Interval)})
+	 * @param <T> pixel type
+	 * @return the aggregated image or null if all views were filtered out
+	 */
+	public <T extends RealType<T>> RandomAccessibleInterval< T > aggregate(Group<? extends ViewId> gv, 
+												AbstractSequenceDescription< ?, ? extends BasicViewDescription< ? >, ? > sd,
+												long[] downsampleFactors,
+												final AffineTransform3D dsCorrectionT,
+												final ExecutorService service,
+												final Interval region){
 
 		Map<BasicViewDescription< ? >, RandomAccessibleInterval<T>> map = new HashMap<>();
 		boolean dsAdjusted = false;
@@ -373,7 +390,7 @@ public class GroupedViewAggregator
 			// if view is not present, add null as the RAIProxy
 			if ( vd.isPresent() )
 			{
-				rai = new RAIProxy< T >( sd.getImgLoader(), vid, downsampleFactors );
+				rai = new RAIProxy< T >( sd.getImgLoader(), vid, downsampleFactors, region );
 
 				if ( !dsAdjusted )
 				{
@@ -405,111 +422,4 @@ public class GroupedViewAggregator
 		return map.values().iterator().next();
 		
 	}
-	
-	public static void main(String[] args)
-	{
-
-		final ArrayList< ViewSetup > setups = new ArrayList< ViewSetup >();
-		final ArrayList< ViewRegistration > registrations = new ArrayList< ViewRegistration >();
-
-		final Channel c0 = new Channel( 0, "RFP" );
-		final Channel c1 = new Channel( 1, "YFP" );
-
-		final Angle a0 = new Angle( 0 );
-		final Illumination i0 = new Illumination( 0 );
-		final Illumination i1 = new Illumination( 1 );		
-
-		final Tile t0 = new Tile( 0, "Tile0", new double[]{ 0.0, 0.0, 0.0 } );
-		
-		final Dimensions d0 = new FinalDimensions( 512l, 512l, 1l );
-		final VoxelDimensions vd0 = new FinalVoxelDimensions( "px", 0.4566360, 0.4566360, 2.0000000 );
-
-		setups.add( new ViewSetup( 0, "setup 0", d0, vd0, t0, c0, a0, i0 ) );
-		setups.add( new ViewSetup( 1, "setup 1", d0, vd0, t0, c1, a0, i0 ) );
-		setups.add( new ViewSetup( 2, "setup 2", d0, vd0, t0, c0, a0, i1 ) );
-		setups.add( new ViewSetup( 3, "setup 3", d0, vd0, t0, c1, a0, i1 ) );
-
-		final ArrayList< TimePoint > t = new ArrayList< TimePoint >();
-		t.add( new TimePoint( 0 ) );
-		final TimePoints timepoints = new TimePoints( t );
-		
-		final ArrayList< ViewId > missing = new ArrayList< ViewId >();
-		missing.add( new ViewId(0,0) );
-		final MissingViews missingViews = new MissingViews( missing );
-
-		final ImgLoader imgLoader = new ImgLoader()
-		{
-			@Override
-			public SetupImgLoader< ? > getSetupImgLoader( final int setupId )
-			{
-				return new SetupImgLoader<UnsignedShortType>()
-				{
-
-					@Override
-					public RandomAccessibleInterval< UnsignedShortType > getImage(int timepointId,
-							ImgLoaderHint... hints)
-					{
-						Img< UnsignedShortType > raiout = new ArrayImgFactory<UnsignedShortType>().create( d0, new UnsignedShortType() );
-						for (UnsignedShortType t : raiout)
-							t.set( setupId );
-						return raiout;
-						
-					}
-
-					@Override
-					public UnsignedShortType getImageType(){return new UnsignedShortType();}
-
-					@Override
-					public RandomAccessibleInterval< FloatType > getFloatImage(int timepointId, boolean normalize,
-							ImgLoaderHint... hints)
-					{
-						Img< FloatType > raiout = new ArrayImgFactory<FloatType>().create( d0, new FloatType() );
-						for (FloatType t : raiout)
-							t.set( setupId );
-						return raiout;
-					}
-
-					@Override
-					public Dimensions getImageSize(int timepointId){return d0;}
-					@Override
-					public VoxelDimensions getVoxelSize(int timepointId){return vd0;}
-					
-				};
-			}
-		};
-		
-		for ( final ViewSetup vs : setups )
-		{
-			final ViewRegistration vr = new ViewRegistration( t.get( 0 ).getId(), vs.getId() );
-			registrations.add( vr );
-		}
-
-		final SequenceDescription sd = new SequenceDescription( timepoints, setups, imgLoader, missingViews );
-
-		final GroupedViewAggregator gva = new GroupedViewAggregator();
-		//gva.addAction( ActionType.PICK_SPECIFIC, Illumination.class, new Illumination( 0 ) );
-		//gva.addAction( ActionType.PICK_SPECIFIC, Illumination.class, new Illumination( 1 ) );
-		gva.addAction( ActionType.AVERAGE, Illumination.class, null );
-		gva.addAction( ActionType.PICK_BRIGHTEST, Channel.class, null );
-		
-		List<ViewId> setupsVID = new ArrayList<>();
-		setupsVID.add( new ViewId(0,0) );
-		setupsVID.add( new ViewId(0,1) );
-		setupsVID.add( new ViewId(0,2) );
-		setupsVID.add( new ViewId(0,3) );
-		Group<ViewId> gv = new Group<>( setupsVID );
-
-		final ExecutorService taskExecutor = Executors.newFixedThreadPool( Threads.numThreads() );
-
-		RandomAccessibleInterval< FloatType > res = (RandomAccessibleInterval< FloatType >) gva.aggregate( gv, sd, new long[] {1,1,1} , new AffineTransform3D(), taskExecutor );
-		System.out.println( Views.iterable( res ).firstElement().getClass() );
-		if (res != null)
-			ImageJFunctions.show( res );
-
-		taskExecutor.shutdown();
-		new ImageJ();
-		
-	}
-	
-
 }
@@ -0,0 +1,297 @@
+/*-
+ * #%L
+ * Multiview stitching of large datasets.
+ * %%
+ * Copyright (C) 2016 - 2024 Big Stitcher developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.stitcher.algorithm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import mpicbg.spim.data.sequence.ViewId;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.complex.ComplexFloatType;
+import net.imglib2.util.Pair;
+import net.imglib2.view.Views;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
+
+/**
+ * Bounded, reference-counted cache of the (extended, padded) FFTs of the whole images of view groups,
+ * so that every group is only transformed once for all the pairs it is part of when stitching using
+ * the whole images (PairwiseStitchingParameters.useWholeImage). The FFTs of overlap regions are
+ * specific to one pair and are not cached.
+ * 
+ * The pairs that will be computed have to be registered via {@link #registerPairs(List)},
+ * all FFTs of a group are released once {@link #pairDone(Group, Group)} was called for its last pair
+ * (also if the pair failed).
+ */
+public class PairwiseFFTCache
+{
+	// each complex float pixel takes 8 bytes
+	private static final long bytesPerPixel = 8;
+
+	private final long maxBytes;
+	private long currentBytes;
+
+	// access-ordered, so we can evict least recently used FFTs if we run out of memory
+	private final LinkedHashMap< FFTKey, CachedFFT > cache;
+	private final HashMap< Set< ViewId >, Integer > remainingPairs;
+
+	public PairwiseFFTCache( final long maxBytes )
+	{
+		this.maxBytes = maxBytes;
+		this.currentBytes = 0;
+		this.cache = new LinkedHashMap<>( 16, 0.75f, true );
+		this.remainingPairs = new HashMap<>();
+	}
+
+	/**
+	 * create a cache that may use up to a quarter of the maximum heap size
+	 */
+	public PairwiseFFTCache()
+	{
+		this( Runtime.getRuntime().maxMemory() / 4 );
+	}
+
+	/**
+	 * Key identifying the FFT of one view group: the group, the downsampling, the overlap interval (local
+	 * coordinates of the downsampled, aggregated image) and the padded size of the FFT input
+	 */
+	public static class FFTKey
+	{
+		private final Set< ViewId > views;
+		private final long[] downsampling;
+		private final long[] min;
+		private final long[] max;
+		private final long[] paddedSize;
+		private final int hash;
+
+		public FFTKey( final Group< ? extends ViewId > group, final long[] downsampling, final Interval interval, final long[] paddedSize )
+		{
+			this.views = new HashSet<>( group.getViews() );
+			this.downsampling = downsampling.clone();
+			this.min = new long[ interval.numDimensions() ];
+			this.max = new long[ interval.numDimensions() ];
+			interval.min( min );
+			interval.max( max );
+			this.paddedSize = paddedSize.clone();
+
+			int h = views.hashCode();
+			h = 31 * h + Arrays.hashCode( this.downsampling );
+			h = 31 * h + Arrays.hashCode( min );
+			h = 31 * h + Arrays.hashCode( max );
+			h = 31 * h + Arrays.hashCode( this.paddedSize );
+			this.hash = h;
+		}
+
+		public Set< ViewId > getViews()
+		{
+			return views;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return hash;
+		}
+
+		@Override
+		public boolean equals( final Object obj )
+		{
+			if ( this == obj )
+				return true;
+			if ( !( obj instanceof FFTKey ) )
+				return false;
+
+			final FFTKey other = (FFTKey) obj;
+			return hash == other.hash &&
+					Arrays.equals( downsampling, other.downsampling ) &&
+					Arrays.equals( min, other.min ) &&
+					Arrays.equals( max, other.max ) &&
+					Arrays.equals( paddedSize, other.paddedSize ) &&
+					views.equals( other.views );
+		}
+	}
+
+	private static class CachedFFT
+	{
+		final FutureTask< RandomAccessibleInterval< ComplexFloatType > > task;
+		long bytes = 0;
+
+		CachedFFT( final Callable< RandomAccessibleInterval< ComplexFloatType > > loader )
+		{
+			this.task = new FutureTask<>( loader );
+		}
+	}
+
+	/**
+	 * register pairs that will be computed, every group is kept in the cache until all of its pairs are done
+	 * @param pairs the pairs of groups
+	 * @param <V> view id type
+	 */
+	public synchronized < V extends ViewId > void registerPairs( final List< ? extends Pair< ? extends Group< V >, ? extends Group< V > > > pairs )
+	{
+		for ( final Pair< ? extends Group< V >, ? extends Group< V > > pair : pairs )
+		{
+			remainingPairs.merge( new HashSet<>( pair.getA().getViews() ), 1, Integer::sum );
+			remainingPairs.merge( new HashSet<>( pair.getB().getViews() ), 1, Integer::sum );
+		}
+	}
+
+	/**
+	 * signal that a pair is done, releases the FFTs of groups that are not part of any scheduled pair anymore
+	 * @param groupA first group
+	 * @param groupB second group
+	 */
+	public synchronized void pairDone( final Group< ? extends ViewId > groupA, final Group< ? extends ViewId > groupB )
+	{
+		release( new HashSet<>( groupA.getViews() ) );
+		release( new HashSet<>( groupB.getViews() ) );
+	}
+
+	private void release( final Set< ViewId > views )
+	{
+		final Integer remaining = remainingPairs.get( views );
+
+		if ( remaining == null || remaining <= 1 )
+		{
+			remainingPairs.remove( views );
+
+			final Iterator< Map.Entry< FFTKey, CachedFFT > > it = cache.entrySet().iterator();
+			while ( it.hasNext() )
+			{
+				final Map.Entry< FFTKey, CachedFFT > e = it.next();
+				if ( e.getKey().getViews().equals( views ) )
+				{
+					currentBytes -= e.getValue().bytes;
+					it.remove();
+				}
+			}
+		}
+		else
+		{
+			remainingPairs.put( views, remaining - 1 );
+		}
+	}
+
+	/**
+	 * get the FFT for a key from the cache, compute it using loader if it is not present.
+	 * If another thread is already computing the same FFT, wait for it.
+	 * 
+	 * @param key the key
+	 * @param loader computes the FFT
+	 * @return the FFT (must not be altered by the caller)
+	 * @throws ExecutionException if loader failed
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public RandomAccessibleInterval< ComplexFloatType > getFFT(
+			final FFTKey key,
+			final Callable< RandomAccessibleInterval< ComplexFloatType > > loader ) throws InterruptedException, ExecutionException
+	{
+		final CachedFFT cached;
+		boolean computeHere = false;
+
+		synchronized ( this )
+		{
+			CachedFFT existing = cache.get( key );
+			if ( existing == null )
+			{
+				existing = new CachedFFT( loader );
+				cache.put( key, existing );
+				computeHere = true;
+			}
+			cached = existing;
+		}
+
+		if ( computeHere )
+		{
+			cached.task.run();
+
+			synchronized ( this )
+			{
+				// it might have been released already
+				if ( cache.get( key ) == cached )
+				{
+					try
+					{
+						cached.bytes = Views.iterable( cached.task.get() ).size() * bytesPerPixel;
+					}
+					catch ( final ExecutionException e )
+					{
+						// do not keep failed computations
+						cache.remove( key );
+						throw e;
+					}
+
+					currentBytes += cached.bytes;
+					evictIfNecessary();
+				}
+			}
+		}
+
+		return cached.task.get();
+	}
+
+	private void evictIfNecessary()
+	{
+		if ( currentBytes <= maxBytes )
+			return;
+
+		// least recently used first, only evict what has been computed already
+		final List< FFTKey > toRemove = new ArrayList<>();
+		long bytes = currentBytes;
+		for ( final Map.Entry< FFTKey, CachedFFT > e : cache.entrySet() )
+		{
+			if ( bytes <= maxBytes )
+				break;
+
+			if ( e.getValue().task.isDone() )
+			{
+				toRemove.add( e.getKey() );
+				bytes -= e.getValue().bytes;
+			}
+		}
+
+		for ( final FFTKey key : toRemove )
+			cache.remove( key );
+
+		currentBytes = bytes;
+	}
+
+	public synchronized int size()
+	{
+		return cache.size();
+	}
+
+	public synchronized long getCurrentBytes()
+	{
+		return currentBytes;
+	}
+}
@@ -0,0 +1,371 @@
+/*-
+ * #%L
+ * Multiview stitching of large datasets.
+ * %%
+ * Copyright (C) 2016 - 2024 Big Stitcher developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.stitcher.algorithm;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import mpicbg.spim.data.sequence.ViewId;
+import net.imglib2.FinalRealInterval;
+import net.imglib2.RealInterval;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.util.ValuePair;
+import net.preibisch.legacy.io.IOFunctions;
+import net.preibisch.mvrecon.fiji.spimdata.stitchingresults.PairwiseStitchingResult;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
+
+/**
+ * Persistent store of pairwise stitching results (a text file next to the XML), so that
+ * pairs that were already computed with the same parameters and view registrations
+ * do not have to be computed again.
+ * 
+ * Entries are keyed by the views of both groups, downsampling, stitching parameters and
+ * grouped view aggregation; they are only valid if the hash of the view registrations
+ * (see {@link PairwiseStitchingResult#calculateHash}) still matches. Pairs for which no shift
+ * was found are stored as well, so they are not computed again either.
+ */
+public class PairwiseResultCache
+{
+	private static final String header = "# BigStitcher pairwise stitching results v1";
+	private static final String suffix = ".pairwise.txt";
+
+	// marks entries of pairs for which no shift was found
+	private static final String failedEntry = "failed";
+
+	private final File file;
+	private final HashMap< String, PairwiseStitchingResult< ViewId > > results;
+
+	// registration hashes of pairs for which no shift was found
+	private final HashMap< String, Double > failed;
+
+	// whether there are changes that are not saved yet
+	private boolean modified;
+
+	public PairwiseResultCache( final File file )
+	{
+		this.file = file;
+		this.results = new HashMap<>();
+		this.failed = new HashMap<>();
+		this.modified = false;
+	}
+
+	/**
+	 * @param xml location of the XML
+	 * @return a cache stored next to the XML or null if the XML is not on the local file system
+	 */
+	public static PairwiseResultCache forXML( final URI xml )
+	{
+		if ( xml == null || ( xml.getScheme() != null && !xml.getScheme().equals( "file" ) ) )
+			return null;
+
+		final File xmlFile = xml.getScheme() == null ? new File( xml.getPath() ) : new File( xml );
+		return new PairwiseResultCache( new File( xmlFile.getAbsolutePath() + suffix ) );
+	}
+
+	/**
+	 * @param downsampling the downsampling
+	 * @param params the stitching parameters
+	 * @param gva the grouped view aggregation
+	 * @return the part of the key that is common to all pairs computed with the same settings
+	 */
+	public static String getParameterKey(
+			final long[] downsampling,
+			final PairwiseStitchingParameters params,
+			final GroupedViewAggregator gva )
+	{
+		return "ds=" + Arrays.toString( downsampling ) +
+				",minOverlap=" + params.minOverlap +
+				",peaks=" + params.peaksToCheck +
+				",subpixel=" + params.doSubpixel +
+				",interpolate=" + params.interpolateCrossCorrelation +
+				",wholeImage=" + params.useWholeImage +
+				",coarseToFine=" + params.coarseToFineLevels + "/" + params.coarseToFineWindow +
+				",aggregate=" + ( gva == null ? "" : gva.getKey() );
+	}
+
+	/**
+	 * @param groupA first group
+	 * @param groupB second group
+	 * @param hash hash of the current view registrations of the pair
+	 * @param parameterKey key of the settings, see {@link #getParameterKey(long[], PairwiseStitchingParameters, GroupedViewAggregator)}
+	 * @return the stored result or null if there is none that is still valid
+	 */
+	public synchronized PairwiseStitchingResult< ViewId > get(
+			final Group< ? extends ViewId > groupA,
+			final Group< ? extends ViewId > groupB,
+			final double hash,
+			final String parameterKey )
+	{
+		final String key = getKey( groupA, groupB, parameterKey );
+		final PairwiseStitchingResult< ViewId > psr = results.get( key );
+
+		if ( psr == null )
+			return null;
+
+		// the registrations changed since, the entry is of no use anymore
+		if ( psr.getHash() != hash )
+		{
+			results.remove( key );
+			modified = true;
+			return null;
+		}
+
+		return psr;
+	}
+
+	/**
+	 * @param groupA first group
+	 * @param groupB second group
+	 * @param hash hash of the current view registrations of the pair
+	 * @param parameterKey key of the settings, see {@link #getParameterKey(long[], PairwiseStitchingParameters, GroupedViewAggregator)}
+	 * @return true if no shift could be found for the pair with the same settings and registrations
+	 */
+	public synchronized boolean hasFailed(
+			final Group< ? extends ViewId > groupA,
+			final Group< ? extends ViewId > groupB,
+			final double hash,
+			final String parameterKey )
+	{
+		final String key = getKey( groupA, groupB, parameterKey );
+		final Double failedHash = failed.get( key );
+
+		if ( failedHash == null )
+			return false;
+
+		if ( failedHash != hash )
+		{
+			failed.remove( key );
+			modified = true;
+			return false;
+		}
+
+		return true;
+	}
+
+	public synchronized void put( final PairwiseStitchingResult< ViewId > psr, final String parameterKey )
+	{
+		final String key = getKey( psr.pair().getA(), psr.pair().getB(), parameterKey );
+		results.put( key, psr );
+		failed.remove( key );
+		modified = true;
+	}
+
+	/**
+	 * remember that no shift was found for a pair
+	 * @param groupA first group
+	 * @param groupB second group
+	 * @param hash hash of the view registrations the pair was computed with
+	 * @param parameterKey key of the settings, see {@link #getParameterKey(long[], PairwiseStitchingParameters, GroupedViewAggregator)}
+	 */
+	public synchronized void putFailed(
+			final Group< ? extends ViewId > groupA,
+			final Group< ? extends ViewId > groupB,
+			final double hash,
+			final String parameterKey )
+	{
+		final String key = getKey( groupA, groupB, parameterKey );
+		failed.put( key, hash );
+		results.remove( key );
+		modified = true;
+	}
+
+	/**
+	 * @return number of stored results (including pairs for which no shift was found)
+	 */
+	public synchronized int size()
+	{
+		return results.size() + failed.size();
+	}
+
+	/**
+	 * load the stored results, does nothing if the file does not exist yet
+	 * (later entries for the same pair and settings replace earlier ones, the file
+	 * is compacted on the next {@link #save()} then)
+	 */
+	public synchronized void load()
+	{
+		if ( !file.exists() )
+			return;
+
+		try ( final BufferedReader in = Files.newBufferedReader( file.toPath(), StandardCharsets.UTF_8 ) )
+		{
+			if ( !header.equals( in.readLine() ) )
+			{
+				IOFunctions.println( "Ignoring pairwise result cache '" + file + "' of unknown version." );
+				return;
+			}
+
+			String line;
+			int numLines = 0;
+			while ( ( line = in.readLine() ) != null )
+			{
+				++numLines;
+				final String[] entries = line.split( "\t", -1 );
+
+				if ( entries.length == 5 && entries[ 3 ].equals( failedEntry ) )
+				{
+					final String key = getKey( parseGroup( entries[ 1 ] ), parseGroup( entries[ 2 ] ), entries[ 0 ] );
+					failed.put( key, Double.parseDouble( entries[ 4 ] ) );
+					results.remove( key );
+					continue;
+				}
+
+				if ( entries.length != 8 )
+					continue;
+
+				final Group< ViewId > groupA = parseGroup( entries[ 1 ] );
+				final Group< ViewId > groupB = parseGroup( entries[ 2 ] );
+
+				final AffineTransform3D transform = new AffineTransform3D();
+				transform.set( parseDoubles( entries[ 5 ] ) );
+
+				final RealInterval bb = entries[ 6 ].isEmpty() ? null :
+					new FinalRealInterval( parseDoubles( entries[ 6 ] ), parseDoubles( entries[ 7 ] ) );
+
+				final String key = getKey( groupA, groupB, entries[ 0 ] );
+				results.put( key, new PairwiseStitchingResult<>(
+						new ValuePair<>( groupA, groupB ), bb, transform, Double.parseDouble( entries[ 3 ] ), Double.parseDouble( entries[ 4 ] ) ) );
+				failed.remove( key );
+			}
+
+			// rewrite the file on the next save if it contains replaced or invalid entries
+			modified = numLines != size();
+		}
+		catch ( IOException | RuntimeException e )
+		{
+			IOFunctions.println( "Failed to load pairwise result cache '" + file + "': " + e );
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * write all results (to a temporary file first, that replaces the old one), does nothing if
+	 * nothing changed since loading or saving. The file is rewritten completely, so it only contains
+	 * one entry per pair and settings, and no entries that were found to be outdated.
+	 */
+	public synchronized void save()
+	{
+		if ( !modified )
+			return;
+
+		final File tmp = new File( file.getAbsolutePath() + "~" );
+
+		try
+		{
+			try ( final BufferedWriter out = Files.newBufferedWriter( tmp.toPath(), StandardCharsets.UTF_8 ) )
+			{
+				out.write( header );
+				out.newLine();
+
+				for ( final String key : results.keySet() )
+				{
+					final PairwiseStitchingResult< ViewId > psr = results.get( key );
+					final RealInterval bb = psr.getBoundingBox();
+
+					out.write( key.substring( 0, key.indexOf( '\t' ) ) + "\t" +
+							groupToString( psr.pair().getA() ) + "\t" +
+							groupToString( psr.pair().getB() ) + "\t" +
+							psr.r() + "\t" +
+							psr.getHash() + "\t" +
+							doublesToString( psr.getTransform().getRowPackedCopy() ) + "\t" +
+							( bb == null ? "" : doublesToString( realMin( bb ) ) ) + "\t" +
+							( bb == null ? "" : doublesToString( realMax( bb ) ) ) );
+					out.newLine();
+				}
+
+				for ( final String key : failed.keySet() )
+				{
+					out.write( key + "\t" + failedEntry + "\t" + failed.get( key ) );
+					out.newLine();
+				}
+			}
+
+			Files.move( tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING );
+			modified = false;
+		}
+		catch ( IOException e )
+		{
+			IOFunctions.println( "Failed to save pairwise result cache '" + file + "': " + e );
+			e.printStackTrace();
+		}
+	}
+
+	private static String getKey( final Group< ? extends ViewId > groupA, final Group< ? extends ViewId > groupB, final String parameterKey )
+	{
+		// the parameters come first, separated by a tab (never part of the parameter key)
+		return parameterKey + "\t" + groupToString( groupA ) + "\t" + groupToString( groupB );
+	}
+
+	private static String groupToString( final Group< ? extends ViewId > group )
+	{
+		final List< ViewId > views = new ArrayList<>( group.getViews() );
+		Collections.sort( views );
+		return views.stream().map( v -> v.getTimePointId() + "," + v.getViewSetupId() ).collect( Collectors.joining( ";" ) );
+	}
+
+	private static Group< ViewId > parseGroup( final String s )
+	{
+		final List< ViewId > views = new ArrayList<>();
+		for ( final String v : s.split( ";" ) )
+		{
+			final String[] ids = v.split( "," );
+			views.add( new ViewId( Integer.parseInt( ids[ 0 ] ), Integer.parseInt( ids[ 1 ] ) ) );
+		}
+		return new Group<>( views );
+	}
+
+	private static String doublesToString( final double[] values )
+	{
+		return Arrays.stream( values ).mapToObj( Double::toString ).collect( Collectors.joining( " " ) );
+	}
+
+	private static double[] parseDoubles( final String s )
+	{
+		return Arrays.stream( s.split( " " ) ).mapToDouble( Double::parseDouble ).toArray();
+	}
+
+	private static double[] realMin( final RealInterval interval )
+	{
+		final double[] min = new double[ interval.numDimensions() ];
+		interval.realMin( min );
+		return min;
+	}
+
+	private static double[] realMax( final RealInterval interval )
+	{
+		final double[] max = new double[ interval.numDimensions() ];
+		interval.realMax( max );
+		return max;
+	}
+}
@@ -32,21 +32,30 @@ import java.util.Map;
 import java.util.Set;
 import java.util.Vector;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
+import mpicbg.spim.data.sequence.ViewId;
 import net.imglib2.Cursor;
+import net.imglib2.Dimensions;
 import net.imglib2.FinalInterval;
 import net.imglib2.Interval;
 import net.imglib2.IterableInterval;
+import net.imglib2.Localizable;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.RealInterval;
 import net.imglib2.RealLocalizable;
+import net.imglib2.algorithm.phasecorrelation.FourNeighborhoodExtrema;
 import net.imglib2.algorithm.phasecorrelation.PhaseCorrelation2;
+import net.imglib2.algorithm.phasecorrelation.PhaseCorrelation2Util;
+import net.imglib2.algorithm.phasecorrelation.PhaseCorrelationEngine;
 import net.imglib2.algorithm.phasecorrelation.PhaseCorrelationPeak2;
+import net.imglib2.img.array.ArrayImg;
 import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
 import net.imglib2.img.display.imagej.ImageJFunctions;
 import net.imglib2.realtransform.AffineGet;
 import net.imglib2.realtransform.AffineTransform;
@@ -58,6 +67,7 @@ import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.complex.ComplexFloatType;
 import net.imglib2.type.numeric.integer.LongType;
 import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
 import net.imglib2.util.Pair;
 import net.imglib2.util.Util;
 import net.imglib2.util.ValuePair;
@@ -79,6 +89,9 @@ public class PairwiseStitching
 {
 	public static boolean debug = false;
 
+	/* by how many pixels the overlap images are extended (mirrored) for the phase correlation */
+	public static final int PCM_EXTENSION = 10;
+
 	public static <T extends RealType< T >, S extends RealType< S >> Pair< AffineTransform, Double > getShiftLucasKanade(
 			final RandomAccessibleInterval< T > input1, final RandomAccessibleInterval< T > input2,
 			final TranslationGet t1, final TranslationGet t2, final LucasKanadeParameters params,
@@ -156,11 +169,24 @@ public class PairwiseStitching
 		}
 
 		// do the alignment
-		Align< T > lkAlign = new Align< T >( Views.zeroMin( Views.interval( img1, interval1 ) ),
-				new ArrayImgFactory< FloatType >( new FloatType() ), params.getWarpFunctionInstance( img1.numDimensions() ) );
+		final Align< T > lkAlign;
+		final AffineTransform res;
 
-		AffineTransform res = lkAlign.align( Views.zeroMin( Views.interval( img2, interval2 ) ), params.maxNumIterations,
-				params.minParameterChange, service );
+		if ( params.pyramidLevels > 0 )
+		{
+			lkAlign = Align.alignPyramid( Views.zeroMin( Views.interval( img1, interval1 ) ), Views.zeroMin( Views.interval( img2, interval2 ) ),
+					params.getWarpFunctionInstance( img1.numDimensions() ), params.pyramidLevels, params.maxNumIterations,
+					params.minParameterChange, service );
+			res = lkAlign.getCurrentTransform();
+		}
+		else
+		{
+			lkAlign = new Align< T >( Views.zeroMin( Views.interval( img1, interval1 ) ),
+					new ArrayImgFactory< FloatType >( new FloatType() ), params.getWarpFunctionInstance( img1.numDimensions() ) );
+
+			res = lkAlign.align( Views.zeroMin( Views.interval( img2, interval2 ) ), params.maxNumIterations,
+					params.minParameterChange, service );
+		}
 
 		if (lkAlign.didConverge())
 			IOFunctions.println("(" + new Date( System.currentTimeMillis() ) + ") determined transformation:" +  Util.printCoordinates( res.getRowPackedCopy() ) );
@@ -236,6 +262,78 @@ public class PairwiseStitching
 			final TranslationGet t1, final TranslationGet t2, final PairwiseStitchingParameters params,
 			final ExecutorService service)
 	{
+		return getShift( input1, input2, t1, t2, params, service, null, null, null, null );
+	}
+
+	/**
+	 * The absolute shift of input2 relative to after PCM input1 (without t1 and
+	 * t2 - they just help to speed it up), re-using the FFTs of the whole images
+	 * from an FFT cache if possible (only if params.useWholeImage, otherwise the
+	 * overlap regions differ for every pair and the cache is not used)
+	 * 
+	 * @param input1 - zero-min interval, starting at (0,0,...)
+	 * @param input2 - zero-min interval, starting at (0,0,...)
+	 * @param t1 - translation of input1
+	 * @param t2 - translation of input2
+	 * @param params - stitching parameters
+	 * @param service - executor service to use
+	 * @param fftCache - cache for the FFTs, may be null
+	 * @param group1 - the view group input1 was created from (key for the cache)
+	 * @param group2 - the view group input2 was created from (key for the cache)
+	 * @param downsampling - the downsampling of input1 and input2 (key for the cache)
+	 * @param <T> pixel type input1
+	 * @param <S> pixel type input2
+	 * @return pair of shift vector and cross correlation coefficient or null if no shift could be determined
+	 */
+	public static <T extends RealType< T >, S extends RealType< S >> Pair< Translation, Double > getShift(
+			final RandomAccessibleInterval< T > input1, final RandomAccessibleInterval< S > input2,
+			final TranslationGet t1, final TranslationGet t2, final PairwiseStitchingParameters params,
+			final ExecutorService service,
+			final PairwiseFFTCache fftCache,
+			final Group< ? extends ViewId > group1,
+			final Group< ? extends ViewId > group2,
+			final long[] downsampling )
+	{
+		return getShift( input1, input2, t1, t2, params, service, fftCache, group1, group2, downsampling, 0, -1, null );
+	}
+
+	/**
+	 * The absolute shift of input2 relative to after PCM input1 (without t1 and
+	 * t2 - they just help to speed it up), optionally only looking at a window in
+	 * the center of the overlap and at shifts close to the one given by t1 and t2
+	 * (for refining a shift that is already approximately known)
+	 * 
+	 * @param input1 - zero-min interval, starting at (0,0,...)
+	 * @param input2 - zero-min interval, starting at (0,0,...)
+	 * @param t1 - translation of input1
+	 * @param t2 - translation of input2
+	 * @param params - stitching parameters
+	 * @param service - executor service to use
+	 * @param fftCache - cache for the FFTs, may be null
+	 * @param group1 - the view group input1 was created from (key for the cache)
+	 * @param group2 - the view group input2 was created from (key for the cache)
+	 * @param downsampling - the downsampling of input1 and input2 (key for the cache)
+	 * @param window - maximal size of the overlap to use in every dimension, 0 for all of it
+	 * (the cross correlation coefficient returned is computed on all of it nonetheless)
+	 * @param maxShift - maximal shift (in pixels) relative to t2 - t1 in every dimension, negative for no limit
+	 * @param pcmEngine - re-uses the FFT and PCM buffers between calls of one run (the caller clears it once the run is done),
+	 * may be null to use buffers for this call only
+	 * @param <T> pixel type input1
+	 * @param <S> pixel type input2
+	 * @return pair of shift vector and cross correlation coefficient or null if no shift could be determined
+	 */
+	public static <T extends RealType< T >, S extends RealType< S >> Pair< Translation, Double > getShift(
+			final RandomAccessibleInterval< T > input1, final RandomAccessibleInterval< S > input2,
+			final TranslationGet t1, final TranslationGet t2, final PairwiseStitchingParameters params,
+			final ExecutorService service,
+			final PairwiseFFTCache fftCache,
+			final Group< ? extends ViewId > group1,
+			final Group< ? extends ViewId > group2,
+			final long[] downsampling,
+			final int window,
+			final long maxShift,
+			final PhaseCorrelationEngine pcmEngine )
+	{
 
 		// check if we have singleton dimensions
 		boolean[] singletonDims = new boolean[input1.numDimensions()];
@@ -284,16 +382,16 @@ public class PairwiseStitching
 		final RealInterval localOverlap2 = TransformTools.getLocalOverlap( transformed2, overlap );
 
 		// round to integer interval
-		final Interval interval1 = TransformTools.getLocalRasterOverlap( localOverlap1 );
-		final Interval interval2 = TransformTools.getLocalRasterOverlap( localOverlap2 );
+		final Interval rasterOverlap1 = TransformTools.getLocalRasterOverlap( localOverlap1 );
+		final Interval rasterOverlap2 = TransformTools.getLocalRasterOverlap( localOverlap2 );
 
 		if ( debug )
 		{
 			// echo intervals
 			System.out.println( "1: " + TransformationTools.printRealInterval( localOverlap1 ) );
-			System.out.println( "1: " + Util.printInterval( interval1 ) );
+			System.out.println( "1: " + Util.printInterval( rasterOverlap1 ) );
 			System.out.println( "2: " + TransformationTools.printRealInterval( localOverlap2 ) );
-			System.out.println( "2: " + Util.printInterval( interval2 ) );
+			System.out.println( "2: " + Util.printInterval( rasterOverlap2 ) );
 		}
 
 		// check whether we have 0-sized (or negative sized) or unequal raster overlapIntervals
@@ -302,26 +400,30 @@ public class PairwiseStitching
 		// FIXED for downsampling=2 caused by up/down-rounding (see TransformTools.getLocalRasterOverlap)
 		// TODO: in pre-transformed views (e.g. both rotated), we might sometimes have unequal overlap due to numerical imprecision?
 		//    -> look into this (still not fixed!) >> should be fixed now
-		for (int d = 0; d < interval1.numDimensions(); ++d)
+		for (int d = 0; d < rasterOverlap1.numDimensions(); ++d)
 		{
-			if ( interval1.dimension( d ) <= 0 || interval2.dimension( d ) <= 0 )
+			if ( rasterOverlap1.dimension( d ) <= 0 || rasterOverlap2.dimension( d ) <= 0 )
 			{
 				IOFunctions.println( "Rastered overlap between volumes is zero, skipping." );
 				return null;
 			}
 
-			if ( interval1.dimension( d ) != interval2.dimension( d ) )
+			if ( rasterOverlap1.dimension( d ) != rasterOverlap2.dimension( d ) )
 			{
-				IOFunctions.println( "Rastered overlap between volumes in dim " + d + " is unequal ("+interval1.dimension( d )+"<>"+interval2.dimension( d )+"), skipping." );
+				IOFunctions.println( "Rastered overlap between volumes in dim " + d + " is unequal ("+rasterOverlap1.dimension( d )+"<>"+rasterOverlap2.dimension( d )+"), skipping." );
 				return null;
 			}
 		}
 
+		// optionally only use the central window (identical for both, as the overlaps have the same size)
+		final Interval interval1 = getCentralWindow( rasterOverlap1, window );
+		final Interval interval2 = getCentralWindow( rasterOverlap2, window );
+
 		//
 		// call the phase correlation
 		//
 		final int[] extension = new int[img1.numDimensions()];
-		Arrays.fill( extension, 10 );
+		Arrays.fill( extension, PCM_EXTENSION );
 
 		//
 		// the min overlap is in percent of the current overlap interval
@@ -339,16 +441,72 @@ public class PairwiseStitching
 		// full image,
 		// so we feed it RandomAccessible + an Interval we want to use for the
 		// PCM > also zero-min inside
-		final RandomAccessibleInterval< FloatType > pcm = PhaseCorrelation2.calculatePCM(
+		final RandomAccessibleInterval< FloatType > pcm;
+
+		// without an engine of the caller, the buffers are only used for this pair
+		final PhaseCorrelationEngine engine = pcmEngine != null ? pcmEngine : new PhaseCorrelationEngine( 1 );
+
+		// only whole images are the same for all pairs of a group
+		if ( fftCache == null || !params.useWholeImage || window > 0 )
+		{
+			pcm = engine.calculatePCM(
 				Views.zeroMin( Views.interval( img1, interval1 ) ), Views.zeroMin( Views.interval( img2, interval2 ) ),
-				extension, new ArrayImgFactory< FloatType >(), new FloatType(),
-				new ArrayImgFactory< ComplexFloatType >(), new ComplexFloatType(), service );
+				extension, service );
+		}
+		else
+		{
+			final RandomAccessibleInterval< T > overlap1 = Views.zeroMin( Views.interval( img1, interval1 ) );
+			final RandomAccessibleInterval< S > overlap2 = Views.zeroMin( Views.interval( img2, interval2 ) );
+			final long[] paddedDimensions = PhaseCorrelation2.getPaddedDimensions( overlap1, overlap2, extension );
 
-		normalizePCM( pcm, service );
+			final RandomAccessibleInterval< ComplexFloatType > fft1;
+			final RandomAccessibleInterval< ComplexFloatType > fft2;
 
-		final PhaseCorrelationPeak2 shiftPeak = PhaseCorrelation2.getShift( pcm,
+			try
+			{
+				fft1 = fftCache.getFFT(
+						new PairwiseFFTCache.FFTKey( group1, downsampling, interval1, paddedDimensions ),
+						() -> PhaseCorrelation2.calculateFFT( overlap1, extension, paddedDimensions,
+								new ArrayImgFactory< ComplexFloatType >(), new ComplexFloatType(), service ) );
+				fft2 = fftCache.getFFT(
+						new PairwiseFFTCache.FFTKey( group2, downsampling, interval2, paddedDimensions ),
+						() -> PhaseCorrelation2.calculateFFT( overlap2, extension, paddedDimensions,
+								new ArrayImgFactory< ComplexFloatType >(), new ComplexFloatType(), service ) );
+			}
+			catch ( InterruptedException | ExecutionException e )
+			{
+				IOFunctions.println( "Failed to compute FFT: " + e );
+				e.printStackTrace();
+				return null;
+			}
+
+			// the cached FFTs are not altered, the PCM is computed in (pooled) copies
+			pcm = engine.calculatePCM( fft1, fft2, paddedDimensions, service );
+		}
+
+		// null if pcm is not a flat float image, the maxima are then detected in getShift()
+		final List< Pair< Localizable, Double > > maxima = normalizePCMAndFindMaxima( pcm, params.peaksToCheck, service );
+
+		final PhaseCorrelationPeak2 shiftPeak = PhaseCorrelation2.getShift( pcm, maxima,
 				Views.zeroMin( Views.interval( img1, interval1 ) ), Views.zeroMin( Views.interval( img2, interval2 ) ),
-				params.peaksToCheck, minOverlap, params.doSubpixel, params.interpolateCrossCorrelation, service );
+				params.peaksToCheck, minOverlap, params.doSubpixel, params.interpolateCrossCorrelation, maxShift, engine, service );
+
+		// the correlation of a window says little about the whole overlap, so r is always computed on all of it
+		// (both windows are at the same position within their overlaps, so the shift is the same there)
+		if ( window > 0 && shiftPeak != null && !Double.isInfinite( shiftPeak.getCrossCorr() ) )
+		{
+			final RandomAccessibleInterval< T > wholeOverlap1 = Views.zeroMin( Views.interval( img1, rasterOverlap1 ) );
+			final RandomAccessibleInterval< S > wholeOverlap2 = Views.zeroMin( Views.interval( img2, rasterOverlap2 ) );
+
+			if ( params.interpolateCrossCorrelation )
+				shiftPeak.calculateCrossCorr( wholeOverlap1, wholeOverlap2, 0, true );
+			else
+				PhaseCorrelation2Util.calculateCrossCorrFlat( Collections.singletonList( shiftPeak ), wholeOverlap1, wholeOverlap2, 0, engine, service );
+		}
+
+		// the pcm stays valid, the engine only lets go of it
+		if ( pcmEngine == null )
+			engine.clear();
 
 		//System.out.println( "Actual overlap of best shift is: " + shiftPeak.getnPixel() );
 
@@ -398,6 +556,91 @@ public class PairwiseStitching
 		return new ValuePair< >( new Translation(finalShift), shiftPeak.getCrossCorr() );
 	}
 
+	/**
+	 * get the regions of two images that {@link #getShift(RandomAccessibleInterval, RandomAccessibleInterval, TranslationGet, TranslationGet, PairwiseStitchingParameters, ExecutorService)}
+	 * will read, i.e. the overlap of the images given their translations plus a margin, without needing the pixels
+	 * 
+	 * @param dims1 - dimensions of (zero-min) image 1
+	 * @param dims2 - dimensions of (zero-min) image 2
+	 * @param t1 - translation of image 1
+	 * @param t2 - translation of image 2
+	 * @param margin - additional pixels around the overlap
+	 * @return the regions in the local coordinates of image 1 and image 2 or null if they do not overlap
+	 */
+	public static Pair< Interval, Interval > getOverlapRegions(
+			final Dimensions dims1, final Dimensions dims2,
+			final TranslationGet t1, final TranslationGet t2,
+			final long margin )
+	{
+		final int n = dims1.numDimensions();
+
+		// same treatment of singleton dimensions as in getShift()
+		final boolean[] singletonDims = new boolean[n];
+		for ( int d = 0; d < n; ++d )
+			singletonDims[d] = !(dims1.dimension( d ) > 1 && dims2.dimension( d ) > 1);
+
+		final RealInterval transformed1 = TransformTools.applyTranslation( new FinalInterval( dims1 ), t1, singletonDims );
+		final RealInterval transformed2 = TransformTools.applyTranslation( new FinalInterval( dims2 ), t2, singletonDims );
+
+		final RealInterval overlap = TransformTools.getOverlap( transformed1, transformed2 );
+
+		if ( overlap == null )
+			return null;
+
+		return new ValuePair<>(
+				getOverlapRegion( dims1, TransformTools.getLocalOverlap( transformed1, overlap ), singletonDims, margin ),
+				getOverlapRegion( dims2, TransformTools.getLocalOverlap( transformed2, overlap ), singletonDims, margin ) );
+	}
+
+	private static Interval getOverlapRegion( final Dimensions dims, final RealInterval localOverlap, final boolean[] singletonDims, final long margin )
+	{
+		final long[] min = new long[dims.numDimensions()];
+		final long[] max = new long[dims.numDimensions()];
+
+		int d2 = 0;
+		for ( int d = 0; d < dims.numDimensions(); ++d )
+		{
+			// singleton dimensions are ignored in the overlap -> need all of them
+			if ( singletonDims[d] )
+			{
+				min[d] = 0;
+				max[d] = dims.dimension( d ) - 1;
+			}
+			else
+			{
+				// the rastered overlap is always inside of [floor(min), ceil(max)]
+				min[d] = Math.max( 0, (long) Math.floor( localOverlap.realMin( d2 ) ) - margin );
+				max[d] = Math.min( dims.dimension( d ) - 1, (long) Math.ceil( localOverlap.realMax( d2 ) ) + margin );
+				d2++;
+			}
+		}
+
+		return new FinalInterval( min, max );
+	}
+
+	/**
+	 * @param interval - an interval
+	 * @param window - maximal size in every dimension, 0 for no limit
+	 * @return the central part of interval that is at most window in size (every interval of the same size is cropped identically)
+	 */
+	private static Interval getCentralWindow( final Interval interval, final int window )
+	{
+		if ( window <= 0 )
+			return interval;
+
+		final long[] min = new long[ interval.numDimensions() ];
+		final long[] max = new long[ interval.numDimensions() ];
+
+		for ( int d = 0; d < interval.numDimensions(); ++d )
+		{
+			final long crop = Math.max( 0, interval.dimension( d ) - window );
+			min[ d ] = interval.min( d ) + crop / 2;
+			max[ d ] = interval.max( d ) - ( crop - crop / 2 );
+		}
+
+		return new FinalInterval( min, max );
+	}
+
 	public static void normalizePCM( final RandomAccessibleInterval< FloatType > pcm, final ExecutorService service )
 	{
 		// so that the peak doesn't stick out too much, that interferes with the subpixel detection
@@ -406,6 +649,68 @@ public class PairwiseStitching
 		adjustPCM( pcm, min, service );
 	}
 
+	/**
+	 * normalize the PCM like {@link #normalizePCM(RandomAccessibleInterval, ExecutorService)} and find its highest local maxima.
+	 * The minimum and the maxima are found in one pass over the flat array (the normalization is monotonic,
+	 * so it does not change the location of the maxima), the normalization is a second pass.
+	 * @param pcm the phase correlation matrix
+	 * @param maxN number of maxima to find
+	 * @param service thread pool
+	 * @return the maxima (with normalized values, sorted by descending value), empty if finding the maxima or normalizing failed, or null if pcm is not a FloatType ArrayImg (then it is only normalized)
+	 */
+	public static List< Pair< Localizable, Double > > normalizePCMAndFindMaxima( final RandomAccessibleInterval< FloatType > pcm, final int maxN, final ExecutorService service )
+	{
+		if ( !( pcm instanceof ArrayImg ) || !( ( (ArrayImg< ?, ? >) pcm ).update( null ) instanceof FloatArray ) )
+		{
+			normalizePCM( pcm, service );
+			return null;
+		}
+
+		final float[] data = ( (FloatArray) ( (ArrayImg< ?, ? >) pcm ).update( null ) ).getCurrentStorageArray();
+
+		final Pair< Float, ArrayList< Pair< Localizable, Double > > > minAndMax =
+				FourNeighborhoodExtrema.findMinAndMaxFlat( data, Intervals.dimensionsAsLongArray( pcm ), maxN, service );
+
+		if ( minAndMax == null )
+		{
+			IOFunctions.println( "Failed to find the maxima of the PCM." );
+			return new ArrayList<>();
+		}
+
+		final float min = minAndMax.getA();
+
+		final ArrayList< Callable< Void > > tasks = new ArrayList<>();
+		for ( final ImagePortion portion : FusionTools.divideIntoPortions( data.length ) )
+		{
+			tasks.add( () ->
+			{
+				final int end = (int) ( portion.getStartPosition() + portion.getLoopSize() );
+				for ( int i = (int) portion.getStartPosition(); i < end; ++i )
+					data[ i ] = (float)Math.sqrt( data[ i ] - min + 0.01 );
+				return null;
+			});
+		}
+
+		try
+		{
+			// invokeAll() returns when all tasks are complete, get() reports exceptions of the tasks
+			for ( final Future< Void > future : service.invokeAll( tasks ) )
+				future.get();
+		}
+		catch ( final Exception e )
+		{
+			IOFunctions.println( "Failed to subtract: " + e );
+			e.printStackTrace();
+			return new ArrayList<>();
+		}
+
+		final List< Pair< Localizable, Double > > maxima = new ArrayList<>();
+		for ( final Pair< Localizable, Double > m : minAndMax.getB() )
+			maxima.add( new ValuePair<>( m.getA(), (double)(float)Math.sqrt( m.getB() - min + 0.01 ) ) );
+
+		return maxima;
+	}
+
 	public static float min( final RandomAccessibleInterval< FloatType > img, final ExecutorService taskExecutor )
 	{
 		final IterableInterval< FloatType > iterable = Views.iterable( img );
@@ -21,7 +21,6 @@
  */
 package net.preibisch.stitcher.algorithm;
 
-import ij.gui.GenericDialog;
 import net.preibisch.mvrecon.Threads;
 
 public class PairwiseStitchingParameters
@@ -35,6 +34,11 @@ public class PairwiseStitchingParameters
 	public boolean manualNumTasks;
 	public int numTasks;
 
+	// number of coarser (mipmap) levels to estimate the shift on first, 0 = off
+	public int coarseToFineLevels = 0;
+	// size of the window (in pixels) the shift is refined in on finer levels
+	public int coarseToFineWindow = 128;
+
 	public PairwiseStitchingParameters()
 	{
 		this(0, 5, true, false, false, false, false, (int) Math.max( 2, Threads.numThreads() / 6 ));
@@ -59,43 +63,4 @@ public class PairwiseStitchingParameters
 		this.manualNumTasks = manualNumTaksks;
 		this.numTasks = numTasks;
 	}
-
-	public static void addQueriesToGD(final GenericDialog gd)
-	{
-		gd.addNumericField( "number_of_peaks_to_check", 5, 0 );
-		gd.addNumericField( "minimal_overlap (percent of current overlap)", 0, 0 );
-		gd.addCheckbox( "subpixel_accuracy", true );
-		gd.addCheckbox( "interpolate_subpixel_cross_correlation (warning: slow!)", false );
-		gd.addCheckbox( "use_whole_image (warning: slow!)", false );
-		gd.addCheckbox( "manually_set_number_of_parallel_tasks", false );
-		gd.addNumericField( "number_of_parallel_tasks", (int) Math.max( 2, Threads.numThreads() / 6 ), 0 );
-		gd.addCheckbox( "show_expert_grouping_options", false );
-	}
-
-	public static PairwiseStitchingParameters getParametersFromGD(final GenericDialog gd)
-	{
-		if (gd.wasCanceled())
-			return null;
-
-		int peaksToCheck  = (int) gd.getNextNumber();
-		double minOverlap =  Math.min( Math.max( gd.getNextNumber()/100 , 0), 1);
-		boolean doSubpixel = gd.getNextBoolean();
-		boolean interpolateSubpixel = gd.getNextBoolean();
-		boolean useWholeImage = gd.getNextBoolean();
-		boolean manualNumTasks = gd.getNextBoolean();
-		int numTasks = (int) (manualNumTasks ? gd.getNextNumber() : Math.max( 2, Threads.numThreads() / 6 ));
-		boolean showExpertGrouping = gd.getNextBoolean();
-
-		return new PairwiseStitchingParameters(minOverlap, peaksToCheck, doSubpixel, interpolateSubpixel, showExpertGrouping, useWholeImage, manualNumTasks, numTasks);
-	}
-
-	public static PairwiseStitchingParameters askUserForParameters()
-	{
-		// ask user for parameters
-		GenericDialog gd = new GenericDialog("Pairwise stitching options");
-		addQueriesToGD( gd );
-
-		gd.showDialog();
-		return getParametersFromGD( gd );
-	}
 }
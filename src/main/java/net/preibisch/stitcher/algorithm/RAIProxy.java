@@ -21,16 +21,25 @@
  */
 package net.preibisch.stitcher.algorithm;
 
-import java.util.concurrent.ExecutorService;
-
 import mpicbg.spim.data.generic.sequence.BasicImgLoader;
+import mpicbg.spim.data.sequence.MultiResolutionImgLoader;
 import mpicbg.spim.data.sequence.ViewId;
+import net.imglib2.Cursor;
+import net.imglib2.FinalDimensions;
+import net.imglib2.FinalInterval;
 import net.imglib2.Interval;
 import net.imglib2.Positionable;
 import net.imglib2.RandomAccess;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.RealPositionable;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Intervals;
+import net.imglib2.util.Pair;
+import net.imglib2.util.ValuePair;
+import net.imglib2.view.Views;
 import net.preibisch.mvrecon.process.downsampling.DownsampleTools;
 
 public class RAIProxy <T extends RealType<T>> implements RandomAccessibleInterval< T >
@@ -39,20 +48,163 @@ public class RAIProxy <T extends RealType<T>> implements RandomAccessibleInterva
 	private BasicImgLoader imgLoader;
 	private ViewId vid;
 	private long[] downsampleFactors;
+	private Interval region;
 
 	public RAIProxy(BasicImgLoader imgLoader, ViewId vid, long[] downsampleFactors )
+	{
+		this( imgLoader, vid, downsampleFactors, null );
+	}
+
+	/**
+	 * @param imgLoader the ImgLoader to use
+	 * @param vid the view to load
+	 * @param downsampleFactors downsampling relative to full resolution
+	 * @param region the part of the (downsampled) image that will actually be read, may be null for all of it.
+	 * Only the pixels within it are loaded, the proxy still has the dimensions of the whole downsampled image
+	 * and repeats the border of the region outside of it (so warps slightly past the region, e.g. in Lucas-Kanade,
+	 * do not see a black edge).
+	 */
+	public RAIProxy(BasicImgLoader imgLoader, ViewId vid, long[] downsampleFactors, Interval region )
 	{
 		this.rai = null;
 		this.downsampleFactors = downsampleFactors;
 		this.imgLoader = imgLoader;
 		this.vid = vid;
+		this.region = region;
 	}
 	
 	@SuppressWarnings("unchecked")
 	private void loadIfNecessary()
 	{
 		if (rai == null)
-			rai = DownsampleTools.openAndDownsample( imgLoader, vid, downsampleFactors, false ).getA();
+		{
+			if ( region == null )
+				rai = DownsampleTools.openAndDownsample( imgLoader, vid, downsampleFactors, false ).getA();
+			else
+				rai = openRegion( imgLoader, vid, downsampleFactors, region );
+		}
+	}
+
+	/**
+	 * get the dimensions of a view after downsampling (when loaded via region), without loading any pixels
+	 * @param imgLoader the ImgLoader to use
+	 * @param vid the view
+	 * @param downsampleFactors downsampling relative to full resolution
+	 * @return the dimensions
+	 */
+	public static FinalDimensions getDownsampledDimensions( final BasicImgLoader imgLoader, final ViewId vid, final long[] downsampleFactors )
+	{
+		final Pair< RandomAccessibleInterval< ? >, long[] > level = openBestLevel( imgLoader, vid, downsampleFactors );
+		final long[] dims = new long[ level.getA().numDimensions() ];
+		for ( int d = 0; d < dims.length; ++d )
+			dims[ d ] = level.getA().dimension( d ) / level.getB()[ d ];
+		return new FinalDimensions( dims );
+	}
+
+	/**
+	 * open the (lazily loaded) image of the lowest resolution mipmap level we can reach the downsampling from
+	 * @return the image and the downsampling that remains to be done on it
+	 */
+	private static Pair< RandomAccessibleInterval< ? >, long[] > openBestLevel( final BasicImgLoader imgLoader, final ViewId vid, final long[] downsampleFactors )
+	{
+		final RandomAccessibleInterval< ? > img;
+		final long[] remaining = downsampleFactors.clone();
+
+		if ( MultiResolutionImgLoader.class.isInstance( imgLoader ) )
+		{
+			final MultiResolutionImgLoader mrImgLoader = ( MultiResolutionImgLoader ) imgLoader;
+			final double[][] mipmapResolutions = mrImgLoader.getSetupImgLoader( vid.getViewSetupId() ).getMipmapResolutions();
+
+			int bestLevel = 0;
+			for ( int level = 0; level < mipmapResolutions.length; ++level )
+			{
+				boolean fits = true;
+				for ( int d = 0; d < downsampleFactors.length; ++d )
+				{
+					final long f = Math.round( mipmapResolutions[ level ][ d ] );
+					if ( f > downsampleFactors[ d ] || downsampleFactors[ d ] % f != 0 )
+						fits = false;
+				}
+
+				if ( fits )
+					bestLevel = level;
+			}
+
+			for ( int d = 0; d < downsampleFactors.length; ++d )
+				remaining[ d ] /= Math.round( mipmapResolutions[ bestLevel ][ d ] );
+
+			img = mrImgLoader.getSetupImgLoader( vid.getViewSetupId() ).getImage( vid.getTimePointId(), bestLevel );
+		}
+		else
+		{
+			img = imgLoader.getSetupImgLoader( vid.getViewSetupId() ).getImage( vid.getTimePointId() );
+		}
+
+		final long[] factors = new long[ img.numDimensions() ];
+		for ( int d = 0; d < factors.length; ++d )
+			factors[ d ] = d < remaining.length ? Math.max( 1, remaining[ d ] ) : 1;
+
+		return new ValuePair<>( img, factors );
+	}
+
+	/**
+	 * load and downsample only the given region of a view, only the blocks of the mipmap level covering the region are read.
+	 * The region is cropped from the mipmap level aligned to the downsampling blocks and downsampled the same way
+	 * {@link DownsampleTools#openAndDownsample(BasicImgLoader, ViewId, long[], boolean)} does, so the pixels are identical
+	 * to the same region of the whole downsampled image (and {@link DownsampleTools#getMipMapTransform(BasicImgLoader, ViewId, long[])}
+	 * applies unchanged).
+	 * @return the region in an image with the dimensions of the whole downsampled view, outside of the region it repeats its border
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	static < T extends RealType< T > > RandomAccessibleInterval< T > openRegion( final BasicImgLoader imgLoader, final ViewId vid, final long[] downsampleFactors, final Interval region )
+	{
+		final Pair< RandomAccessibleInterval< ? >, long[] > level = openBestLevel( imgLoader, vid, downsampleFactors );
+		final RandomAccessibleInterval< T > levelImg = ( RandomAccessibleInterval< T > ) level.getA();
+		final long[] f = level.getB();
+		final int n = levelImg.numDimensions();
+
+		final long[] dims = new long[ n ];
+		for ( int d = 0; d < n; ++d )
+			dims[ d ] = levelImg.dimension( d ) / f[ d ];
+		final FinalInterval full = new FinalInterval( dims );
+
+		Interval clipped = Intervals.intersect( full, region );
+		if ( Intervals.isEmpty( clipped ) )
+			clipped = full;
+
+		// the blocks of the mipmap level that make up the output pixels of the region
+		final long[] srcMin = new long[ n ];
+		final long[] srcMax = new long[ n ];
+		boolean downsample = false;
+		for ( int d = 0; d < n; ++d )
+		{
+			srcMin[ d ] = clipped.min( d ) * f[ d ] + levelImg.min( d );
+			srcMax[ d ] = ( clipped.max( d ) + 1 ) * f[ d ] - 1 + levelImg.min( d );
+			downsample |= f[ d ] > 1;
+		}
+
+		final RandomAccessibleInterval< T > crop = Views.zeroMin( Views.interval( levelImg, srcMin, srcMax ) );
+		final RandomAccessibleInterval< T > out;
+
+		if ( downsample )
+		{
+			out = DownsampleTools.downsample( (RandomAccessibleInterval) crop, f );
+		}
+		else
+		{
+			// no additional downsampling, just copy (images from ImgLoaders are always of NativeType)
+			final Img< T > copy = new ArrayImgFactory( (NativeType) levelImg.getType() ).create( Intervals.dimensionsAsLongArray( crop ) );
+			final Cursor< T > cursorIn = Views.flatIterable( crop ).cursor();
+			final Cursor< T > cursorOut = copy.cursor();
+
+			while ( cursorOut.hasNext() )
+				cursorOut.next().set( cursorIn.next() );
+
+			out = copy;
+		}
+
+		// place the region at its position within the whole downsampled image
+		return Views.interval( Views.extendBorder( Views.translate( out, Intervals.minAsLongArray( clipped ) ) ), full );
 	}
 	
 	@Override
@@ -0,0 +1,255 @@
+/*-
+ * #%L
+ * Multiview stitching of large datasets.
+ * %%
+ * Copyright (C) 2016 - 2024 Big Stitcher developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.stitcher.algorithm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import net.imglib2.FinalRealInterval;
+import net.imglib2.RealInterval;
+
+/**
+ * Uniform grid index over axis-aligned bounding boxes, to quickly find all objects whose
+ * bounding boxes intersect a query box (e.g. potentially overlapping views).
+ * Every object is stored in all grid cells its bounding box touches.
+ *
+ * @param <T> type of the indexed objects
+ */
+public class SpatialGridIndex< T >
+{
+	private final int n;
+	private final double[] cellSize;
+	private final HashMap< CellKey, List< Entry< T > > > cells;
+	private final ArrayList< Entry< T > > entries;
+	private final HashMap< T, Entry< T > > lookup;
+
+	private static class Entry< T >
+	{
+		final T object;
+		final int index;
+		final double[] min;
+		final double[] max;
+
+		Entry( final T object, final int index, final RealInterval bounds )
+		{
+			this.object = object;
+			this.index = index;
+			this.min = new double[ bounds.numDimensions() ];
+			this.max = new double[ bounds.numDimensions() ];
+			bounds.realMin( min );
+			bounds.realMax( max );
+		}
+	}
+
+	private static class CellKey
+	{
+		final long[] pos;
+		final int hash;
+
+		CellKey( final long[] pos )
+		{
+			this.pos = pos;
+			this.hash = Arrays.hashCode( pos );
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return hash;
+		}
+
+		@Override
+		public boolean equals( final Object obj )
+		{
+			return obj instanceof CellKey && Arrays.equals( pos, ( (CellKey) obj ).pos );
+		}
+	}
+
+	/**
+	 * @param cellSize size of the grid cells in every dimension (should be in the order of the size of the indexed boxes)
+	 */
+	public SpatialGridIndex( final double[] cellSize )
+	{
+		this.n = cellSize.length;
+		this.cellSize = cellSize.clone();
+		for ( int d = 0; d < n; ++d )
+			if ( !( this.cellSize[ d ] > 0 ) )
+				this.cellSize[ d ] = 1;
+
+		this.cells = new HashMap<>();
+		this.entries = new ArrayList<>();
+		this.lookup = new HashMap<>();
+	}
+
+	/**
+	 * create an index with a cell size of the median size of the boxes and add all boxes
+	 * @param objects the objects to index
+	 * @param bounds the bounds of the objects (same order)
+	 * @param <T> object type
+	 * @return the index
+	 */
+	public static < T > SpatialGridIndex< T > create( final List< T > objects, final List< ? extends RealInterval > bounds )
+	{
+		final SpatialGridIndex< T > index = new SpatialGridIndex<>( suggestCellSize( bounds ) );
+
+		for ( int i = 0; i < objects.size(); ++i )
+			index.add( objects.get( i ), bounds.get( i ) );
+
+		return index;
+	}
+
+	/**
+	 * @param bounds boxes to index
+	 * @return the median size of the boxes in every dimension
+	 */
+	public static double[] suggestCellSize( final Collection< ? extends RealInterval > bounds )
+	{
+		final int n = bounds.iterator().next().numDimensions();
+		final double[] cellSize = new double[ n ];
+
+		for ( int d = 0; d < n; ++d )
+		{
+			final double[] sizes = new double[ bounds.size() ];
+			int i = 0;
+			for ( final RealInterval b : bounds )
+				sizes[ i++ ] = b.realMax( d ) - b.realMin( d );
+
+			Arrays.sort( sizes );
+			cellSize[ d ] = sizes[ sizes.length / 2 ];
+		}
+
+		return cellSize;
+	}
+
+	public int numDimensions()
+	{
+		return n;
+	}
+
+	public int size()
+	{
+		return entries.size();
+	}
+
+	public void add( final T object, final RealInterval bounds )
+	{
+		final Entry< T > entry = new Entry<>( object, entries.size(), bounds );
+		entries.add( entry );
+		lookup.put( object, entry );
+
+		forEachCell( entry.min, entry.max, key -> cells.computeIfAbsent( key, k -> new ArrayList<>() ).add( entry ) );
+	}
+
+	/**
+	 * @param bounds the query box
+	 * @return all objects whose bounds intersect the query box (touching counts as intersecting),
+	 * in the order they were added
+	 */
+	public List< T > query( final RealInterval bounds )
+	{
+		final double[] min = new double[ n ];
+		final double[] max = new double[ n ];
+		bounds.realMin( min );
+		bounds.realMax( max );
+
+		final Set< Entry< T > > candidates = new LinkedHashSet<>();
+		forEachCell( min, max, key -> {
+			final List< Entry< T > > cell = cells.get( key );
+			if ( cell != null )
+				candidates.addAll( cell );
+		});
+
+		final ArrayList< Entry< T > > hits = new ArrayList<>();
+		for ( final Entry< T > e : candidates )
+			if ( intersects( e.min, e.max, min, max ) )
+				hits.add( e );
+
+		// keep insertion order, so results do not depend on the grid
+		hits.sort( ( a, b ) -> Integer.compare( a.index, b.index ) );
+
+		final ArrayList< T > res = new ArrayList<>( hits.size() );
+		for ( final Entry< T > e : hits )
+			res.add( e.object );
+
+		return res;
+	}
+
+	/**
+	 * get the bounds of an object as stored in the index
+	 * @param object the object
+	 * @return its bounds or null if not indexed
+	 */
+	public RealInterval getBounds( final T object )
+	{
+		final Entry< T > e = lookup.get( object );
+		return e == null ? null : new FinalRealInterval( e.min, e.max );
+	}
+
+	private static boolean intersects( final double[] min1, final double[] max1, final double[] min2, final double[] max2 )
+	{
+		for ( int d = 0; d < min1.length; ++d )
+			if ( max1[ d ] < min2[ d ] || max2[ d ] < min1[ d ] )
+				return false;
+		return true;
+	}
+
+	private interface CellConsumer
+	{
+		void accept( CellKey key );
+	}
+
+	private void forEachCell( final double[] min, final double[] max, final CellConsumer consumer )
+	{
+		final long[] cmin = new long[ n ];
+		final long[] cmax = new long[ n ];
+		for ( int d = 0; d < n; ++d )
+		{
+			cmin[ d ] = (long) Math.floor( min[ d ] / cellSize[ d ] );
+			cmax[ d ] = (long) Math.floor( max[ d ] / cellSize[ d ] );
+		}
+
+		final long[] pos = cmin.clone();
+		while ( true )
+		{
+			consumer.accept( new CellKey( pos.clone() ) );
+
+			int d = 0;
+			for ( ; d < n; ++d )
+			{
+				if ( pos[ d ] < cmax[ d ] )
+				{
+					++pos[ d ];
+					break;
+				}
+				pos[ d ] = cmin[ d ];
+			}
+
+			if ( d == n )
+				return;
+		}
+	}
+}
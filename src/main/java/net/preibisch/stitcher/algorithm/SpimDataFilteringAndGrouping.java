@@ -22,7 +22,6 @@
 package net.preibisch.stitcher.algorithm;
 
 
-import java.awt.Font;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -31,27 +30,23 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
-import fiji.util.gui.GenericDialogPlus;
 import mpicbg.spim.data.generic.base.Entity;
-import mpicbg.spim.data.generic.base.NamedEntity;
 import mpicbg.spim.data.generic.sequence.BasicViewDescription;
 import mpicbg.spim.data.sequence.Angle;
 import mpicbg.spim.data.sequence.Channel;
 import mpicbg.spim.data.sequence.Illumination;
 import mpicbg.spim.data.sequence.Tile;
 import mpicbg.spim.data.sequence.TimePoint;
+import mpicbg.spim.data.sequence.ViewId;
+import net.imglib2.RealInterval;
 import net.imglib2.util.Pair;
 import net.imglib2.util.ValuePair;
-import net.preibisch.mvrecon.fiji.datasetmanager.FileListDatasetDefinition;
-import net.preibisch.mvrecon.fiji.plugin.util.GUIHelper;
 import net.preibisch.mvrecon.fiji.spimdata.SpimData2;
 import net.preibisch.mvrecon.fiji.spimdata.SpimDataTools;
-import net.preibisch.mvrecon.fiji.spimdata.explorer.FilteredAndGroupedExplorerPanel;
-import net.preibisch.mvrecon.fiji.spimdata.explorer.GroupedRowWindow;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
-import net.preibisch.stitcher.algorithm.GroupedViewAggregator.ActionType;
-import net.preibisch.stitcher.gui.StitchingExplorerPanel;
 
 public class SpimDataFilteringAndGrouping < AS extends SpimData2 >
 {
@@ -76,6 +71,15 @@ public class SpimDataFilteringAndGrouping < AS extends SpimData2 >
 	public boolean requestExpertSettingsForGlobalOpt = true;
 	boolean dialogWasCancelled = false;
 
+	// cached results of getGroupedViews() and view -> group indices (with and without filters),
+	// cleared by all mutators. The collections returned by the getters can also be changed directly,
+	// so the grouping factors, filters and sequence description they were computed for are checked on every access
+	private final Map< Boolean, List< Group< BasicViewDescription< ? > > > > cachedGroups = new HashMap<>();
+	private final Map< Boolean, Map< BasicViewDescription< ? >, Integer > > cachedGroupIndex = new HashMap<>();
+	private Object cachedSequenceDescription;
+	private Set< Class< ? extends Entity > > cachedGroupingFactors;
+	private Map< Class< ? extends Entity >, List< ? extends Entity > > cachedFilters;
+
 	public SpimDataFilteringAndGrouping(AS data)
 	{
 		groupingFactors = new HashSet<>();
@@ -96,46 +100,61 @@ public class SpimDataFilteringAndGrouping < AS extends SpimData2 >
 		return gva;
 	}
 
-	public void addGroupingFactor(Class<? extends Entity> factor ) {
+	public synchronized void addGroupingFactor(Class<? extends Entity> factor ) {
 		groupingFactors.add(factor);
+		clearCachedGroups();
 	}
 
-	public void addFilter(Class<? extends Entity> cl, List<? extends Entity> instances){
+	public synchronized void addFilter(Class<? extends Entity> cl, List<? extends Entity> instances){
 		filters.put(cl, instances);
+		clearCachedGroups();
 	}
 
-	public void addFilters(Collection<? extends BasicViewDescription<?>> selected)
+	public synchronized void addFilters(Collection<? extends BasicViewDescription<?>> selected)
 	{
 		for (Class<? extends Entity> cl : entityClasses)
 			filters.put( cl, new ArrayList<>(getInstancesOfAttribute( selected, cl ) ) );
+		clearCachedGroups();
 	}
 
-	public void addApplicationAxis(Class<? extends Entity> axis ) {
+	public synchronized void addApplicationAxis(Class<? extends Entity> axis ) {
 		axesOfApplication.add(axis);
+		clearCachedGroups();
 	}
 
-	public void addComparisonAxis(Class<? extends Entity> axis ) {
+	public synchronized void addComparisonAxis(Class<? extends Entity> axis ) {
 		axesOfComparison.add(axis);
+		clearCachedGroups();
 	}
 
-	public void clearGroupingFactors()
+	public synchronized void clearGroupingFactors()
 	{
 		groupingFactors.clear();
+		clearCachedGroups();
 	}
 
-	public void clearFilters()
+	public synchronized void clearFilters()
 	{
 		filters.clear();
+		clearCachedGroups();
 	}
 
-	public void clearApplicationAxes()
+	public synchronized void clearApplicationAxes()
 	{
 		axesOfApplication.clear();
+		clearCachedGroups();
 	}
 
-	public void clearComparisonAxes()
+	public synchronized void clearComparisonAxes()
 	{
 		axesOfComparison.clear();
+		clearCachedGroups();
+	}
+
+	private synchronized void clearCachedGroups()
+	{
+		cachedGroups.clear();
+		cachedGroupIndex.clear();
 	}
 
 	public Set< Class< ? extends Entity > > getGroupingFactors()
@@ -165,12 +184,74 @@ public class SpimDataFilteringAndGrouping < AS extends SpimData2 >
 
 	public List< Group< BasicViewDescription< ?  > >> getGroupedViews(boolean filtered)
 	{
-		final List<BasicViewDescription< ? > > ungroupedElements =
-				SpimDataTools.getFilteredViewDescriptions( data.getSequenceDescription(), filtered? filters : new HashMap<>(), false );
-		return Group.combineBy( ungroupedElements, groupingFactors);
+		// copies, callers may modify the groups
+		final List< Group< BasicViewDescription< ? > > > groups = new ArrayList<>();
+		for ( final Group< BasicViewDescription< ? > > group : getCachedGroups( filtered ) )
+			groups.add( new Group<>( group.getViews() ) );
+
+		return groups;
+	}
+
+	/**
+	 * get the index of the group (in the order of {@link #getGroupedViews(boolean)}) every view belongs to,
+	 * views that are not part of any group are not in the map
+	 * @param filtered apply the filters
+	 * @return map view to group index (do not modify)
+	 */
+	public synchronized Map< BasicViewDescription< ? >, Integer > getGroupIndex( final boolean filtered )
+	{
+		getCachedGroups( filtered );
+		return cachedGroupIndex.get( filtered );
+	}
+
+	private synchronized List< Group< BasicViewDescription< ? > > > getCachedGroups( final boolean filtered )
+	{
+		if ( cachedSequenceDescription != data.getSequenceDescription() || !groupingFactors.equals( cachedGroupingFactors ) || !filters.equals( cachedFilters ) )
+		{
+			clearCachedGroups();
+			cachedSequenceDescription = data.getSequenceDescription();
+			cachedGroupingFactors = new HashSet<>( groupingFactors );
+
+			// copy the lists as well, they could be changed by the caller of addFilter()
+			cachedFilters = new HashMap<>();
+			for ( final Map.Entry< Class< ? extends Entity >, List< ? extends Entity > > e : filters.entrySet() )
+				cachedFilters.put( e.getKey(), e.getValue() == null ? null : new ArrayList<>( e.getValue() ) );
+		}
+
+		List< Group< BasicViewDescription< ? > > > groups = cachedGroups.get( filtered );
+
+		if ( groups == null )
+		{
+			final List<BasicViewDescription< ? > > ungroupedElements =
+					SpimDataTools.getFilteredViewDescriptions( data.getSequenceDescription(), filtered? filters : new HashMap<>(), false );
+			groups = Group.combineBy( ungroupedElements, groupingFactors);
+
+			final Map< BasicViewDescription< ? >, Integer > groupIndex = new HashMap<>();
+			for ( int i = 0; i < groups.size(); ++i )
+				for ( final BasicViewDescription< ? > vd : groups.get( i ).getViews() )
+					groupIndex.put( vd, i );
+
+			cachedGroups.put( filtered, groups );
+			cachedGroupIndex.put( filtered, groupIndex );
+		}
+
+		return groups;
 	}
 
 	public List<Pair<? extends Group< ? extends BasicViewDescription< ? > >, ? extends Group< ? extends BasicViewDescription< ? >>>> getComparisons()
+	{
+		return getComparisons( false );
+	}
+
+	/**
+	 * get the pairs of groups that should be compared: they do not differ along an axis along which we want to
+	 * treat elements individually (e.g. Angle), but they differ along an axis that we want to register (e.g Tile)
+	 * 
+	 * @param onlySpatialNeighbors if true, only return pairs whose transformed bounding boxes overlap
+	 * (found via a spatial index instead of testing all pairs)
+	 * @return pairs of groups to compare
+	 */
+	public List<Pair<? extends Group< ? extends BasicViewDescription< ? > >, ? extends Group< ? extends BasicViewDescription< ? >>>> getComparisons( final boolean onlySpatialNeighbors )
 	{
 		final List<Pair<? extends Group< ? extends BasicViewDescription< ? > >, ? extends Group< ? extends BasicViewDescription< ? >>>> res = new ArrayList<>();
 
@@ -180,45 +261,167 @@ public class SpimDataFilteringAndGrouping < AS extends SpimData2 >
 		// then group
 		final List< Group< BasicViewDescription< ?  > >> groupedElements = 
 				Group.combineBy(ungroupedElements, groupingFactors);
-		
-		// go through possible group pairs
-		for (int i = 0; i < groupedElements.size(); ++i)
-			for(int j = i+1; j < groupedElements.size(); ++j)
-			{
-				// we will want to process the pair if:
-				// the groups do not differ along an axis along which we want to treat elements individually (e.g. Angle)
-				// but they differ along an axis that we want to register (e.g Tile)
-				if (!groupsDifferByAny( groupedElements.get( i ), groupedElements.get( j ), axesOfApplication ) 
-						&& groupsDifferByAny( groupedElements.get( i ), groupedElements.get( j ), axesOfComparison ))
-					res.add(new ValuePair<>(groupedElements.get( i ), groupedElements.get( j )));
-			}
-		return res;
-	}
-	
-	private static boolean groupsDifferByAny(Iterable< BasicViewDescription< ?  > > vds1, Iterable< BasicViewDescription< ?  > > vds2, Set<Class<? extends Entity>> entities)
-	{
-		for (Class<? extends Entity> entity : entities)
+
+		// precompute the instances of the application and comparison axes of every group
+		// (null if a group contains multiple instances -> it differs from every other group along that axis)
+		final List< List< Entity > > applicationKeys = new ArrayList<>();
+		final List< List< Entity > > comparisonKeys = new ArrayList<>();
+		for ( final Group< BasicViewDescription< ?  > > group : groupedElements )
 		{
-			for ( BasicViewDescription< ?  > vd1 : vds1)
-				for ( BasicViewDescription< ?  > vd2 : vds2)
+			applicationKeys.add( getEntityKey( group, axesOfApplication ) );
+			comparisonKeys.add( getEntityKey( group, axesOfComparison ) );
+		}
+
+		// groups that do not differ along the application axes have the same key,
+		// groups with multiple instances of an application axis differ from all others and are never compared
+		final Map< List< Entity >, List< Integer > > buckets = new HashMap<>();
+		for ( int i = 0; i < groupedElements.size(); ++i )
+			if ( applicationKeys.get( i ) != null )
+				buckets.computeIfAbsent( applicationKeys.get( i ), k -> new ArrayList<>() ).add( i );
+
+		final List< int[] > indexPairs = new ArrayList<>();
+
+		for ( final List< Integer > bucket : buckets.values() )
+		{
+			if ( onlySpatialNeighbors )
+			{
+				// groups without known size can not be indexed, compare them with everything
+				final List< Integer > indexed = new ArrayList<>();
+				final List< RealInterval > bounds = new ArrayList<>();
+				final List< Integer > unknown = new ArrayList<>();
+
+				for ( final int i : bucket )
 				{
-					if (entity == TimePoint.class)
+					final RealInterval bb = TransformTools.getTransformedBoundingBox( groupedElements.get( i ), data.getViewRegistrations() );
+					if ( bb == null )
 					{
-						if (!vd1.getTimePoint().equals( vd2.getTimePoint() ))
-							return true;
+						unknown.add( i );
 					}
 					else
 					{
-						if (!vd1.getViewSetup().getAttribute( entity ).equals( vd2.getViewSetup().getAttribute( entity ) ) )
-							return true;
+						indexed.add( i );
+						bounds.add( bb );
 					}
-					
 				}
+
+				if ( indexed.size() > 0 )
+				{
+					final SpatialGridIndex< Integer > index = SpatialGridIndex.create( indexed, bounds );
+					for ( int k = 0; k < indexed.size(); ++k )
+						for ( final int j : index.query( bounds.get( k ) ) )
+							if ( indexed.get( k ) < j )
+								indexPairs.add( new int[] { indexed.get( k ), j } );
+				}
+
+				for ( final int i : unknown )
+					for ( final int j : bucket )
+						if ( i != j && ( unknown.indexOf( j ) < 0 || i < j ) )
+							indexPairs.add( new int[] { Math.min( i, j ), Math.max( i, j ) } );
+			}
+			else
+			{
+				for ( int a = 0; a < bucket.size(); ++a )
+					for ( int b = a + 1; b < bucket.size(); ++b )
+						indexPairs.add( new int[] { bucket.get( a ), bucket.get( b ) } );
+			}
+		}
+
+		// same order as iterating over all pairs i < j
+		indexPairs.sort( ( a, b ) -> a[ 0 ] != b[ 0 ] ? Integer.compare( a[ 0 ], b[ 0 ] ) : Integer.compare( a[ 1 ], b[ 1 ] ) );
+
+		for ( final int[] ij : indexPairs )
+		{
+			final List< Entity > keyI = comparisonKeys.get( ij[ 0 ] );
+
+			// groups that do not differ along any axis we want to register
+			if ( keyI != null && keyI.equals( comparisonKeys.get( ij[ 1 ] ) ) )
+				continue;
+
+			res.add( new ValuePair<>( groupedElements.get( ij[ 0 ] ), groupedElements.get( ij[ 1 ] ) ) );
 		}
-		
-		return false;
+
+		return res;
 	}
 
+	/**
+	 * get a test for pairs of groups that {@link #getComparisons()} would return (regardless of their overlap),
+	 * e.g. to find all old results of the groups we compare without creating all pairs
+	 * @return true for pairs of groups that are compared (in any order)
+	 */
+	public Predicate< Pair< ? extends Group< ? extends ViewId >, ? extends Group< ? extends ViewId > > > getComparisonFilter()
+	{
+		final List<BasicViewDescription< ? > > ungroupedElements =
+				SpimDataTools.getFilteredViewDescriptions( data.getSequenceDescription(), filters);
+		final List< Group< BasicViewDescription< ?  > >> groupedElements = 
+				Group.combineBy(ungroupedElements, groupingFactors);
+
+		final Map< Set< ViewId >, Integer > groupIndex = new HashMap<>();
+		final List< List< Entity > > applicationKeys = new ArrayList<>();
+		final List< List< Entity > > comparisonKeys = new ArrayList<>();
+		for ( int i = 0; i < groupedElements.size(); ++i )
+		{
+			groupIndex.put( getViewIds( groupedElements.get( i ) ), i );
+			applicationKeys.add( getEntityKey( groupedElements.get( i ), axesOfApplication ) );
+			comparisonKeys.add( getEntityKey( groupedElements.get( i ), axesOfComparison ) );
+		}
+
+		return pair -> {
+			final Integer i = groupIndex.get( getViewIds( pair.getA() ) );
+			final Integer j = groupIndex.get( getViewIds( pair.getB() ) );
+
+			if ( i == null || j == null || i.equals( j ) )
+				return false;
+
+			// same rules as in getComparisons()
+			if ( applicationKeys.get( i ) == null || !applicationKeys.get( i ).equals( applicationKeys.get( j ) ) )
+				return false;
+
+			return comparisonKeys.get( i ) == null || !comparisonKeys.get( i ).equals( comparisonKeys.get( j ) );
+		};
+	}
+
+	private static Set< ViewId > getViewIds( final Group< ? extends ViewId > group )
+	{
+		return group.getViews().stream().map( v -> new ViewId( v.getTimePointId(), v.getViewSetupId() ) ).collect( Collectors.toSet() );
+	}
+
+	/**
+	 * get the instances of the given entity classes that all views of a group have in common
+	 * @param group group of views
+	 * @param entities entity classes
+	 * @return the instances (ordered like entityClasses) or null if the group has multiple instances of any of the classes
+	 */
+	private static List< Entity > getEntityKey( final Group< BasicViewDescription< ? > > group, final Set< Class< ? extends Entity > > entities )
+	{
+		final List< Entity > key = new ArrayList<>();
+
+		for ( final Class< ? extends Entity > entity : entityClasses )
+		{
+			if ( !entities.contains( entity ) )
+				continue;
+
+			final Set< Entity > instances = getInstancesOfAttribute( group.getViews(), entity );
+			if ( instances.size() != 1 )
+				return null;
+
+			key.add( instances.iterator().next() );
+		}
+
+		// entity classes that are not part of the default list
+		for ( final Class< ? extends Entity > entity : entities )
+		{
+			if ( entityClasses.contains( entity ) )
+				continue;
+
+			final Set< Entity > instances = getInstancesOfAttribute( group.getViews(), entity );
+			if ( instances.size() != 1 )
+				return null;
+
+			key.add( instances.iterator().next() );
+		}
+
+		return key;
+	}
 
 	/**
 	 * get all instances of the attribute class cl in the (grouped) views vds. 
@@ -286,230 +489,8 @@ public class SpimDataFilteringAndGrouping < AS extends SpimData2 >
 		return dialogWasCancelled;
 	}
 
-	// convenience method if we do not know selected views
-	public SpimDataFilteringAndGrouping< AS> askUserForFiltering()
-	{
-		// select all
-		return askUserForFiltering( data.getSequenceDescription().getViewDescriptions().values() );
-	}
-
-	// convenience method if have a panel (which can give us selected views)
-	public SpimDataFilteringAndGrouping< AS > askUserForFiltering(FilteredAndGroupedExplorerPanel< AS > panel)
-	{
-		List< BasicViewDescription< ? > > views;
-
-		if (panel instanceof GroupedRowWindow)
-		{
-			Collection< List< BasicViewDescription< ? > > > selectedRowsGroups = ((GroupedRowWindow)panel).selectedRowsGroups();
-			views = selectedRowsGroups.stream().reduce( new ArrayList<>(), (x, y) -> {x.addAll(y); return x;} );
-		}
-		else
-			views = panel.selectedRows();
-		
-		SpimDataFilteringAndGrouping< AS > res = askUserForFiltering( views );
-		return res;
-		
-	}
-
-	public SpimDataFilteringAndGrouping< AS> askUserForFiltering(Collection<? extends BasicViewDescription< ? > > views)
-	{
-
-		GenericDialogPlus gdp1 = new GenericDialogPlus( "Select Views To Process" );
-		
-		final String msg = ( "<html><strong>Select wether you want to process all instances of an attribute <br>"
-				+ " or just the currently selected Views</strong> </html>" ) ;
-		FileListDatasetDefinition.addMessageAsJLabel(msg, gdp1);
-		
-		String[] viewSelectionChoices = new String[] {"all", "selected"};
-		
-		for (Class<? extends Entity> cl : entityClasses)
-		{
-			boolean allSelected = (getInstancesOfAttribute(views, cl ).containsAll(SpimDataTools.getInstancesOfAttribute( data.getSequenceDescription(), cl )));
-			gdp1.addChoice( cl.getSimpleName(), viewSelectionChoices, allSelected ? viewSelectionChoices[0] : viewSelectionChoices[1] );			
-		}
-		
-		gdp1.showDialog();
-		if (gdp1.wasCanceled())
-		{
-			dialogWasCancelled = true;
-			return this;
-		}
-		
-		for (Class<? extends Entity> cl : entityClasses)
-		{
-			boolean useCurrent = gdp1.getNextChoiceIndex() == 1;
-			if (useCurrent)
-				addFilter( cl, new ArrayList<>(getInstancesOfAttribute(views, cl )) );
-		}
-		
-		return this;
-	
-	}
-
-	public SpimDataFilteringAndGrouping< AS > askUserForGrouping()
-	{
-		// use the current filtering as preset
-		return askUserForGrouping( SpimDataTools.getFilteredViewDescriptions( data.getSequenceDescription(), getFilters() ), new ArrayList<>(), new HashSet<>() );
-	}
-
-	public SpimDataFilteringAndGrouping< AS > askUserForGrouping( FilteredAndGroupedExplorerPanel< AS > panel)
-	{
-		List< BasicViewDescription< ? > > views;
-
-		if (panel instanceof GroupedRowWindow)
-		{
-			Collection< List< BasicViewDescription< ? > > > selectedRowsGroups = ((GroupedRowWindow)panel).selectedRowsGroups();
-			views = selectedRowsGroups.stream().reduce( new ArrayList<>(), (x, y) -> {x.addAll(y); return x;} );
-		}
-		else
-			views = panel.selectedRows();
-
-		final HashSet< Class<? extends Entity> > comparisonsRequested = new HashSet<>();
-		if (StitchingExplorerPanel.class.isInstance( panel ) )
-		{
-			if (!panel.channelsGrouped())
-				comparisonsRequested.add( Channel.class );
-			if (!panel.illumsGrouped())
-				comparisonsRequested.add( Illumination.class );
-			if (!panel.tilesGrouped())
-				comparisonsRequested.add( Tile.class );
-		}
-		return askUserForGrouping( views, panel.getTableModel().getGroupingFactors(), comparisonsRequested);
-	}
-
-	public SpimDataFilteringAndGrouping< AS> askUserForGrouping( 
-					Collection<? extends BasicViewDescription< ? > > views,
-					Collection<Class<? extends Entity>> groupingFactors,
-					Collection<Class<? extends Entity>> comparisionFactors)
-	{
-		GenericDialogPlus gdp2 = new GenericDialogPlus( "Select How to Process Views" );
-		
-		final String msg = ( "<html><strong>Select how to process the different attributes </strong> <br>"
-				+ "<strong>COMPARE:</strong> calculate pairwise shift between instances <br>"
-				+ "<strong>GROUP:</strong> combine all instances into one view<br>"
-				+ "<strong>TREAT INDIVIDUALLY:</strong> process instances one after the other, but do not compare or group <br> </html>");
-		FileListDatasetDefinition.addMessageAsJLabel(msg, gdp2);
-
-		String[] computeChoices = new String[] {"compare", "group", "treat individually"};
-		for (Class<? extends Entity> cl : entityClasses)
-		{
-			boolean isGrouping = groupingFactors.contains( cl );
-			boolean isFilterOrSingleton = getFilters().keySet().contains( cl ) || getInstancesOfAttribute(views, cl ).size() <= 1;
-			boolean isComparison = comparisionFactors.contains( cl );
-			int idx = isGrouping ? 1 : isComparison || !isFilterOrSingleton ? 0 : 2;
-			gdp2.addChoice( "How_to_treat_" + cl.getSimpleName() + "s:", computeChoices, computeChoices[idx] );
-		}
-
-		gdp2.showDialog();
-		if (gdp2.wasCanceled())
-		{
-			dialogWasCancelled = true;
-			return this;
-		}
-
-		for (Class<? extends Entity> cl : entityClasses)
-		{
-			int selection = gdp2.getNextChoiceIndex();
-			if (selection == 0)
-				addComparisonAxis( cl );
-			else if (selection == 1)
-				addGroupingFactor( cl );
-			else
-				addApplicationAxis( cl );
-		}
-
-		return this;
-	}
-
-	/**
-	 * ask user how to aggregate grouped views (for all the entity classes we group by)
-	 * if a default choice for a class is provided, the user will not be asked for that class
-	 * @param defaultChoices pre-set choices for specific classes (NB: may not be 'pick specific')
-	 * @return self
-	 */
-	public SpimDataFilteringAndGrouping< AS> askUserForGroupingAggregator(final Map<Class<? extends Entity>, ActionType> defaultChoices)
-	{
-		// ask what to do with grouped views
-		GenericDialogPlus gdp = new GenericDialogPlus( "Select How to Treat Grouped Views" );		
-
-//		FileListDatasetDefinition.addMessageAsJLabel("<html><strong>Select which instances of attributes to use in Grouped Views </strong> <br></html>", gdp3);
-		gdp.addMessage( "Please specify how to deal with grouped Views.", new Font( Font.SANS_SERIF, Font.BOLD, 14 ), GUIHelper.neutral );
-
-		// filter first
-		final List<BasicViewDescription< ? > > ungroupedElements =
-						SpimDataTools.getFilteredViewDescriptions( data.getSequenceDescription(), getFilters());
-		// then group
-		final List< Group< BasicViewDescription< ?  > >> groupedElements = 
-						Group.combineBy( ungroupedElements, getGroupingFactors());
-
-		boolean dialogNecessary = false;
-		for (Class<? extends Entity> cl : getGroupingFactors())
-		{
-			if (defaultChoices != null && defaultChoices.containsKey( cl ))
-				continue;
-
-			List<String> selection = new ArrayList<>();
-			selection.add( "Average " + cl.getSimpleName() +"s" );
-//			selection.add(  "pick brightest" );
-			List< ? extends Entity > instancesInAllGroups = getInstancesInAllGroups( groupedElements, cl );
-
-			// we only have one instance of entity, do not ask for aggregation in that case
-			if (instancesInAllGroups.size() < 2)
-				continue;
-			// we have more than one instance of any entity -> we have to display dialog
-			dialogNecessary = true;
-
-			instancesInAllGroups.forEach( ( e ) -> 
-			{
-				if (e instanceof NamedEntity)
-					selection.add( "use " + cl.getSimpleName() + " " + ((NamedEntity)e).getName());
-				else
-					selection.add( "use " + cl.getSimpleName() + " " + Integer.toString( e.getId() ));
-			});
-			
-			String[] selectionArray = selection.toArray( new String[selection.size()] );
-			gdp.addChoice( cl.getSimpleName() + "s:", selectionArray, selectionArray[0] );
-		}
-
-		if (dialogNecessary)
-			gdp.showDialog();
-			if (gdp.wasCanceled())
-			{
-				dialogWasCancelled = true;
-				return this;
-			}
-
-		for (Class<? extends Entity> cl : getGroupingFactors())
-		{
-			if (defaultChoices != null && defaultChoices.containsKey( cl ))
-			{
-				getGroupedViewAggregator().addAction(defaultChoices.get( cl ), cl, null);
-				continue;
-			}
-
-			List< ? extends Entity > instancesInAllGroups = getInstancesInAllGroups( groupedElements, cl );
-
-			// we have only one instance -> "average" (i.e. just keep the one view)
-			if (instancesInAllGroups.size() < 2)
-			{
-				getGroupedViewAggregator().addAction( ActionType.AVERAGE, cl, null );
-				continue;
-			}
-
-			int nextChoiceIndex = gdp.getNextChoiceIndex();
-			if (nextChoiceIndex == 0)
-				getGroupedViewAggregator().addAction( ActionType.AVERAGE, cl, null );
-//			else if (nextChoiceIndex == 1)
-//				getGroupedViewAggregator().addAction( ActionType.PICK_BRIGHTEST, cl, null );
-			else
-				getGroupedViewAggregator().addAction( ActionType.PICK_SPECIFIC, cl, instancesInAllGroups.get( nextChoiceIndex - 1 ) );
-		}
-		
-		return this;
-	}
-
-	public SpimDataFilteringAndGrouping< AS> askUserForGroupingAggregator()
+	public void setDialogWasCancelled( final boolean dialogWasCancelled )
 	{
-		return askUserForGroupingAggregator( new HashMap<>() );
+		this.dialogWasCancelled = dialogWasCancelled;
 	}
 }
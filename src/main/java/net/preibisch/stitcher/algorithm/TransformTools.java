@@ -22,13 +22,18 @@
 package net.preibisch.stitcher.algorithm;
 
 import java.util.ArrayList;
+import java.util.List;
 
 import mpicbg.models.Affine3D;
 import mpicbg.models.AffineModel3D;
 import mpicbg.models.PointMatch;
+import mpicbg.spim.data.generic.sequence.BasicViewDescription;
 import mpicbg.spim.data.registration.ViewRegistration;
+import mpicbg.spim.data.registration.ViewRegistrations;
+import net.imglib2.Dimensions;
 import net.imglib2.FinalInterval;
 import net.imglib2.FinalRealInterval;
+import net.imglib2.Interval;
 import net.imglib2.RealInterval;
 import net.imglib2.RealPoint;
 import net.imglib2.realtransform.AffineGet;
@@ -280,6 +285,98 @@ public class TransformTools {
 		return new FinalRealInterval(min, max);
 	}
 	
+	/**
+	 * get the union of the bounding boxes of views in global coordinates
+	 * @param views the views
+	 * @param vrs the view registrations
+	 * @return bounding box of all views or null if the size of any of the views is not known
+	 */
+	public static FinalRealInterval getTransformedBoundingBox(
+			final Iterable< ? extends BasicViewDescription< ? > > views,
+			final ViewRegistrations vrs )
+	{
+		double[] min = null;
+		double[] max = null;
+
+		for ( final BasicViewDescription< ? > vd : views )
+		{
+			if ( !vd.getViewSetup().hasSize() )
+				return null;
+
+			final Dimensions dims = vd.getViewSetup().getSize();
+			final ViewRegistration vr = vrs.getViewRegistration( vd );
+			vr.updateModel();
+
+			final FinalRealInterval bounds = vr.getModel().estimateBounds( new FinalInterval( dims ) );
+
+			if ( min == null )
+			{
+				min = new double[ bounds.numDimensions() ];
+				max = new double[ bounds.numDimensions() ];
+				bounds.realMin( min );
+				bounds.realMax( max );
+			}
+			else
+			{
+				for ( int d = 0; d < min.length; ++d )
+				{
+					min[ d ] = Math.min( min[ d ], bounds.realMin( d ) );
+					max[ d ] = Math.max( max[ d ], bounds.realMax( d ) );
+				}
+			}
+		}
+
+		if ( min == null )
+			return null;
+
+		return new FinalRealInterval( min, max );
+	}
+
+	/**
+	 * blocks of size blockSize spread evenly over an interval, blocksPerDimension per dimension,
+	 * but only a single (centered) block along dimensions that are not larger than blockSize
+	 * @param interval the interval
+	 * @param blockSize size of the blocks
+	 * @param blocksPerDimension number of blocks along dimensions larger than blockSize
+	 * @return the blocks, every block once
+	 */
+	public static List< FinalInterval > getSampleBlocks( final Interval interval, final int blockSize, final int blocksPerDimension )
+	{
+		final int n = interval.numDimensions();
+		final long[] min = new long[ n ];
+		final long[] max = new long[ n ];
+		final int[] block = new int[ n ];
+		final int[] numBlocks = new int[ n ];
+
+		for ( int d = 0; d < n; ++d )
+			numBlocks[ d ] = interval.dimension( d ) > blockSize ? Math.max( 1, blocksPerDimension ) : 1;
+
+		final List< FinalInterval > blocks = new ArrayList<>();
+
+		while ( true )
+		{
+			for ( int d = 0; d < n; ++d )
+			{
+				final long size = Math.min( blockSize, interval.dimension( d ) );
+				final long free = interval.dimension( d ) - size;
+				min[ d ] = interval.min( d ) + ( numBlocks[ d ] > 1 ? free * block[ d ] / ( numBlocks[ d ] - 1 ) : free / 2 );
+				max[ d ] = min[ d ] + size - 1;
+			}
+
+			blocks.add( new FinalInterval( min, max ) );
+
+			// next block
+			int d = 0;
+			while ( d < n && ++block[ d ] >= numBlocks[ d ] )
+				block[ d++ ] = 0;
+
+			if ( d == n )
+				break;
+		}
+
+		return blocks;
+	}
+
 	public static void main(String[] args)
 	{
 		AffineTransform3D scale = new AffineTransform3D();
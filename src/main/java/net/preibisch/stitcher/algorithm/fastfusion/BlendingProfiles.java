@@ -0,0 +1,148 @@
+/*-
+ * #%L
+ * Multiview stitching of large datasets.
+ * %%
+ * Copyright (C) 2016 - 2024 Big Stitcher developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.stitcher.algorithm.fastfusion;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The blending weights of {@link BlendingTools#computeWeight} are separable, i.e. the product of one
+ * 1D profile per dimension. This precomputes (and caches) these profiles, so that fusion only needs
+ * one multiplication per dimension and pixel instead of distances and lookup table indices.
+ */
+public class BlendingProfiles
+{
+	// views usually share sizes, border and blending, so there are only few distinct profiles
+	private static final int MAX_CACHE_SIZE = 1024;
+	private static final ConcurrentHashMap< ProfileKey, float[] > cache = new ConcurrentHashMap<>();
+
+	/**
+	 * get the blending profile along one dimension of an image, entry x is the weight at location x - offset
+	 * (relative to the min of the image), the profile has dimension + 1 entries so that it also covers
+	 * the additional pixel of an image interpolated at a subpixel offset
+	 * @param dimension size of the image in this dimension
+	 * @param offset (subpixel) offset of the sample grid to the image
+	 * @param border blank pixels on each border
+	 * @param blending extent of blending on each border
+	 * @return the (shared, do not modify) profile
+	 */
+	public static float[] getProfile( final int dimension, final float offset, final float border, final float blending )
+	{
+		final ProfileKey key = new ProfileKey( dimension, offset, border, blending );
+		float[] profile = cache.get( key );
+
+		if ( profile == null )
+		{
+			profile = computeProfile( dimension, offset, border, blending );
+
+			if ( cache.size() >= MAX_CACHE_SIZE )
+				cache.clear();
+
+			cache.put( key, profile );
+		}
+
+		return profile;
+	}
+
+	/**
+	 * get the blending profiles of all dimensions of an image
+	 * @param dimensions size of the image
+	 * @param offset (subpixel) offset of the sample grid to the image, null for none
+	 * @param border blank pixels on each border
+	 * @param blending extent of blending on each border
+	 * @return one profile per dimension (see {@link #getProfile(int, float, float, float)})
+	 */
+	public static float[][] getProfiles( final long[] dimensions, final float[] offset, final float[] border, final float[] blending )
+	{
+		final float[][] profiles = new float[ dimensions.length ][];
+
+		for ( int d = 0; d < dimensions.length; ++d )
+			profiles[ d ] = getProfile( (int) dimensions[ d ], offset == null ? 0 : offset[ d ], border[ d ], blending[ d ] );
+
+		return profiles;
+	}
+
+	/**
+	 * @param profiles profiles of all dimensions
+	 * @param position position relative to the first profile entries
+	 * @return the product of the profiles at the position, 0 outside of the profiles
+	 */
+	public static float weight( final float[][] profiles, final long[] position )
+	{
+		float w = 1;
+
+		for ( int d = 0; d < profiles.length; ++d )
+		{
+			final long x = position[ d ];
+
+			if ( x < 0 || x >= profiles[ d ].length )
+				return 0;
+
+			w *= profiles[ d ][ (int) x ];
+		}
+
+		return w;
+	}
+
+	public static float[] computeProfile( final int dimension, final float offset, final float border, final float blending )
+	{
+		final float[] profile = new float[ dimension + 1 ];
+
+		for ( int x = 0; x <= dimension; ++x )
+			profile[ x ] = BlendingTools.computeWeight1D( x - offset, dimension - 1, border, blending );
+
+		return profile;
+	}
+
+	private static class ProfileKey
+	{
+		final int dimension;
+		final float offset, border, blending;
+
+		ProfileKey( final int dimension, final float offset, final float border, final float blending )
+		{
+			this.dimension = dimension;
+			this.offset = offset;
+			this.border = border;
+			this.blending = blending;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return Arrays.hashCode( new float[] { offset, border, blending } ) * 31 + dimension;
+		}
+
+		@Override
+		public boolean equals( final Object o )
+		{
+			if ( !( o instanceof ProfileKey ) )
+				return false;
+
+			final ProfileKey k = (ProfileKey) o;
+			return dimension == k.dimension &&
+					Float.compare( offset, k.offset ) == 0 &&
+					Float.compare( border, k.border ) == 0 &&
+					Float.compare( blending, k.blending ) == 0;
+		}
+	}
+}
@@ -66,4 +66,32 @@ public class BlendingTools
 		return minDistance;
 	}
 
+	/**
+	 * the blending weight along a single dimension, {@link #computeWeight} is the product of these over all dimensions
+	 * @param l location relative to the min of the image
+	 * @param dimMinus1 size of the image minus 1
+	 * @param border blank pixels on each border
+	 * @param blending extent of blending on each border
+	 * @return weight [0...1]
+	 */
+	public static float computeWeight1D(
+			final float l,
+			final int dimMinus1,
+			final float border,
+			final float blending )
+	{
+		// the distance to the border that is closer
+		final float dist = Math.max( 0, Math.min( l - border, dimMinus1 - l - border ) );
+
+		if ( dist == 0 )
+			return 0;
+
+		final float relDist = dist / blending;
+
+		if ( relDist < 1 )
+			return (float) lookUp[ indexFor( relDist ) ];
+		else
+			return 1;
+	}
+
 }
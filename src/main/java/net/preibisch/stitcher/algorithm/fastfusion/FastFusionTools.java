@@ -38,6 +38,7 @@ import mpicbg.spim.data.sequence.ImgLoader;
 import mpicbg.spim.data.sequence.MultiResolutionImgLoader;
 import mpicbg.spim.data.sequence.ViewDescription;
 import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
 import net.imglib2.Interval;
 import net.imglib2.IterableInterval;
 import net.imglib2.RandomAccess;
@@ -55,6 +56,7 @@ import net.imglib2.realtransform.Scale3D;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
 import net.imglib2.util.Pair;
 import net.imglib2.util.Util;
 import net.imglib2.util.ValuePair;
@@ -84,42 +86,81 @@ public class FastFusionTools
 			int[] translation,
 			ExecutorService pool)
 	{
-		final Vector< ImagePortion > portions = FusionTools.divideIntoPortions( in.size() );
-		final ArrayList< Callable< Void > > calls = new ArrayList<>();
-		for (final ImagePortion portion : portions)
-		{
-			calls.add( new Callable< Void >()
-			{
-				@Override
-				public Void call() throws Exception
-				{
-					Cursor<T> inC = in.localizingCursor();
-					RandomAccess< R > outRA = out.randomAccess();
-					inC.jumpFwd( portion.getStartPosition() );
-					for (long i=0; i<portion.getLoopSize(); i++)
-					{
-						inC.fwd();
-						outRA.setPosition( inC );
-						outRA.move( translation );
+		combineTranslated( in, out, translation, pool, false );
+	}
 
-						// check whether we moved outside of destination image
-						boolean oob = false;
-						for (int d=0; d<out.numDimensions(); d++)
-							if (outRA.getLongPosition( d ) > out.max( d ) || outRA.getLongPosition( d ) < out.min( d ) )
-								oob = true;
-						if (oob)
-							continue;
+	/**
+	 * alpha-blend input image into output image with given offset (out = out + (1 - out) * in)
+	 * @param in input image
+	 * @param out output image
+	 * @param translation shift
+	 * @param pool thread pool
+	 * @param <T> in pixel type
+	 * @param <R> out pixel type
+	 */
+	public static <T extends RealType<T>, R extends RealType< R > > void alphaBlendTranslated(
+			IterableInterval< T > in,
+			RandomAccessibleInterval< R > out,
+			int[] translation,
+			ExecutorService pool)
+	{
+		combineTranslated( in, out, translation, pool, true );
+	}
 
-						final double p = outRA.get().getRealDouble() + inC.get().getRealDouble();
-						outRA.get().setReal( p );
+	/**
+	 * get the part of in (in input coordinates) that ends up inside out after translation
+	 * @param in input interval
+	 * @param out output interval
+	 * @param translation shift
+	 * @return the overlap or null if in and out do not overlap
+	 */
+	public static Interval getTranslatedOverlap(
+			final Interval in,
+			final Interval out,
+			final int[] translation )
+	{
+		final int n = in.numDimensions();
+		final long[] min = new long[ n ];
+		final long[] max = new long[ n ];
 
-					}
+		for ( int d = 0; d < n; ++d )
+		{
+			min[ d ] = Math.max( in.min( d ), out.min( d ) - translation[ d ] );
+			max[ d ] = Math.min( in.max( d ), out.max( d ) - translation[ d ] );
 
-					return null;
-				}
-			} );
+			if ( min[ d ] > max[ d ] )
+				return null;
 		}
 
+		return new FinalInterval( min, max );
+	}
+
+	@SuppressWarnings( "unchecked" )
+	private static <T extends RealType<T>, R extends RealType< R > > void combineTranslated(
+			final IterableInterval< T > in,
+			final RandomAccessibleInterval< R > out,
+			final int[] translation,
+			final ExecutorService pool,
+			final boolean alphaBlend )
+	{
+		final Interval overlap = getTranslatedOverlap( in, out, translation );
+
+		if ( overlap == null )
+			return;
+
+		final float[] inData = getFloatData( in );
+		final float[] outData = getFloatData( out );
+
+		final ArrayList< Callable< Void > > calls;
+
+		// only ArrayImgs of FloatType take the flat path, everything else (e.g. CellImgs) is combined via cursors
+		if ( inData != null && outData != null )
+			calls = combineFlat( inData, in, outData, out, overlap, translation, alphaBlend );
+		else if ( in instanceof RandomAccessibleInterval )
+			calls = combineIntervals( (RandomAccessibleInterval< T >) in, out, overlap, translation, alphaBlend );
+		else
+			calls = combineIterable( in, out, translation, alphaBlend );
+
 		try
 		{
 			final List< Future< Void > > futures = pool.invokeAll( calls );
@@ -129,59 +170,181 @@ public class FastFusionTools
 		catch ( InterruptedException | ExecutionException e ) { e.printStackTrace(); }
 	}
 
-	
-	public static <T extends RealType<T>, R extends RealType< R > > void alphaBlendTranslated(
-			IterableInterval< T > in,
-			RandomAccessibleInterval< R > out,
-			int[] translation,
-			ExecutorService pool)
+	/*
+	 * the backing float[] of an ArrayImg of FloatType, null for anything else
+	 */
+	private static float[] getFloatData( final Object img )
+	{
+		if ( !ArrayImg.class.isInstance( img ) )
+			return null;
+
+		final ArrayImg< ?, ? > arrayImg = (ArrayImg< ?, ? >) img;
+		final Object access = arrayImg.update( null );
+
+		if ( !FloatArray.class.isInstance( access ) || !FloatType.class.isInstance( arrayImg.firstElement() ) )
+			return null;
+
+		return ( (FloatArray) access ).getCurrentStorageArray();
+	}
+
+	/*
+	 * fast path: walk both flat arrays line by line (along dim 0) within the overlap,
+	 * the inner loops are plain float array loops the JIT can vectorize
+	 */
+	private static ArrayList< Callable< Void > > combineFlat(
+			final float[] inData,
+			final Interval in,
+			final float[] outData,
+			final Interval out,
+			final Interval overlap,
+			final int[] translation,
+			final boolean alphaBlend )
 	{
-		final Vector< ImagePortion > portions = FusionTools.divideIntoPortions( in.size() );
+		final int n = overlap.numDimensions();
+		final int lineLength = (int) overlap.dimension( 0 );
+
+		final long[] inStride = new long[ n ];
+		final long[] outStride = new long[ n ];
+		inStride[ 0 ] = outStride[ 0 ] = 1;
+		for ( int d = 1; d < n; ++d )
+		{
+			inStride[ d ] = inStride[ d - 1 ] * in.dimension( d - 1 );
+			outStride[ d ] = outStride[ d - 1 ] * out.dimension( d - 1 );
+		}
+
+		long numLines = 1;
+		for ( int d = 1; d < n; ++d )
+			numLines *= overlap.dimension( d );
+
 		final ArrayList< Callable< Void > > calls = new ArrayList<>();
-		for (final ImagePortion portion : portions)
+		for (final ImagePortion portion : FusionTools.divideIntoPortions( numLines ) )
 		{
-			calls.add( new Callable< Void >()
+			calls.add( () ->
 			{
-				@Override
-				public Void call() throws Exception
+				final long end = portion.getStartPosition() + portion.getLoopSize();
+				for ( long line = portion.getStartPosition(); line < end; ++line )
 				{
-					Cursor<T> inC = in.localizingCursor();
-					RandomAccess< R > outRA = out.randomAccess();
-					inC.jumpFwd( portion.getStartPosition() );
-					for (long i=0; i<portion.getLoopSize(); i++)
+					// position of the first pixel of the line (in input coordinates)
+					long inIndex = overlap.min( 0 ) - in.min( 0 );
+					long outIndex = overlap.min( 0 ) + translation[ 0 ] - out.min( 0 );
+					long rest = line;
+					for ( int d = 1; d < n; ++d )
 					{
-						inC.fwd();
-						outRA.setPosition( inC );
-						outRA.move( translation );
-
-						// check whether we moved outside of destination image
-						boolean oob = false;
-						for (int d=0; d<out.numDimensions(); d++)
-							if (outRA.getLongPosition( d ) > out.max( d ) || outRA.getLongPosition( d ) < out.min( d ) )
-								oob = true;
-						if (oob)
-							continue;
-
-						// do alpha blend
-						final double aO = outRA.get().getRealDouble();
-						final double aI = inC.get().getRealDouble();
-						final double aNew =  aO + (1 - aO) * aI ;
-						outRA.get().setReal( aNew );
-
+						final long pos = overlap.min( d ) + rest % overlap.dimension( d );
+						rest /= overlap.dimension( d );
+						inIndex += ( pos - in.min( d ) ) * inStride[ d ];
+						outIndex += ( pos + translation[ d ] - out.min( d ) ) * outStride[ d ];
 					}
 
-					return null;
+					final int i0 = (int) inIndex;
+					final int o0 = (int) outIndex;
+
+					if ( alphaBlend )
+						for ( int x = 0; x < lineLength; ++x )
+						{
+							final float aO = outData[ o0 + x ];
+							outData[ o0 + x ] = aO + ( 1 - aO ) * inData[ i0 + x ];
+						}
+					else
+						for ( int x = 0; x < lineLength; ++x )
+							outData[ o0 + x ] += inData[ i0 + x ];
 				}
-			} );
+				return null;
+			});
 		}
 
-		try
+		return calls;
+	}
+
+	/*
+	 * generic path: iterate the overlap of input and (translated) output in flat order,
+	 * no per-pixel bounds checks needed
+	 */
+	private static <T extends RealType<T>, R extends RealType< R > > ArrayList< Callable< Void > > combineIntervals(
+			final RandomAccessibleInterval< T > in,
+			final RandomAccessibleInterval< R > out,
+			final Interval overlap,
+			final int[] translation,
+			final boolean alphaBlend )
+	{
+		final long[] offset = new long[ translation.length ];
+		for ( int d = 0; d < translation.length; ++d )
+			offset[ d ] = -translation[ d ];
+
+		final IterableInterval< T > inIt = Views.flatIterable( Views.interval( in, overlap ) );
+		final IterableInterval< R > outIt = Views.flatIterable( Views.interval( Views.translate( out, offset ), overlap ) );
+
+		final ArrayList< Callable< Void > > calls = new ArrayList<>();
+		for (final ImagePortion portion : FusionTools.divideIntoPortions( inIt.size() ) )
 		{
-			final List< Future< Void > > futures = pool.invokeAll( calls );
-			for (final Future< Void > f : futures)
-				f.get();
+			calls.add( () ->
+			{
+				final Cursor< T > inC = inIt.cursor();
+				final Cursor< R > outC = outIt.cursor();
+				inC.jumpFwd( portion.getStartPosition() );
+				outC.jumpFwd( portion.getStartPosition() );
+
+				for ( long i = 0; i < portion.getLoopSize(); ++i )
+				{
+					final R o = outC.next();
+					final double aI = inC.next().getRealDouble();
+
+					if ( alphaBlend )
+					{
+						final double aO = o.getRealDouble();
+						o.setReal( aO + ( 1 - aO ) * aI );
+					}
+					else
+						o.setReal( o.getRealDouble() + aI );
+				}
+				return null;
+			});
 		}
-		catch ( InterruptedException | ExecutionException e ) { e.printStackTrace(); }
+
+		return calls;
+	}
+
+	/*
+	 * fallback for plain IterableIntervals, only pixels inside out are written
+	 */
+	private static <T extends RealType<T>, R extends RealType< R > > ArrayList< Callable< Void > > combineIterable(
+			final IterableInterval< T > in,
+			final RandomAccessibleInterval< R > out,
+			final int[] translation,
+			final boolean alphaBlend )
+	{
+		final ArrayList< Callable< Void > > calls = new ArrayList<>();
+		for (final ImagePortion portion : FusionTools.divideIntoPortions( in.size() ) )
+		{
+			calls.add( () ->
+			{
+				final Cursor<T> inC = in.localizingCursor();
+				final RandomAccess< R > outRA = out.randomAccess();
+				inC.jumpFwd( portion.getStartPosition() );
+				for (long i=0; i<portion.getLoopSize(); i++)
+				{
+					inC.fwd();
+					outRA.setPosition( inC );
+					outRA.move( translation );
+
+					// check whether we moved outside of destination image
+					if ( !Intervals.contains( out, outRA ) )
+						continue;
+
+					final double aI = inC.get().getRealDouble();
+					if ( alphaBlend )
+					{
+						final double aO = outRA.get().getRealDouble();
+						outRA.get().setReal( aO + ( 1 - aO ) * aI );
+					}
+					else
+						outRA.get().setReal( outRA.get().getRealDouble() + aI );
+				}
+				return null;
+			});
+		}
+
+		return calls;
 	}
 
 	/**
@@ -341,13 +504,10 @@ public class FastFusionTools
 			final ExecutorService pool)
 	{
 		final int n = image.numDimensions();
-		final int[] min = new int[n];
-		final int[] dimMinus1 = new int[n];
-		for (int d=0; d<n; d++)
-		{
-			min[d] = (int) image.min( d );
-			dimMinus1[d] = (int) image.dimension( d ) - 1;
-		}
+		final long[] min = Intervals.minAsLongArray( image );
+
+		// the weights are separable, precompute them along each dimension
+		final float[][] profiles = BlendingProfiles.getProfiles( Intervals.dimensionsAsLongArray( image ), renderOffset, border, blending );
 
 		final Vector< ImagePortion > portions = FusionTools.divideIntoPortions(  Views.iterable( image ).size() );
 		final ArrayList< Callable< Void > > calls = new ArrayList<>();
@@ -363,15 +523,15 @@ public class FastFusionTools
 					final Cursor<T> inC = Views.iterable( image ).localizingCursor();
 					inC.jumpFwd( portion.getStartPosition() );
 					weightC.jumpFwd( portion.getStartPosition() );
-					final float[] position = new float[n];
+					final long[] position = new long[n];
 					for (long i=0; i<portion.getLoopSize(); i++)
 					{
 						inC.fwd();
 						weightC.fwd();
 						inC.localize( position );
 						for (int d=0; d<n; d++)
-							position[d] -= renderOffset[d];
-						final float w = BlendingTools.computeWeight( position, min, dimMinus1, border, blending, n );
+							position[d] -= min[d];
+						final float w = BlendingProfiles.weight( profiles, position );
 						inC.get().setReal( inC.get().getRealFloat() * w);
 						
 						if (multiplyWeights)
@@ -0,0 +1,469 @@
+/*-
+ * #%L
+ * Multiview stitching of large datasets.
+ * %%
+ * Copyright (C) 2016 - 2024 Big Stitcher developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.stitcher.algorithm.fastfusion;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.janelia.saalfeldlab.n5.DataType;
+import org.janelia.saalfeldlab.n5.DatasetAttributes;
+import org.janelia.saalfeldlab.n5.FloatArrayDataBlock;
+import org.janelia.saalfeldlab.n5.GzipCompression;
+import org.janelia.saalfeldlab.n5.N5Writer;
+
+import com.google.common.util.concurrent.MoreExecutors;
+
+import mpicbg.spim.data.registration.ViewRegistration;
+import mpicbg.spim.data.registration.ViewRegistrations;
+import mpicbg.spim.data.sequence.ViewId;
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.FinalRealInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.realtransform.AffineGet;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.realtransform.TranslationGet;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.util.Pair;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+import net.preibisch.legacy.io.IOFunctions;
+import net.preibisch.mvrecon.fiji.spimdata.SpimData2;
+import net.preibisch.stitcher.algorithm.SpatialGridIndex;
+import net.preibisch.stitcher.algorithm.TransformTools;
+
+/**
+ * Block-wise fusion of views that differ only by a translation into an N5 (or HDF5, Zarr, ...) dataset.
+ * 
+ * The output is in the pixel grid of the input views (i.e. the common non-translation part of the
+ * registrations is not applied), every output block only visits the views it intersects and
+ * only reads the part of them it needs. The most recently used views stay open, so every view is
+ * opened once as long as the blocks that need it are fused close in time (with image loaders that
+ * load whole images, memory is bounded by the number of open views, see {@link #setNumOpenViews(int)}).
+ * Subpixel offsets are handled by {@link FastFusionTools#getLinearInterpolation},
+ * views are blended using (precomputed) {@link BlendingProfiles}.
+ */
+public class TranslationFusion
+{
+	final SpimData2 data;
+	final List< ViewId > views;
+
+	// offset (in pixels) and size of every view
+	final List< double[] > offsets;
+	final List< Interval > sizes;
+
+	// bounding box of all views in the output pixel grid
+	final Interval boundingBox;
+
+	final SpatialGridIndex< Integer > index;
+
+	final float[] border;
+	final float[] blending;
+
+	// opened views, least recently used ones are closed first
+	final Map< Integer, OpenView > openViews;
+	int numOpenViews = 16;
+
+	static class OpenView
+	{
+		RandomAccessibleInterval< FloatType > img;
+	}
+
+	/**
+	 * @param data the SpimData
+	 * @param views views to fuse, their registrations must only differ by a translation (see {@link #isTranslationOnly(ViewRegistrations, List)})
+	 * @param border blank pixels on each border of the views
+	 * @param blending extent of blending on each border of the views
+	 */
+	public TranslationFusion( final SpimData2 data, final List< ? extends ViewId > views, final float[] border, final float[] blending )
+	{
+		this.data = data;
+		this.views = new ArrayList<>( views );
+		this.border = border;
+		this.blending = blending;
+
+		this.offsets = new ArrayList<>();
+		this.sizes = new ArrayList<>();
+		this.openViews = new LinkedHashMap< Integer, OpenView >( 16, 0.75f, true )
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry( final Map.Entry< Integer, OpenView > eldest )
+			{
+				return size() > numOpenViews;
+			}
+		};
+
+		final int n = 3;
+		final long[] min = new long[n];
+		final long[] max = new long[n];
+		Arrays.fill( min, Long.MAX_VALUE );
+		Arrays.fill( max, Long.MIN_VALUE );
+
+		final List< FinalRealInterval > bounds = new ArrayList<>();
+		final List< Integer > ids = new ArrayList<>();
+
+		for ( final ViewId viewId : this.views )
+		{
+			final ViewRegistration vr = data.getViewRegistrations().getViewRegistration( viewId );
+			final Pair< AffineGet, TranslationGet > initialTransforms = TransformTools.getInitialTransforms( vr, false, new AffineTransform3D() );
+
+			final double[] offset = initialTransforms.getB().getTranslationCopy();
+			final Interval size = new FinalInterval( data.getSequenceDescription().getViewDescription( viewId ).getViewSetup().getSize() );
+
+			final double[] realMin = new double[n];
+			final double[] realMax = new double[n];
+			for ( int d = 0; d < n; d++ )
+			{
+				// views of size 1 are not interpolated (see addView)
+				if ( size.dimension( d ) == 1 )
+					realMin[d] = realMax[d] = Math.round( offset[d] );
+				else
+				{
+					realMin[d] = offset[d];
+					realMax[d] = offset[d] + size.dimension( d ) - 1;
+				}
+
+				min[d] = Math.min( min[d], (long) Math.floor( realMin[d] ) );
+				max[d] = Math.max( max[d], (long) Math.ceil( realMax[d] ) );
+			}
+
+			ids.add( offsets.size() );
+			bounds.add( new FinalRealInterval( realMin, realMax ) );
+			offsets.add( offset );
+			sizes.add( size );
+		}
+
+		this.boundingBox = new FinalInterval( min, max );
+		this.index = SpatialGridIndex.create( ids, bounds );
+	}
+
+	/**
+	 * @param vrs view registrations
+	 * @param views views to check
+	 * @return true if the registrations of all views only differ by a translation
+	 */
+	public static boolean isTranslationOnly( final ViewRegistrations vrs, final List< ? extends ViewId > views )
+	{
+		if ( views.size() < 2 )
+			return true;
+
+		final ViewRegistration first = vrs.getViewRegistration( views.get( 0 ) );
+		for ( final ViewId viewId : views )
+			if ( !TransformTools.nonTranslationsEqual( first, vrs.getViewRegistration( viewId ) ) )
+				return false;
+
+		return true;
+	}
+
+	/**
+	 * @return the bounding box of all views in the output pixel grid, the output dataset starts at its min
+	 */
+	public Interval getBoundingBox()
+	{
+		return boundingBox;
+	}
+
+	/**
+	 * @param numOpenViews how many views are kept open between blocks (default 16)
+	 */
+	public void setNumOpenViews( final int numOpenViews )
+	{
+		synchronized ( openViews )
+		{
+			this.numOpenViews = Math.max( 1, numOpenViews );
+		}
+	}
+
+	/**
+	 * fuse all views into a new float32 dataset, the min of the bounding box is saved in the attribute "offset"
+	 * @param n5 the output container
+	 * @param dataset the dataset to create
+	 * @param blockSize block size of the dataset, every block is fused separately
+	 * @param service thread pool, blocks are fused in parallel
+	 * @return true if successful
+	 */
+	public boolean fuse( final N5Writer n5, final String dataset, final int[] blockSize, final ExecutorService service )
+	{
+		final long[] dimensions = Intervals.dimensionsAsLongArray( boundingBox );
+		final DatasetAttributes attributes = new DatasetAttributes( dimensions, blockSize, DataType.FLOAT32, new GzipCompression() );
+
+		try
+		{
+			n5.createDataset( dataset, attributes );
+			n5.setAttribute( dataset, "offset", Intervals.minAsLongArray( boundingBox ) );
+		}
+		catch ( Exception e )
+		{
+			IOFunctions.println( "Could not create dataset '" + dataset + "': " + e );
+			e.printStackTrace();
+			return false;
+		}
+
+		// all blocks of the grid
+		final long[] numBlocks = new long[dimensions.length];
+		long totalBlocks = 1;
+		for ( int d = 0; d < dimensions.length; d++ )
+		{
+			numBlocks[d] = ( dimensions[d] + blockSize[d] - 1 ) / blockSize[d];
+			totalBlocks *= numBlocks[d];
+		}
+
+		IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Fusing " + views.size() + " views into " + totalBlocks + " blocks of " + Util.printCoordinates( blockSize ) + " ..." );
+
+		final AtomicInteger numDone = new AtomicInteger();
+		final long numBlocksTotal = totalBlocks;
+		final ArrayList< Callable< Void > > tasks = new ArrayList<>();
+
+		for ( long i = 0; i < totalBlocks; i++ )
+		{
+			final long[] gridPosition = new long[dimensions.length];
+			long rest = i;
+			for ( int d = 0; d < dimensions.length; d++ )
+			{
+				gridPosition[d] = rest % numBlocks[d];
+				rest /= numBlocks[d];
+			}
+
+			tasks.add( () ->
+			{
+				final int[] size = new int[dimensions.length];
+				final long[] min = new long[dimensions.length];
+				final long[] max = new long[dimensions.length];
+				for ( int d = 0; d < dimensions.length; d++ )
+				{
+					size[d] = (int) Math.min( blockSize[d], dimensions[d] - gridPosition[d] * blockSize[d] );
+					min[d] = boundingBox.min( d ) + gridPosition[d] * blockSize[d];
+					max[d] = min[d] + size[d] - 1;
+				}
+
+				final float[] block = fuseBlock( new FinalInterval( min, max ) );
+				n5.writeBlock( dataset, attributes, new FloatArrayDataBlock( size, gridPosition, block ) );
+
+				final int done = numDone.incrementAndGet();
+				if ( done % 100 == 0 || done == numBlocksTotal )
+					IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Fused " + done + "/" + numBlocksTotal + " blocks." );
+
+				return null;
+			} );
+		}
+
+		try
+		{
+			final List< Future< Void > > futures = service.invokeAll( tasks );
+			for ( final Future< Void > f : futures )
+				f.get();
+		}
+		catch ( InterruptedException | ExecutionException e )
+		{
+			IOFunctions.println( "Failed to fuse: " + e );
+			e.printStackTrace();
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * fuse one block
+	 * @param block interval in the output pixel grid
+	 * @return the fused block, flattened (x fastest)
+	 */
+	public float[] fuseBlock( final Interval block )
+	{
+		final float[] sum = new float[(int) Intervals.numElements( block )];
+		final float[] weightSum = new float[sum.length];
+
+		final RandomAccessibleInterval< FloatType > sumImg = Views.translate( ArrayImgs.floats( sum, Intervals.dimensionsAsLongArray( block ) ), Intervals.minAsLongArray( block ) );
+		final RandomAccessibleInterval< FloatType > weightImg = Views.translate( ArrayImgs.floats( weightSum, Intervals.dimensionsAsLongArray( block ) ), Intervals.minAsLongArray( block ) );
+
+		for ( final int i : index.query( block ) )
+			addView( i, block, sumImg, weightImg );
+
+		for ( int i = 0; i < sum.length; i++ )
+			sum[i] = weightSum[i] == 0 ? 0 : sum[i] / weightSum[i];
+
+		return sum;
+	}
+
+	/* add the weighted part of view i that falls into block to sum and weightSum */
+	void addView(
+			final int i,
+			final Interval block,
+			final RandomAccessibleInterval< FloatType > sum,
+			final RandomAccessibleInterval< FloatType > weightSum )
+	{
+		final int n = block.numDimensions();
+		final double[] offset = offsets.get( i );
+		final Interval size = sizes.get( i );
+
+		// integer and fractional part of the offset
+		final long[] offsetInt = new long[n];
+		final float[] offsetFrac = new float[n];
+		boolean subpixel = false;
+		for ( int d = 0; d < n; d++ )
+		{
+			// no interpolation along dimensions of size 1
+			if ( size.dimension( d ) == 1 )
+			{
+				offsetInt[d] = Math.round( offset[d] );
+				continue;
+			}
+
+			offsetInt[d] = (long) Math.floor( offset[d] );
+			offsetFrac[d] = (float) ( offset[d] - offsetInt[d] );
+			if ( offsetFrac[d] > 1e-5 )
+				subpixel = true;
+			else
+				offsetFrac[d] = 0;
+		}
+
+		// output pixels covered by the view (with a subpixel offset, one more pixel is partially covered)
+		final long[] min = new long[n];
+		final long[] max = new long[n];
+		for ( int d = 0; d < n; d++ )
+		{
+			min[d] = Math.max( block.min( d ), offsetInt[d] );
+			max[d] = Math.min( block.max( d ), offsetInt[d] + size.dimension( d ) - 1 + ( offsetFrac[d] > 0 ? 1 : 0 ) );
+			if ( min[d] > max[d] )
+				return;
+		}
+		final FinalInterval region = new FinalInterval( min, max );
+
+		final RandomAccessibleInterval< FloatType > img = getImage( i );
+
+		// the (interpolated) view and its alpha, in output coordinates
+		final RandomAccessibleInterval< FloatType > source;
+		final RandomAccessibleInterval< FloatType > alpha;
+		if ( subpixel )
+		{
+			// load only what is needed for the region (one more pixel on the low side for the interpolation)
+			final long[] cropMin = new long[n];
+			final long[] cropMax = new long[n];
+			final float[] interpolationOffset = new float[n];
+			for ( int d = 0; d < n; d++ )
+			{
+				cropMin[d] = Math.max( 0, min[d] - offsetInt[d] - 1 );
+				cropMax[d] = Math.min( size.dimension( d ) - 1, max[d] - offsetInt[d] );
+				interpolationOffset[d] = 1 - offsetFrac[d];
+			}
+
+			// pixel x of the interpolated image is at output position cropMin + offsetInt + x
+			final Pair< RandomAccessibleInterval< FloatType >, RandomAccessibleInterval< FloatType > > interpolated = FastFusionTools.getLinearInterpolation(
+					Views.zeroMin( Views.interval( img, new FinalInterval( cropMin, cropMax ) ) ),
+					new FloatType(),
+					interpolationOffset,
+					MoreExecutors.newDirectExecutorService() );
+
+			final long[] translation = new long[n];
+			for ( int d = 0; d < n; d++ )
+				translation[d] = cropMin[d] + offsetInt[d];
+
+			source = Views.translate( interpolated.getA(), translation );
+			alpha = Views.translate( interpolated.getB(), translation );
+		}
+		else
+		{
+			source = Views.translate( img, offsetInt );
+			alpha = null;
+		}
+
+		// blend only along dimensions the view extends in (e.g. not z for 2d)
+		final int[] blendDims = new int[n];
+		int numBlendDims = 0;
+		for ( int d = 0; d < n; d++ )
+			if ( size.dimension( d ) > 1 )
+				blendDims[numBlendDims++] = d;
+
+		// separable weights, entry k of a profile is the weight of output pixel offsetInt + k
+		final float[][] profiles = new float[numBlendDims][];
+		for ( int j = 0; j < numBlendDims; j++ )
+		{
+			final int d = blendDims[j];
+			profiles[j] = BlendingProfiles.getProfile( (int) size.dimension( d ), offsetFrac[d], border[d], blending[d] );
+		}
+
+		final Cursor< FloatType > sumCursor = Views.interval( sum, region ).localizingCursor();
+		final Cursor< FloatType > weightCursor = Views.interval( weightSum, region ).cursor();
+		final RandomAccess< FloatType > sourceRA = source.randomAccess( region );
+		final RandomAccess< FloatType > alphaRA = alpha == null ? null : alpha.randomAccess( region );
+		final long[] location = new long[numBlendDims];
+
+		while ( sumCursor.hasNext() )
+		{
+			sumCursor.fwd();
+			weightCursor.fwd();
+
+			// position in the (non-interpolated) view
+			for ( int j = 0; j < numBlendDims; j++ )
+				location[j] = sumCursor.getLongPosition( blendDims[j] ) - offsetInt[blendDims[j]];
+
+			float w = BlendingProfiles.weight( profiles, location );
+			if ( w == 0 )
+				continue;
+
+			sourceRA.setPosition( sumCursor );
+			if ( alphaRA != null )
+			{
+				alphaRA.setPosition( sumCursor );
+				w *= alphaRA.get().get();
+			}
+
+			sumCursor.get().set( sumCursor.get().get() + w * sourceRA.get().get() );
+			weightCursor.get().set( weightCursor.get().get() + w );
+		}
+	}
+
+	/* view i, opened only if it is not open already */
+	RandomAccessibleInterval< FloatType > getImage( final int i )
+	{
+		final OpenView view;
+		synchronized ( openViews )
+		{
+			view = openViews.computeIfAbsent( i, k -> new OpenView() );
+		}
+
+		// other views can be opened in parallel
+		synchronized ( view )
+		{
+			if ( view.img == null )
+				view.img = data.getSequenceDescription().getImgLoader()
+						.getSetupImgLoader( views.get( i ).getViewSetupId() ).getFloatImage( views.get( i ).getTimePointId(), false );
+
+			return view.img;
+		}
+	}
+}
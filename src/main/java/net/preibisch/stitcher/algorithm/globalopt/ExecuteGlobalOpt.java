@@ -38,6 +38,7 @@ import net.preibisch.mvrecon.fiji.spimdata.explorer.FilteredAndGroupedExplorerPa
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
 import net.preibisch.stitcher.algorithm.SpimDataFilteringAndGrouping;
 import net.preibisch.stitcher.gui.StitchingExplorerPanel;
+import net.preibisch.stitcher.gui.StitchingUIHelper;
 import net.preibisch.stitcher.gui.overlay.DemoLinkOverlay;
 
 public class ExecuteGlobalOpt implements Runnable
@@ -89,11 +90,11 @@ public class ExecuteGlobalOpt implements Runnable
 
 				if (expertMode && params.showExpertGrouping)
 				{
-					filteringAndGrouping.askUserForFiltering( panelFG );
+					StitchingUIHelper.askUserForFiltering( filteringAndGrouping, panelFG );
 					if ( filteringAndGrouping.getDialogWasCancelled() )
 						return;
 
-					filteringAndGrouping.askUserForGrouping( panelFG );
+					StitchingUIHelper.askUserForGrouping( filteringAndGrouping, panelFG );
 					if ( filteringAndGrouping.getDialogWasCancelled() )
 						return;
 				}
@@ -138,11 +139,8 @@ public class ExecuteGlobalOpt implements Runnable
 
 			if ( demoOverlay != null )
 			{
-				synchronized ( demoOverlay )
-				{
-					demoOverlay.getInconsistentResults().clear();
-					demoOverlay.getInconsistentResults().addAll( removedInconsistentPairs );
-				}
+				demoOverlay.setInconsistentResults( removedInconsistentPairs );
+				demoOverlay.invalidateIndex();
 			}
 		}
 		finally
@@ -21,21 +21,15 @@
  */
 package net.preibisch.stitcher.algorithm.globalopt;
 
-import java.awt.Checkbox;
-import java.awt.Label;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
 
-import fiji.util.gui.GenericDialogPlus;
 import mpicbg.models.TranslationModel3D;
 import mpicbg.spim.data.generic.base.Entity;
 import mpicbg.spim.data.generic.sequence.BasicViewDescription;
@@ -51,8 +45,6 @@ import net.imglib2.util.ValuePair;
 import net.preibisch.legacy.io.IOFunctions;
 import net.preibisch.mvrecon.fiji.plugin.interestpointregistration.global.GlobalOptimizationParameters;
 import net.preibisch.mvrecon.fiji.plugin.interestpointregistration.global.GlobalOptimizationParameters.GlobalOptType;
-import net.preibisch.mvrecon.fiji.plugin.util.GUIHelper;
-import net.preibisch.mvrecon.fiji.plugin.util.PluginHelper;
 import net.preibisch.mvrecon.fiji.spimdata.SpimData2;
 import net.preibisch.mvrecon.fiji.spimdata.stitchingresults.PairwiseStitchingResult;
 import net.preibisch.mvrecon.process.interestpointregistration.global.GlobalOpt;
@@ -68,6 +60,7 @@ import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constell
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.overlap.SimpleBoundingBoxOverlap;
 import net.preibisch.stitcher.algorithm.SpimDataFilteringAndGrouping;
+import net.preibisch.stitcher.gui.StitchingUIHelper;
 
 public class GlobalOptStitcher
 {
@@ -271,134 +264,15 @@ public class GlobalOptStitcher
 		return true;
 	}
 
+	/**
+	 * ask the user which views to fix in every subset (see {@link StitchingUIHelper#askForFixedViews(ArrayList)})
+	 * @param subsets the subsets
+	 * @param <V> view id type
+	 * @return fixed views per subset or null if the dialog was cancelled
+	 */
 	public static <V extends ViewId> Collection<? extends Collection<V> > askForFixedViews(ArrayList<? extends Subset< V > > subsets)
 	{
-		final ArrayList< Collection<V> > res = new ArrayList<>();
-		final GenericDialogPlus gdp = new GenericDialogPlus( "Select Views to fix" );
-		final boolean multipleSubsets = !(subsets.size() < 2);
-
-		int i = 0;
-		for (final Subset<V> subset : subsets)
-		{
-
-			if (multipleSubsets)
-				gdp.addMessage( "Views to fix in subset " + (++i), GUIHelper.largefont, GUIHelper.neutral );
-
-			final List<Checkbox> cboxes = new ArrayList<>();
-			final List< Group< V > > groups = new ArrayList<>(subset.getGroups());
-			Collections.sort( groups, new Comparator< Group<V> >()
-			{
-				@Override
-				public int compare(Group< V > o1, Group< V > o2)
-				{
-					final ArrayList< ViewId > o1List = new ArrayList<>( o1.getViews() );
-					final ArrayList< ViewId > o2List = new ArrayList<>( o2.getViews() );
-					Collections.sort( o1List );
-					Collections.sort( o2List );
-					Iterator< ViewId > it1 = o1List.iterator();
-					Iterator< ViewId > it2 = o2List.iterator();
-					while ( it1.hasNext() && it2.hasNext() )
-					{
-						int comp = it1.next().compareTo( it2.next() );
-						if ( comp != 0 )
-							return comp;
-					}
-					// list 1 is longer
-					if ( it1.hasNext() )
-						return -1;
-					// list 2 is longer
-					if ( it2.hasNext() )
-						return 1;
-					// lists equal
-					else
-						return 0;
-				}
-			} );
-
-			final Iterator< Group< V > > it = groups.iterator();
-			if (!it.hasNext())
-				continue;
-
-			gdp.addCheckbox( "Fix_Group_" + Group.gvids( it.next() ), true );
-			if (!PluginHelper.isHeadless())
-			{
-				final Checkbox cbI = (Checkbox) gdp.getCheckboxes().get( gdp.getCheckboxes().size() -1 );
-				cboxes.add( cbI );
-			}
-
-			it.forEachRemaining( g -> {
-				gdp.addCheckbox( "Fix_Group_" + Group.gvids( g ), false );
-				if (!PluginHelper.isHeadless())
-				{
-					final Checkbox cbI2 = (Checkbox) gdp.getCheckboxes().get( gdp.getCheckboxes().size() -1 );
-					cboxes.add( cbI2 );
-				}
-			});
-
-			if (!PluginHelper.isHeadless())
-			{
-				gdp.addMessage( "", GUIHelper.largestatusfont, GUIHelper.warning );
-				final Label warning = (Label) gdp.getMessage();
-
-				for (final Checkbox cb : cboxes)
-				{
-					cb.addItemListener( e -> {
-						boolean allFalse = true;
-						for (final Checkbox cbI3 : cboxes)
-							allFalse &= (!cbI3.getState());
-						warning.setText( allFalse ? "WARNING: you are not fixing any view" + (multipleSubsets ? " in this subset." : ".") : "" );
-					});
-				}
-			}
-		}
-
-		GUIHelper.addScrollBars( gdp );
-
-		gdp.showDialog();
-		if (gdp.wasCanceled())
-			return null;
-
-		for (final Subset<V> subset : subsets)
-		{
-			final List< Group< V > > groups = new ArrayList<>(subset.getGroups());
-			Collections.sort( groups, new Comparator< Group<V> >()
-			{
-				@Override
-				public int compare(Group< V > o1, Group< V > o2)
-				{
-					final ArrayList< ViewId > o1List = new ArrayList<>( o1.getViews() );
-					final ArrayList< ViewId > o2List = new ArrayList<>( o2.getViews() );
-					Collections.sort( o1List );
-					Collections.sort( o2List );
-					Iterator< ViewId > it1 = o1List.iterator();
-					Iterator< ViewId > it2 = o2List.iterator();
-					while ( it1.hasNext() && it2.hasNext() )
-					{
-						int comp = it1.next().compareTo( it2.next() );
-						if ( comp != 0 )
-							return comp;
-					}
-					// list 1 is longer
-					if ( it1.hasNext() )
-						return -1;
-					// list 2 is longer
-					if ( it2.hasNext() )
-						return 1;
-					// lists equal
-					else
-						return 0;
-				}
-			} );
-
-			final HashSet< V > resI = new HashSet<>();
-			for (final Group<V> group: groups)
-			{
-				if (gdp.getNextBoolean())
-					resI.addAll( group.getViews() );
-			}
-			res.add( resI );
-		}
-		return res;
+		return StitchingUIHelper.askForFixedViews( subsets );
 	}
 
 	public static void removeInconsistentLinks(
@@ -0,0 +1,170 @@
+/*-
+ * #%L
+ * Multiview stitching of large datasets.
+ * %%
+ * Copyright (C) 2016 - 2024 Big Stitcher developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.stitcher.algorithm.globalopt;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+import mpicbg.spim.data.sequence.ViewId;
+import net.imglib2.util.Pair;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
+
+/**
+ * Runs pairwise tasks for a whole stitching run: a fixed number of pairs is processed at once,
+ * the next pair starts as soon as any pair is done (no batches waiting for their slowest pair),
+ * results are passed on as they finish and all pairs share one fixed pool for their
+ * inner (FFT, cross correlation, ...) work.
+ */
+public class PairwiseScheduler
+{
+	private final int numParallelPairs;
+	private final int maxQueued;
+	private final ExecutorService pairService;
+	private final ExecutorService innerService;
+
+	/**
+	 * @param numParallelPairs how many pairs to compute at once
+	 * @param numInnerThreads number of threads of the shared pool for the work inside of each pair
+	 */
+	public PairwiseScheduler( final int numParallelPairs, final int numInnerThreads )
+	{
+		this.numParallelPairs = Math.max( 1, numParallelPairs );
+		// keep the work queue short, tasks are only submitted when there is room
+		this.maxQueued = 2 * this.numParallelPairs;
+		this.pairService = Executors.newFixedThreadPool( this.numParallelPairs );
+		// a plain pool: the pairs block on the futures of their inner tasks, which must not happen
+		// on the threads of the pool itself (as it would for ForkJoinPool threads waiting in get())
+		this.innerService = Executors.newFixedThreadPool( Math.max( 1, numInnerThreads ) );
+	}
+
+	/**
+	 * @return the shared pool that the tasks should use for their inner parallelism
+	 * (tasks running on it must not submit to it and wait for the results)
+	 */
+	public ExecutorService getInnerService()
+	{
+		return innerService;
+	}
+
+	public int getNumParallelPairs()
+	{
+		return numParallelPairs;
+	}
+
+	/**
+	 * run all tasks, results are passed to resultConsumer (on the calling thread) in the order they finish
+	 * 
+	 * @param tasks the tasks to run (in the order they should be started)
+	 * @param resultConsumer called for every result, may be null
+	 * @param <R> result type
+	 * @throws InterruptedException if interrupted while waiting for results
+	 * @throws ExecutionException if any of the tasks failed (remaining tasks are cancelled)
+	 */
+	public < R > void run( final List< ? extends Callable< R > > tasks, final Consumer< R > resultConsumer )
+			throws InterruptedException, ExecutionException
+	{
+		final ExecutorCompletionService< R > ecs = new ExecutorCompletionService<>( pairService );
+		final Iterator< ? extends Callable< R > > it = tasks.iterator();
+		final ArrayList< Future< R > > running = new ArrayList<>();
+
+		try
+		{
+			while ( running.size() < maxQueued && it.hasNext() )
+				running.add( ecs.submit( it.next() ) );
+
+			while ( !running.isEmpty() )
+			{
+				final Future< R > future = ecs.take();
+				running.remove( future );
+
+				// keep the queue filled
+				if ( it.hasNext() )
+					running.add( ecs.submit( it.next() ) );
+
+				final R result = future.get();
+
+				if ( resultConsumer != null )
+					resultConsumer.accept( result );
+			}
+		}
+		finally
+		{
+			for ( final Future< R > future : running )
+				future.cancel( true );
+		}
+	}
+
+	public void shutdown()
+	{
+		pairService.shutdown();
+		innerService.shutdown();
+	}
+
+	/**
+	 * sort pairs so that all pairs of a group are processed close to each other
+	 * (pairs are sorted by the smallest ViewId of the first and then the second group, not by location)
+	 * 
+	 * @param pairs the pairs
+	 * @param <V> view id type
+	 * @return a sorted copy of pairs
+	 */
+	public static < V extends ViewId > List< Pair< Group< V >, Group< V > > > sortByGroups( final List< Pair< Group< V >, Group< V > > > pairs )
+	{
+		final ArrayList< Pair< Group< V >, Group< V > > > sorted = new ArrayList<>( pairs );
+
+		Collections.sort( sorted, new Comparator< Pair< Group< V >, Group< V > > >()
+		{
+			@Override
+			public int compare( final Pair< Group< V >, Group< V > > o1, final Pair< Group< V >, Group< V > > o2 )
+			{
+				final int cmpA = compareGroups( o1.getA(), o2.getA() );
+				return cmpA != 0 ? cmpA : compareGroups( o1.getB(), o2.getB() );
+			}
+		});
+
+		return sorted;
+	}
+
+	private static < V extends ViewId > int compareGroups( final Group< V > g1, final Group< V > g2 )
+	{
+		return minViewId( g1 ).compareTo( minViewId( g2 ) );
+	}
+
+	private static < V extends ViewId > ViewId minViewId( final Group< V > group )
+	{
+		ViewId min = null;
+		for ( final V v : group.getViews() )
+			if ( min == null || v.compareTo( min ) < 0 )
+				min = v;
+		return min;
+	}
+}
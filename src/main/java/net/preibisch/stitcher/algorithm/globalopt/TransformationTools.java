@@ -23,6 +23,7 @@ package net.preibisch.stitcher.algorithm.globalopt;
 
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
@@ -30,23 +31,25 @@ import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import bdv.export.ProgressWriter;
-import ij.IJ;
 import mpicbg.models.TranslationModel3D;
 import mpicbg.spim.data.generic.sequence.AbstractSequenceDescription;
 import mpicbg.spim.data.generic.sequence.BasicViewDescription;
 import mpicbg.spim.data.registration.ViewRegistration;
 import mpicbg.spim.data.registration.ViewRegistrations;
 import mpicbg.spim.data.sequence.Channel;
+import mpicbg.spim.data.sequence.MultiResolutionImgLoader;
 import mpicbg.spim.data.sequence.SequenceDescription;
 import mpicbg.spim.data.sequence.ViewId;
+import net.imglib2.Dimensions;
+import net.imglib2.Interval;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.RealInterval;
+import net.imglib2.algorithm.phasecorrelation.PhaseCorrelationEngine;
 import net.imglib2.realtransform.AffineGet;
 import net.imglib2.realtransform.AffineTransform;
 import net.imglib2.realtransform.AffineTransform3D;
@@ -59,18 +62,22 @@ import net.imglib2.util.Util;
 import net.imglib2.util.ValuePair;
 import net.preibisch.legacy.io.IOFunctions;
 import net.preibisch.mvrecon.Threads;
+import net.preibisch.mvrecon.fiji.plugin.resave.ProgressWriterIJ;
 import net.preibisch.mvrecon.fiji.spimdata.SpimData2;
 import net.preibisch.mvrecon.fiji.spimdata.boundingbox.BoundingBox;
 import net.preibisch.mvrecon.fiji.spimdata.stitchingresults.PairwiseStitchingResult;
 import net.preibisch.mvrecon.process.boundingbox.BoundingBoxMaximalGroupOverlap;
+import net.preibisch.mvrecon.process.downsampling.DownsampleTools;
 import net.preibisch.mvrecon.process.interestpointregistration.global.GlobalOpt;
 import net.preibisch.mvrecon.process.interestpointregistration.global.convergence.ConvergenceStrategy;
 import net.preibisch.mvrecon.process.interestpointregistration.global.pointmatchcreating.strong.ImageCorrelationPointMatchCreator;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
 import net.preibisch.stitcher.algorithm.GroupedViewAggregator;
 import net.preibisch.stitcher.algorithm.GroupedViewAggregator.ActionType;
+import net.preibisch.stitcher.algorithm.PairwiseFFTCache;
 import net.preibisch.stitcher.algorithm.PairwiseStitching;
 import net.preibisch.stitcher.algorithm.PairwiseStitchingParameters;
+import net.preibisch.stitcher.algorithm.RAIProxy;
 import net.preibisch.stitcher.algorithm.TransformTools;
 import net.preibisch.stitcher.algorithm.lucaskanade.LucasKanadeParameters;
 import net.preibisch.stitcher.gui.popup.DisplayOverlapTestPopup;
@@ -257,10 +264,21 @@ public class TransformationTools
 			final long[] downsampleFactors,
 			final ExecutorService service )
 	{
+		return computeStitching( viewIdsA, viewIdsB, vrs, params, sd, gva, downsampleFactors, service, null, null );
+	}
 
-		// the transformation that maps the downsampled image coordinates back to the original input(!) image space
-		final AffineTransform3D dsCorrectionT1 = new AffineTransform3D();
-		final AffineTransform3D dsCorrectionT2 = new AffineTransform3D();
+	public static < T extends RealType< T > > Pair<Pair< AffineGet, Double >, RealInterval> computeStitching(
+			final Group<? extends ViewId> viewIdsA,
+			final Group<? extends ViewId> viewIdsB,
+			final ViewRegistrations vrs,
+			final PairwiseStitchingParameters params,
+			final AbstractSequenceDescription< ?,? extends BasicViewDescription<?>, ? > sd,
+			final GroupedViewAggregator gva,
+			final long[] downsampleFactors,
+			final ExecutorService service,
+			final PairwiseFFTCache fftCache,
+			final PhaseCorrelationEngine pcmEngine )
+	{
 
 		// get Overlap Bounding Box
 		final List<List<ViewId>> views = new ArrayList<>();
@@ -273,25 +291,12 @@ public class TransformationTools
 		if (bbOverlap == null)
 			return null;
 
-		// get one image per group
-		final RandomAccessibleInterval<T> img1 = gva.aggregate( viewIdsA, sd, downsampleFactors, dsCorrectionT1, service );
-		final RandomAccessibleInterval<T> img2 = gva.aggregate( viewIdsB, sd, downsampleFactors, dsCorrectionT2, service );
-
-		if (img1 == null || img2 == null)
-		{
-			IOFunctions.println( "WARNING: Tried to open missing View when computing Stitching for " + viewIdsA + " and " + 
-						viewIdsB + ". No link between those could be determined");
-			return null;
-		}
-
-		// get translations
-		// TODO: is the 2d check here meaningful?
-		// everything will probably be 3d at this point, since ImgLoaders return 3d images
-		boolean is2d = img1.numDimensions() == 2;
-		Pair< AffineGet, TranslationGet > t1 = TransformTools.getInitialTransforms( vrs.getViewRegistration(viewIdsA.iterator().next()), is2d, dsCorrectionT1 );
-		Pair< AffineGet, TranslationGet > t2 = TransformTools.getInitialTransforms( vrs.getViewRegistration(viewIdsB.iterator().next()), is2d, dsCorrectionT2 );
+		final Pair< Translation, Double > result;
 
-		final Pair< Translation, Double > result  = PairwiseStitching.getShift( img1, img2, t1.getB(), t2.getB(), params, service );
+		if ( params.coarseToFineLevels > 0 && !params.useWholeImage )
+			result = TransformationTools.< T >computeShiftCoarseToFine( viewIdsA, viewIdsB, vrs, params, sd, gva, downsampleFactors, service, pcmEngine );
+		else
+			result = TransformationTools.< T >computeShift( viewIdsA, viewIdsB, vrs, params, sd, gva, downsampleFactors, service, fftCache, pcmEngine, null, 0, -1 );
 
 		if (result == null)
 			return null;
@@ -320,6 +325,250 @@ public class TransformationTools
 		return new ValuePair<>( new ValuePair<>( resTransform, result.getB() ), bbOverlap );
 	}
 	
+	/**
+	 * compute the shift of group B relative to group A (in pixel coordinates of the downsampled images) via phase correlation
+	 * 
+	 * @param viewIdsA first group
+	 * @param viewIdsB second group
+	 * @param vrs the view registrations
+	 * @param params stitching parameters
+	 * @param sd the sequence description
+	 * @param gva how to aggregate grouped views
+	 * @param downsampleFactors downsampling
+	 * @param service executor service to use
+	 * @param fftCache cache for the FFTs, may be null
+	 * @param pcmEngine buffers for the phase correlation shared by the run, may be null
+	 * @param estimate known approximate shift (in pixel coordinates of the downsampled images), may be null
+	 * @param window maximal size of the overlap to use, 0 for all of it (see PairwiseStitching.getShift)
+	 * @param maxShift maximal deviation from the estimate in pixels, negative for no limit
+	 * @param <T> pixel type
+	 * @return the shift and cross correlation or null if it could not be determined
+	 */
+	private static < T extends RealType< T > > Pair< Translation, Double > computeShift(
+			final Group<? extends ViewId> viewIdsA,
+			final Group<? extends ViewId> viewIdsB,
+			final ViewRegistrations vrs,
+			final PairwiseStitchingParameters params,
+			final AbstractSequenceDescription< ?,? extends BasicViewDescription<?>, ? > sd,
+			final GroupedViewAggregator gva,
+			final long[] downsampleFactors,
+			final ExecutorService service,
+			final PairwiseFFTCache fftCache,
+			final PhaseCorrelationEngine pcmEngine,
+			final double[] estimate,
+			final int window,
+			final long maxShift )
+	{
+		// the transformation that maps the downsampled image coordinates back to the original input(!) image space
+		final AffineTransform3D dsCorrectionT1 = new AffineTransform3D();
+		final AffineTransform3D dsCorrectionT2 = new AffineTransform3D();
+
+		// only load the parts of the views we will look at (unless we use the whole images anyway)
+		final Pair< Interval, Interval > regions = params.useWholeImage ? null : getOverlapRegions( viewIdsA, viewIdsB, vrs, sd, downsampleFactors, estimate );
+
+		// get one image per group
+		final RandomAccessibleInterval<T> img1 = gva.aggregate( viewIdsA, sd, downsampleFactors, dsCorrectionT1, service, regions == null ? null : regions.getA() );
+		final RandomAccessibleInterval<T> img2 = gva.aggregate( viewIdsB, sd, downsampleFactors, dsCorrectionT2, service, regions == null ? null : regions.getB() );
+
+		if (img1 == null || img2 == null)
+		{
+			IOFunctions.println( "WARNING: Tried to open missing View when computing Stitching for " + viewIdsA + " and " + 
+						viewIdsB + ". No link between those could be determined");
+			return null;
+		}
+
+		// get translations
+		// TODO: is the 2d check here meaningful?
+		// everything will probably be 3d at this point, since ImgLoaders return 3d images
+		boolean is2d = img1.numDimensions() == 2;
+		Pair< AffineGet, TranslationGet > t1 = TransformTools.getInitialTransforms( vrs.getViewRegistration(viewIdsA.iterator().next()), is2d, dsCorrectionT1 );
+		Pair< AffineGet, TranslationGet > t2 = TransformTools.getInitialTransforms( vrs.getViewRegistration(viewIdsB.iterator().next()), is2d, dsCorrectionT2 );
+
+		final Pair< Translation, Double > result  = PairwiseStitching.getShift( img1, img2, t1.getB(), addEstimate( t2.getB(), estimate ), params, service,
+				fftCache, viewIdsA, viewIdsB, downsampleFactors, window, maxShift, pcmEngine );
+
+		if ( result == null || estimate == null )
+			return result;
+
+		// the shift was determined relative to the estimate
+		for (int d = 0; d < result.getA().numDimensions(); ++d)
+			result.getA().set( result.getA().getTranslation( d ) + estimate[ d ], d );
+
+		return result;
+	}
+
+	/**
+	 * compute the shift of group B relative to group A (in pixel coordinates of the downsampled images) coarse-to-fine:
+	 * phase correlation of the whole overlap on a coarser (mipmap) level first, then refinement on the finer levels
+	 * in a small window of the overlap, only looking at shifts close to the estimate of the previous level.
+	 * Falls back to a normal phase correlation if any level fails.
+	 * 
+	 * @param viewIdsA first group
+	 * @param viewIdsB second group
+	 * @param vrs the view registrations
+	 * @param params stitching parameters
+	 * @param sd the sequence description
+	 * @param gva how to aggregate grouped views
+	 * @param downsampleFactors downsampling (of the finest level)
+	 * @param service executor service to use
+	 * @param pcmEngine buffers for the phase correlation shared by the run, may be null
+	 * @param <T> pixel type
+	 * @return the shift and cross correlation or null if it could not be determined
+	 */
+	private static < T extends RealType< T > > Pair< Translation, Double > computeShiftCoarseToFine(
+			final Group<? extends ViewId> viewIdsA,
+			final Group<? extends ViewId> viewIdsB,
+			final ViewRegistrations vrs,
+			final PairwiseStitchingParameters params,
+			final AbstractSequenceDescription< ?,? extends BasicViewDescription<?>, ? > sd,
+			final GroupedViewAggregator gva,
+			final long[] downsampleFactors,
+			final ExecutorService service,
+			final PhaseCorrelationEngine pcmEngine )
+	{
+		final List< long[] > levels = getCoarseToFineDownsamplings( viewIdsA, sd, downsampleFactors, params.coarseToFineLevels );
+
+		return computeShiftCoarseToFine( levels, downsampleFactors, params.coarseToFineWindow,
+				( ds, estimate, window, maxShift ) -> TransformationTools.< T >computeShift(
+						viewIdsA, viewIdsB, vrs, params, sd, gva, ds, service, null, pcmEngine, estimate, window, maxShift ) );
+	}
+
+	/**
+	 * the shift of a pair at one downsampling, see computeShift()
+	 */
+	interface LevelShift
+	{
+		/**
+		 * @param downsampleFactors downsampling of the level
+		 * @param estimate known approximate shift (in pixels of this level), may be null
+		 * @param window maximal size of the overlap to use, 0 for all of it
+		 * @param maxShift maximal deviation from the estimate in pixels, negative for no limit
+		 * @return the shift (in pixels of this level) and cross correlation or null if it could not be determined
+		 */
+		Pair< Translation, Double > compute( long[] downsampleFactors, double[] estimate, int window, long maxShift );
+	}
+
+	/**
+	 * the coarse-to-fine scheme of {@link #computeShiftCoarseToFine(Group, Group, ViewRegistrations, PairwiseStitchingParameters, AbstractSequenceDescription, GroupedViewAggregator, long[], ExecutorService, PhaseCorrelationEngine)}
+	 * for the given levels, independent of how the shift of one level is computed
+	 * 
+	 * @param levels downsamplings from coarse to fine, ending with downsampleFactors
+	 * @param downsampleFactors downsampling (of the finest level)
+	 * @param window maximal size of the overlap to use on the finer levels
+	 * @param levelShift computes the shift at one level
+	 * @return the shift (in pixels of the finest level) and cross correlation or null if it could not be determined
+	 */
+	static Pair< Translation, Double > computeShiftCoarseToFine(
+			final List< long[] > levels,
+			final long[] downsampleFactors,
+			final int window,
+			final LevelShift levelShift )
+	{
+		Pair< Translation, Double > result = null;
+		long[] previous = null;
+
+		for ( final long[] ds : levels )
+		{
+			if ( previous == null )
+			{
+				// coarsest level: whole overlap
+				result = levelShift.compute( ds, null, 0, -1 );
+			}
+			else
+			{
+				// estimate from the previous level, in pixels of this level
+				final double[] estimate = new double[ result.getA().numDimensions() ];
+				long maxRatio = 1;
+				for ( int d = 0; d < estimate.length; ++d )
+				{
+					estimate[ d ] = result.getA().getTranslation( d ) * previous[ d ] / ds[ d ];
+					maxRatio = Math.max( maxRatio, previous[ d ] / ds[ d ] );
+				}
+
+				// the previous level is accurate to about one of its pixels
+				// (r is computed on the whole overlap by PairwiseStitching.getShift, also with a window)
+				result = levelShift.compute( ds, estimate, window, 2 * maxRatio );
+			}
+
+			if ( result == null )
+			{
+				if ( PairwiseStitching.debug )
+					IOFunctions.println( "Coarse-to-fine failed at downsampling " + Util.printCoordinates( ds ) + ", using normal phase correlation." );
+
+				return levelShift.compute( downsampleFactors, null, 0, -1 );
+			}
+
+			previous = ds;
+		}
+
+		return result;
+	}
+
+	/**
+	 * get the downsamplings to use for coarse-to-fine phase correlation: the next finest mipmap levels coarser than
+	 * downsampleFactors (or powers of two of it if there are no mipmaps), from coarse to fine, ending with downsampleFactors
+	 */
+	private static List< long[] > getCoarseToFineDownsamplings(
+			final Group<? extends ViewId> group,
+			final AbstractSequenceDescription< ?,? extends BasicViewDescription<?>, ? > sd,
+			final long[] downsampleFactors,
+			final int numLevels )
+	{
+		final List< long[] > levels = new ArrayList<>();
+		final ViewId view = getFirstPresentView( group, sd );
+
+		if ( view != null && MultiResolutionImgLoader.class.isInstance( sd.getImgLoader() ) )
+		{
+			final double[][] mipmapResolutions = ( (MultiResolutionImgLoader) sd.getImgLoader() ).getSetupImgLoader( view.getViewSetupId() ).getMipmapResolutions();
+
+			for ( final double[] resolution : mipmapResolutions )
+			{
+				final long[] ds = new long[ downsampleFactors.length ];
+				boolean coarser = false;
+				boolean fits = true;
+
+				for ( int d = 0; d < ds.length; ++d )
+				{
+					ds[ d ] = Math.max( downsampleFactors[ d ], Math.round( resolution[ d ] ) );
+					fits &= ds[ d ] % downsampleFactors[ d ] == 0;
+					coarser |= ds[ d ] > downsampleFactors[ d ];
+				}
+
+				if ( fits && coarser && ( levels.isEmpty() || !Arrays.equals( levels.get( levels.size() - 1 ), ds ) ) )
+					levels.add( ds );
+			}
+		}
+		else
+		{
+			for ( int l = 1; l <= numLevels; ++l )
+			{
+				final long[] ds = new long[ downsampleFactors.length ];
+				for ( int d = 0; d < ds.length; ++d )
+					ds[ d ] = downsampleFactors[ d ] << l;
+				levels.add( ds );
+			}
+		}
+
+		// the finest coarser levels, from coarse to fine, then the target
+		final List< long[] > result = new ArrayList<>( levels.subList( 0, Math.min( numLevels, levels.size() ) ) );
+		Collections.reverse( result );
+		result.add( downsampleFactors );
+
+		return result;
+	}
+
+	private static TranslationGet addEstimate( final TranslationGet t, final double[] estimate )
+	{
+		if ( estimate == null )
+			return t;
+
+		final double[] translation = new double[ t.numDimensions() ];
+		for ( int d = 0; d < translation.length; ++d )
+			translation[ d ] = t.getTranslation( d ) + estimate[ d ];
+
+		return new Translation( translation );
+	}
+
 	public static < T extends RealType< T > > Pair<Pair< AffineGet, Double >, RealInterval> computeStitchingLucasKanade(
 			final Group<? extends ViewId> viewIdsA,
 			final Group<? extends ViewId> viewIdsB,
@@ -346,9 +595,12 @@ public class TransformationTools
 		if (bbOverlap == null)
 			return null;
 
+		// only load the parts of the views we will look at
+		final Pair< Interval, Interval > regions = getOverlapRegions( viewIdsA, viewIdsB, vrs, sd, downsampleFactors );
+
 		// get one image per group
-		final RandomAccessibleInterval<T> img1 = gva.aggregate( viewIdsA, sd, downsampleFactors, dsCorrectionT1, service );	
-		final RandomAccessibleInterval<T> img2 = gva.aggregate( viewIdsB, sd, downsampleFactors, dsCorrectionT2, service );
+		final RandomAccessibleInterval<T> img1 = gva.aggregate( viewIdsA, sd, downsampleFactors, dsCorrectionT1, service, regions == null ? null : regions.getA() );
+		final RandomAccessibleInterval<T> img2 = gva.aggregate( viewIdsB, sd, downsampleFactors, dsCorrectionT2, service, regions == null ? null : regions.getB() );
 
 		if (img1 == null || img2 == null)
 		{
@@ -389,6 +641,81 @@ public class TransformationTools
 		return new ValuePair<>( new ValuePair<>( resTransform, result.getB() ), bbOverlap );
 	}
 
+	/**
+	 * get the regions of the (downsampled) views of two groups that pairwise stitching will read, i.e. their overlap
+	 * given the current registrations plus the phase correlation extension, computed from the metadata only
+	 * 
+	 * @param viewIdsA first group
+	 * @param viewIdsB second group
+	 * @param vrs the view registrations
+	 * @param sd the sequence description
+	 * @param downsampleFactors downsampling relative to full resolution
+	 * @return the regions in local (downsampled) coordinates of A and B, null if they could not be determined
+	 */
+	public static Pair< Interval, Interval > getOverlapRegions(
+			final Group<? extends ViewId> viewIdsA,
+			final Group<? extends ViewId> viewIdsB,
+			final ViewRegistrations vrs,
+			final AbstractSequenceDescription< ?,? extends BasicViewDescription<?>, ? > sd,
+			final long[] downsampleFactors )
+	{
+		return getOverlapRegions( viewIdsA, viewIdsB, vrs, sd, downsampleFactors, null );
+	}
+
+	/**
+	 * get the regions of the (downsampled) views of two groups that pairwise stitching will read if group B is
+	 * additionally shifted by estimate (see {@link #getOverlapRegions(Group, Group, ViewRegistrations, AbstractSequenceDescription, long[])})
+	 * 
+	 * @param viewIdsA first group
+	 * @param viewIdsB second group
+	 * @param vrs the view registrations
+	 * @param sd the sequence description
+	 * @param downsampleFactors downsampling relative to full resolution
+	 * @param estimate additional shift of B in downsampled pixel coordinates, may be null
+	 * @return the regions in local (downsampled) coordinates of A and B, null if they could not be determined
+	 */
+	public static Pair< Interval, Interval > getOverlapRegions(
+			final Group<? extends ViewId> viewIdsA,
+			final Group<? extends ViewId> viewIdsB,
+			final ViewRegistrations vrs,
+			final AbstractSequenceDescription< ?,? extends BasicViewDescription<?>, ? > sd,
+			final long[] downsampleFactors,
+			final double[] estimate )
+	{
+		// the views GroupedViewAggregator takes the downsampling from
+		final ViewId presentA = getFirstPresentView( viewIdsA, sd );
+		final ViewId presentB = getFirstPresentView( viewIdsB, sd );
+
+		if ( presentA == null || presentB == null )
+			return null;
+
+		final Dimensions dims1 = RAIProxy.getDownsampledDimensions( sd.getImgLoader(), presentA, downsampleFactors );
+		final Dimensions dims2 = RAIProxy.getDownsampledDimensions( sd.getImgLoader(), presentB, downsampleFactors );
+
+		final AffineTransform3D dsCorrectionT1 = new AffineTransform3D();
+		final AffineTransform3D dsCorrectionT2 = new AffineTransform3D();
+		dsCorrectionT1.set( DownsampleTools.getMipMapTransform( sd.getImgLoader(), presentA, downsampleFactors ) );
+		dsCorrectionT2.set( DownsampleTools.getMipMapTransform( sd.getImgLoader(), presentB, downsampleFactors ) );
+
+		// the same translations computeStitching() will use
+		final boolean is2d = dims1.numDimensions() == 2;
+		final TranslationGet t1 = TransformTools.getInitialTransforms( vrs.getViewRegistration( viewIdsA.iterator().next() ), is2d, dsCorrectionT1 ).getB();
+		final TranslationGet t2 = TransformTools.getInitialTransforms( vrs.getViewRegistration( viewIdsB.iterator().next() ), is2d, dsCorrectionT2 ).getB();
+
+		return PairwiseStitching.getOverlapRegions( dims1, dims2, t1, addEstimate( t2, estimate ), PairwiseStitching.PCM_EXTENSION );
+	}
+
+	private static ViewId getFirstPresentView(
+			final Group<? extends ViewId> group,
+			final AbstractSequenceDescription< ?,? extends BasicViewDescription<?>, ? > sd )
+	{
+		for ( final ViewId vid : group.getViews() )
+			if ( sd.getViewDescriptions().get( vid ).isPresent() )
+				return vid;
+
+		return null;
+	}
+
 	/**
 	 * 
 	 * @param pairs list of potentially overlapping pairs of view groups, this will be modified!
@@ -444,9 +771,14 @@ public class TransformationTools
 		final int nComparisions = pairs.size();
 		AtomicInteger nCompleted = new AtomicInteger();
 
-		IJ.showProgress( 0.0 );
+		if (progressWriter != null)
+			progressWriter.setProgress( 0.0 );
+
+		// one scheduler for all pairs, they share one pool for the inner work
+		final int batchSize = params.manualNumTasks ? params.numTasks : Math.max( 2, Threads.numThreads() / 6 );
+		final PairwiseScheduler scheduler = new PairwiseScheduler( batchSize, Threads.numThreads() );
 
-		for ( final Pair< Group< V >, Group< V > > p : pairs )
+		for ( final Pair< Group< V >, Group< V > > p : PairwiseScheduler.sortByGroups( pairs ) )
 		{
 			tasks.add(
 					new Callable< Pair< Pair< Group< V >, Group< V > >, Pair< Pair< AffineGet, Double >, RealInterval > > >()
@@ -460,8 +792,7 @@ public class TransformationTools
 							IOFunctions.println( new Date( System.currentTimeMillis() ) + ": Compute pairwise: "
 									+ p.getA() + " <> " + p.getB() );
 
-							final ExecutorService serviceLocal = Executors.newFixedThreadPool(
-									Math.max( 2, Runtime.getRuntime().availableProcessors() / 4 ) );
+							final ExecutorService serviceLocal = scheduler.getInnerService();
 
 							final ViewId firstVdA = p.getA().iterator().next();
 							final ViewId firstVdB = p.getB().iterator().next();
@@ -481,8 +812,6 @@ public class TransformationTools
 										gva, downsamplingFactors, serviceLocal );
 							}
 
-							serviceLocal.shutdown();
-
 							int nCompletedI = nCompleted.incrementAndGet();
 							if (progressWriter != null)							
 								progressWriter.setProgress( (double) nCompletedI / nComparisions );
@@ -498,21 +827,13 @@ public class TransformationTools
 
 		final ArrayList< PairwiseStitchingResult< ViewId > > results = new ArrayList<>();
 
-		// set up executor service
-		final int batchSize = params.manualNumTasks ? params.numTasks : Math.max( 2, Threads.numThreads() / 6 );
-		final ExecutorService serviceGlobal = Executors.newFixedThreadPool( batchSize );
-
 		try
 		{
-			for ( final Future< Pair< Pair< Group< V >, Group< V > >, Pair< Pair< AffineGet, Double >, RealInterval > > > future : serviceGlobal
-					.invokeAll( tasks ) )
+			// results are processed as soon as their pair is done
+			scheduler.run( tasks, result ->
 			{
-				// wait for task to complete
-				final Pair< Pair< Group< V >, Group< V > >, Pair< Pair< AffineGet, Double >, RealInterval > > result = future
-						.get();
-
 				if ( result.getB() == null )
-					continue;
+					return;
 
 				AffineTransform3D resT = new AffineTransform3D();
 				resT.preConcatenate( result.getB().getA().getA() );
@@ -531,7 +852,7 @@ public class TransformationTools
 				if ( result.getB() != null )
 					results.add( new PairwiseStitchingResult<>( new ValuePair<>( groupA, groupB ), result.getB().getB(),
 							resT, result.getB().getA().getB(), oldTransformHash ) );
-			}
+			});
 		}
 		catch ( final Exception e )
 		{
@@ -539,6 +860,10 @@ public class TransformationTools
 			e.printStackTrace();
 			return null;
 		}
+		finally
+		{
+			scheduler.shutdown();
+		}
 
 		return results;
 	}
@@ -550,6 +875,60 @@ public class TransformationTools
 																		final GroupedViewAggregator gva,
 																		final long[] downsamplingFactors)
 	{
+		return computePairs( pairs, params, vrs, sd, gva, downsamplingFactors, null );
+	}
+
+	/**
+	 * compute the pairwise shifts of all pairs
+	 * 
+	 * @param pairs list of potentially overlapping pairs of view groups, this will be modified!
+	 * @param params stitching parameters
+	 * @param vrs the view registrations
+	 * @param sd the sequence description
+	 * @param gva how to aggregate grouped views
+	 * @param downsamplingFactors downsampling
+	 * @param resultConsumer called for every result as soon as it is computed (on the calling thread), may be null
+	 * @param <V> view id type
+	 * @return all results or null if computation failed
+	 */
+	public static <V extends ViewId > ArrayList< PairwiseStitchingResult<ViewId> > computePairs(
+			final List< Pair<  Group< V >,  Group< V > > > pairs,
+			final PairwiseStitchingParameters params,
+			final ViewRegistrations vrs,
+			final AbstractSequenceDescription< ?, ? extends BasicViewDescription< ? >, ? > sd,
+			final GroupedViewAggregator gva,
+			final long[] downsamplingFactors,
+			final Consumer< PairwiseStitchingResult< ViewId > > resultConsumer )
+	{
+		// show progress in ImageJ progress bar
+		return computePairs( pairs, params, vrs, sd, gva, downsamplingFactors, resultConsumer, new ProgressWriterIJ() );
+	}
+
+	/**
+	 * compute the pairwise shifts of all pairs, reporting progress to a ProgressWriter
+	 * (this does not touch ImageJ, so it can be used on headless machines)
+	 * 
+	 * @param pairs list of potentially overlapping pairs of view groups, this will be modified!
+	 * @param params stitching parameters
+	 * @param vrs the view registrations
+	 * @param sd the sequence description
+	 * @param gva how to aggregate grouped views
+	 * @param downsamplingFactors downsampling
+	 * @param resultConsumer called for every result as soon as it is computed (on the calling thread), may be null
+	 * @param progressWriter receives the fraction of completed pairs, may be null
+	 * @param <V> view id type
+	 * @return all results or null if computation failed
+	 */
+	public static <V extends ViewId > ArrayList< PairwiseStitchingResult<ViewId> > computePairs(
+			final List< Pair<  Group< V >,  Group< V > > > pairs,
+			final PairwiseStitchingParameters params,
+			final ViewRegistrations vrs,
+			final AbstractSequenceDescription< ?, ? extends BasicViewDescription< ? >, ? > sd,
+			final GroupedViewAggregator gva,
+			final long[] downsamplingFactors,
+			final Consumer< PairwiseStitchingResult< ViewId > > resultConsumer,
+			final ProgressWriter progressWriter )
+	{
 
 		IOFunctions.println( new Date( System.currentTimeMillis() ) + ": Identifying overlapping image pairs ..." );
 
@@ -571,7 +950,14 @@ public class TransformationTools
 		else
 			IOFunctions.println( new Date( System.currentTimeMillis() ) + ": Total number of comparisons: " + nComparisions );
 
-		IJ.showProgress( 0.0 );
+		if ( progressWriter != null )
+			progressWriter.setProgress( 0.0 );
+
+		// when using whole images, every group is transformed only once for all pairs it is part of
+		// (overlap regions differ for every pair, there is nothing to re-use then)
+		final PairwiseFFTCache fftCache = params.useWholeImage ? new PairwiseFFTCache() : null;
+		if ( fftCache != null )
+			fftCache.registerPairs( pairs );
 
 		// how many pairs of Phase Correlations we run in parallel
 		// it should not be more than max(Threads.numThreads() / 2, 1)
@@ -581,7 +967,14 @@ public class TransformationTools
 						Math.max( 1, Threads.numThreads() / 2 ), // Threads.numThreads() could be 1
 						params.manualNumTasks ? params.numTasks : Math.max( 2, Threads.numThreads() / 6 ) );
 
-		for ( final Pair< Group< V >, Group< V > > p : pairs )
+		// FFT and PCM buffers of each thread are re-used between the pairs of this run (only)
+		final PhaseCorrelationEngine pcmEngine = new PhaseCorrelationEngine();
+
+		// one scheduler for the whole run, all pairs share one pool for FFTs and cross correlations
+		final PairwiseScheduler scheduler = new PairwiseScheduler( batchSize, Threads.numThreads() );
+
+		// process pairs of the same groups close to each other, so their FFTs can be released early
+		for ( final Pair< Group< V >, Group< V > > p : PairwiseScheduler.sortByGroups( pairs ) )
 		{
 			tasks.add( new Callable< Pair< Pair< Group< V >, Group< V > >, Pair<Pair< AffineGet, Double >, RealInterval> > >()
 			{
@@ -590,49 +983,57 @@ public class TransformationTools
 				{
 					Pair<Pair< AffineGet, Double >, RealInterval> result = null;
 
-					final int numLocalThreads = Threads.numThreads() / batchSize; //Math.max( 2, Threads.numThreads() / 4 );
-					final ExecutorService serviceLocal = Executors.newFixedThreadPool( numLocalThreads );
+					try
+					{
+						final ExecutorService serviceLocal = scheduler.getInnerService();
 
-					// TODO: do non-equal transformation registration when views within a group have differing transformations
-					final ViewId firstVdA = p.getA().iterator().next();
-					final ViewId firstVdB = p.getB().iterator().next();
+						// TODO: do non-equal transformation registration when views within a group have differing transformations
+						final ViewId firstVdA = p.getA().iterator().next();
+						final ViewId firstVdB = p.getB().iterator().next();
 					
-					boolean nonTranslationsEqual = TransformTools.nonTranslationsEqual( vrs.getViewRegistration( firstVdA ), vrs.getViewRegistration( firstVdB ) );
+						boolean nonTranslationsEqual = TransformTools.nonTranslationsEqual( vrs.getViewRegistration( firstVdA ), vrs.getViewRegistration( firstVdB ) );
 					
-					if (nonTranslationsEqual)
-					{
-						if ( PairwiseStitching.debug )
-							System.out.println( "non translations equal" );
-						result = computeStitching(
-								p.getA(),
-								p.getB(),
-								vrs,
-								params,
-								sd,
-								gva,
-								downsamplingFactors,
-								serviceLocal );
+						if (nonTranslationsEqual)
+						{
+							if ( PairwiseStitching.debug )
+								System.out.println( "non translations equal" );
+							result = computeStitching(
+									p.getA(),
+									p.getB(),
+									vrs,
+									params,
+									sd,
+									gva,
+									downsamplingFactors,
+									serviceLocal,
+									fftCache,
+									pcmEngine );
+						}
+						else
+						{
+							result = computeStitchingNonEqualTransformations( 
+									p.getA(),
+									p.getB(),
+									vrs,
+									params,
+									sd,
+									gva,
+									downsamplingFactors,
+									serviceLocal );
+							if ( PairwiseStitching.debug )
+								System.out.println( "non translations NOT equal, using virtually fused views for stitching" );
+						}
 					}
-					else
+					finally
 					{
-						result = computeStitchingNonEqualTransformations( 
-								p.getA(),
-								p.getB(),
-								vrs,
-								params,
-								sd,
-								gva,
-								downsamplingFactors,
-								serviceLocal );
-						if ( PairwiseStitching.debug )
-							System.out.println( "non translations NOT equal, using virtually fused views for stitching" );
+						// release the FFTs of groups that are not needed anymore (also if this pair failed)
+						if ( fftCache != null )
+							fftCache.pairDone( p.getA(), p.getB() );
 					}
 
-					serviceLocal.shutdown();
-
-					// show progress in ImageJ progress bar (TODO: should we really do this here or leave it GUI-independent?)
 					int nCompletedI = nCompleted.incrementAndGet();
-					IJ.showProgress( (double) nCompletedI / nComparisions );
+					if ( progressWriter != null )
+						progressWriter.setProgress( (double) nCompletedI / nComparisions );
 
 					if ( nComparisions <= maxNumOutputLines || rnd.nextDouble() < rndThres )
 					{
@@ -649,21 +1050,16 @@ public class TransformationTools
 
 		final ArrayList< PairwiseStitchingResult< ViewId > > results = new ArrayList<>();
 
-		final ExecutorService serviceGlobal = Executors.newFixedThreadPool( batchSize );
-
-		IOFunctions.println( "Computing overlap for: " + batchSize + " pairs of images at once, each " + (Threads.numThreads() / batchSize) + " threads, (in total <=" + Threads.numThreads() + " threads)" );
+		IOFunctions.println( "Computing overlap for: " + batchSize + " pairs of images at once, sharing " + Threads.numThreads() + " threads" );
 		IOFunctions.println( "Total num CPUs: " + Runtime.getRuntime().availableProcessors() );
 
 		try
 		{
-			for ( final ArrayList< Callable< Pair< Pair< Group< V >, Group< V > >, Pair<Pair< AffineGet, Double >, RealInterval> > > > part : Threads.splitTasks( tasks, batchSize ) )
-				for ( final Future< Pair< Pair< Group< V >, Group< V > >, Pair<Pair< AffineGet, Double >, RealInterval> > > future : serviceGlobal.invokeAll( part ) )
-				{
-				// wait for task to complete
-				final Pair< Pair< Group< V >, Group< V > >, Pair<Pair< AffineGet, Double >, RealInterval> > result = future.get();
-
+			// results are processed as soon as their pair is done, the next pair starts right away
+			scheduler.run( tasks, result ->
+			{
 				if (result.getB() == null)
-					continue;
+					return;
 				
 				/*
 				final ViewRegistration vrA = vrs.getViewRegistration( result.getA().getA().iterator().next() );
@@ -694,9 +1090,13 @@ public class TransformationTools
 							vrs.getViewRegistration( groupA.getViews().iterator().next() ),
 							vrs.getViewRegistration( groupB.getViews().iterator().next() ) );
 
-					results.add( new PairwiseStitchingResult<>( new ValuePair<>(groupA, groupB), result.getB().getB(),  resT, result.getB().getA().getB(), oldTransformHash ) );
+					final PairwiseStitchingResult< ViewId > psr = new PairwiseStitchingResult<>( new ValuePair<>(groupA, groupB), result.getB().getB(),  resT, result.getB().getA().getB(), oldTransformHash );
+					results.add( psr );
+
+					if ( resultConsumer != null )
+						resultConsumer.accept( psr );
 				}
-			}
+			});
 		}
 		catch ( final Exception e )
 		{
@@ -704,6 +1104,11 @@ public class TransformationTools
 			e.printStackTrace();
 			return null;
 		}
+		finally
+		{
+			scheduler.shutdown();
+			pcmEngine.clear();
+		}
 
 		return results;
 	}
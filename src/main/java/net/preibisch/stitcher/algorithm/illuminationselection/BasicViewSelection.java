@@ -21,14 +21,30 @@
  */
 package net.preibisch.stitcher.algorithm.illuminationselection;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 import mpicbg.spim.data.generic.AbstractSpimData;
 import mpicbg.spim.data.generic.sequence.AbstractSequenceDescription;
+import mpicbg.spim.data.generic.sequence.BasicImgLoader;
+import mpicbg.spim.data.sequence.MultiResolutionImgLoader;
+import mpicbg.spim.data.sequence.MultiResolutionSetupImgLoader;
 import mpicbg.spim.data.sequence.ViewId;
+import net.imglib2.FinalInterval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+import net.preibisch.stitcher.algorithm.TransformTools;
 
 public abstract class BasicViewSelection <V extends ViewId> implements ViewSelection< V >
 {
 	protected AbstractSequenceDescription< ?, ?, ? > sd;
-	
+
+	// if > 0, views are only evaluated on blocks of this size spread evenly over the image
+	protected int sampleBlockSize = 0;
+	protected int blocksPerDimension = 3;
+
 	public BasicViewSelection(AbstractSequenceDescription< ?, ?, ? > sd)
 	{
 		this.sd = sd;
@@ -39,4 +55,67 @@ public abstract class BasicViewSelection <V extends ViewId> implements ViewSelec
 		this.sd = data.getSequenceDescription();
 	}
 
+	public void setSampleBlockSize( final int sampleBlockSize ) { this.sampleBlockSize = sampleBlockSize; }
+	public int getSampleBlockSize() { return sampleBlockSize; }
+
+	/**
+	 * open a view for evaluation, at the coarsest mipmap level for multiresolution loaders
+	 * @param view the view
+	 * @param <T> pixel type
+	 * @return the image
+	 */
+	@SuppressWarnings("unchecked")
+	protected < T > RandomAccessibleInterval< T > openForEvaluation( final ViewId view )
+	{
+		final BasicImgLoader imgLoader = sd.getImgLoader();
+
+		if ( MultiResolutionImgLoader.class.isInstance( imgLoader ) )
+		{
+			final MultiResolutionSetupImgLoader< ? > setupImgLoader = ( (MultiResolutionImgLoader) imgLoader ).getSetupImgLoader( view.getViewSetupId() );
+			return (RandomAccessibleInterval< T >) setupImgLoader.getImage( view.getTimePointId(), setupImgLoader.getMipmapResolutions().length - 1 );
+		}
+		else
+		{
+			return (RandomAccessibleInterval< T >) imgLoader.getSetupImgLoader( view.getViewSetupId() ).getImage( view.getTimePointId() );
+		}
+	}
+
+	/**
+	 * @param view the view
+	 * @return description of the resolution (and sampling) a view is evaluated at, for logging
+	 */
+	protected String evaluationDescription( final ViewId view )
+	{
+		final BasicImgLoader imgLoader = sd.getImgLoader();
+		final String sampling = sampleBlockSize > 0 ? " (sampling blocks of " + sampleBlockSize + "px)" : "";
+
+		if ( MultiResolutionImgLoader.class.isInstance( imgLoader ) )
+		{
+			final MultiResolutionSetupImgLoader< ? > setupImgLoader = ( (MultiResolutionImgLoader) imgLoader ).getSetupImgLoader( view.getViewSetupId() );
+			return "resolution " + Util.printCoordinates( setupImgLoader.getMipmapResolutions()[ setupImgLoader.getMipmapResolutions().length - 1 ] ) + sampling;
+		}
+		else
+		{
+			return "full resolution" + sampling;
+		}
+	}
+
+	/**
+	 * get the parts of an image to evaluate, the whole image if sampleBlockSize &lt;= 0,
+	 * otherwise blocks of size sampleBlockSize spread evenly over the image (see {@link TransformTools#getSampleBlocks})
+	 * @param img the image
+	 * @param <T> pixel type
+	 * @return the blocks
+	 */
+	protected < T > List< RandomAccessibleInterval< T > > getSampleBlocks( final RandomAccessibleInterval< T > img )
+	{
+		if ( sampleBlockSize <= 0 )
+			return Collections.singletonList( img );
+
+		final List< RandomAccessibleInterval< T > > blocks = new ArrayList<>();
+		for ( final FinalInterval block : TransformTools.getSampleBlocks( img, sampleBlockSize, blocksPerDimension ) )
+			blocks.add( Views.interval( img, block ) );
+
+		return blocks;
+	}
 }
@@ -26,15 +26,11 @@ import java.util.Date;
 
 import mpicbg.spim.data.generic.AbstractSpimData;
 import mpicbg.spim.data.generic.sequence.AbstractSequenceDescription;
-import mpicbg.spim.data.generic.sequence.BasicImgLoader;
-import mpicbg.spim.data.sequence.MultiResolutionImgLoader;
-import mpicbg.spim.data.sequence.MultiResolutionSetupImgLoader;
 import mpicbg.spim.data.sequence.ViewId;
 import net.imglib2.IterableInterval;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.util.RealSum;
-import net.imglib2.util.Util;
 import net.imglib2.view.Views;
 import net.preibisch.legacy.io.IOFunctions;
 import net.preibisch.mvrecon.process.deconvolution.normalization.AdjustInput;
@@ -53,65 +49,41 @@ public class BrightestViewSelection extends BasicViewSelection<ViewId>
 	{
 		if (views.size() < 1)
 			return null;
-		
-		BasicImgLoader imgLoader = sd.getImgLoader();
-		
+
 		ViewId currentBest = null;
 		double currentBestMean = -Double.MAX_VALUE;
-		
-		if (MultiResolutionImgLoader.class.isInstance( imgLoader ))
-		{
-			MultiResolutionImgLoader mrImgLoader = (MultiResolutionImgLoader) imgLoader;
-			
-			for (ViewId view : views)
-			{
-				MultiResolutionSetupImgLoader< ? > setupImgLoader = mrImgLoader.getSetupImgLoader( view.getViewSetupId() );
 
-				RandomAccessibleInterval< T > image = (RandomAccessibleInterval< T >) setupImgLoader.getImage( view.getTimePointId(), setupImgLoader.getMipmapResolutions().length - 1 );
-
-				IterableInterval< T > iterableImg = Views.iterable( image );
-				double mean = AdjustInput.sumImg( iterableImg ) / (double)iterableImg.size();
+		for (ViewId view : views)
+		{
+			final RandomAccessibleInterval< T > image = openForEvaluation( view );
 
-				IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Evaluated view " + Group.pvid( view ) + 
-						" at resolution " + Util.printCoordinates( setupImgLoader.getMipmapResolutions()[ setupImgLoader.getMipmapResolutions().length - 1 ] ) + ": " + mean );
+			final RealSum sum = new RealSum();
+			long size = 0;
 
-				if (currentBest == null)
-				{
-					currentBest = view;
-					currentBestMean = mean;
-				}
-				else if (mean >= currentBestMean )
-				{
-					currentBest = view;
-					currentBestMean = mean;
-				}
-			}
-		}
-		else
-		{
-			for (ViewId view : views)
+			for ( final RandomAccessibleInterval< T > block : getSampleBlocks( image ) )
 			{
-				RandomAccessibleInterval< T > image = (RandomAccessibleInterval< T >) imgLoader.getSetupImgLoader( view.getViewSetupId() ).getImage( view.getTimePointId() );
+				final IterableInterval< T > iterableImg = Views.iterable( block );
+				sum.add( AdjustInput.sumImg( iterableImg ) );
+				size += iterableImg.size();
+			}
 
-				IterableInterval< T > iterableImg = Views.iterable( image );
-				double mean = AdjustInput.sumImg( iterableImg ) / (double)iterableImg.size();
+			final double mean = sum.getSum() / (double)size;
 
-				IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Evaluated view " + Group.pvid( view ) + " at full resolution: " + mean );
+			IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Evaluated view " + Group.pvid( view ) + 
+					" at " + evaluationDescription( view ) + ": " + mean );
 
-				if (currentBest == null)
-				{
-					currentBest = view;
-					currentBestMean = mean;
-				}
-				else if (mean >= currentBestMean )
-				{
-					currentBest = view;
-					currentBestMean = mean;
-				}
+			if (currentBest == null)
+			{
+				currentBest = view;
+				currentBestMean = mean;
+			}
+			else if (mean >= currentBestMean )
+			{
+				currentBest = view;
+				currentBestMean = mean;
 			}
-			
 		}
-				
+
 		return currentBest;
 	}
 	
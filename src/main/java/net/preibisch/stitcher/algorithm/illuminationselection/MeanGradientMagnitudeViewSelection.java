@@ -35,16 +35,12 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 import mpicbg.spim.data.generic.AbstractSpimData;
 import mpicbg.spim.data.generic.sequence.AbstractSequenceDescription;
-import mpicbg.spim.data.generic.sequence.BasicImgLoader;
-import mpicbg.spim.data.sequence.MultiResolutionImgLoader;
-import mpicbg.spim.data.sequence.MultiResolutionSetupImgLoader;
 import mpicbg.spim.data.sequence.ViewId;
 import net.imglib2.Cursor;
 import net.imglib2.RandomAccess;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.util.RealSum;
-import net.imglib2.util.Util;
 import net.imglib2.view.ExtendedRandomAccessibleInterval;
 import net.imglib2.view.IntervalView;
 import net.imglib2.view.Views;
@@ -75,61 +71,40 @@ public class MeanGradientMagnitudeViewSelection extends BasicViewSelection<ViewI
 	{
 		if (views.size() < 1)
 			return null;
-		
-		BasicImgLoader imgLoader = sd.getImgLoader();
-		
+
 		ViewId currentBest = null;
 		double currentBestMean = -Double.MAX_VALUE;
-		
-		if (MultiResolutionImgLoader.class.isInstance( imgLoader ))
-		{
-			MultiResolutionImgLoader mrImgLoader = (MultiResolutionImgLoader) imgLoader;
-			
-			for (ViewId view : views)
-			{
-				MultiResolutionSetupImgLoader< ? > setupImgLoader = mrImgLoader.getSetupImgLoader( view.getViewSetupId() );
-
-				RandomAccessibleInterval< T > image = (RandomAccessibleInterval< T >) setupImgLoader.getImage( view.getTimePointId(), setupImgLoader.getMipmapResolutions().length - 1 );
 
-				double mean = getMeanGradientMagnitude(image);
+		for (ViewId view : views)
+		{
+			final RandomAccessibleInterval< T > image = openForEvaluation( view );
 
-				IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Evaluated view " + Group.pvid( view ) + 
-						" at resolution " + Util.printCoordinates( setupImgLoader.getMipmapResolutions()[ setupImgLoader.getMipmapResolutions().length - 1 ] ) + ": " + mean );
+			// size-weighted mean over all (sample) blocks
+			double sum = 0;
+			long size = 0;
 
-				if (currentBest == null)
-				{
-					currentBest = view;
-					currentBestMean = mean;
-				}
-				else if (mean >= currentBestMean )
-				{
-					currentBest = view;
-					currentBestMean = mean;
-				}
-			}
-		}
-		else
-		{
-			for (ViewId view : views)
+			for ( final RandomAccessibleInterval< T > block : getSampleBlocks( image ) )
 			{
-				RandomAccessibleInterval< T > image = (RandomAccessibleInterval< T >) imgLoader.getSetupImgLoader( view.getViewSetupId() ).getImage( view.getTimePointId() );
+				final long blockSize = Views.iterable( block ).size();
+				sum += getMeanGradientMagnitude( block ) * blockSize;
+				size += blockSize;
+			}
 
-				double mean = getMeanGradientMagnitude(image);
+			final double mean = sum / size;
 
-				IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Evaluated view " + Group.pvid( view ) + " at full resolution: " + mean );
+			IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Evaluated view " + Group.pvid( view ) + 
+					" at " + evaluationDescription( view ) + ": " + mean );
 
-				if (currentBest == null)
-				{
-					currentBest = view;
-					currentBestMean = mean;
-				}
-				else if (mean >= currentBestMean )
-				{
-					currentBest = view;
-					currentBestMean = mean;
-				}
+			if (currentBest == null)
+			{
+				currentBest = view;
+				currentBestMean = mean;
+			}
+			else if (mean >= currentBestMean )
+			{
+				currentBest = view;
+				currentBestMean = mean;
 			}
-
 		}
 
 		return currentBest;
@@ -91,6 +91,7 @@ public class RelativeFRCSelection implements ViewSelection< ViewId >
 		return currentBest;
 	}
 
+	// FRC loads full-resolution stacks, evaluating groups in parallel could keep one per thread in memory
 	@Override
 	public boolean runMultithreaded() { return false; }
 }
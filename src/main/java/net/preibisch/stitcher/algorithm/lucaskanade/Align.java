@@ -29,7 +29,6 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import Jama.Matrix;
 
@@ -43,6 +42,8 @@ import net.imglib2.RealInterval;
 import net.imglib2.RealRandomAccessible;
 import net.imglib2.algorithm.phasecorrelation.ImgLib2Util;
 import net.imglib2.algorithm.phasecorrelation.PhaseCorrelation2Util;
+import net.imglib2.converter.Converters;
+import net.imglib2.converter.RealFloatConverter;
 import net.imglib2.img.Img;
 import net.imglib2.img.ImgFactory;
 import net.imglib2.img.array.ArrayImgFactory;
@@ -65,6 +66,8 @@ import net.imglib2.util.Util;
 import net.imglib2.util.ValuePair;
 import net.imglib2.view.Views;
 import net.preibisch.mvrecon.Threads;
+import net.preibisch.mvrecon.process.fusion.FusionTools;
+import net.preibisch.mvrecon.process.fusion.ImagePortion;
 import net.preibisch.mvrecon.process.boundingbox.BoundingBoxMaximalGroupOverlap;
 import net.preibisch.mvrecon.process.downsampling.Downsample;
 import net.preibisch.mvrecon.process.downsampling.DownsampleTools;
@@ -89,25 +92,28 @@ public class Align<T extends RealType< T >>
 	final AffineTransform currentTransform;
 
 	/**
-	 * Image of <em>n+1</em> dimensions to store the steepest descent images of
-	 * the template image at the identity warp. Dimension <em>n</em> is used to
-	 * index the parameters of the warp function. For example, the partial
-	 * derivative of the template image intensity by parameter 2 of the warp
-	 * function at pixel <em>(x,y)</em> is stored at position <em>(x,y,1)</em>.
+	 * Minimal size of a dimension on the coarsest level of {@link #alignPyramid}.
 	 */
-	final Img< FloatType > descent;
+	public static final int MIN_PYRAMID_SIZE = 16;
 
 	/**
-	 * Inverse of the Hessian matrix.
+	 * The steepest descent images of the template at the identity warp as a
+	 * flat array, pixel-major and parameter-minor: the partial derivative of the
+	 * template intensity by parameter p at pixel i (in flat iteration order) is
+	 * stored at i * numParameters + p.
 	 */
-	double[][] Hinv;
+	final float[] descent;
 
 	/**
-	 * The error image for the last iteration shows the difference between the
-	 * template and the warped (with {@link #currentTransform}) image.
+	 * The template in flat iteration order.
 	 */
-	final Img< FloatType > error;
-	
+	final float[] templateData;
+
+	/**
+	 * Inverse of the Hessian matrix.
+	 */
+	double[][] Hinv;
+
 	boolean lastAlignConverged;
 	
 	/**
@@ -142,12 +148,28 @@ public class Align<T extends RealType< T >>
 		gradients( Views.extendBorder( template ), gradients );
 
 		dim[n] = numParameters;
-		descent = factory.create( dim, new FloatType() );
-		computeSteepestDescents( gradients, warpFunction, descent );
+		final Img< FloatType > descentImg = factory.create( dim, new FloatType() );
+		computeSteepestDescents( gradients, warpFunction, descentImg );
 
-		Hinv = computeInverseHessian( descent );
+		Hinv = computeInverseHessian( descentImg );
 
-		error = factory.create( template, new FloatType() );
+		// flat copies for the (fused) per-iteration pass
+		final int numPixels = (int) Intervals.numElements( template );
+		descent = new float[numPixels * numParameters];
+		for ( int p = 0; p < numParameters; ++p )
+		{
+			int i = p;
+			for ( final FloatType t : Views.flatIterable( Views.hyperSlice( descentImg, n, p ) ) )
+			{
+				descent[i] = t.get();
+				i += numParameters;
+			}
+		}
+
+		templateData = new float[numPixels];
+		int i = 0;
+		for ( final T t : Views.flatIterable( template ) )
+			templateData[i++] = t.getRealFloat();
 	}
 
 	/**
@@ -249,10 +271,23 @@ public class Align<T extends RealType< T >>
 			final int maxIterations,
 			final double minParameterChange,
 			final ExecutorService service )
+	{
+		return align( image, new AffineTransform( n ), maxIterations, minParameterChange, service );
+	}
+
+	/*
+	 * Computed and return the affine transform that aligns image to template, starting from initialTransform.
+	 */
+	public AffineTransform align(
+			final RandomAccessibleInterval< T > image,
+			final AffineGet initialTransform,
+			final int maxIterations,
+			final double minParameterChange,
+			final ExecutorService service )
 	{
 		lastAlignConverged = false;
 
-		currentTransform.set( new AffineTransform( n ) );
+		currentTransform.set( initialTransform );
 		int i = 0;
 		while ( i < maxIterations )
 		{
@@ -267,44 +302,132 @@ public class Align<T extends RealType< T >>
 		return currentTransform;
 	}
 
-	double alignStep(final RandomAccessibleInterval< T > image, ExecutorService service)
+	/**
+	 * Align image to template coarse-to-fine: the transform is first estimated on
+	 * downsampled (by 2 per level, only in dimensions that stay larger than
+	 * {@link #MIN_PYRAMID_SIZE}) copies of both images and then refined on the
+	 * next finer level, so that only few iterations are needed at full resolution.
+	 *
+	 * @param template the template image
+	 * @param image the image to align to the template, same size as template
+	 * @param warpFunction the warp function (used on all levels)
+	 * @param levels number of coarser levels, 0 is the same as a plain {@link #align}
+	 * @param maxIterations maximum number of iterations per level
+	 * @param minParameterChange convergence criterion (per level)
+	 * @param service thread pool
+	 * @param <T> pixel type
+	 * @return the {@link Align} of the full resolution level, query it for the result
+	 *         ({@link #getCurrentTransform()}, {@link #didConverge()}, ...)
+	 */
+	public static < T extends RealType< T > > Align< T > alignPyramid(
+			final RandomAccessibleInterval< T > template,
+			final RandomAccessibleInterval< T > image,
+			final WarpFunction warpFunction,
+			final int levels,
+			final int maxIterations,
+			final double minParameterChange,
+			final ExecutorService service )
 	{
-		// compute error image = warped image - template
-		computeDifference( Views.extendBorder( image ), currentTransform, template, error, service, Runtime.getRuntime().availableProcessors() * 2 );
+		final int n = template.numDimensions();
 
-		// compute transform parameter update
-		final double[] gradient = new double[numParameters];
+		// build the pyramid, level 0 is full resolution
+		final List< RandomAccessibleInterval< FloatType > > templates = new ArrayList<>();
+		final List< RandomAccessibleInterval< FloatType > > images = new ArrayList<>();
+		final List< boolean[] > downsampled = new ArrayList<>();
 
-		ArrayList< Callable< Void > > calls =  new ArrayList< Callable<Void> >();
-		for ( int p = 0; p < numParameters; ++p )
+		RandomAccessibleInterval< FloatType > t = Converters.convert( template, new RealFloatConverter< T >(), new FloatType() );
+		RandomAccessibleInterval< FloatType > im = Converters.convert( image, new RealFloatConverter< T >(), new FloatType() );
+
+		for ( int l = 0; l < levels; ++l )
 		{
-			final int pInner = p;
-			Callable< Void > callable = new Callable< Void >()
-			{
-				@Override
-				public Void call() throws Exception
-				{
-					double gradT = 0;
-					final Cursor< FloatType > err = Views.flatIterable( error ).cursor();
-					for ( final FloatType t : Views.flatIterable( Views.hyperSlice( descent, n, pInner ) ) )
-						gradT += t.getRealDouble() * err.next().getRealDouble();
-					gradient[pInner] = gradT;
-					return null;
+			final boolean[] ds = new boolean[n];
+			boolean any = false;
+			for ( int d = 0; d < n; ++d )
+				any |= ds[d] = t.dimension( d ) / 2 >= MIN_PYRAMID_SIZE;
+
+			if ( !any )
+				break;
+
+			t = Downsample.simple2x( t, ds );
+			im = Downsample.simple2x( im, ds );
+
+			templates.add( t );
+			images.add( im );
+			downsampled.add( ds );
+		}
+
+		AffineTransform transform = new AffineTransform( n );
+
+		for ( int l = templates.size() - 1; l >= 0; --l )
+		{
+			final Align< FloatType > lk = new Align<>( templates.get( l ), new ArrayImgFactory<>( new FloatType() ), warpFunction );
+			final AffineTransform coarse = lk.align( images.get( l ), transform, maxIterations, minParameterChange, service );
 
+			// to the next finer level: x_fine = 2 * x_coarse + 0.5 in downsampled dimensions
+			final AffineTransform toFine = new AffineTransform( n );
+			for ( int d = 0; d < n; ++d )
+				if ( downsampled.get( l )[d] )
+				{
+					toFine.set( 2.0, d, d );
+					toFine.set( 0.5, d, n );
 				}
-			};
 
-			calls.add( callable );
+			transform = toFine.copy();
+			transform.concatenate( coarse );
+			transform.concatenate( toFine.inverse() );
+		}
+
+		final Align< T > lk = new Align<>( template, new ArrayImgFactory<>( new FloatType() ), warpFunction );
+		lk.align( image, transform, maxIterations, minParameterChange, service );
 
+		return lk;
+	}
+
+	public AffineTransform getCurrentTransform()
+	{
+		return currentTransform;
+	}
+
+	double alignStep(final RandomAccessibleInterval< T > image, ExecutorService service)
+	{
+		// warp image, compute error (warped image - template) and its dot product
+		// with all steepest descent images in one pass over the flat arrays
+		final RealRandomAccessible< T > interpolated = Views.interpolate( Views.extendBorder( image ), new NLinearInterpolatorFactory< T >() );
+		final RandomAccessibleInterval< T > warped = Views.interval( RealViews.affine( interpolated, currentTransform.copy() ), template );
+
+		final ArrayList< Callable< double[] > > calls = new ArrayList<>();
+		for ( final ImagePortion portion : FusionTools.divideIntoPortions( templateData.length ) )
+		{
+			calls.add( () ->
+			{
+				final double[] gradT = new double[numParameters];
+				final Cursor< T > cw = Views.flatIterable( warped ).cursor();
+				cw.jumpFwd( portion.getStartPosition() );
+
+				final int start = (int) portion.getStartPosition();
+				final int end = start + (int) portion.getLoopSize();
+				for ( int i = start; i < end; ++i )
+				{
+					final double err = cw.next().getRealDouble() - templateData[i];
+					final int o = i * numParameters;
+					for ( int p = 0; p < numParameters; ++p )
+						gradT[p] += descent[o + p] * err;
+				}
+				return gradT;
+			});
 		}
 
-		List<Future<Void>> futures = null;
+		// compute transform parameter update
+		final double[] gradient = new double[numParameters];
 
 		try
 		{
-			futures = service.invokeAll( calls );
-			for (Future<Void> f : futures)
-				f.get();
+			for ( final Future< double[] > f : service.invokeAll( calls ) )
+			{
+				final double[] gradT = f.get();
+				for ( int p = 0; p < numParameters; ++p )
+					gradient[p] += gradT[p];
+			}
 		}
 		catch ( InterruptedException | ExecutionException e)
 		{
@@ -376,81 +499,6 @@ public class Align<T extends RealType< T >>
 			gradient( source, Views.hyperSlice( target, n, d ), d );
 	}
 
-	/**
-	 * Compute the pixel-wise difference between an affine-transformed source
-	 * image and a target image.
-	 *
-	 * @param source
-	 *            The source image.
-	 * @param transform
-	 *            A coordinate transformation to apply to the source image.
-	 * @param target
-	 *            The target image.
-	 * @param difference
-	 *            Output image. The pixel-wise difference between the
-	 *            transformed source image and the target image is stored here.
-	 * @param service
-	 *            thread pool for difference calculation
-	 * @param nTasks
-	 *            number of image parts that are processed in parallel
-	 * @param <T> pixel type source
-	 * @param <S> pixel type target
-	 */
-	public static < T extends RealType< T >,  S extends RealType< S > > void computeDifference(
-			final RandomAccessible< T > source,
-			final AffineTransform transform,
-			final RandomAccessible< T > target,
-			final RandomAccessibleInterval< S > difference,
-			final ExecutorService service,
-			final int nTasks)
-	{
-		final RealRandomAccessible< T > interpolated = Views.interpolate( source, new NLinearInterpolatorFactory< T >() );
-		final RandomAccessible< T > warped = RealViews.affine( interpolated, transform );
-
-		final long stepSize = Views.iterable( difference ).size() / nTasks;
-
-		final List<Callable< Void >> tasks = new ArrayList<>();
-		final AtomicInteger ai = new AtomicInteger( 0 );
-		for (int iO = 0; iO<nTasks; iO++)
-		{
-			tasks.add( new Callable< Void >()
-			{
-				@Override
-				public Void call() throws Exception
-				{
-					final int i = ai.getAndIncrement();
-					final Cursor< T > cw = Views.flatIterable( Views.interval( warped, difference ) ).cursor();
-					final Cursor< T > ct = Views.flatIterable( Views.interval( target, difference ) ).cursor();
-					final Cursor< S > cd = Views.flatIterable( difference ).cursor();
-
-					cw.jumpFwd( stepSize * i );
-					ct.jumpFwd( stepSize * i );
-					cd.jumpFwd( stepSize * i );
-
-					final long end = i == nTasks - 1 ? Views.iterable( difference ).size() - stepSize * i : stepSize;
-					int count = 0;
-					while (count++ < end)
-					{
-						cd.next().setReal( ( cw.next().getRealDouble() - ct.next().getRealDouble() ));
-					}
-					return null;
-				}
-			} );
-		}
-
-		try
-		{
-			List< Future< Void > > futures = service.invokeAll( tasks );
-			for (Future< Void > f: futures)
-				f.get();
-		}
-		catch ( InterruptedException | ExecutionException e )
-		{
-			e.printStackTrace();
-		}
-	}
-
-
 	public static void main(String[] args)
 	{
 		Img< FloatType > a = ImgLib2Util.openAs32Bit( new File( "73.tif.zip" ) );
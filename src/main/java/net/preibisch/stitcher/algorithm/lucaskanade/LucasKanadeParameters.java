@@ -46,6 +46,9 @@ public class LucasKanadeParameters
 	public boolean manualNumTasks;
 	public int numTasks;
 
+	// number of coarser (downsampled by 2) levels to align on first, 0 = off
+	public int pyramidLevels = 0;
+
 	public LucasKanadeParameters(WarpFunctionType modelType, int maxNumIterations, double minParameterChange, boolean showExpertGrouping, boolean manualNumTasks, int numTasks)
 	{
 		this.modelType = modelType;
@@ -85,6 +88,7 @@ public class LucasKanadeParameters
 	{
 		gd.addNumericField( "maximum_iterations", 100, 0, 10, "" );
 		gd.addNumericField( "minimum_parameter_change_for_convergence", 0.01, 2, 10, "" );
+		gd.addNumericField( "pyramid_levels (0 = off)", 0, 0 );
 		if (askForModelType)
 			gd.addChoice( "transformation_type", modelChoices, modelChoices[0] );
 		gd.addCheckbox( "manually set number of parallel tasks", false );
@@ -99,6 +103,7 @@ public class LucasKanadeParameters
 
 		final int nIterations  = (int) gd.getNextNumber();
 		final double minParameterChance = gd.getNextNumber();
+		final int pyramidLevels = Math.max( 0, (int) gd.getNextNumber() );
 
 		final WarpFunctionType modelType;
 		if (askForModelType)
@@ -113,7 +118,9 @@ public class LucasKanadeParameters
 		int numTasks = (int) (manualNumTasks ? gd.getNextNumber() : Math.max( 2, Threads.numThreads() / 6 ));
 		boolean expertGrouping = gd.getNextBoolean();
 
-		return new LucasKanadeParameters(modelType, nIterations, minParameterChance, expertGrouping, manualNumTasks, numTasks);
+		final LucasKanadeParameters params = new LucasKanadeParameters(modelType, nIterations, minParameterChance, expertGrouping, manualNumTasks, numTasks);
+		params.pyramidLevels = pyramidLevels;
+		return params;
 	}
 
 	/**
@@ -26,9 +26,12 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.function.BooleanSupplier;
 import java.util.stream.Collectors;
 
 import javax.imageio.ImageIO;
@@ -46,10 +49,9 @@ import javax.swing.JSpinner;
 import javax.swing.JTextField;
 import javax.swing.JToggleButton;
 import javax.swing.SpinnerNumberModel;
+import javax.swing.SwingUtilities;
 
 import bdv.BigDataViewer;
-import bdv.tools.transformation.TransformedSource;
-import bdv.viewer.state.SourceState;
 import mpicbg.spim.data.generic.sequence.BasicViewDescription;
 import mpicbg.spim.data.registration.ViewRegistration;
 import mpicbg.spim.data.sequence.Angle;
@@ -67,6 +69,7 @@ import net.preibisch.mvrecon.fiji.spimdata.explorer.FilteredAndGroupedExplorerPa
 import net.preibisch.mvrecon.fiji.spimdata.explorer.GroupedRowWindow;
 import net.preibisch.mvrecon.fiji.spimdata.explorer.SelectedViewDescriptionListener;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
+import net.preibisch.stitcher.gui.bdv.PreviewTransformUpdater;
 
 public class PreviewRegularGridPanel <AS extends SpimData2 > extends JPanel implements SelectedViewDescriptionListener< AS >
 {
@@ -107,6 +110,11 @@ public class PreviewRegularGridPanel <AS extends SpimData2 > extends JPanel impl
 	// save old transformation to undo if we cancel
 	private AffineTransform3D oldViewerTransform;
 
+	// background preview, grid-independent parts of the transforms of the current selection
+	private final PreviewTransformUpdater previewUpdater = new PreviewTransformUpdater();
+	private List<List<BasicViewDescription< ? >>> previewViewsFor;
+	private List<List<PreviewView>> previewViews;
+
 
 	private final static String[] dimensionNames = new String[] {"X", "Y", "Z"};
 
@@ -402,80 +410,127 @@ public class PreviewRegularGridPanel <AS extends SpimData2 > extends JPanel impl
 	
 	private void updateBDV()
 	{
+		final BigDataViewer bdv = parent.bdvPopup().getBDV();
+		if ( bdv == null || selectedVDs == null || selectedVDs.isEmpty() )
+			return;
+
+		//FilteredAndGroupedExplorerPanel.resetBDVManualTransformations( bdv );
+
+		final RegularTranslationParameters params = new RegularTranslationParameters();
+		params.nDimensions = 3;
+		params.alternating = alternating;
+		params.dimensionOrder = dimensionOrder;
+		params.increasing = increasing;
+		params.overlaps = overlaps;
+		params.nSteps = steps;
+		params.keepRotation = rotate;
+
+		// compute and apply in the background, newer updates replace older ones
+		final List< List< BasicViewDescription< ? > > > vds = selectedVDs;
+		previewUpdater.request( bdv, isCancelled -> getPreviewTransforms( params, vds, isCancelled ) );
+	}
+
+	/*
+	 * the parts of the preview transform of a view that do not depend on the grid
+	 */
+	private static class PreviewView
+	{
+		final int sourceIdx;
+		final AffineTransform3D inv;
+		final AffineTransform3D calib;
+		final AffineTransform3D rotation;
+
+		PreviewView( final int sourceIdx, final AffineTransform3D inv, final AffineTransform3D calib, final AffineTransform3D rotation )
+		{
+			this.sourceIdx = sourceIdx;
+			this.inv = inv;
+			this.calib = calib;
+			this.rotation = rotation;
+		}
+	}
 
-		BigDataViewer bdv = parent.bdvPopup().getBDV();
-		if ( bdv != null )
+	private synchronized List< List< PreviewView > > getPreviewViews( final List< List< BasicViewDescription< ? > > > vds )
+	{
+		if ( previewViewsFor == vds && previewViews != null )
+			return previewViews;
 
+		final List< List< PreviewView > > res = new ArrayList<>();
+		for ( List< BasicViewDescription< ? > > lvd : vds )
 		{
-			
-			//FilteredAndGroupedExplorerPanel.resetBDVManualTransformations( bdv );
-
-			RegularTranslationParameters params = new RegularTranslationParameters();
-			params.nDimensions = 3;
-			params.alternating = alternating;
-			params.dimensionOrder = dimensionOrder;
-			params.increasing = increasing;
-			params.overlaps = overlaps;
-			params.nSteps = steps;
-			params.keepRotation = rotate;
-
-			Dimensions size = parent.getSpimData().getSequenceDescription().getViewDescriptions()
-					.get( selectedVDs.get( 0 ).get( 0 ) ).getViewSetup().getSize();
-			List< Translation3D > generateRegularGrid = RegularTranformHelpers.generateRegularGrid( params, size );
-			int i = 0;
-			for ( List< BasicViewDescription< ? > > lvd : selectedVDs )
+			final List< PreviewView > group = new ArrayList<>();
+			for ( BasicViewDescription< ? > vd : lvd )
 			{
+				int sourceIdx = StitchingExplorerPanel.getBDVSourceIndex( vd.getViewSetup(), parent.getSpimData() );
 
-				// we did not generate enough transformations
-				// -> leave the rest of the views as-is
-				if (i>generateRegularGrid.size())
-					break;
+				ViewRegistration vr = parent.getSpimData().getViewRegistrations().getViewRegistration( vd );
+				AffineTransform3D inv = vr.getModel().copy().inverse();
+				AffineTransform3D calib = new AffineTransform3D();
+				calib.set( vr.getTransformList().get( vr.getTransformList().size() - 1 ).asAffine3D().getRowPackedCopy() );
 
-				for ( BasicViewDescription< ? > vd : lvd )
+				AffineTransform3D rotation = null;
+				Pair< Double, Integer > rotAngleAndAxis = RegularTranformHelpers.getRoatationFromMetadata( vd.getViewSetup().getAttribute( Angle.class ) );
+				if (rotAngleAndAxis != null)
 				{
-					
-					int sourceIdx = StitchingExplorerPanel.getBDVSourceIndex( vd.getViewSetup(), parent.getSpimData() );
-					SourceState< ? > s = parent.bdvPopup().getBDV().getViewer().getState().getSources().get( sourceIdx );
-					
-
-					ViewRegistration vr = parent.getSpimData().getViewRegistrations().getViewRegistration( vd );
-					AffineTransform3D inv = vr.getModel().copy().inverse();
-					AffineTransform3D calib = new AffineTransform3D();
-					calib.set( vr.getTransformList().get( vr.getTransformList().size() - 1 ).asAffine3D().getRowPackedCopy() );
+					rotation = new AffineTransform3D();
+					rotation.rotate( rotAngleAndAxis.getB(), rotAngleAndAxis.getA() );
+				}
 
-					//invAndCalib.preConcatenate( vr.getTransformList().get( 0 ).asAffine3D() );
+				group.add( new PreviewView( sourceIdx, inv, calib, rotation ) );
+			}
+			res.add( group );
+		}
 
-					AffineTransform3D grid = new AffineTransform3D();
-					if (i < generateRegularGrid.size())
-						grid.set( generateRegularGrid.get( i ).getRowPackedCopy() );
+		previewViewsFor = vds;
+		previewViews = res;
+		return res;
+	}
 
-					AffineTransform3D gridTransform = ( i < generateRegularGrid.size() )
-							? inv.preConcatenate( grid.copy() ) : inv.copy();
+	/*
+	 * get the BDV fixed transforms (by source index) placing the selected groups on the grid,
+	 * returns null if cancelled before completion
+	 */
+	private Map< Integer, AffineTransform3D > getPreviewTransforms( final RegularTranslationParameters params,
+			final List< List< BasicViewDescription< ? > > > vds, final BooleanSupplier isCancelled )
+	{
+		final List< List< PreviewView > > views = getPreviewViews( vds );
 
-					gridTransform.preConcatenate( calib );
+		Dimensions size = parent.getSpimData().getSequenceDescription().getViewDescriptions()
+				.get( vds.get( 0 ).get( 0 ) ).getViewSetup().getSize();
+		List< Translation3D > generateRegularGrid = RegularTranformHelpers.generateRegularGrid( params, size );
 
-					if (rotate)
-					{
-						AffineTransform3D rotation = new AffineTransform3D();
-						Pair< Double, Integer > rotAngleAndAxis = RegularTranformHelpers.getRoatationFromMetadata( vd.getViewSetup().getAttribute( Angle.class ) );
-						if (rotAngleAndAxis != null)
-						{
-							rotation.rotate( rotAngleAndAxis.getB(), rotAngleAndAxis.getA() );
-							gridTransform.preConcatenate( rotation.copy() );
-						}
-					}
+		final Map< Integer, AffineTransform3D > res = new HashMap<>();
+		int i = 0;
+		for ( List< PreviewView > group : views )
+		{
+			if ( isCancelled.getAsBoolean() )
+				return null;
 
-					( (TransformedSource< ? >) s.getSpimSource() ).setFixedTransform( gridTransform );
+			// we did not generate enough transformations
+			// -> leave the rest of the views as-is
+			if (i>generateRegularGrid.size())
+				break;
 
+			for ( PreviewView v : group )
+			{
+				AffineTransform3D gridTransform = v.inv.copy();
+				if (i < generateRegularGrid.size())
+				{
+					AffineTransform3D grid = new AffineTransform3D();
+					grid.set( generateRegularGrid.get( i ).getRowPackedCopy() );
+					gridTransform.preConcatenate( grid );
 				}
-				i++;
-			}
 
-			
-			bdv.getViewer().requestRepaint();
+				gridTransform.preConcatenate( v.calib );
 
+				if (params.keepRotation && v.rotation != null)
+					gridTransform.preConcatenate( v.rotation );
+
+				res.put( v.sourceIdx, gridTransform );
+			}
+			i++;
 		}
 
+		return res;
 	}
 
 	private void applyButtonClicked()
@@ -508,6 +563,8 @@ public class PreviewRegularGridPanel <AS extends SpimData2 > extends JPanel impl
 		oldTiling = steps.clone();
 		keepMetadataRotationOld = rotate;
 
+		previewUpdater.cancel();
+
 		List< Group< BasicViewDescription< ? > > > selectedVdsGroup = selectedVDs.stream().map( l -> Group.toGroup( l ).get( 0 ) ).collect( Collectors.toList() );
 		RegularTranformHelpers.applyToSpimData( parent.getSpimData() , selectedVdsGroup, params, allTPs );
 
@@ -529,6 +586,9 @@ public class PreviewRegularGridPanel <AS extends SpimData2 > extends JPanel impl
 	{
 		FilteredAndGroupedExplorerPanel< AS > panel = (FilteredAndGroupedExplorerPanel< AS >)parent;
 		panel.getListeners().remove( this );
+
+		// make sure no pending preview is applied after the reset
+		previewUpdater.shutdown();
 		
 		final BigDataViewer bdv = parent.bdvPopup().getBDV();		
 		if(!(bdv == null))
@@ -551,18 +611,27 @@ public class PreviewRegularGridPanel <AS extends SpimData2 > extends JPanel impl
 	{
 		//System.out.println( " selection upd " );
 		selectedVDs = viewDescriptions;
+
+		// registrations or BDV sources may have changed as well
+		synchronized ( this )
+		{
+			previewViews = null;
+		}
 		
 		// sort the selected groups by the view id of the first member
 		Collections.sort( selectedVDs, (x, y) -> x.get( 0 ).compareTo( y.get( 0 ) ) );
 		
 		// hacky solution, wait a bit with update since parent will reset BDV after selection change
+		// (so everything has to be re-applied), read the GUI state on the EDT
 		new Timer().schedule(new TimerTask()
 		{
 
 			public void run()
 			{
-				update();
-				
+				SwingUtilities.invokeLater( () -> {
+					previewUpdater.invalidate();
+					update();
+				});
 			}
 		}, 100 );
 
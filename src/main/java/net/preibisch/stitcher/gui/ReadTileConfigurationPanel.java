@@ -47,19 +47,24 @@ import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JTable;
 import javax.swing.JTextField;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import javax.swing.table.AbstractTableModel;
 import javax.swing.table.DefaultTableCellRenderer;
 
 import mpicbg.spim.data.generic.AbstractSpimData;
+import mpicbg.spim.data.generic.sequence.BasicViewDescription;
 import mpicbg.spim.data.sequence.ViewId;
 import net.imglib2.realtransform.AffineGet;
 import net.imglib2.realtransform.Translation3D;
 import net.imglib2.util.Pair;
 import net.imglib2.util.ValuePair;
 import net.preibisch.mvrecon.fiji.spimdata.explorer.FilteredAndGroupedExplorerPanel;
+import net.preibisch.mvrecon.fiji.spimdata.explorer.SelectedViewDescriptionListener;
 import net.preibisch.mvrecon.fiji.spimdata.explorer.popup.BasicBDVPopup;
+import net.preibisch.stitcher.gui.bdv.PreviewTransformUpdater;
 
-public class ReadTileConfigurationPanel extends JPanel
+public class ReadTileConfigurationPanel extends JPanel implements SelectedViewDescriptionListener< AbstractSpimData< ? > >
 {
 
 	private static final long serialVersionUID = 1L;
@@ -71,6 +76,7 @@ public class ReadTileConfigurationPanel extends JPanel
 	private JCheckBox pixelUnitCB;
 	private JCheckBox keepRotationCB;
 	private List<Pair<ViewId, Translation3D>> previewMap;
+	private final PreviewTransformUpdater previewUpdater = new PreviewTransformUpdater();
 
 	public ReadTileConfigurationPanel(AbstractSpimData< ? > data, BasicBDVPopup bdvPopup, JFrame parent)
 	{
@@ -218,48 +224,35 @@ public class ReadTileConfigurationPanel extends JPanel
 
 	public void update()
 	{
-		// reset and repaint Bdv if necessary
-		if ( bdvPopup.bdvRunning() )
-		{
-			FilteredAndGroupedExplorerPanel.resetBDVManualTransformations( bdvPopup.getBDV() );
-			bdvPopup.getBDV().getViewer().requestRepaint();
-		}
-
 		// clear the stored transformation map
 		previewMap.clear();
 
-		// get new path
+		// get new path, try to parse
 		String path = fileTextField.getText();
 		File f = new File(path);
-		if (!f.exists())
-			return;
+		Map< ViewId, Translation3D > tc = f.exists() ? TileConfigurationHelpers.parseTileConfiguration( f ) : null;
 
-		// try to parse
-		Map< ViewId, Translation3D > tc = TileConfigurationHelpers.parseTileConfiguration( f );
-		if (tc == null)
+		if (tc != null)
 		{
-			previewMap.clear();
-			return;
-		}
-
-		// set stored transformations (sorted by view id)
-		Map< ViewId, Translation3D > transformsForData = TileConfigurationHelpers.getTransformsForData( tc, pixelUnitCB.isSelected(), data );
-		transformsForData.forEach( (vid, tr) -> {
-			previewMap.add( new ValuePair<>(vid, tr) );
-		});
-		Collections.sort( previewMap, new Comparator< Pair<ViewId, Translation3D>>()
-		{
-			@Override
-			public int compare(Pair< ViewId, Translation3D > o1, Pair< ViewId, Translation3D > o2)
+			// set stored transformations (sorted by view id)
+			Map< ViewId, Translation3D > transformsForData = TileConfigurationHelpers.getTransformsForData( tc, pixelUnitCB.isSelected(), data );
+			transformsForData.forEach( (vid, tr) -> {
+				previewMap.add( new ValuePair<>(vid, tr) );
+			});
+			Collections.sort( previewMap, new Comparator< Pair<ViewId, Translation3D>>()
 			{
-				return o1.getA().compareTo( o2.getA() );
-			}
-		} );
+				@Override
+				public int compare(Pair< ViewId, Translation3D > o1, Pair< ViewId, Translation3D > o2)
+				{
+					return o1.getA().compareTo( o2.getA() );
+				}
+			} );
+		}
 
-		// update bdv and table
+		// update table and bdv (in the background, an empty preview resets what we showed before)
 		((AbstractTableModel)table.getModel()).fireTableDataChanged();
 		if ( bdvPopup.bdvRunning() )
-			TileConfigurationHelpers.updateBDVPreview( tc, pixelUnitCB.isSelected(), keepRotationCB.isSelected(), data, bdvPopup.getBDV() );
+			TileConfigurationHelpers.updateBDVPreview( tc, pixelUnitCB.isSelected(), keepRotationCB.isSelected(), data, bdvPopup.getBDV(), previewUpdater );
 
 	}
 
@@ -281,6 +274,7 @@ public class ReadTileConfigurationPanel extends JPanel
 		}
 
 		// actually apply
+		previewUpdater.cancel();
 		TileConfigurationHelpers.applyToData( tc, pixelUnitCB.isSelected(), keepRotationCB.isSelected(), data );
 
 		// update bdv
@@ -291,8 +285,42 @@ public class ReadTileConfigurationPanel extends JPanel
 		parent.dispatchEvent(new WindowEvent(parent, WindowEvent.WINDOW_CLOSING));
 	}
 
+	/*
+	 * BDV sources may have been reset, re-apply the whole preview
+	 */
+	private void refreshPreview()
+	{
+		previewUpdater.invalidate();
+		update();
+	}
+
+	@Override
+	public void selectedViewDescriptions( List< List< BasicViewDescription< ? > > > viewDescriptions )
+	{
+		// the parent resets BDV after a selection change, so wait a bit with the update
+		final Timer timer = new Timer( 100, ev -> refreshPreview() );
+		timer.setRepeats( false );
+		timer.start();
+	}
+
+	@Override
+	public void updateContent( AbstractSpimData< ? > data )
+	{
+		this.data = data;
+		SwingUtilities.invokeLater( () -> refreshPreview() );
+	}
+
+	@Override
+	public void save()
+	{
+	}
+
+	@Override
 	public void quit()
 	{
+		// make sure no pending preview is applied after the reset
+		previewUpdater.shutdown();
+
 		// reset and repaint Bdv if necessary
 		if ( bdvPopup.bdvRunning() )
 		{
@@ -47,6 +47,7 @@ import net.preibisch.mvrecon.fiji.spimdata.explorer.ViewSetupExplorer;
 import net.preibisch.mvrecon.fiji.spimdata.explorer.ViewSetupExplorerPanel;
 import net.preibisch.stitcher.input.GenerateSpimData;
 import net.preibisch.stitcher.plugin.BigStitcher;
+import net.preibisch.stitcher.process.IntensityRangeEstimation;
 
 public class StitchingExplorer< AS extends SpimData2 > extends FilteredAndGroupedExplorer< AS >
 {
@@ -223,6 +224,9 @@ public class StitchingExplorer< AS extends SpimData2 > extends FilteredAndGroupe
 
 		panel.getListeners().clear();
 
+		// the data is closed, forget cached intensity ranges
+		IntensityRangeEstimation.clearCache( panel.getSpimData() );
+
 		frame.setVisible( false );
 		frame.dispose();
 
@@ -38,6 +38,7 @@ import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.Vector;
 import java.util.stream.Collectors;
@@ -238,6 +239,15 @@ public class StitchingExplorerPanel<AS extends SpimData2 >
 	public DemoLinkOverlay getDemoLinkOverlay() { return demoLinkOverlay; }
 	public DemoLinkOverlayPopup getDemoLinkOverlayPopup() { return demoLinkOverlayPopup; }
 
+	@Override
+	public void updateContent()
+	{
+		// registrations or stitching results might have changed, link endpoints have to be recomputed
+		linkOverlay.invalidateIndex();
+		demoLinkOverlay.invalidateIndex();
+		super.updateContent();
+	}
+
 	@Override
 	public boolean tilesGrouped() { return false; }
 
@@ -279,21 +289,14 @@ public class StitchingExplorerPanel<AS extends SpimData2 >
 		if (savedFilteringAndGrouping == null)
 			return;
 
-		final List< Group< BasicViewDescription< ? > > > oldGroups = savedFilteringAndGrouping.getGroupedViews( true );
+		final Map< BasicViewDescription< ? >, Integer > oldGroupIndex = savedFilteringAndGrouping.getGroupIndex( true );
 		final List< List< BasicViewDescription< ? > > > allGroups = tableModel.getElements();
 
 		for (int i = 0; i<allGroups.size(); i++)
 		{
 			final ArrayList< BasicViewDescription< ? > > uiGroup = new ArrayList<>(allGroups.get( i ));
 			SpimData2.filterMissingViews( getSpimData(), uiGroup );
-			boolean inOldSelection = false;
-			for (final Group< BasicViewDescription< ? > > oldGroup : oldGroups)
-				if (oldGroup.getViews().containsAll( uiGroup ))
-				{
-					inOldSelection = true;
-					break;
-				}
-			if (inOldSelection)
+			if (isInSavedGroup( uiGroup, oldGroupIndex ))
 				table.getSelectionModel().addSelectionInterval( i, i );
 		}
 	}
@@ -381,44 +384,32 @@ public class StitchingExplorerPanel<AS extends SpimData2 >
 
 		final DefaultListSelectionModel selectionModel = new DefaultListSelectionModel()
 		{
-			private List<Integer> invalidIndices;
-
-			private void updateInvalidSelections()
+			private boolean isValidSelection(int index0, int index1)
 			{
-				invalidIndices = new ArrayList<>();
 				if (savedFilteringAndGrouping == null)
-					return;
-				final List< Group< BasicViewDescription< ? > > > savedGroups = savedFilteringAndGrouping.getGroupedViews( true );
-				final ISpimDataTableModel< AS > model = (ISpimDataTableModel< AS >) table.getModel();
-				final List< List< BasicViewDescription< ? > > > elements = model.getElements();
-			A:	for (int i = 0; i<elements.size(); i++)
-				{
-					List< BasicViewDescription< ? > > row = elements.get( i );
-					for (Group< BasicViewDescription< ? > > grp : savedGroups)
-						if (grp.getViews().containsAll( row ))
-							continue A;
-					invalidIndices.add( i );
-				}
-			}
+					return true;
 
-			private boolean isValidSelection(int index0, int index1)
-			{
 				if (index0 > index1)
 				{
 					int index0Tmp = index0;
 					index0 = index1;
 					index1 = index0Tmp;
 				}
-				for (Integer invalidIndex : invalidIndices)
-					if( index0 <= invalidIndex && index1 >= invalidIndex)
+
+				final Map< BasicViewDescription< ? >, Integer > savedGroupIndex = savedFilteringAndGrouping.getGroupIndex( true );
+				final ISpimDataTableModel< AS > model = (ISpimDataTableModel< AS >) table.getModel();
+				final List< List< BasicViewDescription< ? > > > elements = model.getElements();
+
+				for (int i = Math.max( 0, index0 ); i <= index1 && i < elements.size(); i++)
+					if ( !isInSavedGroup( elements.get( i ), savedGroupIndex ) )
 						return false;
+
 				return true;
 			}
 
 			@Override
 			public void setSelectionInterval(int index0, int index1)
 			{
-				updateInvalidSelections();
 				if (isValidSelection( index0, index1 ))
 					super.setSelectionInterval( index0, index1 );
 			}
@@ -426,7 +417,6 @@ public class StitchingExplorerPanel<AS extends SpimData2 >
 			@Override
 			public void addSelectionInterval(int index0, int index1)
 			{
-				updateInvalidSelections();
 				if (isValidSelection( index0, index1 ))
 					super.addSelectionInterval( index0, index1 );
 			}
@@ -450,17 +440,10 @@ public class StitchingExplorerPanel<AS extends SpimData2 >
 
 				if (savedFilteringAndGrouping == null) { return c; }
 
-				final List< Group< BasicViewDescription< ? > > > savedGroups = savedFilteringAndGrouping.getGroupedViews( true );
 				final ISpimDataTableModel< AS > model = (ISpimDataTableModel< AS >) table.getModel();
 				final List< BasicViewDescription< ? > > views = model.getElements().get( row );
 
-				boolean isSavedSelection = false;
-				for (Group< BasicViewDescription< ? > > grp : savedGroups)
-					if (grp.getViews().containsAll( views ))
-					{
-						isSavedSelection = true;
-						break;
-					}
+				final boolean isSavedSelection = isInSavedGroup( views, savedFilteringAndGrouping.getGroupIndex( true ) );
 
 				c.setForeground( Color.black );
 				if ( isSavedSelection )
@@ -1178,6 +1161,29 @@ public class StitchingExplorerPanel<AS extends SpimData2 >
 		} );
 	}
 
+	/**
+	 * @param row the views of a table row
+	 * @param groupIndex view to group index of the saved grouping
+	 * @return true if all views of the row are in the same saved group
+	 */
+	static boolean isInSavedGroup( final List< BasicViewDescription< ? > > row, final Map< BasicViewDescription< ? >, Integer > groupIndex )
+	{
+		Integer group = null;
+
+		for ( final BasicViewDescription< ? > vd : row )
+		{
+			final Integer g = groupIndex.get( vd );
+
+			if ( g == null || ( group != null && !group.equals( g ) ) )
+				return false;
+
+			group = g;
+		}
+
+		// an empty row is contained in any group
+		return group != null || groupIndex.size() > 0;
+	}
+
 	public SpimDataFilteringAndGrouping< ? extends AbstractSpimData< ? > > getSavedFilteringAndGrouping()
 	{
 		return savedFilteringAndGrouping;
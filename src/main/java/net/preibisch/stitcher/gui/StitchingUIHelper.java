@@ -21,25 +21,53 @@
  */
 package net.preibisch.stitcher.gui;
 
+import java.awt.Checkbox;
 import java.awt.Choice;
+import java.awt.Font;
+import java.awt.Label;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Collectors;
 
+import fiji.util.gui.GenericDialogPlus;
 import ij.gui.GenericDialog;
 import mpicbg.spim.data.SpimDataException;
 import mpicbg.spim.data.generic.AbstractSpimData;
+import mpicbg.spim.data.generic.base.Entity;
+import mpicbg.spim.data.generic.base.NamedEntity;
 import mpicbg.spim.data.generic.sequence.BasicViewDescription;
+import mpicbg.spim.data.sequence.Channel;
 import mpicbg.spim.data.sequence.FinalVoxelDimensions;
+import mpicbg.spim.data.sequence.Illumination;
 import mpicbg.spim.data.sequence.MultiResolutionImgLoader;
+import mpicbg.spim.data.sequence.Tile;
+import mpicbg.spim.data.sequence.ViewId;
 import mpicbg.spim.data.sequence.VoxelDimensions;
 import net.imglib2.Dimensions;
 import net.imglib2.util.Util;
+import net.preibisch.mvrecon.Threads;
+import net.preibisch.mvrecon.fiji.datasetmanager.FileListDatasetDefinition;
 import net.preibisch.mvrecon.fiji.plugin.util.GUIHelper;
 import net.preibisch.mvrecon.fiji.plugin.util.PluginHelper;
 import net.preibisch.mvrecon.fiji.spimdata.SpimData2;
+import net.preibisch.mvrecon.fiji.spimdata.SpimDataTools;
 import net.preibisch.mvrecon.fiji.spimdata.XmlIoSpimData2;
+import net.preibisch.mvrecon.fiji.spimdata.explorer.FilteredAndGroupedExplorerPanel;
+import net.preibisch.mvrecon.fiji.spimdata.explorer.GroupedRowWindow;
 import net.preibisch.mvrecon.process.downsampling.DownsampleTools;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.Subset;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
+import net.preibisch.stitcher.algorithm.GroupedViewAggregator.ActionType;
+import net.preibisch.stitcher.algorithm.PairwiseStitchingParameters;
+import net.preibisch.stitcher.algorithm.SpimDataFilteringAndGrouping;
 
 public class StitchingUIHelper
 {
@@ -262,6 +290,406 @@ public class StitchingUIHelper
 		return DownsampleTools.parseDownsampleChoice( dsStrings[closestIdx] );
 	}
 
+	/**
+	 * ask the user which views to fix in every subset, the first group of every subset is selected by default
+	 * @param subsets the subsets
+	 * @param <V> view id type
+	 * @return fixed views per subset or null if the dialog was cancelled
+	 */
+	public static <V extends ViewId> Collection<? extends Collection<V> > askForFixedViews(ArrayList<? extends Subset< V > > subsets)
+	{
+		final ArrayList< Collection<V> > res = new ArrayList<>();
+		final GenericDialogPlus gdp = new GenericDialogPlus( "Select Views to fix" );
+		final boolean multipleSubsets = !(subsets.size() < 2);
+
+		int i = 0;
+		for (final Subset<V> subset : subsets)
+		{
+
+			if (multipleSubsets)
+				gdp.addMessage( "Views to fix in subset " + (++i), GUIHelper.largefont, GUIHelper.neutral );
+
+			final List<Checkbox> cboxes = new ArrayList<>();
+			final List< Group< V > > groups = new ArrayList<>(subset.getGroups());
+			Collections.sort( groups, new Comparator< Group<V> >()
+			{
+				@Override
+				public int compare(Group< V > o1, Group< V > o2)
+				{
+					final ArrayList< ViewId > o1List = new ArrayList<>( o1.getViews() );
+					final ArrayList< ViewId > o2List = new ArrayList<>( o2.getViews() );
+					Collections.sort( o1List );
+					Collections.sort( o2List );
+					Iterator< ViewId > it1 = o1List.iterator();
+					Iterator< ViewId > it2 = o2List.iterator();
+					while ( it1.hasNext() && it2.hasNext() )
+					{
+						int comp = it1.next().compareTo( it2.next() );
+						if ( comp != 0 )
+							return comp;
+					}
+					// list 1 is longer
+					if ( it1.hasNext() )
+						return -1;
+					// list 2 is longer
+					if ( it2.hasNext() )
+						return 1;
+					// lists equal
+					else
+						return 0;
+				}
+			} );
+
+			final Iterator< Group< V > > it = groups.iterator();
+			if (!it.hasNext())
+				continue;
+
+			gdp.addCheckbox( "Fix_Group_" + Group.gvids( it.next() ), true );
+			if (!PluginHelper.isHeadless())
+			{
+				final Checkbox cbI = (Checkbox) gdp.getCheckboxes().get( gdp.getCheckboxes().size() -1 );
+				cboxes.add( cbI );
+			}
+
+			it.forEachRemaining( g -> {
+				gdp.addCheckbox( "Fix_Group_" + Group.gvids( g ), false );
+				if (!PluginHelper.isHeadless())
+				{
+					final Checkbox cbI2 = (Checkbox) gdp.getCheckboxes().get( gdp.getCheckboxes().size() -1 );
+					cboxes.add( cbI2 );
+				}
+			});
+
+			if (!PluginHelper.isHeadless())
+			{
+				gdp.addMessage( "", GUIHelper.largestatusfont, GUIHelper.warning );
+				final Label warning = (Label) gdp.getMessage();
+
+				for (final Checkbox cb : cboxes)
+				{
+					cb.addItemListener( e -> {
+						boolean allFalse = true;
+						for (final Checkbox cbI3 : cboxes)
+							allFalse &= (!cbI3.getState());
+						warning.setText( allFalse ? "WARNING: you are not fixing any view" + (multipleSubsets ? " in this subset." : ".") : "" );
+					});
+				}
+			}
+		}
+
+		GUIHelper.addScrollBars( gdp );
+
+		gdp.showDialog();
+		if (gdp.wasCanceled())
+			return null;
+
+		for (final Subset<V> subset : subsets)
+		{
+			final List< Group< V > > groups = new ArrayList<>(subset.getGroups());
+			Collections.sort( groups, new Comparator< Group<V> >()
+			{
+				@Override
+				public int compare(Group< V > o1, Group< V > o2)
+				{
+					final ArrayList< ViewId > o1List = new ArrayList<>( o1.getViews() );
+					final ArrayList< ViewId > o2List = new ArrayList<>( o2.getViews() );
+					Collections.sort( o1List );
+					Collections.sort( o2List );
+					Iterator< ViewId > it1 = o1List.iterator();
+					Iterator< ViewId > it2 = o2List.iterator();
+					while ( it1.hasNext() && it2.hasNext() )
+					{
+						int comp = it1.next().compareTo( it2.next() );
+						if ( comp != 0 )
+							return comp;
+					}
+					// list 1 is longer
+					if ( it1.hasNext() )
+						return -1;
+					// list 2 is longer
+					if ( it2.hasNext() )
+						return 1;
+					// lists equal
+					else
+						return 0;
+				}
+			} );
+
+			final HashSet< V > resI = new HashSet<>();
+			for (final Group<V> group: groups)
+			{
+				if (gdp.getNextBoolean())
+					resI.addAll( group.getViews() );
+			}
+			res.add( resI );
+		}
+		return res;
+	}
+
+	/**
+	 * ask the user for the pairwise stitching (phase correlation) parameters
+	 * @return the parameters or null if the dialog was cancelled
+	 */
+	public static PairwiseStitchingParameters askForPairwiseStitchingParameters()
+	{
+		// ask user for parameters
+		GenericDialog gd = new GenericDialog("Pairwise stitching options");
+		addPairwiseStitchingQueriesToGD( gd );
+
+		gd.showDialog();
+		return getPairwiseStitchingParametersFromGD( gd );
+	}
+
+	public static void addPairwiseStitchingQueriesToGD(final GenericDialog gd)
+	{
+		gd.addNumericField( "number_of_peaks_to_check", 5, 0 );
+		gd.addNumericField( "minimal_overlap (percent of current overlap)", 0, 0 );
+		gd.addCheckbox( "subpixel_accuracy", true );
+		gd.addCheckbox( "interpolate_subpixel_cross_correlation (warning: slow!)", false );
+		gd.addCheckbox( "use_whole_image (warning: slow!)", false );
+		gd.addNumericField( "coarse_to_fine_levels (0 = off)", 0, 0 );
+		gd.addNumericField( "coarse_to_fine_refinement_window", 128, 0, 5, "px" );
+		gd.addCheckbox( "manually_set_number_of_parallel_tasks", false );
+		gd.addNumericField( "number_of_parallel_tasks", (int) Math.max( 2, Threads.numThreads() / 6 ), 0 );
+		gd.addCheckbox( "show_expert_grouping_options", false );
+	}
+
+	public static PairwiseStitchingParameters getPairwiseStitchingParametersFromGD(final GenericDialog gd)
+	{
+		if (gd.wasCanceled())
+			return null;
+
+		int peaksToCheck  = (int) gd.getNextNumber();
+		double minOverlap =  Math.min( Math.max( gd.getNextNumber()/100 , 0), 1);
+		boolean doSubpixel = gd.getNextBoolean();
+		boolean interpolateSubpixel = gd.getNextBoolean();
+		boolean useWholeImage = gd.getNextBoolean();
+		int coarseToFineLevels = Math.max( 0, (int) gd.getNextNumber() );
+		int coarseToFineWindow = Math.max( 16, (int) gd.getNextNumber() );
+		boolean manualNumTasks = gd.getNextBoolean();
+		int numTasks = (int) (manualNumTasks ? gd.getNextNumber() : Math.max( 2, Threads.numThreads() / 6 ));
+		boolean showExpertGrouping = gd.getNextBoolean();
+
+		final PairwiseStitchingParameters params = new PairwiseStitchingParameters(minOverlap, peaksToCheck, doSubpixel, interpolateSubpixel, showExpertGrouping, useWholeImage, manualNumTasks, numTasks);
+		params.coarseToFineLevels = coarseToFineLevels;
+		params.coarseToFineWindow = coarseToFineWindow;
+		return params;
+	}
+
+	// convenience method if we do not know selected views
+	public static < AS extends SpimData2 > SpimDataFilteringAndGrouping< AS > askUserForFiltering( final SpimDataFilteringAndGrouping< AS > grouping )
+	{
+		// select all
+		return askUserForFiltering( grouping, grouping.getSpimData().getSequenceDescription().getViewDescriptions().values() );
+	}
+
+	// convenience method if have a panel (which can give us selected views)
+	public static < AS extends SpimData2 > SpimDataFilteringAndGrouping< AS > askUserForFiltering( final SpimDataFilteringAndGrouping< AS > grouping, FilteredAndGroupedExplorerPanel< AS > panel )
+	{
+		return askUserForFiltering( grouping, getSelectedViews( panel ) );
+	}
+
+	public static < AS extends SpimData2 > SpimDataFilteringAndGrouping< AS > askUserForFiltering( final SpimDataFilteringAndGrouping< AS > grouping, Collection<? extends BasicViewDescription< ? > > views )
+	{
+		GenericDialogPlus gdp1 = new GenericDialogPlus( "Select Views To Process" );
+
+		final String msg = ( "<html><strong>Select wether you want to process all instances of an attribute <br>"
+				+ " or just the currently selected Views</strong> </html>" ) ;
+		FileListDatasetDefinition.addMessageAsJLabel(msg, gdp1);
+
+		String[] viewSelectionChoices = new String[] {"all", "selected"};
+
+		for (Class<? extends Entity> cl : SpimDataFilteringAndGrouping.entityClasses)
+		{
+			boolean allSelected = (SpimDataFilteringAndGrouping.getInstancesOfAttribute(views, cl ).containsAll(SpimDataTools.getInstancesOfAttribute( grouping.getSpimData().getSequenceDescription(), cl )));
+			gdp1.addChoice( cl.getSimpleName(), viewSelectionChoices, allSelected ? viewSelectionChoices[0] : viewSelectionChoices[1] );
+		}
+
+		gdp1.showDialog();
+		if (gdp1.wasCanceled())
+		{
+			grouping.setDialogWasCancelled( true );
+			return grouping;
+		}
+
+		for (Class<? extends Entity> cl : SpimDataFilteringAndGrouping.entityClasses)
+		{
+			boolean useCurrent = gdp1.getNextChoiceIndex() == 1;
+			if (useCurrent)
+				grouping.addFilter( cl, new ArrayList<>(SpimDataFilteringAndGrouping.getInstancesOfAttribute(views, cl )) );
+		}
+
+		return grouping;
+	}
+
+	public static < AS extends SpimData2 > SpimDataFilteringAndGrouping< AS > askUserForGrouping( final SpimDataFilteringAndGrouping< AS > grouping )
+	{
+		// use the current filtering as preset
+		return askUserForGrouping( grouping, SpimDataTools.getFilteredViewDescriptions( grouping.getSpimData().getSequenceDescription(), grouping.getFilters() ), new ArrayList<>(), new HashSet<>() );
+	}
+
+	public static < AS extends SpimData2 > SpimDataFilteringAndGrouping< AS > askUserForGrouping( final SpimDataFilteringAndGrouping< AS > grouping, FilteredAndGroupedExplorerPanel< AS > panel )
+	{
+		final HashSet< Class<? extends Entity> > comparisonsRequested = new HashSet<>();
+		if (StitchingExplorerPanel.class.isInstance( panel ) )
+		{
+			if (!panel.channelsGrouped())
+				comparisonsRequested.add( Channel.class );
+			if (!panel.illumsGrouped())
+				comparisonsRequested.add( Illumination.class );
+			if (!panel.tilesGrouped())
+				comparisonsRequested.add( Tile.class );
+		}
+		return askUserForGrouping( grouping, getSelectedViews( panel ), panel.getTableModel().getGroupingFactors(), comparisonsRequested);
+	}
+
+	public static < AS extends SpimData2 > SpimDataFilteringAndGrouping< AS > askUserForGrouping(
+					final SpimDataFilteringAndGrouping< AS > grouping,
+					Collection<? extends BasicViewDescription< ? > > views,
+					Collection<Class<? extends Entity>> groupingFactors,
+					Collection<Class<? extends Entity>> comparisionFactors)
+	{
+		GenericDialogPlus gdp2 = new GenericDialogPlus( "Select How to Process Views" );
+
+		final String msg = ( "<html><strong>Select how to process the different attributes </strong> <br>"
+				+ "<strong>COMPARE:</strong> calculate pairwise shift between instances <br>"
+				+ "<strong>GROUP:</strong> combine all instances into one view<br>"
+				+ "<strong>TREAT INDIVIDUALLY:</strong> process instances one after the other, but do not compare or group <br> </html>");
+		FileListDatasetDefinition.addMessageAsJLabel(msg, gdp2);
+
+		String[] computeChoices = new String[] {"compare", "group", "treat individually"};
+		for (Class<? extends Entity> cl : SpimDataFilteringAndGrouping.entityClasses)
+		{
+			boolean isGrouping = groupingFactors.contains( cl );
+			boolean isFilterOrSingleton = grouping.getFilters().keySet().contains( cl ) || SpimDataFilteringAndGrouping.getInstancesOfAttribute(views, cl ).size() <= 1;
+			boolean isComparison = comparisionFactors.contains( cl );
+			int idx = isGrouping ? 1 : isComparison || !isFilterOrSingleton ? 0 : 2;
+			gdp2.addChoice( "How_to_treat_" + cl.getSimpleName() + "s:", computeChoices, computeChoices[idx] );
+		}
+
+		gdp2.showDialog();
+		if (gdp2.wasCanceled())
+		{
+			grouping.setDialogWasCancelled( true );
+			return grouping;
+		}
+
+		for (Class<? extends Entity> cl : SpimDataFilteringAndGrouping.entityClasses)
+		{
+			int selection = gdp2.getNextChoiceIndex();
+			if (selection == 0)
+				grouping.addComparisonAxis( cl );
+			else if (selection == 1)
+				grouping.addGroupingFactor( cl );
+			else
+				grouping.addApplicationAxis( cl );
+		}
+
+		return grouping;
+	}
+
+	/**
+	 * ask user how to aggregate grouped views (for all the entity classes we group by)
+	 * if a default choice for a class is provided, the user will not be asked for that class
+	 * @param grouping the filtering and grouping to add the aggregation actions to
+	 * @param defaultChoices pre-set choices for specific classes (NB: may not be 'pick specific')
+	 * @param <AS> SpimData type
+	 * @return grouping
+	 */
+	public static < AS extends SpimData2 > SpimDataFilteringAndGrouping< AS > askUserForGroupingAggregator( final SpimDataFilteringAndGrouping< AS > grouping, final Map<Class<? extends Entity>, ActionType> defaultChoices)
+	{
+		// ask what to do with grouped views
+		GenericDialogPlus gdp = new GenericDialogPlus( "Select How to Treat Grouped Views" );
+
+		gdp.addMessage( "Please specify how to deal with grouped Views.", new Font( Font.SANS_SERIF, Font.BOLD, 14 ), GUIHelper.neutral );
+
+		// filter first
+		final List<BasicViewDescription< ? > > ungroupedElements =
+						SpimDataTools.getFilteredViewDescriptions( grouping.getSpimData().getSequenceDescription(), grouping.getFilters());
+		// then group
+		final List< Group< BasicViewDescription< ?  > >> groupedElements =
+						Group.combineBy( ungroupedElements, grouping.getGroupingFactors());
+
+		boolean dialogNecessary = false;
+		for (Class<? extends Entity> cl : grouping.getGroupingFactors())
+		{
+			if (defaultChoices != null && defaultChoices.containsKey( cl ))
+				continue;
+
+			List<String> selection = new ArrayList<>();
+			selection.add( "Average " + cl.getSimpleName() +"s" );
+			List< ? extends Entity > instancesInAllGroups = SpimDataFilteringAndGrouping.getInstancesInAllGroups( groupedElements, cl );
+
+			// we only have one instance of entity, do not ask for aggregation in that case
+			if (instancesInAllGroups.size() < 2)
+				continue;
+			// we have more than one instance of any entity -> we have to display dialog
+			dialogNecessary = true;
+
+			instancesInAllGroups.forEach( ( e ) ->
+			{
+				if (e instanceof NamedEntity)
+					selection.add( "use " + cl.getSimpleName() + " " + ((NamedEntity)e).getName());
+				else
+					selection.add( "use " + cl.getSimpleName() + " " + Integer.toString( e.getId() ));
+			});
+
+			String[] selectionArray = selection.toArray( new String[selection.size()] );
+			gdp.addChoice( cl.getSimpleName() + "s:", selectionArray, selectionArray[0] );
+		}
+
+		if (dialogNecessary)
+			gdp.showDialog();
+			if (gdp.wasCanceled())
+			{
+				grouping.setDialogWasCancelled( true );
+				return grouping;
+			}
+
+		for (Class<? extends Entity> cl : grouping.getGroupingFactors())
+		{
+			if (defaultChoices != null && defaultChoices.containsKey( cl ))
+			{
+				grouping.getGroupedViewAggregator().addAction(defaultChoices.get( cl ), cl, null);
+				continue;
+			}
+
+			List< ? extends Entity > instancesInAllGroups = SpimDataFilteringAndGrouping.getInstancesInAllGroups( groupedElements, cl );
+
+			// we have only one instance -> "average" (i.e. just keep the one view)
+			if (instancesInAllGroups.size() < 2)
+			{
+				grouping.getGroupedViewAggregator().addAction( ActionType.AVERAGE, cl, null );
+				continue;
+			}
+
+			int nextChoiceIndex = gdp.getNextChoiceIndex();
+			if (nextChoiceIndex == 0)
+				grouping.getGroupedViewAggregator().addAction( ActionType.AVERAGE, cl, null );
+			else
+				grouping.getGroupedViewAggregator().addAction( ActionType.PICK_SPECIFIC, cl, instancesInAllGroups.get( nextChoiceIndex - 1 ) );
+		}
+
+		return grouping;
+	}
+
+	public static < AS extends SpimData2 > SpimDataFilteringAndGrouping< AS > askUserForGroupingAggregator( final SpimDataFilteringAndGrouping< AS > grouping )
+	{
+		return askUserForGroupingAggregator( grouping, new HashMap<>() );
+	}
+
+	/* the selected views of a panel, all views of the selected groups if it shows grouped rows */
+	private static List< BasicViewDescription< ? > > getSelectedViews( final FilteredAndGroupedExplorerPanel< ? > panel )
+	{
+		if (panel instanceof GroupedRowWindow)
+		{
+			Collection< List< BasicViewDescription< ? > > > selectedRowsGroups = ((GroupedRowWindow)panel).selectedRowsGroups();
+			return selectedRowsGroups.stream().reduce( new ArrayList<>(), (x, y) -> {x.addAll(y); return x;} );
+		}
+		else
+			return panel.selectedRows();
+	}
+
 	public static void main( String[] args ) throws SpimDataException
 	{
 		String xml = "/Users/spreibi/Documents/Grants and CV/BIMSB/Projects/CLARITY/Big Data Sticher/Dros_converted/dataset.xml";
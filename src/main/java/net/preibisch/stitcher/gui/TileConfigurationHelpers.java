@@ -33,6 +33,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.BooleanSupplier;
 
 import bdv.BigDataViewer;
 import bdv.tools.transformation.TransformedSource;
@@ -51,6 +52,7 @@ import net.imglib2.util.Pair;
 import net.imglib2.util.Util;
 import net.imglib2.util.ValuePair;
 import net.preibisch.mvrecon.fiji.datasetmanager.grid.RegularTranformHelpers;
+import net.preibisch.stitcher.gui.bdv.PreviewTransformUpdater;
 
 
 public class TileConfigurationHelpers
@@ -382,31 +384,62 @@ public class TileConfigurationHelpers
 		if (data == null || bdv == null )
 			return;
 
+		final Map< Integer, AffineTransform3D > transforms = getBDVPreviewTransforms( locations, pixelUnits, keepRotation, data, getCurrentTimePointId( data, bdv ), () -> false );
+		final List< SourceState< ? > > sources = bdv.getViewer().getState().getSources();
+		transforms.forEach( (sourceIdx, transform) -> ( (TransformedSource< ? >) sources.get( sourceIdx ).getSpimSource() ).setFixedTransform( transform ) );
+
+		bdv.getViewer().requestRepaint();
+	}
+
+	/*
+	 * update BDV with parsed TileConfiguration in the background, via a debounced updater
+	 */
+	public static void updateBDVPreview(Map<ViewId, Translation3D> locations, boolean pixelUnits, boolean keepRotation,
+			AbstractSpimData< ? > data, BigDataViewer bdv, PreviewTransformUpdater updater)
+	{
+		if (data == null || bdv == null )
+			return;
+
+		final int currentTPId = getCurrentTimePointId( data, bdv );
+		updater.request( bdv, isCancelled -> getBDVPreviewTransforms( locations, pixelUnits, keepRotation, data, currentTPId, isCancelled ) );
+	}
+
+	public static int getCurrentTimePointId(AbstractSpimData< ? > data, BigDataViewer bdv)
+	{
+		return data.getSequenceDescription().getTimePoints().getTimePointsOrdered()
+				.get( bdv.getViewer().getState().getCurrentTimepoint() ).getId();
+	}
+
+	/*
+	 * get the BDV fixed transforms (by source index) previewing a parsed TileConfiguration,
+	 * returns null if cancelled before completion
+	 */
+	public static Map< Integer, AffineTransform3D > getBDVPreviewTransforms(Map<ViewId, Translation3D> locations, boolean pixelUnits, boolean keepRotation,
+			AbstractSpimData< ? > data, int currentTPId, BooleanSupplier isCancelled)
+	{
+		final Map< Integer, AffineTransform3D > res = new HashMap<>();
+		if ( locations == null )
+			return res;
+
 		final Map< ViewId, Translation3D > transformsForData = getTransformsForData( locations, pixelUnits, data );
 		final Collection< BasicViewDescription< ? > > vds = (Collection< BasicViewDescription< ? > >) data.getSequenceDescription().getViewDescriptions().values();
-		final int currentTPId = data.getSequenceDescription().getTimePoints().getTimePointsOrdered()
-				.get( bdv.getViewer().getState().getCurrentTimepoint() ).getId();
 		for ( BasicViewDescription< ? > vd : vds )
 		{
-			if (vd.getTimePointId() != currentTPId)
+			if (isCancelled.getAsBoolean())
+				return null;
+
+			if (vd.getTimePointId() != currentTPId || !transformsForData.containsKey( vd ))
 				continue;
 
 			final int sourceIdx = StitchingExplorerPanel.getBDVSourceIndex( vd.getViewSetup(), data );
-			final SourceState< ? > s = bdv.getViewer().getState().getSources().get( sourceIdx );
 
 			final ViewRegistration vr = data.getViewRegistrations().getViewRegistration( vd );
 			final AffineTransform3D inv = vr.getModel().copy().inverse();
 			
 			final AffineTransform3D calib = new AffineTransform3D();
 			calib.set( vr.getTransformList().get( vr.getTransformList().size() - 1 ).asAffine3D().getRowPackedCopy() );
-	
-			AffineTransform3D transform;
-			if (transformsForData.containsKey( vd ))
-			{
-				transform  = inv.copy().preConcatenate( calib ).preConcatenate( transformsForData.get( vd ) );
-			}
-			else
-				continue;
+
+			final AffineTransform3D transform = inv.preConcatenate( calib ).preConcatenate( transformsForData.get( vd ) );
 
 			if (keepRotation)
 			{
@@ -418,11 +451,11 @@ public class TileConfigurationHelpers
 					transform.preConcatenate( rotation.copy() );
 				}
 			}
-	
-			( (TransformedSource< ? >) s.getSpimSource() ).setFixedTransform( transform );
+
+			res.put( sourceIdx, transform );
 		}
-	
-		bdv.getViewer().requestRepaint();
+
+		return res;
 	}
 
 	/*
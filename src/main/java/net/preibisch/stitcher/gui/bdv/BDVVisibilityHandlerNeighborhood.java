@@ -22,32 +22,56 @@
 package net.preibisch.stitcher.gui.bdv;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.WeakHashMap;
 import java.util.stream.Collectors;
 
 import bdv.BigDataViewer;
 import bdv.tools.brightness.ConverterSetup;
+import mpicbg.spim.data.generic.AbstractSpimData;
 import mpicbg.spim.data.generic.base.Entity;
+import mpicbg.spim.data.generic.sequence.BasicViewDescription;
 import mpicbg.spim.data.sequence.TimePoint;
 import mpicbg.spim.data.sequence.ViewId;
+import net.imglib2.RealInterval;
 import net.imglib2.type.numeric.ARGBType;
-import net.preibisch.mvrecon.fiji.spimdata.boundingbox.BoundingBox;
 import net.preibisch.mvrecon.fiji.spimdata.explorer.ExplorerWindow;
 import net.preibisch.mvrecon.fiji.spimdata.explorer.FilteredAndGroupedExplorerPanel;
 import net.preibisch.mvrecon.fiji.spimdata.explorer.GroupedRowWindow;
 import net.preibisch.mvrecon.fiji.spimdata.explorer.ISpimDataTableModel;
-import net.preibisch.mvrecon.process.boundingbox.BoundingBoxMaximalGroupOverlap;
-import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
+import net.preibisch.stitcher.algorithm.SpatialGridIndex;
+import net.preibisch.stitcher.algorithm.TransformTools;
 import net.preibisch.stitcher.gui.StitchingExplorerPanel;
 import net.preibisch.stitcher.gui.popup.BDVPopupStitching;
 
 public class BDVVisibilityHandlerNeighborhood implements BDVVisibilityHandler
 {
+	/**
+	 * spatial index of the transformed bounding boxes of all views of one timepoint,
+	 * together with the registrations it was built for
+	 */
+	private static class TimepointIndex
+	{
+		final SpatialGridIndex< ViewId > index;
+		final Map< ViewId, double[] > models;
+
+		TimepointIndex( final SpatialGridIndex< ViewId > index, final Map< ViewId, double[] > models )
+		{
+			this.index = index;
+			this.models = models;
+		}
+	}
+
+	// per SpimData and timepoint, reused as long as the registrations do not change
+	private static final Map< AbstractSpimData< ? >, Map< Integer, TimepointIndex > > indexCache = new WeakHashMap<>();
+
 	private ExplorerWindow< ? > panel;
 	private long colorOffset;
 
@@ -57,6 +81,64 @@ public class BDVVisibilityHandlerNeighborhood implements BDVVisibilityHandler
 		this.colorOffset = colorOffset;
 	}
 
+	/**
+	 * get the (cached) index of all present views with known size of a timepoint,
+	 * it is rebuilt if any of their registrations changed
+	 * @param data the SpimData
+	 * @param timepointId the timepoint
+	 * @return the index
+	 */
+	public static SpatialGridIndex< ViewId > getIndex( final AbstractSpimData< ? > data, final int timepointId )
+	{
+		final List< BasicViewDescription< ? > > views = new ArrayList<>();
+		final Map< ViewId, double[] > models = new HashMap<>();
+
+		for ( final BasicViewDescription< ? > vd : data.getSequenceDescription().getViewDescriptions().values() )
+		{
+			if ( vd.getTimePointId() != timepointId || !vd.isPresent() || !vd.getViewSetup().hasSize() )
+				continue;
+
+			views.add( vd );
+			models.put( new ViewId( vd.getTimePointId(), vd.getViewSetupId() ), data.getViewRegistrations().getViewRegistration( vd ).getModel().getRowPackedCopy() );
+		}
+
+		synchronized ( indexCache )
+		{
+			final Map< Integer, TimepointIndex > perTimepoint = indexCache.computeIfAbsent( data, d -> new HashMap<>() );
+			final TimepointIndex cached = perTimepoint.get( timepointId );
+
+			if ( cached != null && sameModels( cached.models, models ) )
+				return cached.index;
+
+			final List< ViewId > viewIds = new ArrayList<>();
+			final List< RealInterval > bounds = new ArrayList<>();
+
+			for ( final BasicViewDescription< ? > vd : views )
+			{
+				viewIds.add( new ViewId( vd.getTimePointId(), vd.getViewSetupId() ) );
+				bounds.add( TransformTools.getTransformedBoundingBox( Collections.singletonList( vd ), data.getViewRegistrations() ) );
+			}
+
+			// no cell size can be derived without views, the index stays empty anyway
+			final SpatialGridIndex< ViewId > index = viewIds.isEmpty() ? new SpatialGridIndex<>( new double[] { 1, 1, 1 } ) : SpatialGridIndex.create( viewIds, bounds );
+			perTimepoint.put( timepointId, new TimepointIndex( index, models ) );
+
+			return index;
+		}
+	}
+
+	private static boolean sameModels( final Map< ViewId, double[] > a, final Map< ViewId, double[] > b )
+	{
+		if ( a.size() != b.size() )
+			return false;
+
+		for ( final Entry< ViewId, double[] > e : a.entrySet() )
+			if ( !Arrays.equals( e.getValue(), b.get( e.getKey() ) ) )
+				return false;
+
+		return true;
+	}
+
 	@Override
 	public void updateBDV()
 	{
@@ -97,9 +179,23 @@ public class BDVVisibilityHandlerNeighborhood implements BDVVisibilityHandler
 		final int currentTimepoint = bdv.getViewer().getState().getCurrentTimepoint();
 		final int currentTPId = panel.getSpimData().getSequenceDescription().getTimePoints().getTimePointsOrdered().get( currentTimepoint ).getId();
 
-		// all vids of current timepoint
-		List< ViewId > candidates = panel.getSpimData().getSequenceDescription().getViewDescriptions().keySet()
-				.stream().filter( vi -> vi.getTimePointId() == currentTPId ).collect( Collectors.toList() );
+		// the maximal extent of all selected views, neighbors are all views overlapping with it
+		final List< BasicViewDescription< ? > > selectedViews = new ArrayList<>();
+		for ( final ViewId vid : selectedViewIds )
+		{
+			final BasicViewDescription< ? > vd = panel.getSpimData().getSequenceDescription().getViewDescriptions().get( vid );
+			if ( vd != null && vd.isPresent() && vd.getViewSetup().hasSize() )
+				selectedViews.add( vd );
+		}
+
+		final RealInterval selectedBounds = TransformTools.getTransformedBoundingBox( selectedViews, panel.getSpimData().getViewRegistrations() );
+
+		if ( selectedBounds == null )
+			return;
+
+		// all overlapping vids of current timepoint
+		final SpatialGridIndex< ViewId > index = getIndex( panel.getSpimData(), currentTPId );
+		List< ViewId > candidates = index.query( selectedBounds );
 
 		// ignore views that are filtered out via the grouped table model
 		// e.g. views from another angle
@@ -108,16 +204,17 @@ public class BDVVisibilityHandlerNeighborhood implements BDVVisibilityHandler
 			// get all filters from model
 			final ISpimDataTableModel< ? > tableModel =
 					( ( FilteredAndGroupedExplorerPanel< ? > ) panel ).getTableModel();
-			final Map< Class< ? extends Entity >, List< ? extends Entity > > filters = tableModel.getFilters();
+
+			final Map< Class< ? extends Entity >, Set< Entity > > filters = new HashMap<>();
+			for( final Entry< Class< ? extends Entity >, List< ? extends Entity > >  e : tableModel.getFilters().entrySet())
+				// we checked for time points before
+				if (e.getKey() != TimePoint.class)
+					filters.put( e.getKey(), new HashSet<>( e.getValue() ) );
 
 			// check all candidates
 			candidates = candidates.stream().filter( c -> {
-				for( final Entry< Class< ? extends Entity >, List< ? extends Entity > >  e : filters.entrySet())
+				for( final Entry< Class< ? extends Entity >, Set< Entity > >  e : filters.entrySet())
 				{
-					// we checked for time points before
-					if (e.getKey() == TimePoint.class)
-						continue;
-
 					// ignore view if it was hidden by filter 
 					final Entity attribute = panel.getSpimData().getSequenceDescription()
 							.getViewDescriptions().get( c ).getViewSetup().getAttribute( e.getKey() );
@@ -134,25 +231,16 @@ public class BDVVisibilityHandlerNeighborhood implements BDVVisibilityHandler
 			if (selectedViewIds.contains( vid ))
 				continue;
 
-			// search for (approximate) overlap between all selected views & this view
-			final ArrayList< Iterable< ViewId > > comparison = new ArrayList<>();
-			comparison.add( selectedViewIds );
-			comparison.add( new Group< ViewId >( vid ) );
-			final BoundingBox bbox = new BoundingBoxMaximalGroupOverlap< ViewId >( comparison,panel.getSpimData() ).estimate( "" );
-
-			// overlap found
-			if (bbox != null)
+			// overlap found (the index only returns overlapping views)
+			ConverterSetup cs = setupToConverterSetup.get( vid.getViewSetupId() );
+			if (cs != null)
 			{
-				ConverterSetup cs = setupToConverterSetup.get( vid.getViewSetupId() );
-				if (cs != null)
-				{
-					// set setup to gray
-					cs.setColor( new ARGBType( ARGBType.rgba( 100, 100, 100, 255 ) ) );
-					bdv.getViewer().getVisibilityAndGrouping().setSourceActive(
-							FilteredAndGroupedExplorerPanel.getBDVSourceIndex(
-									panel.getSpimData().getSequenceDescription().getViewDescriptions().get( vid ).getViewSetup(),
-									panel.getSpimData() ), true );
-				}
+				// set setup to gray
+				cs.setColor( new ARGBType( ARGBType.rgba( 100, 100, 100, 255 ) ) );
+				bdv.getViewer().getVisibilityAndGrouping().setSourceActive(
+						FilteredAndGroupedExplorerPanel.getBDVSourceIndex(
+								panel.getSpimData().getSequenceDescription().getViewDescriptions().get( vid ).getViewSetup(),
+								panel.getSpimData() ), true );
 			}
 		}
 	}
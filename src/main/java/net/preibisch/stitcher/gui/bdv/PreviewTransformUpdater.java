@@ -0,0 +1,193 @@
+/*-
+ * #%L
+ * Multiview stitching of large datasets.
+ * %%
+ * Copyright (C) 2016 - 2024 Big Stitcher developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.stitcher.gui.bdv;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import bdv.BigDataViewer;
+import bdv.tools.transformation.TransformedSource;
+import bdv.viewer.state.SourceState;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.preibisch.legacy.io.IOFunctions;
+
+/**
+ * Debounced, coalescing updater for preview transforms shown in BDV.
+ * 
+ * Requests are computed on a single background thread after a short delay, a newer request
+ * cancels any pending or running older one. The resulting fixed transforms (by BDV source index)
+ * are compared to the ones applied last, only changed sources are updated and BDV is repainted once.
+ * Sources that were set by an earlier request but are missing from the new result are reset to identity.
+ */
+public class PreviewTransformUpdater
+{
+	public static long defaultDelayMillis = 30;
+
+	public interface PreviewComputation
+	{
+		/**
+		 * @param isCancelled - true once a newer request was made, the result will be discarded then
+		 * @return the fixed transforms to show, by BDV source index, or null to leave BDV as-is
+		 */
+		public Map< Integer, AffineTransform3D > compute( final BooleanSupplier isCancelled );
+	}
+
+	private final long delayMillis;
+	private final ScheduledExecutorService executor;
+	private final AtomicLong generation = new AtomicLong();
+	private final Map< Integer, AffineTransform3D > applied = new HashMap<>();
+	private ScheduledFuture< ? > pending;
+
+	public PreviewTransformUpdater()
+	{
+		this( defaultDelayMillis );
+	}
+
+	public PreviewTransformUpdater( final long delayMillis )
+	{
+		this.delayMillis = delayMillis;
+		this.executor = Executors.newSingleThreadScheduledExecutor( r -> {
+			final Thread t = new Thread( r, "BDV preview update" );
+			t.setDaemon( true );
+			return t;
+		} );
+	}
+
+	/**
+	 * schedule a new preview computation, replacing all earlier ones that are not applied yet
+	 */
+	public synchronized void request( final BigDataViewer bdv, final PreviewComputation computation )
+	{
+		if ( executor.isShutdown() )
+			return;
+
+		final long gen = generation.incrementAndGet();
+
+		if ( pending != null )
+			pending.cancel( false );
+
+		pending = executor.schedule( () -> run( bdv, computation, gen ), delayMillis, TimeUnit.MILLISECONDS );
+	}
+
+	/**
+	 * discard pending and running computations, their results will not be applied
+	 */
+	public synchronized void cancel()
+	{
+		generation.incrementAndGet();
+
+		if ( pending != null )
+			pending.cancel( false );
+		pending = null;
+	}
+
+	/**
+	 * forget the transforms applied last, e.g. because the sources were reset elsewhere,
+	 * so that the next result is applied completely
+	 */
+	public synchronized void invalidate()
+	{
+		applied.clear();
+	}
+
+	public void shutdown()
+	{
+		cancel();
+		invalidate();
+		executor.shutdownNow();
+	}
+
+	private void run( final BigDataViewer bdv, final PreviewComputation computation, final long gen )
+	{
+		final BooleanSupplier isCancelled = () -> generation.get() != gen;
+
+		if ( isCancelled.getAsBoolean() )
+			return;
+
+		final Map< Integer, AffineTransform3D > transforms;
+		try
+		{
+			transforms = computation.compute( isCancelled );
+		}
+		catch ( Exception e )
+		{
+			IOFunctions.println( "Failed to update the preview: " + e );
+			e.printStackTrace();
+			return;
+		}
+
+		if ( transforms == null )
+			return;
+
+		apply( bdv, transforms, gen );
+	}
+
+	private synchronized void apply( final BigDataViewer bdv, final Map< Integer, AffineTransform3D > transforms, final long gen )
+	{
+		if ( generation.get() != gen )
+			return;
+
+		final List< SourceState< ? > > sources = bdv.getViewer().getState().getSources();
+		boolean changed = false;
+
+		// reset what we set before but is not part of the new preview
+		for ( final Iterator< Entry< Integer, AffineTransform3D > > it = applied.entrySet().iterator(); it.hasNext(); )
+		{
+			final int sourceIdx = it.next().getKey();
+			if ( transforms.containsKey( sourceIdx ) )
+				continue;
+
+			if ( sourceIdx < sources.size() )
+				( (TransformedSource< ? >) sources.get( sourceIdx ).getSpimSource() ).setFixedTransform( new AffineTransform3D() );
+			it.remove();
+			changed = true;
+		}
+
+		for ( final Entry< Integer, AffineTransform3D > e : transforms.entrySet() )
+		{
+			final int sourceIdx = e.getKey();
+			if ( sourceIdx < 0 || sourceIdx >= sources.size() )
+				continue;
+
+			final AffineTransform3D last = applied.get( sourceIdx );
+			if ( last != null && Arrays.equals( last.getRowPackedCopy(), e.getValue().getRowPackedCopy() ) )
+				continue;
+
+			( (TransformedSource< ? >) sources.get( sourceIdx ).getSpimSource() ).setFixedTransform( e.getValue() );
+			applied.put( sourceIdx, e.getValue().copy() );
+			changed = true;
+		}
+
+		if ( changed )
+			bdv.getViewer().requestRepaint();
+	}
+}
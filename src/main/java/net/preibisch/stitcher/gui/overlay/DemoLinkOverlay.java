@@ -28,7 +28,10 @@ import java.awt.Graphics2D;
 import java.awt.Stroke;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import mpicbg.spim.data.generic.AbstractSpimData;
 import mpicbg.spim.data.generic.sequence.BasicViewDescription;
@@ -56,6 +59,15 @@ public class DemoLinkOverlay implements OverlayRenderer, TransformListener< Affi
 	public boolean isActive;
 	private ArrayList<Pair<Group<ViewId>, Group<ViewId>>> activeLinks; //currently selected in the GUI
 
+	// overlapping active links with the world coordinates of their endpoints, (re)built only when links or registrations change
+	private final ArrayList< Pair< Pair< Group< ViewId >, Group< ViewId > >, double[][] > > linkIndex;
+	private boolean indexValid;
+
+	// all pairs of views connected by filtered, inconsistent and existing links, (re)built only when those change
+	private HashSet< Pair< ViewId, ViewId > > filteredPairs, inconsistentPairs, linkPairs;
+
+	private int canvasWidth, canvasHeight;
+
 	final Stroke dashed = new BasicStroke( 1, BasicStroke.CAP_BUTT, BasicStroke.JOIN_BEVEL, 0, new float[]{4}, 0 );
 	final Stroke thin = new BasicStroke( 1 );
 	final Stroke thick = new BasicStroke( 1.5f );
@@ -69,23 +81,54 @@ public class DemoLinkOverlay implements OverlayRenderer, TransformListener< Affi
 		viewerTransform = new AffineTransform3D();
 		isActive = false;
 		activeLinks = new ArrayList<>();
+		linkIndex = new ArrayList<>();
+		indexValid = false;
+		filteredPairs = new HashSet<>();
+		inconsistentPairs = new HashSet<>();
 	}
 
-	public void setPairwiseLinkInterface( final PairwiseLinkInterface pli )
+	public synchronized void setPairwiseLinkInterface( final PairwiseLinkInterface pli )
 	{
 		this.results = pli;
+		indexValid = false;
+	}
+
+	public synchronized List< Pair< Group< ViewId >, Group< ViewId > > > getFilteredResults()
+	{
+		return Collections.unmodifiableList( new ArrayList<>( lastFilteredResults ) );
+	}
+
+	public synchronized List< Pair< Group< ViewId >, Group< ViewId > > > getInconsistentResults()
+	{
+		return Collections.unmodifiableList( new ArrayList<>( lastInconsistentResults ) );
 	}
 
 	// called by FilteredStitchingResults
-	public ArrayList< Pair< Group< ViewId >, Group< ViewId > > > getFilteredResults()
+	public synchronized void setFilteredResults( final Collection< Pair< Group< ViewId >, Group< ViewId > > > filtered )
 	{
-		return lastFilteredResults;
+		lastFilteredResults.clear();
+		lastFilteredResults.addAll( filtered );
+		filteredPairs = viewPairs( lastFilteredResults );
 	}
 
 	// called by e.g. Global Optimization
-	public ArrayList< Pair< Group< ViewId >, Group< ViewId > > > getInconsistentResults()
+	public synchronized void setInconsistentResults( final Collection< Pair< Group< ViewId >, Group< ViewId > > > inconsistent )
 	{
-		return lastInconsistentResults;
+		lastInconsistentResults.clear();
+		lastInconsistentResults.addAll( inconsistent );
+		inconsistentPairs = viewPairs( lastInconsistentResults );
+	}
+
+	/**
+	 * forget all filtered and inconsistent links that involve a group
+	 * @param group the group
+	 */
+	public synchronized void removeResultsFor( final Group< ViewId > group )
+	{
+		lastFilteredResults.removeIf( p -> p.getA().equals( group ) || p.getB().equals( group ) );
+		lastInconsistentResults.removeIf( p -> p.getA().equals( group ) || p.getB().equals( group ) );
+		filteredPairs = viewPairs( lastFilteredResults );
+		inconsistentPairs = viewPairs( lastInconsistentResults );
 	}
 
 	@Override
@@ -94,12 +137,9 @@ public class DemoLinkOverlay implements OverlayRenderer, TransformListener< Affi
 		this.viewerTransform = transform;
 	}
 
-	@Override
-	public void drawOverlays(Graphics g)
+	private void buildIndex()
 	{
-		// dont do anything if the overlay was set to inactive or we have no Tile selected (no links to display)
-		if (!isActive || activeLinks.size() == 0)
-			return;
+		linkIndex.clear();
 
 		for ( Pair<Group<ViewId>, Group<ViewId>> p: activeLinks)
 		{
@@ -109,35 +149,26 @@ public class DemoLinkOverlay implements OverlayRenderer, TransformListener< Affi
 				p.getB().filterMissingViews( spimData.getSequenceDescription().getMissingViews().getMissingViews() );
 			}
 
+			if ( p.getA().size() == 0 || p.getB().size() == 0 )
+				continue;
+
 			// local coordinates of views, without BDV transform 
 			final double[] lPos1 = new double[ 3 ];
 			final double[] lPos2 = new double[ 3 ];
-			// global coordianates, after BDV transform
-			final double[] gPos1 = new double[ 3 ];
-			final double[] gPos2 = new double[ 3 ];
-			
+
 			BasicViewDescription<?> vdA = spimData.getSequenceDescription().getViewDescriptions().get( p.getA().iterator().next() );
 			BasicViewDescription<?> vdB = spimData.getSequenceDescription().getViewDescriptions().get( p.getB().iterator().next() );
 			ViewRegistration vrA = spimData.getViewRegistrations().getViewRegistration(  p.getA().iterator().next() );
 			ViewRegistration vrB = spimData.getViewRegistrations().getViewRegistration(  p.getB().iterator().next() );
 
-			long[] sizeA = new long[vdA.getViewSetup().getSize().numDimensions()];
-			long[] sizeB = new long[vdB.getViewSetup().getSize().numDimensions()];
-			spimData.getSequenceDescription().getViewDescriptions().get( p.getA().iterator().next() ).getViewSetup().getSize().dimensions( sizeA );
-			spimData.getSequenceDescription().getViewDescriptions().get( p.getB().iterator().next() ).getViewSetup().getSize().dimensions( sizeB );
-			
-			// TODO: this uses the transform of the first view in the set, maybe do something better?
-			AffineTransform3D vt1 = spimData.getViewRegistrations().getViewRegistration( p.getA().iterator().next() ).getModel();
-			AffineTransform3D vt2 = spimData.getViewRegistrations().getViewRegistration( p.getB().iterator().next() ).getModel();
-			
+			long[] sizeA = vdA.getViewSetup().getSize().dimensionsAsLongArray();
+			long[] sizeB = vdB.getViewSetup().getSize().dimensionsAsLongArray();
+
 			boolean overlaps = SimpleBoundingBoxOverlap.overlaps( SimpleBoundingBoxOverlap.getBoundingBox(	vdA.getViewSetup(), vrA ), SimpleBoundingBoxOverlap.getBoundingBox( vdB.getViewSetup(), vrB ) );
 
 			if (!overlaps)
 				continue;
 
-			final AffineTransform3D transform = new AffineTransform3D();
-			transform.preConcatenate( viewerTransform );
-
 			for( int i = 0; i < 3; i++)
 			{
 				// start from middle of view
@@ -145,50 +176,96 @@ public class DemoLinkOverlay implements OverlayRenderer, TransformListener< Affi
 				lPos2[i] += sizeB[i] / 2;
 			}
 
-			vt1.apply( lPos1, lPos1 );
-			vt2.apply( lPos2, lPos2 );
-			
-			transform.apply( lPos1, gPos1 );
-			transform.apply( lPos2, gPos2 );
+			// TODO: this uses the transform of the first view in the set, maybe do something better?
+			vrA.getModel().apply( lPos1, lPos1 );
+			vrB.getModel().apply( lPos2, lPos2 );
 
-			Graphics2D g2d = null;
+			linkIndex.add( new ValuePair<>( p, new double[][] { lPos1, lPos2 } ) );
+		}
 
-			if ( Graphics2D.class.isInstance( g ) )
-				g2d = (Graphics2D) g;
-			/*
-			if ( lastFilteredResults.contains( p ) || lastFilteredResults.contains( TransformationTools.reversePair( p ) ) )
-			{
-				g.setColor( Color.ORANGE );
-				if ( g2d != null ) g2d.setStroke( dashed );
-			}
-			else if ( lastInconsistentResults.contains( p ) || lastInconsistentResults.contains( TransformationTools.reversePair( p ) ) )
-			{
-				g.setColor( Color.RED );
-				if ( g2d != null ) g2d.setStroke( dashed );
-			}
-			else if ( results.getPairwiseLinks().contains( p ) || results.getPairwiseLinks().contains( TransformationTools.reversePair( p ) ) )
-			{
-				g.setColor( Color.GREEN );
-				if ( g2d != null ) g2d.setStroke( thick );
-			}
-			else
-			{
-				g.setColor( Color.GRAY );
-				if ( g2d != null ) g2d.setStroke( dashed );
-			}
-			*/
+		linkPairs = viewPairs( results.getPairwiseLinks() );
+		indexValid = true;
+	}
+
+	/**
+	 * index all pairs of views that a list of links connects, in both directions
+	 * @param pairList the links
+	 * @return all (a,b) and (b,a) with a in A and b in B of any link
+	 */
+	public static HashSet< Pair< ViewId, ViewId > > viewPairs( final Collection< Pair<Group<ViewId>, Group<ViewId>>> pairList )
+	{
+		final HashSet< Pair< ViewId, ViewId > > viewPairs = new HashSet<>();
+
+		for ( final Pair<Group<ViewId>, Group<ViewId>> p : pairList )
+			for ( final ViewId a : p.getA().getViews() )
+				for ( final ViewId b : p.getB().getViews() )
+				{
+					viewPairs.add( new ValuePair<>( a, b ) );
+					viewPairs.add( new ValuePair<>( b, a ) );
+				}
+
+		return viewPairs;
+	}
+
+	/**
+	 * same as {@link #overlapsWith(Pair, Collection)}, but using an index created with {@link #viewPairs(Collection)}
+	 * @param p1 the link
+	 * @param viewPairs index of the links to test against
+	 * @return if any link overlaps with p1
+	 */
+	public static boolean overlapsWith( final Pair<Group<ViewId>, Group<ViewId>> p1, final Set< Pair< ViewId, ViewId > > viewPairs )
+	{
+		for ( final ViewId a : p1.getA().getViews() )
+			for ( final ViewId b : p1.getB().getViews() )
+				if ( viewPairs.contains( new ValuePair<>( a, b ) ) )
+					return true;
+
+		return false;
+	}
+
+	@Override
+	public synchronized void drawOverlays(Graphics g)
+	{
+		// dont do anything if the overlay was set to inactive or we have no Tile selected (no links to display)
+		if (!isActive || activeLinks.size() == 0)
+			return;
+
+		if ( !indexValid )
+			buildIndex();
+
+		// global coordianates, after BDV transform
+		final double[] gPos1 = new double[ 3 ];
+		final double[] gPos2 = new double[ 3 ];
+
+		Graphics2D g2d = null;
+
+		if ( Graphics2D.class.isInstance( g ) )
+			g2d = (Graphics2D) g;
+
+		for ( final Pair< Pair<Group<ViewId>, Group<ViewId>>, double[][] > link : linkIndex )
+		{
+			final Pair<Group<ViewId>, Group<ViewId>> p = link.getA();
+
+			viewerTransform.apply( link.getB()[ 0 ], gPos1 );
+			viewerTransform.apply( link.getB()[ 1 ], gPos2 );
 
-			if ( overlapsWith( p, lastFilteredResults ) )
+			// skip lines that are certainly outside of the canvas
+			if ( canvasWidth > 0 && canvasHeight > 0 && (
+					Math.max( gPos1[ 0 ], gPos2[ 0 ] ) < 0 || Math.max( gPos1[ 1 ], gPos2[ 1 ] ) < 0 ||
+					Math.min( gPos1[ 0 ], gPos2[ 0 ] ) > canvasWidth || Math.min( gPos1[ 1 ], gPos2[ 1 ] ) > canvasHeight ) )
+				continue;
+
+			if ( overlapsWith( p, filteredPairs ) )
 			{
 				g.setColor( Color.ORANGE );
 				if ( g2d != null ) g2d.setStroke( dashed );
 			}
-			else if ( overlapsWith( p, lastInconsistentResults ) )
+			else if ( overlapsWith( p, inconsistentPairs ) )
 			{
 				g.setColor( Color.RED );
 				if ( g2d != null ) g2d.setStroke( dashed );
 			}
-			else if ( overlapsWith( p, results.getPairwiseLinks() ) )
+			else if ( overlapsWith( p, linkPairs ) )
 			{
 				g.setColor( Color.GREEN );
 				if ( g2d != null ) g2d.setStroke( thick );
@@ -245,19 +322,33 @@ public class DemoLinkOverlay implements OverlayRenderer, TransformListener< Affi
 			return false;
 	}
 
-	public void clearActiveLinks()
+	public synchronized void clearActiveLinks()
 	{
 		activeLinks.clear();
+		indexValid = false;
 	}
 	
-	public void setActiveLinks(List<Pair<Group<ViewId>, Group<ViewId>>> vids)
+	public synchronized void setActiveLinks(List<Pair<Group<ViewId>, Group<ViewId>>> vids)
 	{
 		activeLinks.clear();
 		activeLinks.addAll( vids );
+		indexValid = false;
+	}
+
+	/**
+	 * call if stitching results or registrations changed without the active links being set again
+	 */
+	public synchronized void invalidateIndex()
+	{
+		indexValid = false;
 	}
 
 	@Override
-	public void setCanvasSize(int width, int height){}
+	public void setCanvasSize(int width, int height)
+	{
+		this.canvasWidth = width;
+		this.canvasHeight = height;
+	}
 
 
 	@Override
@@ -278,9 +369,10 @@ public class DemoLinkOverlay implements OverlayRenderer, TransformListener< Affi
 
 
 	@Override
-	public void updateContent(AbstractSpimData< ? > data)
+	public synchronized void updateContent(AbstractSpimData< ? > data)
 	{
 		this.spimData = data;
+		indexValid = false;
 	}
 
 
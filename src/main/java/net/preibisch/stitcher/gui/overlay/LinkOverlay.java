@@ -30,15 +30,13 @@ import java.util.Arrays;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map.Entry;
 import java.util.Queue;
 import java.util.Set;
 
 import mpicbg.spim.data.generic.AbstractSpimData;
-import mpicbg.spim.data.registration.ViewTransform;
 import mpicbg.spim.data.sequence.ViewId;
 import net.imglib2.Dimensions;
-import net.imglib2.FinalDimensions;
-import net.imglib2.Interval;
 import net.imglib2.realtransform.AffineTransform3D;
 import bdv.viewer.OverlayRenderer;
 import bdv.viewer.TransformListener;
@@ -56,21 +54,85 @@ public class LinkOverlay implements OverlayRenderer, TransformListener< AffineTr
 	private AbstractSpimData< ? > spimData;	
 	private final AffineTransform3D viewerTransform;	
 	public boolean isActive;
-	private ArrayList<Pair<Group< ViewId>, Group<ViewId>>> activeLinks;
+	private final Set<Pair<Group< ViewId>, Group<ViewId>>> activeLinks;
 	private ValuePair<Group<ViewId>, Group< ViewId>> selectedLink;
 	private Group<ViewId> reference;
-	
-	public void clearActiveLinks()
+
+	// world-space geometry of the active links and the range of r, (re)built only when links or registrations change
+	private final ArrayList< IndexedLink > linkIndex;
+	private boolean indexValid;
+	private double minR, maxR;
+
+	private int canvasWidth, canvasHeight;
+
+	/**
+	 * geometry of a link that does not depend on the viewer transform
+	 */
+	private static class IndexedLink
+	{
+		final Pair< Group< ViewId >, Group< ViewId > > pair;
+		final double r;
+
+		// world coordinates of the endpoints of the link
+		final double[] posA, posB;
+
+		// views to outline, with their dimensions and world transforms
+		final List< ViewId > viewsA = new ArrayList<>(), viewsB = new ArrayList<>();
+		final List< Dimensions > dimsA = new ArrayList<>(), dimsB = new ArrayList<>();
+		final List< AffineTransform3D > transformsA = new ArrayList<>(), transformsB = new ArrayList<>();
+
+		// world bounding box of endpoints and outlines
+		final double[] min = new double[] { Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE };
+		final double[] max = new double[] { -Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE };
+
+		IndexedLink( final Pair< Group< ViewId >, Group< ViewId > > pair, final double r, final double[] posA, final double[] posB )
+		{
+			this.pair = pair;
+			this.r = r;
+			this.posA = posA;
+			this.posB = posB;
+
+			include( posA );
+			include( posB );
+		}
+
+		void include( final double[] pos )
+		{
+			for ( int d = 0; d < 3; ++d )
+			{
+				min[ d ] = Math.min( min[ d ], pos[ d ] );
+				max[ d ] = Math.max( max[ d ], pos[ d ] );
+			}
+		}
+
+		void includeOutline( final Dimensions dims, final AffineTransform3D transform )
+		{
+			final double[] pos = new double[ 3 ];
+
+			for ( int corner = 0; corner < 8; ++corner )
+			{
+				for ( int d = 0; d < 3; ++d )
+					pos[ d ] = ( ( corner >> d ) & 1 ) == 1 && d < dims.numDimensions() ? dims.dimension( d ) - 0.5 : -0.5;
+
+				transform.apply( pos, pos );
+				include( pos );
+			}
+		}
+	}
+
+	public synchronized void clearActiveLinks()
 	{
 		activeLinks.clear();
 		this.reference = null;
+		indexValid = false;
 	}
 	
-	public void setActiveLinks(List<Pair<Group<ViewId>, Group<ViewId>>> vids, Group<ViewId> reference)
+	public synchronized void setActiveLinks(List<Pair<Group<ViewId>, Group<ViewId>>> vids, Group<ViewId> reference)
 	{
 		activeLinks.clear();
 		activeLinks.addAll( vids );
 		this.reference = reference;
+		indexValid = false;
 	}
 	
 	public void setSelectedLink(Pair<Group<ViewId>, Group<ViewId>> link)
@@ -80,8 +142,15 @@ public class LinkOverlay implements OverlayRenderer, TransformListener< AffineTr
 		else
 			selectedLink = new ValuePair<>( link.getA(), link.getB() );
 	}
-	
 
+	/**
+	 * call if stitching results or registrations changed without the active links being set again
+	 */
+	public synchronized void invalidateIndex()
+	{
+		indexValid = false;
+	}
+	
 	/** screen pixels [x,y,z] **/	
 	private static Color getColor( final double corr, final double maxR, final double minR )
 	{
@@ -99,8 +168,10 @@ public class LinkOverlay implements OverlayRenderer, TransformListener< AffineTr
 		this.spimData = spimData;
 		viewerTransform = new AffineTransform3D();
 		isActive = false;
-		activeLinks = new ArrayList<>();
+		activeLinks = new HashSet<>();
 		selectedLink = null;
+		linkIndex = new ArrayList<>();
+		indexValid = false;
 	}
 
 	@Override
@@ -176,48 +247,39 @@ public class LinkOverlay implements OverlayRenderer, TransformListener< AffineTr
 		return higherVertices;		
 	}
 	
-	@Override
-	public void drawOverlays( final Graphics g )
+	private void buildIndex()
 	{
-		// dont do anything if the overlay was set to inactive or we have no Tile selected (no links to display)
-		if (!isActive || activeLinks.size() == 0)
-			return;
-		
-		final Graphics2D graphics = ( Graphics2D ) g;
-		
-		
-		double maxr = 0.0;
-		double minr = Double.MAX_VALUE;
+		linkIndex.clear();
+
+		maxR = 0.0;
+		minR = Double.MAX_VALUE;
 		for (PairwiseStitchingResult<ViewId> sr : stitchingResults.getPairwiseResults().values())
 		{
-			maxr = Math.max( maxr, sr.r() );
-			minr = Math.min( minr, sr.r() );
+			maxR = Math.max( maxR, sr.r() );
+			minR = Math.min( minR, sr.r() );
 		}
-		
-		//System.out.println( activeLinks );
-		
-		final Set< ViewId > outlinedViews = new HashSet<>();
-		
-		for (Pair< Group<ViewId>, Group<ViewId> > p : stitchingResults.getPairwiseResults().keySet())
+
+		for (Entry< Pair< Group<ViewId>, Group<ViewId> >, PairwiseStitchingResult< ViewId > > e : stitchingResults.getPairwiseResults().entrySet())
 		{
-			if (activeLinks.size() > 0 && !(activeLinks.contains( p )))
+			final Pair< Group<ViewId>, Group<ViewId> > p = e.getKey();
+			final PairwiseStitchingResult< ViewId > psr = e.getValue();
+
+			if (!activeLinks.contains( p ))
 				continue;
-			
+
 			// local coordinates of views, without BDV transform 
 			final double[] lPos1 = new double[ 3 ];
 			final double[] lPos2 = new double[ 3 ];
-			// global coordianates, after BDV transform
-			final double[] gPos1 = new double[ 3 ];
-			final double[] gPos2 = new double[ 3 ];
-			
-			long[] sizeA = new long[spimData.getSequenceDescription().getViewDescriptions().get( p.getA().getViews().iterator().next() ).getViewSetup().getSize().numDimensions()];
-			long[] sizeB = new long[spimData.getSequenceDescription().getViewDescriptions().get( p.getB().getViews().iterator().next() ).getViewSetup().getSize().numDimensions()];
-			spimData.getSequenceDescription().getViewDescriptions().get( p.getA().getViews().iterator().next() ).getViewSetup().getSize().dimensions( sizeA );
-			spimData.getSequenceDescription().getViewDescriptions().get( p.getB().getViews().iterator().next() ).getViewSetup().getSize().dimensions( sizeB );
-			
+
+			final ViewId firstA = p.getA().getViews().iterator().next();
+			final ViewId firstB = p.getB().getViews().iterator().next();
+
+			final long[] sizeA = spimData.getSequenceDescription().getViewDescriptions().get( firstA ).getViewSetup().getSize().dimensionsAsLongArray();
+			final long[] sizeB = spimData.getSequenceDescription().getViewDescriptions().get( firstB ).getViewSetup().getSize().dimensionsAsLongArray();
+
 			// TODO: this uses the transform of the first view in the set, maybe do something better?
-			AffineTransform3D vt1 = spimData.getViewRegistrations().getViewRegistration( p.getA().getViews().iterator().next() ).getModel();
-			AffineTransform3D vt2 = spimData.getViewRegistrations().getViewRegistration( p.getB().getViews().iterator().next() ).getModel();
+			AffineTransform3D vt1 = spimData.getViewRegistrations().getViewRegistration( firstA ).getModel();
+			AffineTransform3D vt2 = spimData.getViewRegistrations().getViewRegistration( firstB ).getModel();
 
 			for(int i = 0; i < 3; i++)
 			{
@@ -230,70 +292,147 @@ public class LinkOverlay implements OverlayRenderer, TransformListener< AffineTr
 			vt2.apply( lPos2, lPos2 );
 			
 			if (!p.getA().equals( reference ))
-				stitchingResults.getPairwiseResults().get( p ).getTransform().applyInverse( lPos2, lPos2 );
+				psr.getTransform().applyInverse( lPos2, lPos2 );
 			if (!p.getB().equals( reference ))
-				stitchingResults.getPairwiseResults().get( p ).getTransform().apply( lPos1, lPos1 );
+				psr.getTransform().apply( lPos1, lPos1 );
+
+			final IndexedLink link = new IndexedLink( p, psr.r(), lPos1, lPos2 );
+
+			// views in A
+			for (final ViewId vid : p.getA().getViews())
+			{
+				final Dimensions dims = spimData.getSequenceDescription().getViewDescriptions().get( vid ).getViewSetup().getSize();
+				final AffineTransform3D transform = spimData.getViewRegistrations().getViewRegistration( vid ).getModel().copy();
+				if ( !p.getA().equals( reference ) )
+					transform.preConcatenate( psr.getInverseTransform() );
+
+				link.viewsA.add( vid );
+				link.dimsA.add( dims );
+				link.transformsA.add( transform );
+				link.includeOutline( dims, transform );
+			}
+
+			// views in B
+			for (final ViewId vid : p.getB().getViews())
+			{
+				final Dimensions dims = spimData.getSequenceDescription().getViewDescriptions().get( vid ).getViewSetup().getSize();
+				final AffineTransform3D transform = spimData.getViewRegistrations().getViewRegistration( vid ).getModel().copy();
+				if ( !p.getB().equals( reference ) )
+					transform.preConcatenate( psr.getTransform() );
+
+				link.viewsB.add( vid );
+				link.dimsB.add( dims );
+				link.transformsB.add( transform );
+				link.includeOutline( dims, transform );
+			}
+
+			linkIndex.add( link );
+		}
+
+		indexValid = true;
+	}
+
+	/**
+	 * @param link the link
+	 * @return false if the link (line and outlines) is certainly outside of the canvas
+	 */
+	private boolean isVisible( final IndexedLink link )
+	{
+		// canvas size unknown
+		if ( canvasWidth <= 0 || canvasHeight <= 0 )
+			return true;
+
+		final double[] pos = new double[ 3 ];
+		double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE;
+		double maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+
+		for ( int corner = 0; corner < 8; ++corner )
+		{
+			for ( int d = 0; d < 3; ++d )
+				pos[ d ] = ( ( corner >> d ) & 1 ) == 1 ? link.max[ d ] : link.min[ d ];
+
+			viewerTransform.apply( pos, pos );
+
+			minX = Math.min( minX, pos[ 0 ] );
+			minY = Math.min( minY, pos[ 1 ] );
+			maxX = Math.max( maxX, pos[ 0 ] );
+			maxY = Math.max( maxY, pos[ 1 ] );
+		}
 
-			viewerTransform.apply( lPos1, gPos1 );
-			viewerTransform.apply( lPos2, gPos2 );
+		return maxX >= 0 && maxY >= 0 && minX <= canvasWidth && minY <= canvasHeight;
+	}
+
+	@Override
+	public synchronized void drawOverlays( final Graphics g )
+	{
+		// dont do anything if the overlay was set to inactive or we have no Tile selected (no links to display)
+		if (!isActive || activeLinks.size() == 0)
+			return;
+		
+		final Graphics2D graphics = ( Graphics2D ) g;
+
+		if ( !indexValid )
+			buildIndex();
+
+		final Set< ViewId > outlinedViews = new HashSet<>();
+
+		// global coordianates, after BDV transform
+		final double[] gPos1 = new double[ 3 ];
+		final double[] gPos2 = new double[ 3 ];
+
+		for ( final IndexedLink link : linkIndex )
+		{
+			if ( !isVisible( link ) )
+				continue;
+
+			final Pair< Group<ViewId>, Group<ViewId> > p = link.pair;
+			final boolean isSelected = p.equals( selectedLink );
+
+			viewerTransform.apply( link.posA, gPos1 );
+			viewerTransform.apply( link.posB, gPos2 );
 			
 			// if we have an active link, color it white, else red->yellow->green depending on the correlation
-			if (p.equals( selectedLink ))
+			if (isSelected)
 				graphics.setColor( Color.WHITE );
 			else
-				graphics.setColor( getColor( stitchingResults.getPairwiseResults().get( p ).r(), maxr, minr ) );
+				graphics.setColor( getColor( link.r, maxR, minR ) );
 			
 			graphics.setStroke( new BasicStroke( 2.0f ) );
 			graphics.drawLine((int) gPos1[0],(int) gPos1[1],(int) gPos2[0],(int) gPos2[1] );
 			
 			
 			// draw outlines for views in A
-			for (final ViewId vid : p.getA().getViews())
+			for ( int i = 0; i < link.viewsA.size(); ++i )
 			{
-				if (!p.equals( selectedLink ) && outlinedViews.contains( vid ))
+				final ViewId vid = link.viewsA.get( i );
+				if (!isSelected && outlinedViews.contains( vid ))
 					continue;
 
-				final boolean isReference = p.getA().equals( reference );
-				
-				final Dimensions dims = spimData.getSequenceDescription().getViewDescriptions().get( vid ).getViewSetup().getSize();
-				final AffineTransform3D registration = spimData.getViewRegistrations().getViewRegistration( vid ).getModel();
-				final AffineTransform3D finalTransform = 
-						registration.copy()
-						.preConcatenate( isReference ? new AffineTransform3D() : stitchingResults.getPairwiseResults().get( p ).getInverseTransform() )
-						.preConcatenate( viewerTransform );
-
-				drawViewOutlines( graphics, dims, finalTransform, p.equals( selectedLink ) ? Color.MAGENTA : Color.GRAY );
+				final AffineTransform3D finalTransform = link.transformsA.get( i ).copy().preConcatenate( viewerTransform );
+				drawViewOutlines( graphics, link.dimsA.get( i ), finalTransform, isSelected ? Color.MAGENTA : Color.GRAY );
 				outlinedViews.add( vid );
 			}
 
 			// draw outlines for views in B
-			for ( final ViewId vid : p.getB().getViews() )
+			for ( int i = 0; i < link.viewsB.size(); ++i )
 			{
-				if ( !p.equals( selectedLink ) && outlinedViews.contains( vid ) )
+				final ViewId vid = link.viewsB.get( i );
+				if ( !isSelected && outlinedViews.contains( vid ) )
 					continue;
 
-				final boolean isReference = p.getB().equals( reference );
-
-				final Dimensions dims = spimData.getSequenceDescription().getViewDescriptions().get( vid )
-						.getViewSetup().getSize();
-				final AffineTransform3D registration = spimData.getViewRegistrations().getViewRegistration( vid )
-						.getModel();
-				final AffineTransform3D finalTransform = 
-						registration.copy()
-						.preConcatenate( isReference ? new AffineTransform3D() : stitchingResults.getPairwiseResults().get( p ).getTransform() )
-						.preConcatenate( viewerTransform );
-
-				drawViewOutlines( graphics, dims, finalTransform, p.equals( selectedLink ) ? Color.GREEN : Color.GRAY );
+				final AffineTransform3D finalTransform = link.transformsB.get( i ).copy().preConcatenate( viewerTransform );
+				drawViewOutlines( graphics, link.dimsB.get( i ), finalTransform, isSelected ? Color.GREEN : Color.GRAY );
 				outlinedViews.add( vid );
 			}
-			
-			
 		}
 	}
 
 	@Override
 	public void setCanvasSize( final int width, final int height )
-	{}
+	{
+		this.canvasWidth = width;
+		this.canvasHeight = height;
+	}
 	
 	public static void main(String[] args)
 	{
@@ -104,7 +104,7 @@ public class CalculatePCPopup extends JMenuItem implements ExplorerWindowSetable
 					PairwiseStitchingParameters params = null;
 					LucasKanadeParameters LKParams = null;
 					if (method == Method.PHASECORRELATION)
-						params = simple ? new PairwiseStitchingParameters() : PairwiseStitchingParameters.askUserForParameters();
+						params = simple ? new PairwiseStitchingParameters() : StitchingUIHelper.askForPairwiseStitchingParameters();
 					if (method == Method.LUCASKANADE)
 						LKParams = LucasKanadeParameters.askUserForParameters();
 
@@ -124,7 +124,7 @@ public class CalculatePCPopup extends JMenuItem implements ExplorerWindowSetable
 					}
 					else
 					{
-						filteringAndGrouping.askUserForFiltering( panelFG );
+						StitchingUIHelper.askUserForFiltering( filteringAndGrouping, panelFG );
 						if (filteringAndGrouping.getDialogWasCancelled())
 							return;
 					}
@@ -146,7 +146,7 @@ public class CalculatePCPopup extends JMenuItem implements ExplorerWindowSetable
 					else
 					{
 						filteringAndGrouping.addComparisonAxis( Tile.class );
-						filteringAndGrouping.askUserForGrouping( panelFG );
+						StitchingUIHelper.askUserForGrouping( filteringAndGrouping, panelFG );
 						if (filteringAndGrouping.getDialogWasCancelled())
 							return;
 					}
@@ -158,9 +158,9 @@ public class CalculatePCPopup extends JMenuItem implements ExplorerWindowSetable
 					illumDefaultAggregation.put( Illumination.class, ActionType.AVERAGE );
 
 					if (simple)
-						filteringAndGrouping.askUserForGroupingAggregator(illumDefaultAggregation);
+						StitchingUIHelper.askUserForGroupingAggregator(filteringAndGrouping, illumDefaultAggregation);
 					else
-						filteringAndGrouping.askUserForGroupingAggregator();
+						StitchingUIHelper.askUserForGroupingAggregator( filteringAndGrouping );
 
 					if (filteringAndGrouping.getDialogWasCancelled())
 						return;
@@ -171,7 +171,7 @@ public class CalculatePCPopup extends JMenuItem implements ExplorerWindowSetable
 						return;
 
 					if (method == Method.PHASECORRELATION)
-						Calculate_Pairwise_Shifts.processPhaseCorrelation( (SpimData2) panel.getSpimData(), filteringAndGrouping, params, dsFactors );
+						Calculate_Pairwise_Shifts.processPhaseCorrelation( (SpimData2) panel.getSpimData(), filteringAndGrouping, params, dsFactors, panel.xml() );
 					if (method == Method.LUCASKANADE)
 						Calculate_Pairwise_Shifts.processLucasKanade( (SpimData2) panel.getSpimData(), filteringAndGrouping, LKParams, dsFactors );
 
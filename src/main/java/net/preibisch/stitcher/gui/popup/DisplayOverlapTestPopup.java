@@ -66,7 +66,7 @@ import net.preibisch.mvrecon.process.fusion.transformed.TransformWeight;
 import net.preibisch.stitcher.algorithm.GroupedViewAggregator;
 import net.preibisch.stitcher.algorithm.GroupedViewAggregator.ActionType;
 import net.preibisch.stitcher.algorithm.PairwiseStitching;
-import net.preibisch.stitcher.algorithm.PairwiseStitchingParameters;
+import net.preibisch.stitcher.gui.StitchingUIHelper;
 
 public class DisplayOverlapTestPopup extends JMenuItem implements ExplorerWindowSetable {
 
@@ -149,7 +149,7 @@ public class DisplayOverlapTestPopup extends JMenuItem implements ExplorerWindow
 			
 			Pair< Translation, Double > shift = PairwiseStitching.getShift( rai1, rai2, 
 					new Translation( rai1.numDimensions() ), new Translation( rai1.numDimensions() ),
-					PairwiseStitchingParameters.askUserForParameters(), service );
+					StitchingUIHelper.askForPairwiseStitchingParameters(), service );
 			
 			final double[] translation = shift.getA().getTranslationCopy();
 			System.out.println( Util.printCoordinates( translation ) );
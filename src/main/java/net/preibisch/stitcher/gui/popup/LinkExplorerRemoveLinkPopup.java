@@ -35,6 +35,7 @@ import net.preibisch.mvrecon.fiji.spimdata.explorer.GroupedRowWindow;
 import net.preibisch.mvrecon.fiji.spimdata.explorer.popup.ExplorerWindowSetable;
 import net.preibisch.mvrecon.fiji.spimdata.stitchingresults.StitchingResults;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
+import net.preibisch.stitcher.algorithm.FilteredStitchingResults;
 import net.preibisch.stitcher.gui.LinkExplorerPanel;
 import net.preibisch.stitcher.gui.StitchingExplorerPanel;
 import net.preibisch.stitcher.gui.StitchingResultsSettable;
@@ -60,6 +61,8 @@ public class LinkExplorerRemoveLinkPopup extends JMenuItem implements StitchingR
 			{
 				final Pair< Group<ViewId>, Group<ViewId> > pair = panel.getModel().getActiveLinks().get( panel.getTable().getSelectedRow() );
 				results.removePairwiseResultForPair( pair );
+				FilteredStitchingResults.resultsChanged( results );
+				((StitchingExplorerPanel< ? >)stitchingExplorer).getDemoLinkOverlay().invalidateIndex();
 				((StitchingExplorerPanel< ? >)stitchingExplorer).updateBDVPreviewMode();
 
 				panel.selectedViewDescriptions( new ArrayList<>(((GroupedRowWindow)stitchingExplorer).selectedRowsGroups()) );
@@ -168,7 +168,7 @@ public class PairwiseInterestPointRegistrationPopup extends JMenu implements Exp
 				}
 				else
 				{
-					filteringAndGrouping.askUserForFiltering( panelFG );
+					StitchingUIHelper.askUserForFiltering( filteringAndGrouping, panelFG );
 					if (filteringAndGrouping.getDialogWasCancelled())
 						return;
 				}
@@ -190,7 +190,7 @@ public class PairwiseInterestPointRegistrationPopup extends JMenu implements Exp
 				else
 				{
 					filteringAndGrouping.addComparisonAxis( Tile.class );
-					filteringAndGrouping.askUserForGrouping( panelFG );
+					StitchingUIHelper.askUserForGrouping( filteringAndGrouping, panelFG );
 					if (filteringAndGrouping.getDialogWasCancelled())
 						return;
 				}
@@ -33,6 +33,7 @@ import javax.swing.JMenuItem;
 
 import net.preibisch.legacy.io.IOFunctions;
 import net.preibisch.mvrecon.fiji.spimdata.explorer.ExplorerWindow;
+import net.preibisch.mvrecon.fiji.spimdata.explorer.FilteredAndGroupedExplorerPanel;
 import net.preibisch.mvrecon.fiji.spimdata.explorer.popup.ExplorerWindowSetable;
 import net.preibisch.stitcher.gui.ReadTileConfigurationPanel;
 
@@ -59,6 +60,7 @@ public class ReadTileConfigurationPopup extends JMenuItem implements ExplorerWin
 			{
 				new Thread(new Runnable()
 				{
+					@SuppressWarnings({ "rawtypes", "unchecked" })
 					@Override
 					public void run()
 					{
@@ -72,6 +74,10 @@ public class ReadTileConfigurationPopup extends JMenuItem implements ExplorerWin
 
 						final ReadTileConfigurationPanel tcPanel = new ReadTileConfigurationPanel( panel.getSpimData(), panel.bdvPopup(), frame );
 						frame.add( tcPanel, BorderLayout.CENTER );
+
+						// re-apply the preview whenever the explorer resets BDV
+						if ( FilteredAndGroupedExplorerPanel.class.isInstance( panel ) )
+							( (FilteredAndGroupedExplorerPanel) panel ).addListener( tcPanel );
 						frame.setSize( tcPanel.getPreferredSize() );
 
 						frame.addWindowListener( new WindowAdapter()
@@ -79,6 +85,9 @@ public class ReadTileConfigurationPopup extends JMenuItem implements ExplorerWin
 							@Override
 							public void windowClosing( WindowEvent evt )
 							{
+								if ( FilteredAndGroupedExplorerPanel.class.isInstance( panel ) )
+									( (FilteredAndGroupedExplorerPanel< ? >) panel ).getListeners().remove( tcPanel );
+
 								tcPanel.quit();
 							}
 						} );
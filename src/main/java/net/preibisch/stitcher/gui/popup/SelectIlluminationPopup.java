@@ -25,6 +25,7 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -32,12 +33,10 @@ import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 import javax.swing.JComponent;
@@ -83,6 +82,11 @@ public class SelectIlluminationPopup extends JMenuItem implements ExplorerWindow
 	public static boolean defaultOnlySelection = false;
 	public static boolean defaultVerify = true;
 
+	// how many groups are evaluated concurrently (bounds the number of images read at once)
+	public static int defaultParallelGroups = Math.max( 2, Runtime.getRuntime().availableProcessors() );
+	// if > 0, only sample blocks of this size (in pixels of the evaluated resolution level)
+	public static int defaultSampleBlockSize = 0;
+
 	private FilteredAndGroupedExplorerPanel< ? > panel;
 
 	public SelectIlluminationPopup()
@@ -101,10 +105,21 @@ public class SelectIlluminationPopup extends JMenuItem implements ExplorerWindow
 	public static ViewSelection< ViewId > getViewSelectionResult( final GenericDialog gd, final AbstractSequenceDescription< ?, ?, ? > sd )
 	{
 		String choice = gd.getNextChoice();
+		final int parallelGroups = defaultParallelGroups = Math.max( 1, (int)Math.round( gd.getNextNumber() ) );
+		final int sampleBlockSize = defaultSampleBlockSize = Math.max( 0, (int)Math.round( gd.getNextNumber() ) );
+
 		if (choice.equals( "Pick brightest" ))
-			return new BrightestViewSelection( sd );
+		{
+			final BrightestViewSelection selection = new BrightestViewSelection( sd );
+			selection.setSampleBlockSize( sampleBlockSize );
+			return selection;
+		}
 		else if (choice.equals("Pick highest mean gradient magnitude"))
-			return new MeanGradientMagnitudeViewSelection(sd);
+		{
+			final MeanGradientMagnitudeViewSelection selection = new MeanGradientMagnitudeViewSelection( sd );
+			selection.setSampleBlockSize( sampleBlockSize );
+			return selection;
+		}
 		else if (choice.equals("Relative Fourier Ring Correlation"))
 		{
 			final GenericDialog gd1 = new GenericDialog( "Relative FRC Parameters" );
@@ -133,6 +148,8 @@ public class SelectIlluminationPopup extends JMenuItem implements ExplorerWindow
 	{
 		final String[] choices = new String[] {"Pick brightest", "Pick highest mean gradient magnitude", "Relative Fourier Ring Correlation" };
 		gd.addChoice( "Selection Method", choices, choices[0] );
+		gd.addNumericField( "Groups_evaluated_in_parallel", defaultParallelGroups, 0 );
+		gd.addNumericField( "Sample_blocks_of_size (0 = whole image)", defaultSampleBlockSize, 0, 5, "px" );
 	}
 	
 	private class MyActionListener implements ActionListener
@@ -212,6 +229,9 @@ public class SelectIlluminationPopup extends JMenuItem implements ExplorerWindow
 		final boolean previewResults = showPreviewOption ? defaultVerify = gdpParams.getNextBoolean() : false;
 		final ViewSelection< ViewId > viewSelection = getViewSelectionResult( gdpParams, data.getSequenceDescription() );
 
+		if ( viewSelection == null )
+			return null;
+
 		final SpimDataFilteringAndGrouping< SpimData2 > grouping = new SpimDataFilteringAndGrouping<>( data );
 		grouping.addGroupingFactor( Illumination.class );
 
@@ -240,49 +260,60 @@ public class SelectIlluminationPopup extends JMenuItem implements ExplorerWindow
 			}
 		} );
 
-		// multithreaded best illuination determination
-		final List< Callable< ViewId > > tasks = new ArrayList<>();
-		List< ViewId > bestViews = new ArrayList<>();
+		// multithreaded best illuination determination, decisions are reported as soon as a group is done
+		final ViewId[] bestViewsArray = new ViewId[ groupedViews.size() ];
 
 		final ExecutorService service;
 
 		if ( viewSelection.runMultithreaded() )
-			service = Executors.newFixedThreadPool(Math.max( 2, Runtime.getRuntime().availableProcessors() ));
+			service = Executors.newFixedThreadPool( Math.max( 1, Math.min( defaultParallelGroups, groupedViews.size() ) ) );
 		else
 			service = Executors.newFixedThreadPool( 1 );
 
-		final AtomicInteger progress = new AtomicInteger( 0 );
+		final ExecutorCompletionService< Integer > completionService = new ExecutorCompletionService<>( service );
 		final int numTasks = groupedViews.size();
 
 		IJ.showProgress( 0.0 );
 
-		for (final Group<? extends ViewId > group : groupedViews)
-			tasks.add( new Callable< ViewId >()
-			{
-				@Override
-				public ViewId call() throws Exception
-				{
-					final ViewId best = viewSelection.getBestView( group.getViews() );
-
-					IJ.showProgress( (double)progress.incrementAndGet() / numTasks );
+		for ( int i = 0; i < numTasks; ++i )
+		{
+			final int groupIndex = i;
+			final Group< ? extends ViewId > group = groupedViews.get( i );
 
-					return best;
-				}
+			completionService.submit( () ->
+			{
+				bestViewsArray[ groupIndex ] = viewSelection.getBestView( group.getViews() );
+				return groupIndex;
 			} );
-		List< Future< ViewId > > futures;
+		}
+
 		try
 		{
-			futures = service.invokeAll( tasks );
-			for (Future< ViewId > f : futures)
-				bestViews.add( f.get() );
+			for ( int i = 0; i < numTasks; ++i )
+			{
+				final int groupIndex = completionService.take().get();
+
+				final Group< BasicViewDescription< ? > > group = groupedViews.get( groupIndex );
+
+				IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Group " + ( groupIndex + 1 ) + "/" + numTasks +
+						( group.size() > 0 ? " (" + getViewDescriptionStringWithoutIllum( group.iterator().next() ) + ")" : "" ) +
+						": selected view " + ( bestViewsArray[ groupIndex ] == null ? "none" : Group.pvid( bestViewsArray[ groupIndex ] ) ) );
+
+				IJ.showProgress( (double)( i + 1 ) / numTasks );
+			}
 		}
 		catch ( InterruptedException | ExecutionException e )
 		{
-			// TODO Auto-generated catch block
+			IOFunctions.println( "Failed to select illuminations: " + e );
 			e.printStackTrace();
+			service.shutdownNow();
+			IJ.showProgress( 1.0 );
+			return null;
 		}
 		service.shutdown();
 
+		List< ViewId > bestViews = new ArrayList<>( Arrays.asList( bestViewsArray ) );
+
 		IJ.showProgress( 1.0 );
 
 		final List< List< BasicViewDescription< ? > > > groupedViewsList = groupedViews.stream().map( g -> {
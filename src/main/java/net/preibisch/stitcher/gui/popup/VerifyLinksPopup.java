@@ -36,6 +36,7 @@ import net.preibisch.mvrecon.fiji.spimdata.explorer.GroupedRowWindow;
 import net.preibisch.mvrecon.fiji.spimdata.explorer.popup.ExplorerWindowSetable;
 import net.preibisch.mvrecon.fiji.spimdata.stitchingresults.StitchingResults;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
+import net.preibisch.stitcher.algorithm.FilteredStitchingResults;
 import net.preibisch.stitcher.gui.overlay.DemoLinkOverlay;
 
 public class VerifyLinksPopup extends JMenu implements ExplorerWindowSetable
@@ -66,12 +67,16 @@ public class VerifyLinksPopup extends JMenu implements ExplorerWindowSetable
 		// remove all pairwise results
 		removeAll.addActionListener( a -> {
 			if (SpimData2.class.isInstance( panel.getSpimData() ))
+			{
 				((SpimData2)panel.getSpimData()).getStitchingResults().getPairwiseResults().clear();
+				FilteredStitchingResults.resultsChanged( ((SpimData2)panel.getSpimData()).getStitchingResults() );
+			}
 
 			if ( overlap != null )
 			{
-				overlap.getFilteredResults().clear();
-				overlap.getInconsistentResults().clear();
+				overlap.setFilteredResults( new ArrayList<>() );
+				overlap.setInconsistentResults( new ArrayList<>() );
+				overlap.invalidateIndex();
 
 				panel.bdvPopup().updateBDV();
 			}
@@ -93,25 +98,13 @@ public class VerifyLinksPopup extends JMenu implements ExplorerWindowSetable
 
 					if ( overlap != null )
 					{
-						for ( int j = overlap.getFilteredResults().size() - 1; j >= 0; --j )
-						{
-							final Pair<Group<ViewId>, Group<ViewId>> p = overlap.getFilteredResults().get( j );
-
-							if (p.getA().equals( grp ) || p.getB().equals( grp ))
-								overlap.getFilteredResults().remove( j );
-						}
-
-						for ( int j = overlap.getInconsistentResults().size() - 1; j >= 0; --j )
-						{
-							final Pair<Group<ViewId>, Group<ViewId>> p = overlap.getInconsistentResults().get( j );
-
-							if (p.getA().equals( grp ) || p.getB().equals( grp ))
-								overlap.getInconsistentResults().remove( j );
-						}
-
+						overlap.removeResultsFor( grp );
+						overlap.invalidateIndex();
 						panel.bdvPopup().updateBDV();
 					}
 				}
+
+				FilteredStitchingResults.resultsChanged( sr );
 			}
 		});
 
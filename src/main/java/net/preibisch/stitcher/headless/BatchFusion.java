@@ -0,0 +1,145 @@
+/*-
+ * #%L
+ * Multiview stitching of large datasets.
+ * %%
+ * Copyright (C) 2016 - 2024 Big Stitcher developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.stitcher.headless;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.janelia.saalfeldlab.n5.N5Writer;
+import org.janelia.saalfeldlab.n5.universe.N5Factory;
+
+import mpicbg.spim.data.SpimDataException;
+import mpicbg.spim.data.sequence.SequenceDescription;
+import mpicbg.spim.data.sequence.ViewDescription;
+import mpicbg.spim.data.sequence.ViewId;
+import net.imglib2.util.Intervals;
+import net.preibisch.legacy.io.IOFunctions;
+import net.preibisch.mvrecon.Threads;
+import net.preibisch.mvrecon.fiji.spimdata.SpimData2;
+import net.preibisch.mvrecon.fiji.spimdata.XmlIoSpimData2;
+import net.preibisch.stitcher.algorithm.fastfusion.TranslationFusion;
+
+/**
+ * Headless block-wise fusion of a translation-only dataset into an N5, HDF5 or Zarr container
+ * (chosen by the extension of the output path), one dataset per time point, channel, illumination and angle
+ * (named t{id}/c{id}/i{id}/a{id}).
+ * 
+ * Usage: BatchFusion dataset.xml output.n5 [blockSize (default 128)] [blending (default 40)]
+ */
+public class BatchFusion
+{
+	public static boolean fuse( final SpimData2 data, final N5Writer n5, final int[] blockSize, final float[] blending, final ExecutorService service )
+	{
+		final Map< String, List< ViewId > > outputs = getOutputs( data.getSequenceDescription() );
+
+		for ( final Map.Entry< String, List< ViewId > > output : outputs.entrySet() )
+		{
+			if ( !TranslationFusion.isTranslationOnly( data.getViewRegistrations(), output.getValue() ) )
+			{
+				IOFunctions.println( "Views of " + output.getKey() + " are not only translated relative to each other, use the regular fusion instead." );
+				return false;
+			}
+
+			final long time = System.currentTimeMillis();
+			final TranslationFusion fusion = new TranslationFusion( data, output.getValue(), new float[ blending.length ], blending );
+
+			if ( !fusion.fuse( n5, output.getKey(), blockSize, service ) )
+				return false;
+
+			final double seconds = ( System.currentTimeMillis() - time ) / 1000.0;
+			final double megaVoxels = Intervals.numElements( fusion.getBoundingBox() ) / 1e6;
+			IOFunctions.println( String.format( Locale.US, "(%s): [fusion] %s: %.1f MVoxel in %.1fs (%.1f MVoxel/s)",
+					new Date( System.currentTimeMillis() ), output.getKey(), megaVoxels, seconds, seconds > 0 ? megaVoxels / seconds : 0.0 ) );
+		}
+
+		return true;
+	}
+
+	/**
+	 * @param sd the sequence description
+	 * @return the present views of every output dataset: one per time point, channel, illumination and angle,
+	 * so only tiles are fused together
+	 */
+	public static Map< String, List< ViewId > > getOutputs( final SequenceDescription sd )
+	{
+		final Map< String, List< ViewId > > outputs = new TreeMap<>();
+		for ( final ViewDescription vd : sd.getViewDescriptions().values() )
+		{
+			if ( !vd.isPresent() )
+				continue;
+
+			final String name = "t" + vd.getTimePointId()
+					+ "/c" + vd.getViewSetup().getChannel().getId()
+					+ "/i" + vd.getViewSetup().getIllumination().getId()
+					+ "/a" + vd.getViewSetup().getAngle().getId();
+
+			outputs.computeIfAbsent( name, k -> new ArrayList<>() ).add( vd );
+		}
+
+		return outputs;
+	}
+
+	public static void main( String[] args )
+	{
+		// make sure nothing tries to open a window
+		System.setProperty( "java.awt.headless", "true" );
+		IOFunctions.printIJLog = false;
+
+		if ( args.length < 2 )
+		{
+			System.out.println( "Usage: BatchFusion dataset.xml output.n5 [blockSize] [blending]" );
+			System.exit( 1 );
+		}
+
+		final int bs = args.length > 2 ? Integer.parseInt( args[2] ) : 128;
+		final float bl = args.length > 3 ? Float.parseFloat( args[3] ) : 40;
+
+		final SpimData2 data;
+		try
+		{
+			data = new XmlIoSpimData2().load( args[0] );
+		}
+		catch ( SpimDataException e )
+		{
+			IOFunctions.println( "Could not load '" + args[0] + "': " + e );
+			e.printStackTrace();
+			System.exit( 1 );
+			return;
+		}
+
+		final ExecutorService service = Executors.newFixedThreadPool( Threads.numThreads() );
+		final N5Writer n5 = new N5Factory().openWriter( args[1] );
+
+		final boolean success = fuse( data, n5, new int[] { bs, bs, bs }, new float[] { bl, bl, bl }, service );
+
+		n5.close();
+		service.shutdown();
+
+		System.exit( success ? 0 : 1 );
+	}
+}
@@ -0,0 +1,355 @@
+/*-
+ * #%L
+ * Multiview stitching of large datasets.
+ * %%
+ * Copyright (C) 2016 - 2024 Big Stitcher developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.stitcher.headless;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.stream.Collectors;
+
+import mpicbg.spim.data.SpimDataException;
+import mpicbg.spim.data.generic.base.Entity;
+import mpicbg.spim.data.sequence.Angle;
+import mpicbg.spim.data.sequence.Channel;
+import mpicbg.spim.data.sequence.Illumination;
+import mpicbg.spim.data.sequence.Tile;
+import mpicbg.spim.data.sequence.TimePoint;
+import mpicbg.spim.data.sequence.ViewId;
+import net.imglib2.util.Pair;
+import net.imglib2.util.Util;
+import net.preibisch.legacy.io.IOFunctions;
+import net.preibisch.mvrecon.fiji.plugin.interestpointregistration.global.GlobalOptimizationParameters;
+import net.preibisch.mvrecon.fiji.plugin.interestpointregistration.global.GlobalOptimizationParameters.GlobalOptType;
+import net.preibisch.mvrecon.fiji.spimdata.SpimData2;
+import net.preibisch.mvrecon.fiji.spimdata.XmlIoSpimData2;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
+import net.preibisch.stitcher.algorithm.FilteredStitchingResults;
+import net.preibisch.stitcher.algorithm.GroupedViewAggregator.ActionType;
+import net.preibisch.stitcher.algorithm.PairwiseStitchingParameters;
+import net.preibisch.stitcher.algorithm.SpimDataFilteringAndGrouping;
+import net.preibisch.stitcher.algorithm.globalopt.GlobalOptStitcher;
+import net.preibisch.stitcher.process.PairwiseShifts;
+
+/**
+ * Headless stitching of a dataset: pairwise shifts (phase correlation), link filtering
+ * and global optimization with all parameters from a config file, without ImageJ or AWT.
+ * 
+ * Usage: BatchStitching config.properties, supported keys (and defaults):
+ * <pre>
+ * xml                         dataset XML (required)
+ * output_xml                  file name to save to, in the directory of the XML (same as input)
+ *
+ * pairwise                    compute pairwise shifts (true)
+ * downsampling                downsampling for pairwise shifts in x,y,z (4,4,2)
+ * group_channels              group (average) channels (true)
+ * group_illuminations         group (average) illuminations (true)
+ * peaks_to_check              number of phase correlation peaks to check (5)
+ * min_overlap                 minimal overlap in percent of the current overlap (0)
+ * subpixel_accuracy           (true)
+ * use_whole_image             (false)
+ * coarse_to_fine_levels       0 = off (0)
+ * coarse_to_fine_window       (128)
+ * num_tasks                   pairs computed in parallel, 0 = automatic (0)
+ * reuse_results               re-use pairwise results stored next to the XML (true)
+ *
+ * min_r, max_r                remove links outside of this correlation range (off)
+ * max_shift                   remove links with a larger shift in x,y,z (off)
+ * max_displacement            remove links with a larger shift magnitude (off)
+ *
+ * global_optimization         run the global optimization (true)
+ * method                      ONE_ROUND_SIMPLE, ONE_ROUND_ITERATIVE, TWO_ROUND_SIMPLE or TWO_ROUND_ITERATIVE (TWO_ROUND_ITERATIVE)
+ * relative_threshold          (2.5)
+ * absolute_threshold          (3.5)
+ * </pre>
+ */
+public class BatchStitching
+{
+	public static final long[] dsDefault = { 4, 4, 2 };
+
+	final Properties config;
+
+	public BatchStitching( final Properties config )
+	{
+		this.config = config;
+	}
+
+	/**
+	 * run all steps and save the XML
+	 * @return true if successful
+	 */
+	public boolean run()
+	{
+		final long startTime = System.currentTimeMillis();
+
+		final String xml = config.getProperty( "xml" );
+		if ( xml == null )
+		{
+			IOFunctions.println( "No 'xml' given in config, stopping." );
+			return false;
+		}
+
+		// load
+		long time = System.currentTimeMillis();
+		final SpimData2 data;
+		try
+		{
+			data = new XmlIoSpimData2().load( xml );
+		}
+		catch ( SpimDataException e )
+		{
+			IOFunctions.println( "Could not load '" + xml + "': " + e );
+			e.printStackTrace();
+			return false;
+		}
+
+		final int numViews = data.getSequenceDescription().getViewDescriptions().size();
+		printMetric( "load", time, numViews, "views" );
+
+		final SpimDataFilteringAndGrouping< SpimData2 > grouping = getGrouping( data );
+
+		// pairwise shifts
+		if ( getBoolean( "pairwise", true ) )
+		{
+			final long[] ds = getLongArray( "downsampling", dsDefault );
+			final PairwiseStitchingParameters params = getPairwiseStitchingParameters();
+
+			IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Computing pairwise shifts, downsampling " + Util.printCoordinates( ds ) + " ..." );
+
+			time = System.currentTimeMillis();
+			final boolean success = PairwiseShifts.processPhaseCorrelation( data, grouping, params, ds,
+					getBoolean( "reuse_results", true ) ? new File( xml ).toURI() : null,
+					new ConsoleProgressWriter( "pairwise" ) );
+
+			if ( !success )
+			{
+				IOFunctions.println( "Computing pairwise shifts failed, stopping." );
+				return false;
+			}
+
+			printMetric( "pairwise", time, data.getStitchingResults().getPairwiseResults().size(), "links" );
+		}
+
+		// filter links
+		time = System.currentTimeMillis();
+		final int numLinksBefore = data.getStitchingResults().getPairwiseResults().size();
+		if ( filterLinks( data ) )
+		{
+			final int numLinksAfter = data.getStitchingResults().getPairwiseResults().size();
+			IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Removed " + ( numLinksBefore - numLinksAfter ) + " of " + numLinksBefore + " links." );
+			printMetric( "filter", time, numLinksBefore, "links" );
+		}
+
+		// global optimization
+		if ( getBoolean( "global_optimization", true ) )
+		{
+			final GlobalOptimizationParameters params = new GlobalOptimizationParameters(
+					getDouble( "relative_threshold", 2.5 ),
+					getDouble( "absolute_threshold", 3.5 ),
+					GlobalOptType.valueOf( config.getProperty( "method", GlobalOptType.TWO_ROUND_ITERATIVE.name() ).trim() ),
+					false );
+
+			time = System.currentTimeMillis();
+			final ArrayList< Pair< Group< ViewId >, Group< ViewId > > > removedInconsistentPairs = new ArrayList<>();
+
+			// no dialog: fix the first group of every subset
+			if ( !GlobalOptStitcher.processGlobalOptimization( data, grouping, params, removedInconsistentPairs, true ) )
+			{
+				IOFunctions.println( "Global optimization failed, stopping." );
+				return false;
+			}
+
+			GlobalOptStitcher.removeInconsistentLinks( removedInconsistentPairs, data.getStitchingResults().getPairwiseResults() );
+
+			printMetric( "global optimization", time, grouping.getFilteredViews().size(), "views" );
+		}
+
+		// save
+		time = System.currentTimeMillis();
+		final String outputXml = config.getProperty( "output_xml", new File( xml ).getName() );
+		new XmlIoSpimData2().saveWithFilename( data, outputXml );
+		printMetric( "save", time, numViews, "views" );
+
+		IOFunctions.println( String.format( Locale.US, "(%s): Done, total time %.1fs.", new Date( System.currentTimeMillis() ), ( System.currentTimeMillis() - startTime ) / 1000.0 ) );
+
+		return true;
+	}
+
+	/* compare tiles, group channels and illuminations (if requested) and average them, apply to time points and angles */
+	protected SpimDataFilteringAndGrouping< SpimData2 > getGrouping( final SpimData2 data )
+	{
+		final SpimDataFilteringAndGrouping< SpimData2 > grouping = new SpimDataFilteringAndGrouping<>( data );
+
+		grouping.addFilters( data.getSequenceDescription().getViewDescriptions().values().stream()
+				.filter( vd -> vd.isPresent() ).collect( Collectors.toList() ) );
+
+		grouping.addComparisonAxis( Tile.class );
+		if ( getBoolean( "group_channels", true ) )
+			grouping.addGroupingFactor( Channel.class );
+		if ( getBoolean( "group_illuminations", true ) )
+			grouping.addGroupingFactor( Illumination.class );
+		grouping.addApplicationAxis( TimePoint.class );
+		grouping.addApplicationAxis( Angle.class );
+
+		for ( final Class< ? extends Entity > cl : grouping.getGroupingFactors() )
+			grouping.getGroupedViewAggregator().addAction( ActionType.AVERAGE, cl, null );
+
+		return grouping;
+	}
+
+	protected PairwiseStitchingParameters getPairwiseStitchingParameters()
+	{
+		final int numTasks = getInt( "num_tasks", 0 );
+		final PairwiseStitchingParameters params = new PairwiseStitchingParameters(
+				Math.min( Math.max( getDouble( "min_overlap", 0 ) / 100, 0 ), 1 ),
+				getInt( "peaks_to_check", 5 ),
+				getBoolean( "subpixel_accuracy", true ),
+				false,
+				false,
+				getBoolean( "use_whole_image", false ),
+				numTasks > 0,
+				numTasks > 0 ? numTasks : new PairwiseStitchingParameters().numTasks );
+
+		params.coarseToFineLevels = Math.max( 0, getInt( "coarse_to_fine_levels", 0 ) );
+		params.coarseToFineWindow = Math.max( 16, getInt( "coarse_to_fine_window", 128 ) );
+
+		return params;
+	}
+
+	/**
+	 * apply the link filters that are set in the config
+	 * @param data the SpimData
+	 * @return true if any filter was applied
+	 */
+	protected boolean filterLinks( final SpimData2 data )
+	{
+		final FilteredStitchingResults fsr = new FilteredStitchingResults( data.getStitchingResults() );
+		boolean anyFilter = false;
+
+		if ( config.containsKey( "min_r" ) || config.containsKey( "max_r" ) )
+		{
+			fsr.addFilter( new FilteredStitchingResults.CorrelationFilter( getDouble( "min_r", 0.0 ), getDouble( "max_r", 1.0 ) ) );
+			anyFilter = true;
+		}
+
+		if ( config.containsKey( "max_shift" ) )
+		{
+			fsr.addFilter( new FilteredStitchingResults.AbsoluteShiftFilter( getDoubleArray( "max_shift", null ) ) );
+			anyFilter = true;
+		}
+
+		if ( config.containsKey( "max_displacement" ) )
+		{
+			fsr.addFilter( new FilteredStitchingResults.ShiftMagnitudeFilter( getDouble( "max_displacement", 0.0 ) ) );
+			anyFilter = true;
+		}
+
+		if ( anyFilter )
+			fsr.applyToWrappedAll();
+
+		return anyFilter;
+	}
+
+	protected static void printMetric( final String step, final long startTime, final int count, final String unit )
+	{
+		final double seconds = ( System.currentTimeMillis() - startTime ) / 1000.0;
+		IOFunctions.println( String.format( Locale.US, "(%s): [%s] %d %s in %.1fs (%.2f %s/s)",
+				new Date( System.currentTimeMillis() ), step, count, unit, seconds, seconds > 0 ? count / seconds : 0.0, unit ) );
+	}
+
+	protected boolean getBoolean( final String key, final boolean defaultValue )
+	{
+		final String value = config.getProperty( key );
+		return value == null ? defaultValue : Boolean.parseBoolean( value.trim() );
+	}
+
+	protected int getInt( final String key, final int defaultValue )
+	{
+		final String value = config.getProperty( key );
+		return value == null ? defaultValue : Integer.parseInt( value.trim() );
+	}
+
+	protected double getDouble( final String key, final double defaultValue )
+	{
+		final String value = config.getProperty( key );
+		return value == null ? defaultValue : Double.parseDouble( value.trim() );
+	}
+
+	protected double[] getDoubleArray( final String key, final double[] defaultValue )
+	{
+		final String value = config.getProperty( key );
+		if ( value == null )
+			return defaultValue;
+
+		final String[] entries = value.split( "," );
+		final double[] res = new double[entries.length];
+		for ( int i = 0; i < entries.length; i++ )
+			res[i] = Double.parseDouble( entries[i].trim() );
+		return res;
+	}
+
+	protected long[] getLongArray( final String key, final long[] defaultValue )
+	{
+		final String value = config.getProperty( key );
+		if ( value == null )
+			return defaultValue;
+
+		final String[] entries = value.split( "," );
+		final long[] res = new long[entries.length];
+		for ( int i = 0; i < entries.length; i++ )
+			res[i] = Long.parseLong( entries[i].trim() );
+		return res;
+	}
+
+	public static void main( String[] args )
+	{
+		// make sure nothing tries to open a window
+		System.setProperty( "java.awt.headless", "true" );
+		IOFunctions.printIJLog = false;
+
+		if ( args.length != 1 )
+		{
+			System.out.println( "Usage: BatchStitching config.properties" );
+			System.exit( 1 );
+		}
+
+		final Properties config = new Properties();
+		try ( final Reader reader = new FileReader( args[0] ) )
+		{
+			config.load( reader );
+		}
+		catch ( IOException e )
+		{
+			IOFunctions.println( "Could not read config '" + args[0] + "': " + e );
+			e.printStackTrace();
+			System.exit( 1 );
+		}
+
+		final boolean success = new BatchStitching( config ).run();
+
+		System.exit( success ? 0 : 1 );
+	}
+}
@@ -0,0 +1,82 @@
+/*-
+ * #%L
+ * Multiview stitching of large datasets.
+ * %%
+ * Copyright (C) 2016 - 2024 Big Stitcher developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.stitcher.headless;
+
+import java.io.PrintStream;
+import java.util.Locale;
+
+import bdv.export.ProgressWriter;
+
+/**
+ * ProgressWriter that prints progress, elapsed time and an estimate of the remaining time
+ * to stdout (at most every {@link #minIntervalMillis} ms), for use without ImageJ.
+ */
+public class ConsoleProgressWriter implements ProgressWriter
+{
+	final String name;
+	final long minIntervalMillis;
+	final long startTime;
+	long lastPrinted;
+
+	public ConsoleProgressWriter( final String name, final long minIntervalMillis )
+	{
+		this.name = name;
+		this.minIntervalMillis = minIntervalMillis;
+		this.startTime = System.currentTimeMillis();
+		this.lastPrinted = -1;
+	}
+
+	public ConsoleProgressWriter( final String name )
+	{
+		this( name, 5000 );
+	}
+
+	@Override
+	public PrintStream out()
+	{
+		return System.out;
+	}
+
+	@Override
+	public PrintStream err()
+	{
+		return System.err;
+	}
+
+	@Override
+	public synchronized void setProgress( final double completionRatio )
+	{
+		final long time = System.currentTimeMillis();
+
+		// always print the end, otherwise not too often
+		if ( completionRatio < 1.0 && lastPrinted >= 0 && time - lastPrinted < minIntervalMillis )
+			return;
+
+		lastPrinted = time;
+
+		final double elapsed = ( time - startTime ) / 1000.0;
+		final String eta = completionRatio > 0 && completionRatio < 1.0
+				? String.format( Locale.US, ", ETA %.1fs", elapsed / completionRatio - elapsed ) : "";
+
+		out().println( String.format( Locale.US, "[%s] %.1f%%, elapsed %.1fs%s", name, completionRatio * 100, elapsed, eta ) );
+	}
+}
@@ -22,6 +22,7 @@
 package net.preibisch.stitcher.plugin;
 
 import java.awt.Font;
+import java.net.URI;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
@@ -69,12 +70,14 @@ import net.preibisch.mvrecon.process.boundingbox.BoundingBoxMaximalGroupOverlap;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.PairwiseResult;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.PairwiseSetup;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
+import net.preibisch.stitcher.algorithm.FilteredStitchingResults;
 import net.preibisch.stitcher.algorithm.PairwiseStitchingParameters;
 import net.preibisch.stitcher.algorithm.SpimDataFilteringAndGrouping;
 import net.preibisch.stitcher.algorithm.globalopt.TransformationTools;
 import net.preibisch.stitcher.algorithm.lucaskanade.LucasKanadeParameters;
 import net.preibisch.stitcher.algorithm.lucaskanade.LucasKanadeParameters.WarpFunctionType;
 import net.preibisch.stitcher.gui.StitchingUIHelper;
+import net.preibisch.stitcher.process.PairwiseShifts;
 
 public class Calculate_Pairwise_Shifts implements PlugIn
 {
@@ -131,12 +134,12 @@ public class Calculate_Pairwise_Shifts implements PlugIn
 		defaultApplicationFactors.add( Angle.class );
 
 		if (expertGrouping)
-			grouping.askUserForGrouping(data.getSequenceDescription().getViewDescriptions().values(), defaultGroupingFactors, defaultComparisonFactors);
+			StitchingUIHelper.askUserForGrouping(grouping, data.getSequenceDescription().getViewDescriptions().values(), defaultGroupingFactors, defaultComparisonFactors);
 		else
 		{
-			grouping.getAxesOfApplication().addAll( defaultApplicationFactors );
-			grouping.getGroupingFactors().addAll( defaultGroupingFactors );
-			grouping.getAxesOfComparison().addAll( defaultComparisonFactors );
+			defaultApplicationFactors.forEach( grouping::addApplicationAxis );
+			defaultGroupingFactors.forEach( grouping::addGroupingFactor );
+			defaultComparisonFactors.forEach( grouping::addComparisonAxis );
 		}
 
 		if (defaultMethodIdx >= 2)
@@ -146,13 +149,13 @@ public class Calculate_Pairwise_Shifts implements PlugIn
 		}
 		else
 		{
-			grouping.askUserForGroupingAggregator();
+			StitchingUIHelper.askUserForGroupingAggregator( grouping );
 			final long[] ds = StitchingUIHelper.askForDownsampling( data, is2d );
 
 			if (defaultMethodIdx == 0) // Phase Correlation
 			{
-				PairwiseStitchingParameters params = expertAlgorithmParameters ? PairwiseStitchingParameters.askUserForParameters() : new PairwiseStitchingParameters();
-				if (!processPhaseCorrelation( data, grouping, params, ds ))
+				PairwiseStitchingParameters params = expertAlgorithmParameters ? StitchingUIHelper.askForPairwiseStitchingParameters() : new PairwiseStitchingParameters();
+				if (!processPhaseCorrelation( data, grouping, params, ds, result.getXMLURI() ))
 					return;
 			}
 			else if (defaultMethodIdx == 1) // Lucas-Kanade
@@ -179,46 +182,29 @@ public class Calculate_Pairwise_Shifts implements PlugIn
 			PairwiseStitchingParameters params,
 			long[] dsFactors)
 	{
-		// getpairs to compare
-		IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Finding pairs to compute overlap ... " );
-
-		List< ? extends Pair< ? extends Group< ? extends ViewId >, ? extends Group< ? extends ViewId > > > pairs =  filteringAndGrouping.getComparisons();
-
-		// calculate
-		IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Computing overlap ... " );
-		final ArrayList< PairwiseStitchingResult< ViewId > > results = TransformationTools.computePairs(
-				(List< Pair< Group< ViewId >, Group< ViewId > > >) pairs, params, filteringAndGrouping.getSpimData().getViewRegistrations(), 
-				filteringAndGrouping.getSpimData().getSequenceDescription(), filteringAndGrouping.getGroupedViewAggregator(),
-				dsFactors );
-
-		// remove old results
-
-		// this is just a cast of pairs to Group<ViewId>
-		IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Organizing resuls ... " );
-
-		final List< ValuePair< Group< ViewId >, Group< ViewId > > > castPairs = pairs.stream().map( p -> {
-			final Group< ViewId > vidGroupA = new Group<>( p.getA().getViews().stream().map( v -> (ViewId) v ).collect( Collectors.toSet() ) );
-			final Group< ViewId > vidGroupB = new Group<>( p.getB().getViews().stream().map( v -> (ViewId) v ).collect( Collectors.toSet() ) );
-			return new ValuePair<>( vidGroupA, vidGroupB );
-		}).collect( Collectors.toList() );
-
-		for (ValuePair< Group< ViewId >, Group< ViewId > > pair : castPairs)
-		{
-			// try to remove a -> b and b -> a, just to make sure
-			data.getStitchingResults().getPairwiseResults().remove( pair );
-			data.getStitchingResults().getPairwiseResults().remove( new ValuePair<>( pair.getB(), pair.getA() ) );
-		}
-
-		// update StitchingResults with Results
-		for ( final PairwiseStitchingResult< ViewId > psr : results )
-		{
-			if (psr == null)
-				continue;
-
-			data.getStitchingResults().setPairwiseResultForPair(psr.pair(), psr );
-		}
+		return processPhaseCorrelation( data, filteringAndGrouping, params, dsFactors, null );
+	}
 
-		return true;
+	/**
+	 * compute pairwise shifts using phase correlation, re-using results of pairs
+	 * that were already computed with the same settings (stored next to the XML),
+	 * progress is shown in the ImageJ progress bar
+	 * 
+	 * @param data the SpimData
+	 * @param filteringAndGrouping which views to compare and how
+	 * @param params stitching parameters
+	 * @param dsFactors downsampling
+	 * @param xml location of the XML, may be null (then nothing is re-used)
+	 * @return true if successful
+	 */
+	public static boolean processPhaseCorrelation(
+			SpimData2 data,
+			SpimDataFilteringAndGrouping< SpimData2 > filteringAndGrouping,
+			PairwiseStitchingParameters params,
+			long[] dsFactors,
+			URI xml)
+	{
+		return PairwiseShifts.processPhaseCorrelation( data, filteringAndGrouping, params, dsFactors, xml, new ProgressWriterIJ() );
 	}
 
 	public static boolean processLucasKanade(
@@ -229,7 +215,7 @@ public class Calculate_Pairwise_Shifts implements PlugIn
 	{
 		// getpairs to compare
 		List< ? extends Pair< ? extends Group< ? extends ViewId >, ? extends Group< ? extends ViewId > > > pairs = filteringAndGrouping
-				.getComparisons();
+				.getComparisons( true );
 
 		// calculate
 		final ArrayList< PairwiseStitchingResult< ViewId > > results = TransformationTools.computePairsLK(
@@ -241,22 +227,8 @@ public class Calculate_Pairwise_Shifts implements PlugIn
 				dsFactors,
 				new ProgressWriterIJ());
 
-		// remove old results
-		// this is just a cast of pairs to Group<ViewId>
-		final List< ValuePair< Group< ViewId >, Group< ViewId > > > castPairs = pairs.stream().map( p -> {
-			final Group< ViewId > vidGroupA = new Group<>(
-					p.getA().getViews().stream().map( v -> (ViewId) v ).collect( Collectors.toSet() ) );
-			final Group< ViewId > vidGroupB = new Group<>(
-					p.getB().getViews().stream().map( v -> (ViewId) v ).collect( Collectors.toSet() ) );
-			return new ValuePair<>( vidGroupA, vidGroupB );
-		} ).collect( Collectors.toList() );
-
-		for ( ValuePair< Group< ViewId >, Group< ViewId > > pair : castPairs )
-		{
-			// try to remove a -> b and b -> a, just to make sure
-			data.getStitchingResults().getPairwiseResults().remove( pair );
-			data.getStitchingResults().getPairwiseResults().remove( new ValuePair<>( pair.getB(), pair.getA() ) );
-		}
+		// remove old results (also of pairs that do not overlap anymore)
+		PairwiseShifts.removeOldResults( data, filteringAndGrouping );
 
 		// update StitchingResults with Results
 		for ( final PairwiseStitchingResult< ViewId > psr : results )
@@ -267,6 +239,8 @@ public class Calculate_Pairwise_Shifts implements PlugIn
 			data.getStitchingResults().setPairwiseResultForPair( psr.pair(), psr );
 		}
 
+		FilteredStitchingResults.resultsChanged( data.getStitchingResults() );
+
 		return true;
 	}
 
@@ -325,24 +299,10 @@ public class Calculate_Pairwise_Shifts implements PlugIn
 
 		// get all possible group pairs
 		List< ? extends Pair< ? extends Group< ? extends ViewId >, ? extends Group< ? extends ViewId > > > pairs = filteringAndGrouping
-				.getComparisons();
-
-		// remove old results
-		// this is just a cast of pairs to Group<ViewId>
-		final List< ValuePair< Group< ViewId >, Group< ViewId > > > castPairs = pairs.stream().map( p -> {
-			final Group< ViewId > vidGroupA = new Group<>(
-					p.getA().getViews().stream().map( v -> (ViewId) v ).collect( Collectors.toSet() ) );
-			final Group< ViewId > vidGroupB = new Group<>(
-					p.getB().getViews().stream().map( v -> (ViewId) v ).collect( Collectors.toSet() ) );
-			return new ValuePair<>( vidGroupA, vidGroupB );
-		} ).collect( Collectors.toList() );
-
-		for ( ValuePair< Group< ViewId >, Group< ViewId > > pair : castPairs )
-		{
-			// try to remove a -> b and b -> a, just to make sure
-			data.getStitchingResults().getPairwiseResults().remove( pair );
-			data.getStitchingResults().getPairwiseResults().remove( new ValuePair<>( pair.getB(), pair.getA() ) );
-		}
+				.getComparisons( true );
+
+		// remove old results (also of pairs that do not overlap anymore)
+		PairwiseShifts.removeOldResults( data, filteringAndGrouping );
 
 		// remove non-overlapping comparisons
 		final List< Pair< Group< ViewId >, Group< ViewId > > > removedPairs = TransformationTools
@@ -461,6 +421,8 @@ public class Calculate_Pairwise_Shifts implements PlugIn
 					new PairwiseStitchingResult<>( pair, bbOverlap, result, inliers/candidates, oldTransformHash ) );
 		}
 
+		FilteredStitchingResults.resultsChanged( data.getStitchingResults() );
+
 		return true;
 	}
 
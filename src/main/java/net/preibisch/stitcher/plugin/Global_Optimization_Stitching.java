@@ -41,6 +41,7 @@ import net.preibisch.mvrecon.fiji.spimdata.XmlIoSpimData2;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
 import net.preibisch.stitcher.algorithm.SpimDataFilteringAndGrouping;
 import net.preibisch.stitcher.algorithm.globalopt.GlobalOptStitcher;
+import net.preibisch.stitcher.gui.StitchingUIHelper;
 
 public class Global_Optimization_Stitching implements PlugIn
 {
@@ -69,8 +70,8 @@ public class Global_Optimization_Stitching implements PlugIn
 		GlobalOptimizationParameters params = GlobalOptimizationParameters.askUserForParameters(true);
 
 		if (params.showExpertGrouping)
-			grouping.askUserForGrouping( 
-					selectedViews.stream().map( vid -> data.getSequenceDescription().getViewDescription( vid ) ).collect( Collectors.toList() ),
+			StitchingUIHelper.askUserForGrouping( 
+					grouping, selectedViews.stream().map( vid -> data.getSequenceDescription().getViewDescription( vid ) ).collect( Collectors.toList() ),
 					defaultGroupingFactors,
 					defaultComparisonFactors );
 		else
@@ -66,6 +66,10 @@ public class ICP_Refine implements PlugIn
 		gd.addChoice( "Downsampling", ICPRefinement.downsampling, ICPRefinement.downsampling[ ICPRefinement.defaultDownsamplingChoice ] );
 		gd.addChoice( "Interest Point threshold", ICPRefinement.threshold, ICPRefinement.threshold[ ICPRefinement.defaultThresholdChoice ] );
 		gd.addChoice( "ICP_Max_Error", ICPRefinement.distance, ICPRefinement.distance[ ICPRefinement.defaultDistanceChoice ] );
+		gd.addCheckbox( "Detect_interest_points_only_in_overlaps", ICPRefinement.defaultOverlapOnlyDetection );
+		gd.addNumericField( "Overlap_padding", ICPRefinement.defaultOverlapPadding, 0, 5, "px" );
+		gd.addNumericField( "Min_max_parallel_reads", ICPRefinement.defaultMinMaxParallelReads, 0 );
+		gd.addNumericField( "Min_max_block_size", ICPRefinement.defaultMinMaxBlockSize, 0, 5, "px (0 = whole image)" );
 
 		gd.showDialog();
 		if ( gd.wasCanceled() )
@@ -84,8 +88,12 @@ public class ICP_Refine implements PlugIn
 			final int downsamplingChoice = ICPRefinement.defaultDownsamplingChoice = gd.getNextChoiceIndex();
 			final int thresholdChoice = ICPRefinement.defaultThresholdChoice = gd.getNextChoiceIndex();
 			final int distanceChoice = ICPRefinement.defaultDistanceChoice = gd.getNextChoiceIndex();
+			final boolean overlapOnly = ICPRefinement.defaultOverlapOnlyDetection = gd.getNextBoolean();
+			final double overlapPadding = ICPRefinement.defaultOverlapPadding = Math.max( 0, gd.getNextNumber() );
+			ICPRefinement.defaultMinMaxParallelReads = Math.max( 1, (int)Math.round( gd.getNextNumber() ) );
+			ICPRefinement.defaultMinMaxBlockSize = Math.max( 0, (int)Math.round( gd.getNextNumber() ) );
 
-			if ( !ICPRefinement.getGUIParametersSimple( icpType, data, params, downsamplingChoice, thresholdChoice, distanceChoice ) )
+			if ( !ICPRefinement.getGUIParametersSimple( icpType, data, params, downsamplingChoice, thresholdChoice, distanceChoice, overlapOnly, overlapPadding ) )
 				return;
 		}
 
@@ -30,8 +30,11 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
-import ij.IJ;
 import ij.gui.GenericDialog;
 import mpicbg.models.AbstractModel;
 import mpicbg.models.Affine3D;
@@ -44,13 +47,14 @@ import mpicbg.spim.data.generic.sequence.BasicViewDescription;
 import mpicbg.spim.data.generic.sequence.BasicViewSetup;
 import mpicbg.spim.data.registration.ViewRegistration;
 import mpicbg.spim.data.sequence.Channel;
-import mpicbg.spim.data.sequence.ImgLoader;
 import mpicbg.spim.data.sequence.Tile;
 import mpicbg.spim.data.sequence.ViewDescription;
 import mpicbg.spim.data.sequence.ViewId;
+import net.imglib2.RealInterval;
 import net.imglib2.util.Pair;
 import net.imglib2.util.ValuePair;
 import net.preibisch.legacy.io.IOFunctions;
+import net.preibisch.mvrecon.Threads;
 import net.preibisch.mvrecon.fiji.plugin.Interest_Point_Detection;
 import net.preibisch.mvrecon.fiji.plugin.Interest_Point_Registration;
 import net.preibisch.mvrecon.fiji.plugin.interestpointregistration.TransformationModelGUI;
@@ -62,8 +66,6 @@ import net.preibisch.mvrecon.fiji.spimdata.interestpoints.CorrespondingInterestP
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
 import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoints;
 import net.preibisch.mvrecon.fiji.spimdata.stitchingresults.PairwiseLinkImpl;
-import net.preibisch.mvrecon.process.downsampling.DownsampleTools;
-import net.preibisch.mvrecon.process.fusion.FusionTools;
 import net.preibisch.mvrecon.process.interestpointdetection.InterestPointTools;
 import net.preibisch.mvrecon.process.interestpointdetection.methods.dog.DoG;
 import net.preibisch.mvrecon.process.interestpointdetection.methods.dog.DoGParameters;
@@ -90,6 +92,8 @@ import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constell
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.methods.icp.IterativeClosestPointPairwise;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.methods.icp.IterativeClosestPointParameters;
 import net.preibisch.mvrecon.process.interestpointregistration.pairwise.methods.ransac.RANSACParameters;
+import net.preibisch.stitcher.algorithm.SpatialGridIndex;
+import net.preibisch.stitcher.algorithm.TransformTools;
 import net.preibisch.stitcher.gui.StitchingUIHelper;
 import net.preibisch.stitcher.gui.overlay.DemoLinkOverlay;
 import net.preibisch.stitcher.gui.popup.RefineWithICPPopup;
@@ -109,6 +113,14 @@ public class ICPRefinement
 	public static String[] distance = new String[]{ "Fine Adjustment (<1px)", "Normal Adjustment (<5px)", "Gross Adjustment (<20px, careful)" };
 	public static int defaultDistanceChoice = 1;
 
+	// detect interest points only in the overlaps of views (enlarged by the padding in pixels)
+	public static boolean defaultOverlapOnlyDetection = false;
+	public static double defaultOverlapPadding = 20;
+
+	// concurrent reads and block sampling (0 = whole lowest level) for the min/max intensity estimation
+	public static int defaultMinMaxParallelReads = Threads.numThreads();
+	public static int defaultMinMaxBlockSize = 0;
+
 	public static int defaultLabelDialog = 0;
 	public static int defaultChannelChoice = 0;
 	public static double defaultICPError = 5;
@@ -271,6 +283,19 @@ public class ICPRefinement
 			final int downsamplingChoice,
 			final int thresholdChoice,
 			final int distanceChoice )
+	{
+		return getGUIParametersSimple( icpType, data, params, downsamplingChoice, thresholdChoice, distanceChoice, defaultOverlapOnlyDetection, defaultOverlapPadding );
+	}
+
+	public static boolean getGUIParametersSimple(
+			final ICPType icpType,
+			final SpimData2 data,
+			final ICPRefinementParameters params,
+			final int downsamplingChoice,
+			final int thresholdChoice,
+			final int distanceChoice,
+			final boolean overlapOnlyDetection,
+			final double overlapPadding )
 	{
 		if ( icpType == ICPType.TileRefine )
 		{
@@ -311,7 +336,7 @@ public class ICPRefinement
 			params.transformationDescription = "ICP Refinement (over all)";
 		}
 
-		params.label = "forICP_" + downsamplingChoice + "_" + thresholdChoice;
+		params.label = "forICP_" + downsamplingChoice + "_" + thresholdChoice + ( overlapOnlyDetection ? "_overlaps" : "" );
 
 		// DoG
 		if ( !presentForAll( params.label, params.viewIds, data ) )
@@ -375,13 +400,44 @@ public class ICPRefinement
 				if ( group.getViews().size() > 1 )
 				{
 					final double[] minmax = minmax( data, dog.toProcess );
+
+					if ( minmax == null )
+						return false;
+
 					dog.minIntensity = minmax[ 0 ];
 					dog.maxIntensity = minmax[ 1 ];
 				}
 
-				final HashMap< ViewId, List< InterestPoint > > points = DoG.findInterestPoints( dog );
+				final HashMap< ViewId, List< InterestPoint > > points;
+
+				if ( overlapOnlyDetection )
+				{
+					final ExecutorService service = Executors.newFixedThreadPool( Threads.numThreads() );
+
+					try
+					{
+						points = OverlapInterestPointDetection.findInterestPoints(
+								data, group.getViews(), params.viewIds,
+								new long[] { dog.downsampleXY, dog.downsampleXY, dog.downsampleZ },
+								dog.sigma, dog.threshold,
+								group.getViews().size() > 1 ? dog.minIntensity : Double.NaN,
+								group.getViews().size() > 1 ? dog.maxIntensity : Double.NaN,
+								dog.maxDetections, overlapPadding, service );
+					}
+					finally
+					{
+						service.shutdown();
+					}
+
+					if ( points == null )
+						return false;
+				}
+				else
+				{
+					points = DoG.findInterestPoints( dog );
+				}
 
-				InterestPointTools.addInterestPoints( data, params.label, points, "DoG, sigma=1.4, downsampleXY=" + dog.downsampleXY + ", downsampleZ=" + dog.downsampleZ );
+				InterestPointTools.addInterestPoints( data, params.label, points, "DoG, sigma=1.4, downsampleXY=" + dog.downsampleXY + ", downsampleZ=" + dog.downsampleZ + ( overlapOnlyDetection ? ", overlaps only, padding=" + overlapPadding : "" ) );
 			}
 		}
 		else
@@ -435,14 +491,6 @@ public class ICPRefinement
 			labelMap.put( viewId, map );
 		}
 
-		// load & transform all interest points
-		final Map< ViewId, HashMap< String, List< InterestPoint > > > interestpoints =
-				TransformationTools.getAllTransformedInterestPoints(
-					params.viewIds,
-					data.getViewRegistrations().getViewRegistrations(),
-					data.getViewInterestPoints().getViewInterestPoints(),
-					labelMap );
-
 		// identify groups/subsets
 		Set< Group< ViewId > > groups = AdvancedRegistrationParameters.getGroups( data, params.viewIds, params.groupTiles, params.groupIllums, params.groupChannels, false );
 
@@ -462,9 +510,36 @@ public class ICPRefinement
 				IOFunctions.println( group );
 		}
 
-		final PairwiseSetup< ViewId > setup = new AllToAll<>( params.viewIds, groups );
-		IOFunctions.println( "Defined pairs, removed " + setup.definePairs().size() + " redundant view pairs." );
-		IOFunctions.println( "Removed " + setup.removeNonOverlappingPairs( new SimpleBoundingBoxOverlap<>( data ) ).size() + " pairs because they do not overlap." );
+		final PairwiseSetup< ViewId > setup = overlappingPairsSetup( data, params.viewIds, groups );
+
+		if ( setup == null )
+		{
+			// sizes of some views unknown, test all pairs
+			final PairwiseSetup< ViewId > allToAll = new AllToAll<>( params.viewIds, groups );
+			IOFunctions.println( "Defined pairs, removed " + allToAll.definePairs().size() + " redundant view pairs." );
+			IOFunctions.println( "Removed " + allToAll.removeNonOverlappingPairs( new SimpleBoundingBoxOverlap<>( data ) ).size() + " pairs because they do not overlap." );
+			refine( data, params, allToAll, labelMap, icpp, globalOptParameters, overlay );
+		}
+		else
+		{
+			IOFunctions.println( "Defined overlapping pairs, removed " + setup.definePairs().size() + " redundant view pairs." );
+			refine( data, params, setup, labelMap, icpp, globalOptParameters, overlay );
+		}
+	}
+
+	/*
+	 * run ICP for all subsets of a setup with defined pairs, the interest points are
+	 * loaded & transformed per subset (all views of a connected dataset are one subset)
+	 */
+	private static void refine(
+			final SpimData2 data,
+			final ICPRefinementParameters params,
+			final PairwiseSetup< ViewId > setup,
+			final Map< ViewId, HashMap< String, Double > > labelMap,
+			final IterativeClosestPointParameters icpp,
+			final GlobalOptimizationParameters globalOptParameters,
+			final DemoLinkOverlay overlay )
+	{
 		setup.reorderPairs();
 		setup.detectSubsets();
 		setup.sortSubsets();
@@ -473,8 +548,8 @@ public class ICPRefinement
 
 		if ( overlay != null )
 		{
-			overlay.getFilteredResults().clear();
-			overlay.getInconsistentResults().clear();
+			overlay.setFilteredResults( new ArrayList<>() );
+			overlay.setInconsistentResults( new ArrayList<>() );
 		}
 
 		for ( final Subset< ViewId > subset : subsets )
@@ -485,6 +560,14 @@ public class ICPRefinement
 			fixedViews.add( fixedView );
 			IOFunctions.println( "Removed " + subset.fixViews( fixedViews ).size() + " views due to fixing view tpId=" + fixedView.getTimePointId() + " setupId=" + fixedView.getViewSetupId() );
 
+			// load & transform the interest points of this subset
+			final Map< ViewId, HashMap< String, List< InterestPoint > > > interestpoints =
+					TransformationTools.getAllTransformedInterestPoints(
+						subset.getViews(),
+						data.getViewRegistrations().getViewRegistrations(),
+						data.getViewInterestPoints().getViewInterestPoints(),
+						labelMap );
+
 			HashMap< ViewId, mpicbg.models.Tile > models;
 
 			if ( Interest_Point_Registration.hasGroups( subsets ) )
@@ -514,6 +597,60 @@ public class ICPRefinement
 					IOFunctions.println( output + ", " + TransformationTools.getScaling( (Affine3D<?>)tile.getModel() ) );
 			}
 		}
+
+		// registrations changed, link endpoints are outdated
+		if ( overlay != null )
+			overlay.invalidateIndex();
+	}
+
+	/**
+	 * a pairwise setup that only defines pairs of views whose (transformed) bounding boxes overlap,
+	 * found using a spatial index instead of testing all pairs
+	 * @param data the SpimData
+	 * @param viewIds the views to pair
+	 * @param groups the groups of views
+	 * @return the setup (pairs not yet defined) or null if the size of any view is unknown
+	 */
+	public static PairwiseSetup< ViewId > overlappingPairsSetup( final SpimData2 data, final List< ViewId > viewIds, final Set< Group< ViewId > > groups )
+	{
+		final List< RealInterval > bounds = new ArrayList<>();
+
+		for ( final ViewId viewId : viewIds )
+		{
+			final RealInterval bb = TransformTools.getTransformedBoundingBox(
+					Collections.singletonList( data.getSequenceDescription().getViewDescription( viewId ) ),
+					data.getViewRegistrations() );
+
+			if ( bb == null )
+				return null;
+
+			bounds.add( bb );
+		}
+
+		final SpatialGridIndex< Integer > index = SpatialGridIndex.create(
+				IntStream.range( 0, viewIds.size() ).boxed().collect( Collectors.toList() ), bounds );
+
+		return new PairwiseSetup< ViewId >( viewIds, groups )
+		{
+			@Override
+			protected List< Pair< ViewId, ViewId > > definePairsAbstract()
+			{
+				final List< Pair< ViewId, ViewId > > res = new ArrayList<>();
+
+				for ( int i = 0; i < viewIds.size(); ++i )
+					for ( final int j : index.query( bounds.get( i ) ) )
+						if ( j > i )
+							res.add( new ValuePair<>( viewIds.get( i ), viewIds.get( j ) ) );
+
+				return res;
+			}
+
+			@Override
+			public List< ViewId > getDefaultFixedViews()
+			{
+				return new ArrayList<>();
+			}
+		};
 	}
 
 	public static final HashMap< ViewId, mpicbg.models.Tile > pairSubset(
@@ -794,32 +931,34 @@ public class ICPRefinement
 		return newGroups;
 	}
 
+	/**
+	 * approximate joint min and max intensity of views at their lowest resolution levels, using
+	 * {@link #defaultMinMaxParallelReads} and {@link #defaultMinMaxBlockSize}
+	 * @param spimData the SpimData
+	 * @param viewIdsToProcess the views
+	 * @return min and max, null if any view could not be read
+	 */
 	public static double[] minmax( final SpimData2 spimData, final Collection< ? extends ViewId > viewIdsToProcess )
 	{
-		IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Determining it approximate Min & Max for all views at lowest resolution levels ... " );
-
-		IJ.showProgress( 0 );
-
-		final ImgLoader imgLoader = spimData.getSequenceDescription().getImgLoader();
-
-		double min = Double.MAX_VALUE;
-		double max = -Double.MAX_VALUE;
+		return minmax( spimData, viewIdsToProcess, defaultMinMaxParallelReads, defaultMinMaxBlockSize );
+	}
 
-		int count = 0;
-		for ( final ViewId view : viewIdsToProcess )
-		{
-			final double[] minmax = FusionTools.minMaxApprox1( DownsampleTools.openAtLowestLevel( imgLoader, view ) );
-			min = Math.min( min, minmax[ 0 ] );
-			max = Math.max( max, minmax[ 1 ] );
+	public static double[] minmax(
+			final SpimData2 spimData,
+			final Collection< ? extends ViewId > viewIdsToProcess,
+			final int numParallelReads,
+			final int blockSize )
+	{
+		IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Determining it approximate Min & Max for all views at lowest resolution levels ... " );
 
-			IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): View " + Group.pvid( view ) + ", Min=" + minmax[ 0 ] + " max=" + minmax[ 1 ] );
+		final double[] minmax = IntensityRangeEstimation.minmax( spimData, viewIdsToProcess, numParallelReads, blockSize );
 
-			IJ.showProgress( (double)++count / viewIdsToProcess.size() );
-		}
+		if ( minmax == null )
+			return null;
 
-		IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Total Min=" + min + " max=" + max );
+		IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Total Min=" + minmax[ 0 ] + " max=" + minmax[ 1 ] );
 
-		return new double[]{ min, max };
+		return minmax;
 	}
 
 	public static boolean presentForAll( final String label, final Collection< ? extends ViewId > viewIds, final SpimData2 data )
@@ -0,0 +1,255 @@
+/*-
+ * #%L
+ * Multiview stitching of large datasets.
+ * %%
+ * Copyright (C) 2016 - 2024 Big Stitcher developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.stitcher.process;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import ij.IJ;
+import mpicbg.spim.data.sequence.ImgLoader;
+import mpicbg.spim.data.sequence.ViewId;
+import net.imglib2.FinalInterval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.util.Pair;
+import net.imglib2.util.ValuePair;
+import net.imglib2.view.Views;
+import net.preibisch.legacy.io.IOFunctions;
+import net.preibisch.mvrecon.fiji.spimdata.SpimData2;
+import net.preibisch.mvrecon.process.downsampling.DownsampleTools;
+import net.preibisch.mvrecon.process.fusion.FusionTools;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
+import net.preibisch.stitcher.algorithm.TransformTools;
+
+/**
+ * Approximate min/max intensity estimation for many views, reading the lowest resolution levels
+ * of several views concurrently. Results are kept in memory for the open dataset, so repeated runs
+ * (e.g. of ICP refinement) in the same session do not read any images again.
+ */
+public class IntensityRangeEstimation
+{
+	// number of blocks sampled per dimension if sampling is enabled
+	public static int blocksPerDimension = 3;
+
+	// cached values per dataset, only valid for the ImgLoader they were computed with (it is replaced e.g. by resaving)
+	private static final Map< SpimData2, Pair< ImgLoader, Map< CacheKey, double[] > > > cache = new WeakHashMap<>();
+
+	/**
+	 * estimate the min and max intensity of each view at its lowest resolution level
+	 * @param data the SpimData
+	 * @param viewIds the views
+	 * @param numParallelReads how many views to read concurrently
+	 * @param blockSize if &gt; 0, only sample blocks of this size (in pixels of the lowest level) instead of the whole level
+	 * @return min and max per view (null if it failed)
+	 */
+	public static HashMap< ViewId, double[] > minmaxPerView(
+			final SpimData2 data,
+			final Collection< ? extends ViewId > viewIds,
+			final int numParallelReads,
+			final int blockSize )
+	{
+		final ImgLoader imgLoader = data.getSequenceDescription().getImgLoader();
+		final Map< CacheKey, double[] > cached;
+
+		synchronized ( cache )
+		{
+			Pair< ImgLoader, Map< CacheKey, double[] > > entry = cache.get( data );
+
+			if ( entry == null || entry.getA() != imgLoader )
+			{
+				entry = new ValuePair<>( imgLoader, Collections.synchronizedMap( new HashMap<>() ) );
+				cache.put( data, entry );
+			}
+
+			cached = entry.getB();
+		}
+		final HashMap< ViewId, double[] > result = new HashMap<>();
+		final ArrayList< ViewId > toLoad = new ArrayList<>();
+
+		for ( final ViewId viewId : viewIds )
+		{
+			final double[] minmax = cached.get( new CacheKey( viewId, blockSize ) );
+
+			if ( minmax == null )
+				toLoad.add( viewId );
+			else
+				result.put( viewId, minmax );
+		}
+
+		if ( toLoad.size() == 0 )
+			return result;
+
+		IJ.showProgress( 0 );
+
+		final ExecutorService service = Executors.newFixedThreadPool( Math.max( 1, Math.min( numParallelReads, toLoad.size() ) ) );
+		final AtomicInteger count = new AtomicInteger();
+		final List< Future< double[] > > futures = new ArrayList<>();
+
+		for ( final ViewId viewId : toLoad )
+			futures.add( service.submit( () ->
+			{
+				final double[] minmax = minmax( DownsampleTools.openAtLowestLevel( imgLoader, viewId ), blockSize );
+
+				IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): View " + Group.pvid( viewId ) + ", Min=" + minmax[ 0 ] + " max=" + minmax[ 1 ] );
+				IJ.showProgress( (double)count.incrementAndGet() / toLoad.size() );
+
+				return minmax;
+			} ) );
+
+		try
+		{
+			for ( int i = 0; i < toLoad.size(); ++i )
+			{
+				final double[] minmax = futures.get( i ).get();
+				cached.put( new CacheKey( toLoad.get( i ), blockSize ), minmax );
+				result.put( toLoad.get( i ), minmax );
+			}
+		}
+		catch ( final Exception e )
+		{
+			IOFunctions.println( "Failed to determine min & max intensity: " + e );
+			e.printStackTrace();
+			return null;
+		}
+		finally
+		{
+			service.shutdown();
+		}
+
+		return result;
+	}
+
+	/**
+	 * estimate the joint min and max intensity of all views at their lowest resolution levels
+	 * @param data the SpimData
+	 * @param viewIds the views
+	 * @param numParallelReads how many views to read concurrently
+	 * @param blockSize if &gt; 0, only sample blocks of this size (in pixels of the lowest level) instead of the whole level
+	 * @return joint min and max (null if it failed)
+	 */
+	public static double[] minmax(
+			final SpimData2 data,
+			final Collection< ? extends ViewId > viewIds,
+			final int numParallelReads,
+			final int blockSize )
+	{
+		final HashMap< ViewId, double[] > perView = minmaxPerView( data, viewIds, numParallelReads, blockSize );
+
+		if ( perView == null )
+			return null;
+
+		double min = Double.MAX_VALUE;
+		double max = -Double.MAX_VALUE;
+
+		for ( final double[] minmax : perView.values() )
+		{
+			min = Math.min( min, minmax[ 0 ] );
+			max = Math.max( max, minmax[ 1 ] );
+		}
+
+		return new double[]{ min, max };
+	}
+
+	/**
+	 * forget all cached min/max values of a dataset (e.g. if the images changed)
+	 * @param data the SpimData
+	 */
+	public static void clearCache( final SpimData2 data )
+	{
+		synchronized ( cache )
+		{
+			cache.remove( data );
+		}
+	}
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	protected static double[] minmax( final RandomAccessibleInterval img, final int blockSize )
+	{
+		if ( blockSize <= 0 )
+			return FusionTools.minMaxApprox1( img );
+
+		return minmaxBlocks( img, blockSize );
+	}
+
+	/**
+	 * min and max of blocks spread evenly over the image
+	 * @param img the image
+	 * @param blockSize size of the blocks
+	 * @param <T> pixel type
+	 * @return min and max
+	 */
+	protected static < T extends RealType< T > > double[] minmaxBlocks( final RandomAccessibleInterval< T > img, final int blockSize )
+	{
+		double minValue = Double.MAX_VALUE;
+		double maxValue = -Double.MAX_VALUE;
+
+		for ( final FinalInterval block : TransformTools.getSampleBlocks( img, blockSize, blocksPerDimension ) )
+		{
+			for ( final T t : Views.iterable( Views.interval( img, block ) ) )
+			{
+				final double v = t.getRealDouble();
+				minValue = Math.min( minValue, v );
+				maxValue = Math.max( maxValue, v );
+			}
+		}
+
+		return new double[]{ minValue, maxValue };
+	}
+
+	private static final class CacheKey
+	{
+		final ViewId viewId;
+		final int blockSize;
+
+		CacheKey( final ViewId viewId, final int blockSize )
+		{
+			this.viewId = new ViewId( viewId.getTimePointId(), viewId.getViewSetupId() );
+			this.blockSize = Math.max( 0, blockSize );
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return 31 * viewId.hashCode() + blockSize;
+		}
+
+		@Override
+		public boolean equals( final Object o )
+		{
+			if ( !( o instanceof CacheKey ) )
+				return false;
+
+			final CacheKey other = (CacheKey) o;
+			return blockSize == other.blockSize && viewId.equals( other.viewId );
+		}
+	}
+}
@@ -0,0 +1,305 @@
+/*-
+ * #%L
+ * Multiview stitching of large datasets.
+ * %%
+ * Copyright (C) 2016 - 2024 Big Stitcher developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.stitcher.process;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.stream.Collectors;
+
+import mpicbg.spim.data.registration.ViewRegistration;
+import mpicbg.spim.data.sequence.ViewId;
+import net.imglib2.Dimensions;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.RealInterval;
+import net.imglib2.converter.Converters;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+import net.preibisch.legacy.io.IOFunctions;
+import net.preibisch.mvrecon.fiji.spimdata.SpimData2;
+import net.preibisch.mvrecon.fiji.spimdata.interestpoints.InterestPoint;
+import net.preibisch.mvrecon.process.interestpointdetection.methods.dog.DoGImgLib2;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
+import net.preibisch.stitcher.algorithm.RAIProxy;
+import net.preibisch.stitcher.algorithm.SpatialGridIndex;
+import net.preibisch.stitcher.algorithm.TransformTools;
+
+/**
+ * DoG interest point detection restricted to the parts of views that overlap with other views
+ * (only those can yield correspondences, e.g. for ICP refinement). Only the (downsampled) overlap
+ * regions, plus a margin for the Gaussian, are loaded and processed.
+ */
+public class OverlapInterestPointDetection
+{
+	// block size for the DoG computation (in downsampled pixels)
+	public static int[] blockSize = new int[] { 256, 256, 128 };
+
+	/**
+	 * get the overlaps of a view with all other views in the local (full resolution) pixel coordinates of the view
+	 * @param data the SpimData
+	 * @param viewId the view
+	 * @param index spatial index of the global bounding boxes of all views to consider
+	 * @param padding by how many pixels to enlarge each overlap
+	 * @return the overlaps (clipped to the view), empty if the view does not overlap any other view
+	 */
+	public static List< Interval > getLocalOverlaps(
+			final SpimData2 data,
+			final ViewId viewId,
+			final SpatialGridIndex< ViewId > index,
+			final double padding )
+	{
+		final List< Interval > overlaps = new ArrayList<>();
+
+		final Dimensions dims = data.getSequenceDescription().getViewDescription( viewId ).getViewSetup().getSize();
+		final RealInterval bounds = index.getBounds( viewId );
+
+		if ( dims == null || bounds == null )
+			return overlaps;
+
+		final ViewRegistration vr = data.getViewRegistrations().getViewRegistration( viewId );
+		vr.updateModel();
+
+		final int n = dims.numDimensions();
+		final FinalInterval view = new FinalInterval( dims );
+
+		for ( final ViewId other : index.query( bounds ) )
+		{
+			if ( other.equals( viewId ) )
+				continue;
+
+			final RealInterval overlap = TransformTools.getOverlap( bounds, index.getBounds( other ) );
+
+			if ( overlap == null )
+				continue;
+
+			final RealInterval local = vr.getModel().inverse().estimateBounds( overlap );
+			final long[] min = new long[ n ];
+			final long[] max = new long[ n ];
+			for ( int d = 0; d < n; ++d )
+			{
+				min[ d ] = (long) Math.floor( local.realMin( d ) - padding );
+				max[ d ] = (long) Math.ceil( local.realMax( d ) + padding );
+			}
+
+			final Interval clipped = Intervals.intersect( view, new FinalInterval( min, max ) );
+			if ( !Intervals.isEmpty( clipped ) )
+				overlaps.add( clipped );
+		}
+
+		return overlaps;
+	}
+
+	/**
+	 * find DoG interest points only within the overlaps of views with other views
+	 * @param data the SpimData
+	 * @param toProcess the views to detect interest points in
+	 * @param allViews all views that can overlap (including toProcess)
+	 * @param downsampleFactors downsampling (x, y, z) for the detection
+	 * @param sigma sigma of the DoG (in downsampled pixels)
+	 * @param threshold DoG threshold (relative to the intensity range min...max)
+	 * @param minIntensity min intensity for normalization, NaN to determine it per view
+	 * @param maxIntensity max intensity for normalization, NaN to determine it per view
+	 * @param maxDetections keep at most this many (brightest) points per view
+	 * @param padding by how many (full resolution) pixels to enlarge each overlap
+	 * @param service thread pool
+	 * @return interest points (in full resolution local coordinates) per view, null if the intensity range could not be determined
+	 */
+	public static HashMap< ViewId, List< InterestPoint > > findInterestPoints(
+			final SpimData2 data,
+			final Collection< ? extends ViewId > toProcess,
+			final Collection< ? extends ViewId > allViews,
+			final long[] downsampleFactors,
+			final double sigma,
+			final double threshold,
+			final double minIntensity,
+			final double maxIntensity,
+			final int maxDetections,
+			final double padding,
+			final ExecutorService service )
+	{
+		// global bounding boxes of all views
+		final List< ViewId > views = new ArrayList<>();
+		final List< RealInterval > bounds = new ArrayList<>();
+		for ( final ViewId viewId : allViews )
+		{
+			final RealInterval bb = TransformTools.getTransformedBoundingBox(
+					Collections.singletonList( data.getSequenceDescription().getViewDescription( viewId ) ),
+					data.getViewRegistrations() );
+
+			// views of unknown size are ignored
+			if ( bb != null )
+			{
+				views.add( viewId );
+				bounds.add( bb );
+			}
+		}
+		final SpatialGridIndex< ViewId > index = SpatialGridIndex.create( views, bounds );
+
+		// DoG with 4 steps per octave, the Gaussian reads this far outside of the detection region
+		final double sigma2 = sigma * Math.pow( 2.0, 1.0 / 4.0 );
+		final long margin = (long) Math.ceil( 3 * sigma2 ) + 1;
+
+		// like the defaults of DoGParameters (bright spots, quadratic localization)
+		final int localization = 1;
+		final boolean findMinima = false;
+		final boolean findMaxima = true;
+
+		// per-view intensity ranges (read concurrently for all views) if no common range is given
+		final HashMap< ViewId, double[] > minmaxPerView;
+		if ( Double.isNaN( minIntensity ) || Double.isNaN( maxIntensity ) )
+		{
+			minmaxPerView = IntensityRangeEstimation.minmaxPerView(
+					data, toProcess, ICPRefinement.defaultMinMaxParallelReads, ICPRefinement.defaultMinMaxBlockSize );
+
+			if ( minmaxPerView == null )
+				return null;
+		}
+		else
+		{
+			minmaxPerView = null;
+		}
+
+		final HashMap< ViewId, List< InterestPoint > > points = new HashMap<>();
+
+		for ( final ViewId viewId : toProcess )
+		{
+			final List< Interval > overlaps = getLocalOverlaps( data, viewId, index, padding );
+
+			final double min, max;
+			if ( minmaxPerView != null )
+			{
+				final double[] minmax = minmaxPerView.get( viewId );
+				min = minmax[ 0 ];
+				max = minmax[ 1 ];
+			}
+			else
+			{
+				min = minIntensity;
+				max = maxIntensity;
+			}
+
+			final List< double[] > locations = new ArrayList<>();
+			final List< Double > values = new ArrayList<>();
+
+			long processed = 0;
+			for ( int k = 0; k < overlaps.size(); ++k )
+			{
+				final Interval overlap = overlaps.get( k );
+				final int n = overlap.numDimensions();
+
+				// the overlap in downsampled coordinates, and with a margin for the Gaussian
+				final long[] dsMin = new long[ n ];
+				final long[] dsMax = new long[ n ];
+				for ( int d = 0; d < n; ++d )
+				{
+					dsMin[ d ] = overlap.min( d ) / downsampleFactors[ d ];
+					dsMax[ d ] = overlap.max( d ) / downsampleFactors[ d ];
+				}
+				final Interval dsOverlap = new FinalInterval( dsMin, dsMax );
+				processed += Intervals.numElements( dsOverlap );
+
+				// load the overlap plus a margin, so the Gaussian does not see the mirrored border inside the overlap
+				final Interval loaded = Intervals.expand( dsOverlap, margin );
+
+				@SuppressWarnings( { "unchecked", "rawtypes" } )
+				final RandomAccessibleInterval< FloatType > img = Views.zeroMin( toFloat(
+						(RandomAccessibleInterval) new RAIProxy( data.getSequenceDescription().getImgLoader(), viewId, downsampleFactors, loaded ) ) );
+
+				// same DoG (and intensity normalization) as the detection on whole views
+				final ArrayList< InterestPoint > peaks = DoGImgLib2.computeDoG(
+						img, null, sigma, threshold, localization, findMinima, findMaxima, min, max,
+						blockSize, service, null, null, false, 0 );
+
+				final RandomAccess< FloatType > ra = Views.extendBorder( img ).randomAccess();
+
+				A: for ( final InterestPoint peak : peaks )
+				{
+					// downsampled location
+					final double[] ds = new double[ n ];
+					for ( int d = 0; d < n; ++d )
+						ds[ d ] = peak.getDoublePosition( d ) + loaded.min( d );
+
+					// the margin is only there for the Gaussian
+					if ( !contains( dsOverlap, ds ) )
+						continue;
+
+					// full resolution location (a downsampled pixel is the average of downsampleFactors pixels)
+					final double[] l = new double[ n ];
+					for ( int d = 0; d < n; ++d )
+						l[ d ] = ds[ d ] * downsampleFactors[ d ] + ( downsampleFactors[ d ] - 1 ) / 2.0;
+
+					// overlaps can overlap each other, only keep points once
+					for ( int j = 0; j < k; ++j )
+						if ( contains( overlaps.get( j ), l ) )
+							continue A;
+
+					// rank points by the intensity at their (rounded) location
+					for ( int d = 0; d < n; ++d )
+						ra.setPosition( Math.round( peak.getDoublePosition( d ) ), d );
+
+					locations.add( l );
+					values.add( ra.get().getRealDouble() );
+				}
+			}
+
+			// keep the brightest points
+			final List< Integer > order = new ArrayList<>();
+			for ( int i = 0; i < locations.size(); ++i )
+				order.add( i );
+			order.sort( ( a, b ) -> Double.compare( values.get( b ), values.get( a ) ) );
+
+			final List< InterestPoint > ips = new ArrayList<>();
+			for ( final int i : order.stream().limit( maxDetections ).collect( Collectors.toList() ) )
+				ips.add( new InterestPoint( ips.size(), locations.get( i ) ) );
+
+			points.put( viewId, ips );
+
+			IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): View " + Group.pvid( viewId ) + ": " + ips.size() + " interest points in " +
+					overlaps.size() + " overlaps (" + processed + " downsampled pixels)." );
+		}
+
+		return points;
+	}
+
+	private static < T extends RealType< T > > RandomAccessibleInterval< FloatType > toFloat( final RandomAccessibleInterval< T > img )
+	{
+		return Converters.convert( img, ( a, b ) -> b.setReal( a.getRealDouble() ), new FloatType() );
+	}
+
+	private static boolean contains( final Interval interval, final double[] l )
+	{
+		for ( int d = 0; d < l.length; ++d )
+			if ( l[ d ] < interval.min( d ) || l[ d ] > interval.max( d ) )
+				return false;
+
+		return true;
+	}
+}
@@ -0,0 +1,177 @@
+/*-
+ * #%L
+ * Multiview stitching of large datasets.
+ * %%
+ * Copyright (C) 2016 - 2024 Big Stitcher developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.stitcher.process;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+
+import bdv.export.ProgressWriter;
+import mpicbg.spim.data.sequence.ViewId;
+import net.imglib2.util.Pair;
+import net.imglib2.util.ValuePair;
+import net.preibisch.legacy.io.IOFunctions;
+import net.preibisch.mvrecon.fiji.spimdata.SpimData2;
+import net.preibisch.mvrecon.fiji.spimdata.stitchingresults.PairwiseStitchingResult;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
+import net.preibisch.stitcher.algorithm.FilteredStitchingResults;
+import net.preibisch.stitcher.algorithm.PairwiseResultCache;
+import net.preibisch.stitcher.algorithm.PairwiseStitchingParameters;
+import net.preibisch.stitcher.algorithm.SpimDataFilteringAndGrouping;
+import net.preibisch.stitcher.algorithm.globalopt.TransformationTools;
+
+public class PairwiseShifts
+{
+	private PairwiseShifts() {}
+
+	/**
+	 * compute pairwise shifts using phase correlation, re-using results of pairs
+	 * that were already computed with the same settings (stored next to the XML)
+	 * 
+	 * does not use ImageJ or AWT, so it can run on headless machines
+	 * 
+	 * @param data the SpimData
+	 * @param filteringAndGrouping which views to compare and how
+	 * @param params stitching parameters
+	 * @param dsFactors downsampling
+	 * @param xml location of the XML, may be null (then nothing is re-used)
+	 * @param progressWriter receives the fraction of computed pairs, may be null
+	 * @return true if successful
+	 */
+	public static boolean processPhaseCorrelation(
+			SpimData2 data,
+			SpimDataFilteringAndGrouping< SpimData2 > filteringAndGrouping,
+			PairwiseStitchingParameters params,
+			long[] dsFactors,
+			URI xml,
+			ProgressWriter progressWriter)
+	{
+		// getpairs to compare
+		IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Finding pairs to compute overlap ... " );
+
+		// only spatially neighboring groups can overlap
+		List< ? extends Pair< ? extends Group< ? extends ViewId >, ? extends Group< ? extends ViewId > > > pairs =  filteringAndGrouping.getComparisons( true );
+
+		// re-use results of pairs we already computed with the same settings and registrations
+		final PairwiseResultCache cache = PairwiseResultCache.forXML( xml );
+		final String parameterKey = PairwiseResultCache.getParameterKey( dsFactors, params, filteringAndGrouping.getGroupedViewAggregator() );
+		final ArrayList< PairwiseStitchingResult< ViewId > > cachedResults = new ArrayList<>();
+		final List< Pair< Group< ViewId >, Group< ViewId > > > pairsToCompute = new ArrayList<>();
+
+		if ( cache != null )
+			cache.load();
+
+		int numFailed = 0;
+
+		for ( final Pair< ? extends Group< ? extends ViewId >, ? extends Group< ? extends ViewId > > pair : pairs )
+		{
+			if ( cache == null )
+			{
+				pairsToCompute.add( (Pair< Group< ViewId >, Group< ViewId > >) pair );
+				continue;
+			}
+
+			final double hash = getHash( data, pair );
+			final PairwiseStitchingResult< ViewId > psr = cache.get( pair.getA(), pair.getB(), hash, parameterKey );
+
+			if ( psr != null )
+				cachedResults.add( psr );
+			else if ( cache.hasFailed( pair.getA(), pair.getB(), hash, parameterKey ) )
+				++numFailed;
+			else
+				pairsToCompute.add( (Pair< Group< ViewId >, Group< ViewId > >) pair );
+		}
+
+		if ( cachedResults.size() > 0 || numFailed > 0 )
+			IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Re-using " + ( cachedResults.size() + numFailed ) + " of " + pairs.size() + " previously computed pairwise shifts (" + numFailed + " without a shift)." );
+
+		// calculate
+		IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Computing overlap ... " );
+		final ArrayList< PairwiseStitchingResult< ViewId > > results = TransformationTools.computePairs(
+				pairsToCompute, params, filteringAndGrouping.getSpimData().getViewRegistrations(), 
+				filteringAndGrouping.getSpimData().getSequenceDescription(), filteringAndGrouping.getGroupedViewAggregator(),
+				dsFactors, null, progressWriter );
+
+		if ( results == null )
+			return false;
+
+		if ( cache != null )
+		{
+			final HashSet< Pair< Group< ViewId >, Group< ViewId > > > succeeded = new HashSet<>();
+
+			for ( final PairwiseStitchingResult< ViewId > psr : results )
+			{
+				if ( psr == null )
+					continue;
+
+				cache.put( psr, parameterKey );
+				succeeded.add( new ValuePair<>( psr.pair().getA(), psr.pair().getB() ) );
+			}
+
+			// pairs without a result are remembered too
+			for ( final Pair< Group< ViewId >, Group< ViewId > > pair : pairsToCompute )
+				if ( !succeeded.contains( new ValuePair<>( pair.getA(), pair.getB() ) ) )
+					cache.putFailed( pair.getA(), pair.getB(), getHash( data, pair ), parameterKey );
+
+			cache.save();
+		}
+
+		results.addAll( cachedResults );
+
+		// remove old results
+		IOFunctions.println( "(" + new Date( System.currentTimeMillis() ) + "): Organizing resuls ... " );
+		removeOldResults( data, filteringAndGrouping );
+
+		// update StitchingResults with Results
+		for ( final PairwiseStitchingResult< ViewId > psr : results )
+		{
+			if (psr == null)
+				continue;
+
+			data.getStitchingResults().setPairwiseResultForPair(psr.pair(), psr );
+		}
+
+		FilteredStitchingResults.resultsChanged( data.getStitchingResults() );
+
+		return true;
+	}
+
+	/**
+	 * remove the stored results of all pairs of groups that are compared, also of pairs that do not
+	 * overlap anymore (and are thus not part of {@link SpimDataFilteringAndGrouping#getComparisons(boolean)})
+	 * @param data the SpimData
+	 * @param filteringAndGrouping the selected groups
+	 */
+	public static void removeOldResults( final SpimData2 data, final SpimDataFilteringAndGrouping< ? > filteringAndGrouping )
+	{
+		data.getStitchingResults().getPairwiseResults().keySet().removeIf( filteringAndGrouping.getComparisonFilter() );
+	}
+
+	private static double getHash( final SpimData2 data, final Pair< ? extends Group< ? extends ViewId >, ? extends Group< ? extends ViewId > > pair )
+	{
+		return PairwiseStitchingResult.calculateHash(
+				data.getViewRegistrations().getViewRegistration( pair.getA().getViews().iterator().next() ),
+				data.getViewRegistrations().getViewRegistration( pair.getB().getViews().iterator().next() ) );
+	}
+}
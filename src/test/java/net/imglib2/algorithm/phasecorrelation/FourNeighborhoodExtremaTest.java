@@ -27,13 +27,16 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 import net.imglib2.Localizable;
 import net.imglib2.Point;
 import net.imglib2.RandomAccess;
 import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImg;
 import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.FloatArray;
 import net.imglib2.img.display.imagej.ImageJFunctions;
 import net.imglib2.type.numeric.real.FloatType;
 import net.imglib2.util.Pair;
@@ -341,4 +344,60 @@ public class FourNeighborhoodExtremaTest
 		int i = 5;		
 		assertTrue( i == 5 );
 	}
+
+	@Test
+	public void testFlatMatchesMT()
+	{
+		for ( final long[] dims : new long[][] { { 50, 40 }, { 20, 17, 13 } } )
+		{
+			final ArrayImg< FloatType, FloatArray > img = ArrayImgs.floats( dims );
+			final Random rnd = new Random( seed );
+
+			for ( final FloatType t : img )
+				t.set( rnd.nextFloat() - 0.5f );
+
+			final float[] data = img.update( null ).getCurrentStorageArray();
+
+			final int nMax = 20;
+			final ExecutorService service = Executors.newFixedThreadPool( Runtime.getRuntime().availableProcessors() );
+
+			final ArrayList< Pair< Localizable, Double > > correct = FourNeighborhoodExtrema.findMaxMT( Views.extendPeriodic( img ), img, nMax, service );
+			final Pair< Float, ArrayList< Pair< Localizable, Double > > > found = FourNeighborhoodExtrema.findMinAndMaxFlat( data, dims, nMax, service );
+
+			service.shutdown();
+
+			float min = Float.MAX_VALUE;
+			for ( final FloatType t : img )
+				min = Math.min( min, t.get() );
+
+			assertEquals( min, found.getA(), 0 );
+			assertEquals( correct.size(), found.getB().size() );
+
+			final long[] posCorrect = new long[ img.numDimensions() ];
+			final long[] posFound = new long[ img.numDimensions() ];
+
+			for ( int i = 0; i < correct.size(); i++ )
+			{
+				assertEquals( correct.get( i ).getB(), found.getB().get( i ).getB() );
+
+				correct.get( i ).getA().localize( posCorrect );
+				found.getB().get( i ).getA().localize( posFound );
+				assertArrayEquals( posCorrect, posFound );
+			}
+		}
+	}
+
+	@Test
+	public void testFlatReturnsNullIfATaskFails()
+	{
+		// the dimensions do not match the data, the periodic neighbors of the first lines are out of bounds
+		final long[] dims = new long[] { 10, 20 };
+		final float[] data = new float[ 100 ];
+
+		final ExecutorService service = Executors.newFixedThreadPool( Runtime.getRuntime().availableProcessors() );
+		final Pair< Float, ArrayList< Pair< Localizable, Double > > > found = FourNeighborhoodExtrema.findMinAndMaxFlat( data, dims, 5, service );
+		service.shutdown();
+
+		assertNull( found );
+	}
 }
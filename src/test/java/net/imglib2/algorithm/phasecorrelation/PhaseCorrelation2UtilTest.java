@@ -0,0 +1,202 @@
+/*-
+ * #%L
+ * Multiview stitching of large datasets.
+ * %%
+ * Copyright (C) 2016 - 2024 Big Stitcher developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.imglib2.algorithm.phasecorrelation;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.Point;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.algorithm.fft2.FFTMethods;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+public class PhaseCorrelation2UtilTest
+{
+
+	public static long seed = 4353;
+
+	@Test
+	public void testPaddedFlatMatchesLazyExtension()
+	{
+		final ExecutorService service = Executors.newFixedThreadPool( Runtime.getRuntime().availableProcessors() );
+
+		// 2d and 3d, odd and even padding, extensions larger than the image, padding larger than the extension
+		check( new long[] { 37, 20 }, new long[] { -5, 12 }, new int[] { 10, 25 }, new long[] { 64, 71 }, service );
+		check( new long[] { 12, 9, 5 }, new long[] { 3, 0, -2 }, new int[] { 4, 4, 8 }, new long[] { 21, 20, 16 }, service );
+		check( new long[] { 16, 10 }, new long[] { 0, 0 }, new int[] { 4, 2 }, new long[] { 48, 33 }, service );
+
+		service.shutdown();
+	}
+
+	@Test
+	public void testFlatCrossCorrMatchesPerPeak()
+	{
+		final ExecutorService service = Executors.newFixedThreadPool( Runtime.getRuntime().availableProcessors() );
+		final Random rnd = new Random( seed );
+		final PhaseCorrelationEngine engine = new PhaseCorrelationEngine();
+
+		// large images first, so the smaller ones afterwards run on longer (re-used) buffers with stale data at the end
+		for ( final long[][] dims : new long[][][] {
+				{ { 40, 33, 7 }, { 35, 40, 6 } },
+				{ { 50, 41 }, { 47, 45 } },
+				{ { 20, 17 }, { 20, 17 } } } )
+		{
+			final Img< FloatType > img1 = randomImage( dims[ 0 ], rnd );
+			final Img< FloatType > img2 = randomImage( dims[ 1 ], rnd );
+			final int n = img1.numDimensions();
+
+			// positive, negative and mixed shifts, one without overlap, minOverlap cuts off the small overlaps
+			final long minOverlap = Intervals.numElements( img1 ) / 10;
+			final List< long[] > shifts = new ArrayList<>();
+			shifts.add( new long[ n ] );
+			for ( int i = 0; i < 20; ++i )
+			{
+				final long[] shift = new long[ n ];
+				for ( int d = 0; d < n; ++d )
+					shift[ d ] = rnd.nextInt( 2 * (int) img1.dimension( d ) ) - img1.dimension( d );
+				shifts.add( shift );
+			}
+			final long[] noOverlap = new long[ n ];
+			noOverlap[ 0 ] = img1.dimension( 0 ) + 1;
+			shifts.add( noOverlap );
+
+			final List< PhaseCorrelationPeak2 > expected = new ArrayList<>();
+			final List< PhaseCorrelationPeak2 > flat = new ArrayList<>();
+			final List< PhaseCorrelationPeak2 > flatEngine = new ArrayList<>();
+
+			for ( final long[] shift : shifts )
+			{
+				final PhaseCorrelationPeak2 peak = new PhaseCorrelationPeak2( new Point( n ), 0 );
+				peak.setShift( new Point( shift ) );
+				expected.add( peak );
+				flat.add( new PhaseCorrelationPeak2( peak ) );
+				flatEngine.add( new PhaseCorrelationPeak2( peak ) );
+			}
+
+			for ( final PhaseCorrelationPeak2 p : expected )
+				p.calculateCrossCorr( img1, img2, minOverlap, false );
+
+			PhaseCorrelation2Util.calculateCrossCorrFlat( flat, img1, img2, minOverlap, service );
+			// the flat variant works on zero-min copies, i.e. also takes non-zero-min images
+			final long[] offset = new long[ n ];
+			offset[ 0 ] = 4;
+			offset[ 1 ] = -2;
+			PhaseCorrelation2Util.calculateCrossCorrFlat( flatEngine, Views.translate( img1, offset ), img2, minOverlap, engine, service );
+
+			boolean cutOff = false;
+			for ( int i = 0; i < expected.size(); ++i )
+			{
+				for ( final PhaseCorrelationPeak2 actual : new PhaseCorrelationPeak2[] { flat.get( i ), flatEngine.get( i ) } )
+				{
+					assertEquals( expected.get( i ).getnPixel(), actual.getnPixel() );
+
+					if ( Double.isInfinite( expected.get( i ).getCrossCorr() ) )
+						assertEquals( Double.NEGATIVE_INFINITY, actual.getCrossCorr(), 0 );
+					else
+						assertEquals( expected.get( i ).getCrossCorr(), actual.getCrossCorr(), 1e-4 );
+				}
+
+				cutOff |= Double.isInfinite( expected.get( i ).getCrossCorr() );
+			}
+
+			// make sure the cases are actually covered
+			assertTrue( cutOff );
+			assertFalse( Double.isInfinite( expected.get( 0 ).getCrossCorr() ) );
+		}
+
+		engine.clear();
+		service.shutdown();
+	}
+
+	private static Img< FloatType > randomImage( final long[] dims, final Random rnd )
+	{
+		final Img< FloatType > img = ArrayImgs.floats( dims );
+		for ( final FloatType t : img )
+			t.set( 100 + rnd.nextFloat() );
+		return img;
+	}
+
+	private static void check( final long[] dims, final long[] min, final int[] extension, final long[] paddedDimensions, final ExecutorService service )
+	{
+		final Img< FloatType > img = ArrayImgs.floats( dims );
+		final Random rnd = new Random( seed );
+
+		for ( final FloatType t : img )
+			t.set( rnd.nextFloat() );
+
+		final RandomAccessibleInterval< FloatType > translated = Views.translate( img, min );
+
+		// what the FFT saw before: the lazy blended mirror extension, read over the centered padding interval
+		final RandomAccessibleInterval< FloatType > lazy = Views.interval(
+				PhaseCorrelation2Util.extendImageByFactor( translated, extension ),
+				FFTMethods.paddingIntervalCentered( translated, new FinalInterval( paddedDimensions ) ) );
+
+		final Img< FloatType > flat = PhaseCorrelation2Util.extendImageToPaddedFlat( translated, extension, paddedDimensions, service );
+		assertEqualsLazy( lazy, flat, paddedDimensions );
+
+		// into buffers that are longer than needed and hold old values
+		final float[] source = new float[ (int) Intervals.numElements( dims ) + 7 ];
+		final float[] target = new float[ (int) Intervals.numElements( paddedDimensions ) + 11 ];
+		Arrays.fill( source, Float.NaN );
+		Arrays.fill( target, Float.NaN );
+
+		final Img< FloatType > buffered = PhaseCorrelation2Util.extendImageToPaddedFlat( translated, extension, paddedDimensions, source, target, service );
+		assertEqualsLazy( lazy, buffered, paddedDimensions );
+
+		// it is backed by the target buffer
+		buffered.firstElement().set( 42 );
+		assertEquals( 42, target[ 0 ], 0 );
+	}
+
+	private static void assertEqualsLazy( final RandomAccessibleInterval< FloatType > lazy, final Img< FloatType > flat, final long[] paddedDimensions )
+	{
+		assertArrayEquals( paddedDimensions, Intervals.dimensionsAsLongArray( flat ) );
+
+		final Cursor< FloatType > c = Views.flatIterable( Views.zeroMin( lazy ) ).localizingCursor();
+		final RandomAccess< FloatType > ra = flat.randomAccess();
+
+		while ( c.hasNext() )
+		{
+			final float expected = c.next().get();
+			ra.setPosition( c );
+			assertEquals( expected, ra.get().get(), 1e-5 );
+		}
+	}
+}
@@ -0,0 +1,189 @@
+/*-
+ * #%L
+ * Multiview stitching of large datasets.
+ * %%
+ * Copyright (C) 2016 - 2024 Big Stitcher developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.imglib2.algorithm.phasecorrelation;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.Type;
+import net.imglib2.type.numeric.complex.ComplexFloatType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+public class PhaseCorrelationEngineTest
+{
+
+	public static long seed = 4353;
+
+	@Test
+	public void testReusedBuffersMatchFreshPCM()
+	{
+		final ExecutorService service = Executors.newFixedThreadPool( Runtime.getRuntime().availableProcessors() );
+		final Random rnd = new Random( seed );
+
+		final int[] extension = new int[ 2 ];
+		Arrays.fill( extension, 10 );
+
+		final PhaseCorrelationEngine engine = new PhaseCorrelationEngine( 1 );
+
+		// pairs of the same size re-use the buffers, a different size replaces them
+		for ( final long[] dims : new long[][] { { 50, 40 }, { 50, 40 }, { 30, 60 }, { 50, 40 } } )
+		{
+			final Img< FloatType > img1 = randomImage( dims, rnd );
+			final Img< FloatType > img2 = randomImage( dims, rnd );
+
+			final RandomAccessibleInterval< FloatType > expected = PhaseCorrelation2.calculatePCM( img1, img2, extension, new ArrayImgFactory<>( new FloatType() ),
+					new FloatType(), new ArrayImgFactory<>( new ComplexFloatType() ), new ComplexFloatType(), service );
+
+			assertEqualImages( expected, engine.calculatePCM( img1, img2, extension, service ) );
+		}
+
+		engine.clear();
+		service.shutdown();
+	}
+
+	@Test
+	public void testPCMFromFFTsKeepsFFTs()
+	{
+		final ExecutorService service = Executors.newFixedThreadPool( Runtime.getRuntime().availableProcessors() );
+		final Random rnd = new Random( seed );
+
+		final int[] extension = new int[ 2 ];
+		Arrays.fill( extension, 10 );
+
+		final Img< FloatType > img1 = randomImage( new long[] { 50, 40 }, rnd );
+		final Img< FloatType > img2 = randomImage( new long[] { 50, 40 }, rnd );
+
+		final long[] paddedDimensions = PhaseCorrelation2.getPaddedDimensions( img1, img2, extension );
+		final RandomAccessibleInterval< ComplexFloatType > fft1 = PhaseCorrelation2.calculateFFT( img1, extension, paddedDimensions, new ArrayImgFactory<>( new ComplexFloatType() ), new ComplexFloatType(), service );
+		final RandomAccessibleInterval< ComplexFloatType > fft2 = PhaseCorrelation2.calculateFFT( img2, extension, paddedDimensions, new ArrayImgFactory<>( new ComplexFloatType() ), new ComplexFloatType(), service );
+
+		final Img< ComplexFloatType > fft1Copy = ArrayImgs.complexFloats( Intervals.dimensionsAsLongArray( fft1 ) );
+		final Img< ComplexFloatType > fft2Copy = ArrayImgs.complexFloats( Intervals.dimensionsAsLongArray( fft2 ) );
+		copy( fft1, fft1Copy );
+		copy( fft2, fft2Copy );
+
+		final PhaseCorrelationEngine engine = new PhaseCorrelationEngine();
+		final RandomAccessibleInterval< FloatType > pcm1 = engine.calculatePCM( fft1, fft2, paddedDimensions, service );
+		final Img< FloatType > pcm1Copy = ArrayImgs.floats( Intervals.dimensionsAsLongArray( pcm1 ) );
+		copy( pcm1, pcm1Copy );
+
+		// the cached FFTs are not altered, so the same PCM can be computed again
+		assertEqualComplexImages( fft1Copy, fft1 );
+		assertEqualComplexImages( fft2Copy, fft2 );
+		assertEqualImages( pcm1Copy, engine.calculatePCM( fft1, fft2, paddedDimensions, service ) );
+
+		engine.clear();
+		service.shutdown();
+	}
+
+	@Test
+	public void testClearingOneEngineKeepsBuffersOfAnother()
+	{
+		final ExecutorService service = Executors.newFixedThreadPool( Runtime.getRuntime().availableProcessors() );
+		final Random rnd = new Random( seed );
+
+		final int[] extension = new int[ 2 ];
+		Arrays.fill( extension, 10 );
+
+		final Img< FloatType > img1 = randomImage( new long[] { 50, 40 }, rnd );
+		final Img< FloatType > img2 = randomImage( new long[] { 50, 40 }, rnd );
+
+		// e.g. two pairwise stitching runs at the same time, each with its own engine
+		final PhaseCorrelationEngine run1 = new PhaseCorrelationEngine();
+		final PhaseCorrelationEngine run2 = new PhaseCorrelationEngine();
+
+		final RandomAccessibleInterval< FloatType > pcm1 = run1.calculatePCM( img1, img2, extension, service );
+		final RandomAccessibleInterval< FloatType > pcm2 = run2.calculatePCM( img1, img2, extension, service );
+		assertNotSame( pcm1, pcm2 );
+
+		// the second run is done, the first one still re-uses its buffers
+		run2.clear();
+		assertSame( pcm1, run1.calculatePCM( img1, img2, extension, service ) );
+
+		// once cleared, new buffers are allocated
+		run1.clear();
+		assertNotSame( pcm1, run1.calculatePCM( img1, img2, extension, service ) );
+
+		run1.clear();
+		service.shutdown();
+	}
+
+	private static Img< FloatType > randomImage( final long[] dims, final Random rnd )
+	{
+		final Img< FloatType > img = ArrayImgs.floats( dims );
+		for ( final FloatType t : img )
+			t.set( rnd.nextFloat() );
+		return img;
+	}
+
+	private static < T extends Type< T > > void copy( final RandomAccessibleInterval< T > source, final RandomAccessibleInterval< T > target )
+	{
+		final Cursor< T > c = Views.flatIterable( source ).cursor();
+		final Cursor< T > t = Views.flatIterable( target ).cursor();
+		while ( c.hasNext() )
+			t.next().set( c.next() );
+	}
+
+	private static void assertEqualImages( final RandomAccessibleInterval< FloatType > expected, final RandomAccessibleInterval< FloatType > actual )
+	{
+		assertArrayEquals( Intervals.dimensionsAsLongArray( expected ), Intervals.dimensionsAsLongArray( actual ) );
+
+		final Cursor< FloatType > c = Views.iterable( expected ).localizingCursor();
+		final RandomAccess< FloatType > ra = actual.randomAccess();
+		while ( c.hasNext() )
+		{
+			final float e = c.next().get();
+			ra.setPosition( c );
+			assertEquals( e, ra.get().get(), 1e-5 );
+		}
+	}
+
+	private static void assertEqualComplexImages( final RandomAccessibleInterval< ComplexFloatType > expected, final RandomAccessibleInterval< ComplexFloatType > actual )
+	{
+		final Cursor< ComplexFloatType > c = Views.iterable( expected ).localizingCursor();
+		final RandomAccess< ComplexFloatType > ra = actual.randomAccess();
+		while ( c.hasNext() )
+		{
+			final ComplexFloatType e = c.next();
+			ra.setPosition( c );
+			assertEquals( e.getRealFloat(), ra.get().getRealFloat(), 0 );
+			assertEquals( e.getImaginaryFloat(), ra.get().getImaginaryFloat(), 0 );
+		}
+	}
+}
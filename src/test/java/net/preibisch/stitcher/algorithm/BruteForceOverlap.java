@@ -0,0 +1,43 @@
+/*-
+ * #%L
+ * Multiview stitching of large datasets.
+ * %%
+ * Copyright (C) 2016 - 2024 Big Stitcher developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.stitcher.algorithm;
+
+import net.imglib2.RealInterval;
+
+/**
+ * reference overlap test for checking spatial indices against brute force
+ */
+public class BruteForceOverlap
+{
+	/**
+	 * @param a first box
+	 * @param b second box
+	 * @return true if the boxes intersect (touching counts as intersecting)
+	 */
+	public static boolean intersects( final RealInterval a, final RealInterval b )
+	{
+		for ( int d = 0; d < a.numDimensions(); ++d )
+			if ( a.realMax( d ) < b.realMin( d ) || b.realMax( d ) < a.realMin( d ) )
+				return false;
+		return true;
+	}
+}
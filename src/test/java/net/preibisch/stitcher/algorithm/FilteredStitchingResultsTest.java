@@ -0,0 +1,148 @@
+/*-
+ * #%L
+ * Multiview stitching of large datasets.
+ * %%
+ * Copyright (C) 2016 - 2024 Big Stitcher developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.stitcher.algorithm;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import mpicbg.spim.data.sequence.ViewId;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.realtransform.Translation3D;
+import net.imglib2.util.Pair;
+import net.imglib2.util.ValuePair;
+import net.preibisch.mvrecon.fiji.spimdata.stitchingresults.PairwiseStitchingResult;
+import net.preibisch.mvrecon.fiji.spimdata.stitchingresults.StitchingResults;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
+import net.preibisch.stitcher.algorithm.FilteredStitchingResults.AbsoluteShiftFilter;
+import net.preibisch.stitcher.algorithm.FilteredStitchingResults.CorrelationFilter;
+import net.preibisch.stitcher.algorithm.FilteredStitchingResults.Filter;
+import net.preibisch.stitcher.algorithm.FilteredStitchingResults.ShiftMagnitudeFilter;
+
+public class FilteredStitchingResultsTest
+{
+
+	public static long seed = 4353;
+
+	@Test
+	public void testIncrementalFilteringMatchesFullUpdate()
+	{
+		final Random rnd = new Random( seed );
+		final StitchingResults sr = new StitchingResults();
+
+		for ( int i = 0; i < 200; ++i )
+		{
+			final Pair< Group< ViewId >, Group< ViewId > > pair = new ValuePair<>( new Group<>( new ViewId( 0, i ) ), new Group<>( new ViewId( 0, i + 1 ) ) );
+			final AffineTransform3D tr = new AffineTransform3D().preConcatenate( new Translation3D( shift( rnd ), shift( rnd ), shift( rnd ) ) );
+			final double r = i % 50 == 0 ? Double.NaN : rnd.nextDouble();
+			sr.setPairwiseResultForPair( pair, new PairwiseStitchingResult<>( pair, null, tr, r, 0.0 ) );
+		}
+
+		final FilteredStitchingResults fsr = new FilteredStitchingResults( sr );
+
+		// at most one filter of every type, like addFilter()
+		final Map< Class< ? extends Filter >, Filter > filters = new LinkedHashMap<>();
+
+		for ( int step = 0; step < 300; ++step )
+		{
+			final int type = rnd.nextInt( 3 );
+			final Class< ? extends Filter > filterClass = type == 0 ? CorrelationFilter.class : type == 1 ? ShiftMagnitudeFilter.class : AbsoluteShiftFilter.class;
+
+			if ( rnd.nextInt( 5 ) == 0 )
+			{
+				fsr.clearFilter( filterClass );
+				filters.remove( filterClass );
+			}
+			else
+			{
+				final Filter filter;
+				if ( type == 0 )
+				{
+					final double a = rnd.nextDouble(), b = rnd.nextDouble();
+					filter = new CorrelationFilter( Math.min( a, b ), Math.max( a, b ) );
+				}
+				else if ( type == 1 )
+				{
+					filter = new ShiftMagnitudeFilter( rnd.nextDouble() * 100 );
+				}
+				else
+				{
+					// positive: at most, negative: at least that shift
+					final double[] minMaxShift = new double[ 3 ];
+					for ( int d = 0; d < 3; ++d )
+						minMaxShift[ d ] = rnd.nextInt( 4 ) == 0 ? -rnd.nextDouble() * 30 : rnd.nextDouble() * 60;
+					filter = new AbsoluteShiftFilter( minMaxShift );
+				}
+
+				fsr.addFilter( filter );
+				filters.put( filterClass, filter );
+			}
+
+			assertEquals( bruteForce( sr, filters ), fsr.getPairwiseResults() );
+		}
+
+		final Map< Pair< Group< ViewId >, Group< ViewId > >, PairwiseStitchingResult< ViewId > > incremental = new HashMap<>( fsr.getPairwiseResults() );
+		fsr.updateFilteredResults();
+		assertEquals( fsr.getPairwiseResults(), incremental );
+	}
+
+	@Test
+	public void testReindexAfterResultsChanged()
+	{
+		final StitchingResults sr = new StitchingResults();
+		final FilteredStitchingResults fsr = new FilteredStitchingResults( sr );
+		fsr.addFilter( new CorrelationFilter( 0.5, 1.0 ) );
+
+		final Pair< Group< ViewId >, Group< ViewId > > pair = new ValuePair<>( new Group<>( new ViewId( 0, 1 ) ), new Group<>( new ViewId( 0, 2 ) ) );
+		sr.setPairwiseResultForPair( pair, new PairwiseStitchingResult<>( pair, null, new AffineTransform3D(), 0.9, 0.0 ) );
+		FilteredStitchingResults.resultsChanged( sr );
+		assertEquals( 1, fsr.getPairwiseResults().size() );
+
+		// replacing a result does not change the number of results
+		sr.setPairwiseResultForPair( pair, new PairwiseStitchingResult<>( pair, null, new AffineTransform3D(), 0.1, 0.0 ) );
+		FilteredStitchingResults.resultsChanged( sr );
+		assertEquals( 0, fsr.getPairwiseResults().size() );
+	}
+
+	private static double shift( final Random rnd )
+	{
+		return ( rnd.nextDouble() - 0.5 ) * 120;
+	}
+
+	private static Map< Pair< Group< ViewId >, Group< ViewId > >, PairwiseStitchingResult< ViewId > > bruteForce(
+			final StitchingResults sr, final Map< Class< ? extends Filter >, Filter > filters )
+	{
+		final Map< Pair< Group< ViewId >, Group< ViewId > >, PairwiseStitchingResult< ViewId > > expected = new HashMap<>();
+
+		sr.getPairwiseResults().forEach( ( k, v ) -> {
+			if ( filters.values().stream().allMatch( f -> f.conforms( v ) ) )
+				expected.put( k, v );
+		} );
+
+		return expected;
+	}
+}
@@ -0,0 +1,169 @@
+/*-
+ * #%L
+ * Multiview stitching of large datasets.
+ * %%
+ * Copyright (C) 2016 - 2024 Big Stitcher developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.stitcher.algorithm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import ij.ImageJ;
+import mpicbg.spim.data.generic.sequence.ImgLoaderHint;
+import mpicbg.spim.data.registration.ViewRegistration;
+import mpicbg.spim.data.sequence.Angle;
+import mpicbg.spim.data.sequence.Channel;
+import mpicbg.spim.data.sequence.FinalVoxelDimensions;
+import mpicbg.spim.data.sequence.Illumination;
+import mpicbg.spim.data.sequence.ImgLoader;
+import mpicbg.spim.data.sequence.MissingViews;
+import mpicbg.spim.data.sequence.SequenceDescription;
+import mpicbg.spim.data.sequence.SetupImgLoader;
+import mpicbg.spim.data.sequence.Tile;
+import mpicbg.spim.data.sequence.TimePoint;
+import mpicbg.spim.data.sequence.TimePoints;
+import mpicbg.spim.data.sequence.ViewId;
+import mpicbg.spim.data.sequence.ViewSetup;
+import mpicbg.spim.data.sequence.VoxelDimensions;
+import net.imglib2.Dimensions;
+import net.imglib2.FinalDimensions;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.display.imagej.ImageJFunctions;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.view.Views;
+import net.preibisch.mvrecon.Threads;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
+import net.preibisch.stitcher.algorithm.GroupedViewAggregator.ActionType;
+
+/**
+ * aggregates four synthetic views (2 channels, 2 illuminations) and shows the result in ImageJ
+ */
+public class GroupedViewAggregatorDemo
+{
+	public static void main(String[] args)
+	{
+
+		final ArrayList< ViewSetup > setups = new ArrayList< ViewSetup >();
+		final ArrayList< ViewRegistration > registrations = new ArrayList< ViewRegistration >();
+
+		final Channel c0 = new Channel( 0, "RFP" );
+		final Channel c1 = new Channel( 1, "YFP" );
+
+		final Angle a0 = new Angle( 0 );
+		final Illumination i0 = new Illumination( 0 );
+		final Illumination i1 = new Illumination( 1 );		
+
+		final Tile t0 = new Tile( 0, "Tile0", new double[]{ 0.0, 0.0, 0.0 } );
+		
+		final Dimensions d0 = new FinalDimensions( 512l, 512l, 1l );
+		final VoxelDimensions vd0 = new FinalVoxelDimensions( "px", 0.4566360, 0.4566360, 2.0000000 );
+
+		setups.add( new ViewSetup( 0, "setup 0", d0, vd0, t0, c0, a0, i0 ) );
+		setups.add( new ViewSetup( 1, "setup 1", d0, vd0, t0, c1, a0, i0 ) );
+		setups.add( new ViewSetup( 2, "setup 2", d0, vd0, t0, c0, a0, i1 ) );
+		setups.add( new ViewSetup( 3, "setup 3", d0, vd0, t0, c1, a0, i1 ) );
+
+		final ArrayList< TimePoint > t = new ArrayList< TimePoint >();
+		t.add( new TimePoint( 0 ) );
+		final TimePoints timepoints = new TimePoints( t );
+		
+		final ArrayList< ViewId > missing = new ArrayList< ViewId >();
+		missing.add( new ViewId(0,0) );
+		final MissingViews missingViews = new MissingViews( missing );
+
+		final ImgLoader imgLoader = new ImgLoader()
+		{
+			@Override
+			public SetupImgLoader< ? > getSetupImgLoader( final int setupId )
+			{
+				return new SetupImgLoader<UnsignedShortType>()
+				{
+
+					@Override
+					public RandomAccessibleInterval< UnsignedShortType > getImage(int timepointId,
+							ImgLoaderHint... hints)
+					{
+						Img< UnsignedShortType > raiout = new ArrayImgFactory<UnsignedShortType>().create( d0, new UnsignedShortType() );
+						for (UnsignedShortType t : raiout)
+							t.set( setupId );
+						return raiout;
+						
+					}
+
+					@Override
+					public UnsignedShortType getImageType(){return new UnsignedShortType();}
+
+					@Override
+					public RandomAccessibleInterval< FloatType > getFloatImage(int timepointId, boolean normalize,
+							ImgLoaderHint... hints)
+					{
+						Img< FloatType > raiout = new ArrayImgFactory<FloatType>().create( d0, new FloatType() );
+						for (FloatType t : raiout)
+							t.set( setupId );
+						return raiout;
+					}
+
+					@Override
+					public Dimensions getImageSize(int timepointId){return d0;}
+					@Override
+					public VoxelDimensions getVoxelSize(int timepointId){return vd0;}
+					
+				};
+			}
+		};
+		
+		for ( final ViewSetup vs : setups )
+		{
+			final ViewRegistration vr = new ViewRegistration( t.get( 0 ).getId(), vs.getId() );
+			registrations.add( vr );
+		}
+
+		final SequenceDescription sd = new SequenceDescription( timepoints, setups, imgLoader, missingViews );
+
+		final GroupedViewAggregator gva = new GroupedViewAggregator();
+		//gva.addAction( ActionType.PICK_SPECIFIC, Illumination.class, new Illumination( 0 ) );
+		//gva.addAction( ActionType.PICK_SPECIFIC, Illumination.class, new Illumination( 1 ) );
+		gva.addAction( ActionType.AVERAGE, Illumination.class, null );
+		gva.addAction( ActionType.PICK_BRIGHTEST, Channel.class, null );
+		
+		List<ViewId> setupsVID = new ArrayList<>();
+		setupsVID.add( new ViewId(0,0) );
+		setupsVID.add( new ViewId(0,1) );
+		setupsVID.add( new ViewId(0,2) );
+		setupsVID.add( new ViewId(0,3) );
+		Group<ViewId> gv = new Group<>( setupsVID );
+
+		final ExecutorService taskExecutor = Executors.newFixedThreadPool( Threads.numThreads() );
+
+		RandomAccessibleInterval< FloatType > res = (RandomAccessibleInterval< FloatType >) gva.aggregate( gv, sd, new long[] {1,1,1} , new AffineTransform3D(), taskExecutor );
+		System.out.println( Views.iterable( res ).firstElement().getClass() );
+		if (res != null)
+			ImageJFunctions.show( res );
+
+		taskExecutor.shutdown();
+		new ImageJ();
+		
+	}
+}
@@ -0,0 +1,160 @@
+/*-
+ * #%L
+ * Multiview stitching of large datasets.
+ * %%
+ * Copyright (C) 2016 - 2024 Big Stitcher developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.stitcher.algorithm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import mpicbg.spim.data.sequence.ViewId;
+import net.imglib2.FinalInterval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.type.numeric.complex.ComplexFloatType;
+import net.imglib2.util.Pair;
+import net.imglib2.util.ValuePair;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
+
+public class PairwiseFFTCacheTest
+{
+	final Group< ViewId > groupA = new Group<>( Arrays.asList( new ViewId( 0, 0 ) ) );
+	final Group< ViewId > groupB = new Group<>( Arrays.asList( new ViewId( 0, 1 ) ) );
+	final Group< ViewId > groupC = new Group<>( Arrays.asList( new ViewId( 0, 2 ) ) );
+
+	final long[] downsampling = new long[] { 1, 1 };
+	final long[] paddedSize = new long[] { 64, 64 };
+	final FinalInterval interval = new FinalInterval( 50, 50 );
+
+	// 33 * 64 complex pixels, 8 bytes each
+	final long bytesPerFFT = 33 * 64 * 8;
+
+	private PairwiseFFTCache.FFTKey key( final Group< ViewId > group )
+	{
+		return new PairwiseFFTCache.FFTKey( group, downsampling, interval, paddedSize );
+	}
+
+	private static RandomAccessibleInterval< ComplexFloatType > fft( final AtomicInteger counter )
+	{
+		counter.incrementAndGet();
+		return ArrayImgs.complexFloats( 33, 64 );
+	}
+
+	@Test
+	public void testEveryGroupIsComputedOnce() throws Exception
+	{
+		final PairwiseFFTCache cache = new PairwiseFFTCache( Long.MAX_VALUE );
+		final AtomicInteger counter = new AtomicInteger();
+
+		// many threads ask for the same FFT at the same time
+		final ExecutorService service = Executors.newFixedThreadPool( 8 );
+		final List< Future< RandomAccessibleInterval< ComplexFloatType > > > futures = new ArrayList<>();
+		for ( int i = 0; i < 32; ++i )
+			futures.add( service.submit( () -> cache.getFFT( key( groupA ), () -> { Thread.sleep( 10 ); return fft( counter ); } ) ) );
+
+		for ( final Future< RandomAccessibleInterval< ComplexFloatType > > f : futures )
+			assertSame( futures.get( 0 ).get(), f.get() );
+
+		service.shutdown();
+
+		assertEquals( 1, counter.get() );
+		assertEquals( 1, cache.size() );
+		assertEquals( bytesPerFFT, cache.getCurrentBytes() );
+	}
+
+	@Test
+	public void testReleaseAfterLastPair() throws Exception
+	{
+		final PairwiseFFTCache cache = new PairwiseFFTCache( Long.MAX_VALUE );
+		final AtomicInteger counter = new AtomicInteger();
+
+		final List< Pair< Group< ViewId >, Group< ViewId > > > pairs = new ArrayList<>();
+		pairs.add( new ValuePair<>( groupA, groupB ) );
+		pairs.add( new ValuePair<>( groupA, groupC ) );
+		cache.registerPairs( pairs );
+
+		cache.getFFT( key( groupA ), () -> fft( counter ) );
+		cache.getFFT( key( groupB ), () -> fft( counter ) );
+		cache.pairDone( groupA, groupB );
+
+		// B is not needed anymore, A is still part of (A,C)
+		assertEquals( 1, cache.size() );
+		cache.getFFT( key( groupA ), () -> fft( counter ) );
+		cache.getFFT( key( groupC ), () -> fft( counter ) );
+		assertEquals( 3, counter.get() );
+
+		cache.pairDone( groupA, groupC );
+		assertEquals( 0, cache.size() );
+		assertEquals( 0, cache.getCurrentBytes() );
+	}
+
+	@Test
+	public void testEvictLeastRecentlyUsed() throws Exception
+	{
+		final PairwiseFFTCache cache = new PairwiseFFTCache( bytesPerFFT * 2 );
+		final AtomicInteger counter = new AtomicInteger();
+
+		cache.getFFT( key( groupA ), () -> fft( counter ) );
+		cache.getFFT( key( groupB ), () -> fft( counter ) );
+		cache.getFFT( key( groupA ), () -> fft( counter ) );
+		cache.getFFT( key( groupC ), () -> fft( counter ) );
+
+		// B was used least recently
+		assertEquals( 2, cache.size() );
+		assertEquals( bytesPerFFT * 2, cache.getCurrentBytes() );
+		cache.getFFT( key( groupA ), () -> fft( counter ) );
+		assertEquals( 3, counter.get() );
+		cache.getFFT( key( groupB ), () -> fft( counter ) );
+		assertEquals( 4, counter.get() );
+	}
+
+	@Test
+	public void testFailedComputationIsNotCached() throws Exception
+	{
+		final PairwiseFFTCache cache = new PairwiseFFTCache( Long.MAX_VALUE );
+		final AtomicInteger counter = new AtomicInteger();
+
+		try
+		{
+			cache.getFFT( key( groupA ), () -> { throw new IllegalStateException( "failed" ); } );
+			fail( "expected an ExecutionException" );
+		}
+		catch ( final ExecutionException e )
+		{
+			assertEquals( IllegalStateException.class, e.getCause().getClass() );
+		}
+
+		assertEquals( 0, cache.size() );
+		cache.getFFT( key( groupA ), () -> fft( counter ) );
+		assertEquals( 1, counter.get() );
+	}
+}
@@ -0,0 +1,125 @@
+/*-
+ * #%L
+ * Multiview stitching of large datasets.
+ * %%
+ * Copyright (C) 2016 - 2024 Big Stitcher developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.stitcher.algorithm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import mpicbg.spim.data.sequence.ViewId;
+import net.imglib2.FinalRealInterval;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.util.ValuePair;
+import net.preibisch.mvrecon.fiji.spimdata.stitchingresults.PairwiseStitchingResult;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
+
+public class PairwiseResultCacheTest
+{
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	final Group< ViewId > groupA = new Group<>( Arrays.asList( new ViewId( 0, 0 ), new ViewId( 0, 1 ) ) );
+	final Group< ViewId > groupB = new Group<>( Arrays.asList( new ViewId( 0, 2 ) ) );
+	final Group< ViewId > groupC = new Group<>( Arrays.asList( new ViewId( 0, 3 ) ) );
+
+	final String parameterKey = PairwiseResultCache.getParameterKey( new long[] { 2, 2, 1 }, new PairwiseStitchingParameters(), null );
+
+	@Test
+	public void testRoundTrip() throws IOException
+	{
+		final File file = folder.newFile( "dataset.xml.pairwise.txt" );
+		file.delete();
+
+		final AffineTransform3D transform = new AffineTransform3D();
+		transform.translate( 10.5, -3.25, 1 );
+
+		final PairwiseResultCache cache = new PairwiseResultCache( file );
+		cache.put( new PairwiseStitchingResult<>( new ValuePair<>( groupA, groupB ),
+				new FinalRealInterval( new double[] { 0, 0, 0 }, new double[] { 100, 50, 20 } ), transform, 0.85, 42.0 ), parameterKey );
+		cache.putFailed( groupA, groupC, 43.0, parameterKey );
+		cache.save();
+
+		final PairwiseResultCache loaded = new PairwiseResultCache( file );
+		loaded.load();
+
+		assertEquals( 2, loaded.size() );
+
+		final PairwiseStitchingResult< ViewId > psr = loaded.get( groupA, groupB, 42.0, parameterKey );
+		assertNotNull( psr );
+		assertEquals( 0.85, psr.r(), 0 );
+		assertEquals( 42.0, psr.getHash(), 0 );
+		assertTrue( Arrays.equals( transform.getRowPackedCopy(), psr.getTransform().getRowPackedCopy() ) );
+		assertEquals( 100, psr.getBoundingBox().realMax( 0 ), 0 );
+		assertEquals( 20, psr.getBoundingBox().realMax( 2 ), 0 );
+
+		assertTrue( loaded.hasFailed( groupA, groupC, 43.0, parameterKey ) );
+		assertFalse( loaded.hasFailed( groupA, groupB, 42.0, parameterKey ) );
+
+		// other settings are not known
+		final String otherKey = PairwiseResultCache.getParameterKey( new long[] { 1, 1, 1 }, new PairwiseStitchingParameters(), null );
+		assertNull( loaded.get( groupA, groupB, 42.0, otherKey ) );
+		assertFalse( loaded.hasFailed( groupA, groupC, 43.0, otherKey ) );
+	}
+
+	@Test
+	public void testOutdatedAndDuplicateEntries() throws IOException
+	{
+		final File file = folder.newFile( "dataset.xml.pairwise.txt" );
+		file.delete();
+
+		final PairwiseResultCache cache = new PairwiseResultCache( file );
+		cache.put( new PairwiseStitchingResult<>( new ValuePair<>( groupA, groupB ), null, new AffineTransform3D(), 0.9, 1.0 ), parameterKey );
+		cache.putFailed( groupA, groupC, 2.0, parameterKey );
+		cache.save();
+
+		// append all entries again, later entries replace earlier ones
+		final List< String > lines = Files.readAllLines( file.toPath(), StandardCharsets.UTF_8 );
+		Files.write( file.toPath(), lines.subList( 1, lines.size() ), StandardCharsets.UTF_8, StandardOpenOption.APPEND );
+
+		final PairwiseResultCache loaded = new PairwiseResultCache( file );
+		loaded.load();
+		assertEquals( 2, loaded.size() );
+
+		// the registrations changed, both entries are outdated
+		assertNull( loaded.get( groupA, groupB, 3.0, parameterKey ) );
+		assertFalse( loaded.hasFailed( groupA, groupC, 4.0, parameterKey ) );
+		assertEquals( 0, loaded.size() );
+
+		// the file is compacted
+		loaded.save();
+		assertEquals( 1, Files.readAllLines( file.toPath(), StandardCharsets.UTF_8 ).size() );
+	}
+}
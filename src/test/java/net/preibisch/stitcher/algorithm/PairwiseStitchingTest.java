@@ -0,0 +1,89 @@
+/*-
+ * #%L
+ * Multiview stitching of large datasets.
+ * %%
+ * Copyright (C) 2016 - 2024 Big Stitcher developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.stitcher.algorithm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.realtransform.Translation;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Pair;
+import net.imglib2.view.Views;
+
+public class PairwiseStitchingTest
+{
+	public static long seed = 4353;
+
+	@Test
+	public void testWindowedShiftReportsCorrelationOfWholeOverlap()
+	{
+		final ExecutorService service = Executors.newFixedThreadPool( Runtime.getRuntime().availableProcessors() );
+		final Random rnd = new Random( seed );
+
+		final Img< FloatType > big = ArrayImgs.floats( 220, 170 );
+		for ( final FloatType t : big )
+			t.set( rnd.nextFloat() );
+
+		// two tiles, the second one is 3,2 pixels off from where the metadata puts it
+		final RandomAccessibleInterval< FloatType > img1 = Views.zeroMin( Views.interval( big, new long[] { 0, 0 }, new long[] { 119, 149 } ) );
+		final Img< FloatType > img2 = ArrayImgs.floats( 120, 150 );
+		final Cursor< FloatType > c = img2.localizingCursor();
+		final RandomAccess< FloatType > ra = big.randomAccess();
+		while ( c.hasNext() )
+		{
+			c.fwd();
+			ra.setPosition( new long[] { c.getLongPosition( 0 ) + 83, c.getLongPosition( 1 ) + 2 } );
+			c.get().set( ra.get() );
+
+			// the part of the overlap outside of the central window does not match well
+			if ( c.getLongPosition( 1 ) < 50 )
+				c.get().set( c.get().get() + 2 * (float) rnd.nextGaussian() );
+		}
+
+		final Translation t1 = new Translation( 0, 0 );
+		final Translation t2 = new Translation( 80, 0 );
+		final PairwiseStitchingParameters params = new PairwiseStitchingParameters( 0, 5, true, false, false );
+
+		final Pair< Translation, Double > whole = PairwiseStitching.getShift( img1, img2, t1, t2, params, service, null, null, null, null, 0, -1, null );
+		final Pair< Translation, Double > windowed = PairwiseStitching.getShift( img1, img2, t1, t2, params, service, null, null, null, null, 20, 4, null );
+
+		for ( int d = 0; d < 2; ++d )
+			assertEquals( whole.getA().getTranslation( d ), windowed.getA().getTranslation( d ), 0.25 );
+
+		// not the (much better) correlation of the window
+		assertTrue( whole.getB() < 0.9 );
+		assertEquals( whole.getB(), windowed.getB(), 1e-5 );
+
+		service.shutdown();
+	}
+}
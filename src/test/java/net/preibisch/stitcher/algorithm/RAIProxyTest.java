@@ -0,0 +1,151 @@
+/*-
+ * #%L
+ * Multiview stitching of large datasets.
+ * %%
+ * Copyright (C) 2016 - 2024 Big Stitcher developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.stitcher.algorithm;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import mpicbg.spim.data.generic.sequence.BasicImgLoader;
+import mpicbg.spim.data.generic.sequence.BasicSetupImgLoader;
+import mpicbg.spim.data.generic.sequence.ImgLoaderHint;
+import mpicbg.spim.data.sequence.ViewId;
+import net.imglib2.Cursor;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.array.ShortArray;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.view.Views;
+import net.preibisch.mvrecon.process.downsampling.DownsampleTools;
+
+public class RAIProxyTest
+{
+	public static long seed = 4353;
+
+	final ViewId vid = new ViewId( 0, 0 );
+
+	private static BasicImgLoader imgLoader( final RandomAccessibleInterval< UnsignedShortType > img )
+	{
+		final BasicSetupImgLoader< UnsignedShortType > setupImgLoader = new BasicSetupImgLoader< UnsignedShortType >()
+		{
+			@Override
+			public RandomAccessibleInterval< UnsignedShortType > getImage( final int timepointId, final ImgLoaderHint... hints )
+			{
+				return img;
+			}
+
+			@Override
+			public UnsignedShortType getImageType()
+			{
+				return new UnsignedShortType();
+			}
+		};
+
+		return setupId -> setupImgLoader;
+	}
+
+	private static ArrayImg< UnsignedShortType, ShortArray > randomImage( final long... dims )
+	{
+		final Random rnd = new Random( seed );
+		final ArrayImg< UnsignedShortType, ShortArray > img = ArrayImgs.unsignedShorts( dims );
+		for ( final UnsignedShortType t : img )
+			t.set( rnd.nextInt( 4096 ) );
+		return img;
+	}
+
+	/**
+	 * the region must contain the same pixels as the same region of the whole image opened and downsampled
+	 * by openAndDownsample, so the mipmap transform and thus the shifts stay the same
+	 */
+	private void assertRegionMatchesWholeImage( final long[] dims, final long[] downsampleFactors, final Interval region )
+	{
+		final BasicImgLoader imgLoader = imgLoader( randomImage( dims ) );
+
+		@SuppressWarnings( "unchecked" )
+		final RandomAccessibleInterval< UnsignedShortType > whole = DownsampleTools.openAndDownsample( imgLoader, vid, downsampleFactors, false ).getA();
+		final RandomAccessibleInterval< UnsignedShortType > proxy = new RAIProxy<>( imgLoader, vid, downsampleFactors, region );
+
+		// same dimensions as the whole downsampled image
+		for ( int d = 0; d < whole.numDimensions(); ++d )
+		{
+			assertEquals( whole.min( d ), proxy.min( d ) );
+			assertEquals( whole.max( d ), proxy.max( d ) );
+		}
+
+		final Cursor< UnsignedShortType > cursor = Views.interval( whole, region ).localizingCursor();
+		final RandomAccess< UnsignedShortType > ra = proxy.randomAccess();
+
+		while ( cursor.hasNext() )
+		{
+			cursor.fwd();
+			ra.setPosition( cursor );
+			assertEquals( "at " + Arrays.toString( cursor.positionAsLongArray() ), cursor.get().get(), ra.get().get() );
+		}
+	}
+
+	@Test
+	public void testRegionMatchesOpenAndDownsample()
+	{
+		assertRegionMatchesWholeImage( new long[] { 64, 48, 20 }, new long[] { 4, 2, 2 }, new FinalInterval( new long[] { 3, 5, 2 }, new long[] { 9, 15, 6 } ) );
+	}
+
+	@Test
+	public void testRegionAtImageBorderMatchesOpenAndDownsample()
+	{
+		// odd dimensions, the last incomplete block is dropped by the downsampling
+		assertRegionMatchesWholeImage( new long[] { 67, 45, 21 }, new long[] { 2, 4, 2 }, new FinalInterval( new long[] { 20, 0, 0 }, new long[] { 32, 10, 9 } ) );
+	}
+
+	@Test
+	public void testRegionWithoutDownsamplingMatches()
+	{
+		assertRegionMatchesWholeImage( new long[] { 30, 20, 10 }, new long[] { 1, 1, 1 }, new FinalInterval( new long[] { 4, 4, 1 }, new long[] { 20, 12, 8 } ) );
+	}
+
+	@Test
+	public void testOutsideOfRegionRepeatsBorder()
+	{
+		final long[] downsampleFactors = new long[] { 2, 2, 1 };
+		final BasicImgLoader imgLoader = imgLoader( randomImage( 40, 40, 10 ) );
+		final FinalInterval region = new FinalInterval( new long[] { 5, 6, 2 }, new long[] { 12, 14, 7 } );
+
+		final RandomAccessibleInterval< UnsignedShortType > proxy = new RAIProxy<>( imgLoader, vid, downsampleFactors, region );
+		final RandomAccess< UnsignedShortType > outside = proxy.randomAccess();
+		final RandomAccess< UnsignedShortType > border = proxy.randomAccess();
+
+		// e.g. a warp of Lucas-Kanade sampling past the region sees its border, not zeros
+		outside.setPosition( new long[] { 0, 19, 0 } );
+		border.setPosition( new long[] { 5, 14, 2 } );
+		assertEquals( border.get().get(), outside.get().get() );
+
+		outside.setPosition( new long[] { 16, 10, 9 } );
+		border.setPosition( new long[] { 12, 10, 7 } );
+		assertEquals( border.get().get(), outside.get().get() );
+	}
+}
@@ -0,0 +1,88 @@
+/*-
+ * #%L
+ * Multiview stitching of large datasets.
+ * %%
+ * Copyright (C) 2016 - 2024 Big Stitcher developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.stitcher.algorithm;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import net.imglib2.FinalRealInterval;
+import net.imglib2.RealInterval;
+
+public class SpatialGridIndexTest
+{
+
+	public static long seed = 4353;
+
+	@Test
+	public void testQueryMatchesBruteForce()
+	{
+		final Random rnd = new Random( seed );
+
+		// tiles of varying size on a jittered grid (incl. negative coordinates and touching tiles)
+		final List< Integer > ids = new ArrayList<>();
+		final List< RealInterval > bounds = new ArrayList<>();
+		for ( int i = 0; i < 200; ++i )
+		{
+			final double[] min = new double[ 3 ];
+			final double[] max = new double[ 3 ];
+			for ( int d = 0; d < 3; ++d )
+			{
+				min[ d ] = ( rnd.nextInt( 10 ) - 5 ) * 90 + ( rnd.nextBoolean() ? 0 : rnd.nextDouble() * 20 );
+				max[ d ] = min[ d ] + 50 + rnd.nextInt( 4 ) * 20;
+			}
+			ids.add( i );
+			bounds.add( new FinalRealInterval( min, max ) );
+		}
+
+		final SpatialGridIndex< Integer > index = SpatialGridIndex.create( ids, bounds );
+		assertEquals( ids.size(), index.size() );
+
+		// query with the indexed boxes and with boxes of other sizes
+		final List< RealInterval > queries = new ArrayList<>( bounds );
+		for ( int i = 0; i < 50; ++i )
+		{
+			final double[] min = new double[ 3 ];
+			final double[] max = new double[ 3 ];
+			for ( int d = 0; d < 3; ++d )
+			{
+				min[ d ] = rnd.nextDouble() * 1000 - 500;
+				max[ d ] = min[ d ] + rnd.nextDouble() * 400;
+			}
+			queries.add( new FinalRealInterval( min, max ) );
+		}
+
+		for ( final RealInterval query : queries )
+		{
+			final List< Integer > correct = new ArrayList<>();
+			for ( int i = 0; i < bounds.size(); ++i )
+				if ( BruteForceOverlap.intersects( bounds.get( i ), query ) )
+					correct.add( ids.get( i ) );
+
+			assertEquals( correct, index.query( query ) );
+		}
+	}
+}
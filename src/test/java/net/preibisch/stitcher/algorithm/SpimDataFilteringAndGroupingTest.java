@@ -0,0 +1,76 @@
+/*-
+ * #%L
+ * Multiview stitching of large datasets.
+ * %%
+ * Copyright (C) 2016 - 2024 Big Stitcher developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.stitcher.algorithm;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import mpicbg.spim.data.generic.base.Entity;
+import mpicbg.spim.data.sequence.Channel;
+import mpicbg.spim.data.sequence.Tile;
+import net.preibisch.mvrecon.fiji.spimdata.SpimData2;
+import net.preibisch.stitcher.input.GenerateSpimData;
+
+public class SpimDataFilteringAndGroupingTest
+{
+
+	@Test
+	public void testGroupsFollowDirectChanges()
+	{
+		final SpimData2 data = GenerateSpimData.grid3x2();
+		final SpimDataFilteringAndGrouping< SpimData2 > grouping = new SpimDataFilteringAndGrouping<>( data );
+
+		// 4 tiles x 3 channels, one group per view
+		assertEquals( 12, grouping.getGroupedViews( false ).size() );
+		assertEquals( 12, grouping.getGroupIndex( false ).size() );
+
+		// the returned collections are still the live ones, changing them must not leave stale groups
+		grouping.getGroupingFactors().add( Channel.class );
+		assertEquals( 3, grouping.getGroupedViews( false ).size() );
+		assertEquals( 3, grouping.getGroupedViews( true ).size() );
+
+		grouping.getGroupingFactors().remove( Channel.class );
+		assertEquals( 12, grouping.getGroupedViews( true ).size() );
+
+		final List< Entity > tiles = new ArrayList<>( Arrays.asList( data.getSequenceDescription().getViewSetups().get( 0 ).getTile() ) );
+		grouping.getFilters().put( Tile.class, tiles );
+		assertEquals( 3, grouping.getGroupedViews( true ).size() );
+		assertEquals( 12, grouping.getGroupedViews( false ).size() );
+
+		// the filter list passed in is not copied either
+		tiles.add( data.getSequenceDescription().getViewSetups().get( 1 ).getTile() );
+		assertEquals( 6, grouping.getGroupedViews( true ).size() );
+		assertEquals( 6, grouping.getGroupIndex( true ).size() );
+
+		grouping.getFilters().clear();
+		assertEquals( 12, grouping.getGroupedViews( true ).size() );
+
+		// the mutators still work
+		grouping.addGroupingFactor( Tile.class );
+		assertEquals( 4, grouping.getGroupedViews( true ).size() );
+	}
+}
@@ -0,0 +1,86 @@
+/*-
+ * #%L
+ * Multiview stitching of large datasets.
+ * %%
+ * Copyright (C) 2016 - 2024 Big Stitcher developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.stitcher.algorithm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import net.imglib2.FinalInterval;
+import net.imglib2.util.Intervals;
+
+public class TransformToolsTest
+{
+
+	@Test
+	public void testSampleBlocks()
+	{
+		// larger than the block size in all dimensions: 3^3 blocks, the outer ones at the borders
+		List< FinalInterval > blocks = TransformTools.getSampleBlocks( new FinalInterval( new long[] { -10, 0, 5 }, new long[] { 89, 63, 104 } ), 16, 3 );
+		assertEquals( 27, blocks.size() );
+		assertEquals( -10, blocks.get( 0 ).min( 0 ) );
+		assertEquals( 89, blocks.get( 26 ).max( 0 ) );
+		check( new FinalInterval( new long[] { -10, 0, 5 }, new long[] { 89, 63, 104 } ), 16, blocks );
+
+		// not larger than the block size in some dimensions: a single block there, not 3 identical ones
+		final FinalInterval interval = new FinalInterval( new long[] { 0, 0, 0 }, new long[] { 99, 15, 9 } );
+		blocks = TransformTools.getSampleBlocks( interval, 16, 3 );
+		assertEquals( 3, blocks.size() );
+		check( interval, 16, blocks );
+
+		// block size larger than the interval: the interval itself
+		blocks = TransformTools.getSampleBlocks( interval, 128, 3 );
+		assertEquals( 1, blocks.size() );
+		assertTrue( Intervals.equals( interval, blocks.get( 0 ) ) );
+
+		// a single block per dimension is centered
+		blocks = TransformTools.getSampleBlocks( interval, 8, 1 );
+		assertEquals( 1, blocks.size() );
+		assertTrue( Intervals.equals( new FinalInterval( new long[] { 46, 4, 1 }, new long[] { 53, 11, 8 } ), blocks.get( 0 ) ) );
+	}
+
+	/*
+	 * all blocks are different, inside the interval and of the block size (or the size of the interval)
+	 */
+	private static void check( final FinalInterval interval, final int blockSize, final List< FinalInterval > blocks )
+	{
+		final Set< String > distinct = new HashSet<>();
+
+		for ( final FinalInterval block : blocks )
+		{
+			assertTrue( Intervals.contains( interval, block ) );
+
+			for ( int d = 0; d < interval.numDimensions(); ++d )
+				assertEquals( Math.min( blockSize, interval.dimension( d ) ), block.dimension( d ) );
+
+			distinct.add( Arrays.toString( Intervals.minAsLongArray( block ) ) );
+		}
+
+		assertEquals( blocks.size(), distinct.size() );
+	}
+}
@@ -0,0 +1,69 @@
+/*-
+ * #%L
+ * Multiview stitching of large datasets.
+ * %%
+ * Copyright (C) 2016 - 2024 Big Stitcher developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.stitcher.algorithm.fastfusion;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class BlendingProfilesTest
+{
+	@Test
+	public void testProfilesMatchComputeWeight()
+	{
+		final long[] dimensions = new long[] { 40, 23, 9 };
+		final int[] min = new int[ 3 ];
+		final int[] dimMinus1 = new int[] { 39, 22, 8 };
+		final float[] border = new float[] { 0, 2, 1.5f };
+		final float[] blending = new float[] { 10, 5, 3 };
+
+		for ( final float[] offset : new float[][] { { 0, 0, 0 }, { 0.3f, 0.75f, 0.5f } } )
+		{
+			final float[][] profiles = BlendingProfiles.getProfiles( dimensions, offset, border, blending );
+			final long[] position = new long[ 3 ];
+			final float[] location = new float[ 3 ];
+
+			for ( position[ 2 ] = 0; position[ 2 ] <= dimensions[ 2 ]; ++position[ 2 ] )
+				for ( position[ 1 ] = 0; position[ 1 ] <= dimensions[ 1 ]; ++position[ 1 ] )
+					for ( position[ 0 ] = 0; position[ 0 ] <= dimensions[ 0 ]; ++position[ 0 ] )
+					{
+						for ( int d = 0; d < 3; ++d )
+							location[ d ] = position[ d ] - offset[ d ];
+
+						assertEquals(
+								BlendingTools.computeWeight( location, min, dimMinus1, border, blending, 3 ),
+								BlendingProfiles.weight( profiles, position ), 1e-6 );
+					}
+
+			// outside of the profiles
+			assertEquals( 0, BlendingProfiles.weight( profiles, new long[] { -1, 10, 4 } ), 0 );
+			assertEquals( 0, BlendingProfiles.weight( profiles, new long[] { 20, 10, dimensions[ 2 ] + 1 } ), 0 );
+		}
+	}
+
+	@Test
+	public void testProfilesAreShared()
+	{
+		assertSame( BlendingProfiles.getProfile( 100, 0.5f, 0, 20 ), BlendingProfiles.getProfile( 100, 0.5f, 0, 20 ) );
+	}
+}
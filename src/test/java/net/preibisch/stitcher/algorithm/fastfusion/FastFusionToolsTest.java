@@ -0,0 +1,207 @@
+/*-
+ * #%L
+ * Multiview stitching of large datasets.
+ * %%
+ * Copyright (C) 2016 - 2024 Big Stitcher developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.stitcher.algorithm.fastfusion;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import net.imglib2.Cursor;
+import net.imglib2.IterableInterval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.cell.CellImgFactory;
+import net.imglib2.type.numeric.RealType;
+import net.imglib2.type.numeric.real.DoubleType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+public class FastFusionToolsTest
+{
+	public static long seed = 4353;
+
+	static ExecutorService service;
+
+	@BeforeClass
+	public static void init()
+	{
+		service = Executors.newFixedThreadPool( 4 );
+	}
+
+	@AfterClass
+	public static void shutdown()
+	{
+		service.shutdown();
+	}
+
+	@Test
+	public void testAddTranslatedMatchesPerPixel()
+	{
+		testRandomized( false );
+	}
+
+	@Test
+	public void testAlphaBlendTranslatedMatchesPerPixel()
+	{
+		testRandomized( true );
+	}
+
+	/*
+	 * random sizes and translations (partial overlap, negative, completely outside of out),
+	 * for all combinations of flat (ArrayImg of FloatType), cell, other type and translated (non-zero-min) images
+	 */
+	static void testRandomized( final boolean alphaBlend )
+	{
+		final Random rnd = new Random( seed );
+
+		for ( int trial = 0; trial < 200; ++trial )
+		{
+			final int n = 1 + rnd.nextInt( 3 );
+			final long[] inDim = new long[ n ];
+			final long[] outDim = new long[ n ];
+			final int[] translation = new int[ n ];
+			final long[] outMin = new long[ n ];
+
+			for ( int d = 0; d < n; ++d )
+			{
+				inDim[ d ] = 1 + rnd.nextInt( 12 );
+				outDim[ d ] = 1 + rnd.nextInt( 12 );
+				outMin[ d ] = rnd.nextInt( 7 ) - 3;
+
+				// every 10th trial completely outside of out
+				translation[ d ] = trial % 10 == 0 && d == 0 ? (int) ( outDim[ d ] + outMin[ d ] + rnd.nextInt( 3 ) ) : rnd.nextInt( 30 ) - 15;
+			}
+
+			for ( final ImgKind inKind : ImgKind.values() )
+				for ( final ImgKind outKind : ImgKind.values() )
+				{
+					final Random values = new Random( seed + trial );
+					final RandomAccessibleInterval< ? extends RealType< ? > > in = inKind.create( inDim, outMin, values );
+					final RandomAccessibleInterval< ? extends RealType< ? > > out = outKind.create( outDim, outMin, values );
+					final RandomAccessibleInterval< ? extends RealType< ? > > expected = outKind.create( outDim, outMin, new Random( 0 ) );
+					copy( out, expected );
+
+					combinePerPixel( Views.iterable( in ), expected, translation, alphaBlend );
+					combine( Views.iterable( in ), out, translation, alphaBlend );
+
+					final String msg = "trial " + trial + ", " + inKind + " -> " + outKind + ", alpha blend " + alphaBlend;
+					assertImagesEqual( msg, expected, out );
+				}
+		}
+	}
+
+	@SuppressWarnings( { "rawtypes", "unchecked" } )
+	static void combine( final IterableInterval in, final RandomAccessibleInterval out, final int[] translation, final boolean alphaBlend )
+	{
+		if ( alphaBlend )
+			FastFusionTools.alphaBlendTranslated( in, out, translation, service );
+		else
+			FastFusionTools.addTranslated( in, out, translation, service );
+	}
+
+	/* the per-pixel loop of addTranslated/alphaBlendTranslated before the flat and interval paths */
+	static void combinePerPixel(
+			final IterableInterval< ? extends RealType< ? > > in,
+			final RandomAccessibleInterval< ? extends RealType< ? > > out,
+			final int[] translation,
+			final boolean alphaBlend )
+	{
+		final Cursor< ? extends RealType< ? > > inC = in.localizingCursor();
+		final RandomAccess< ? extends RealType< ? > > outRA = out.randomAccess();
+
+		while ( inC.hasNext() )
+		{
+			inC.fwd();
+			outRA.setPosition( inC );
+			outRA.move( translation );
+
+			boolean oob = false;
+			for ( int d = 0; d < out.numDimensions(); d++ )
+				if ( outRA.getLongPosition( d ) > out.max( d ) || outRA.getLongPosition( d ) < out.min( d ) )
+					oob = true;
+			if ( oob )
+				continue;
+
+			final double aI = inC.get().getRealDouble();
+			final double aO = outRA.get().getRealDouble();
+			outRA.get().setReal( alphaBlend ? aO + ( 1 - aO ) * aI : aO + aI );
+		}
+	}
+
+	enum ImgKind
+	{
+		FLAT, CELL, DOUBLE, TRANSLATED;
+
+		/* image with values in [0,1) */
+		RandomAccessibleInterval< ? extends RealType< ? > > create( final long[] dim, final long[] min, final Random rnd )
+		{
+			final RandomAccessibleInterval< ? extends RealType< ? > > img;
+
+			switch ( this )
+			{
+			case CELL:
+				img = new CellImgFactory<>( new FloatType(), 3 ).create( dim );
+				break;
+			case DOUBLE:
+				img = ArrayImgs.doubles( dim );
+				break;
+			case TRANSLATED:
+				img = Views.translate( ArrayImgs.floats( dim ), min );
+				break;
+			default:
+				img = ArrayImgs.floats( dim );
+			}
+
+			for ( final RealType< ? > t : Views.flatIterable( img ) )
+				t.setReal( rnd.nextFloat() );
+
+			return img;
+		}
+	}
+
+	static void copy( final RandomAccessibleInterval< ? extends RealType< ? > > from, final RandomAccessibleInterval< ? extends RealType< ? > > to )
+	{
+		final Cursor< ? extends RealType< ? > > c1 = Views.flatIterable( from ).cursor();
+		final Cursor< ? extends RealType< ? > > c2 = Views.flatIterable( to ).cursor();
+		while ( c1.hasNext() )
+			c2.next().setReal( c1.next().getRealDouble() );
+	}
+
+	static void assertImagesEqual( final String msg, final RandomAccessibleInterval< ? extends RealType< ? > > expected, final RandomAccessibleInterval< ? extends RealType< ? > > actual )
+	{
+		assertEquals( msg, Intervals.numElements( expected ), Intervals.numElements( actual ) );
+
+		final Cursor< ? extends RealType< ? > > c1 = Views.flatIterable( expected ).cursor();
+		final Cursor< ? extends RealType< ? > > c2 = Views.flatIterable( actual ).cursor();
+		while ( c1.hasNext() )
+			assertEquals( msg, c1.next().getRealDouble(), c2.next().getRealDouble(), 1e-6 );
+	}
+}
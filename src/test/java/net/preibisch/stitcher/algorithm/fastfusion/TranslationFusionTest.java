@@ -0,0 +1,229 @@
+/*-
+ * #%L
+ * Multiview stitching of large datasets.
+ * %%
+ * Copyright (C) 2016 - 2024 Big Stitcher developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.stitcher.algorithm.fastfusion;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import mpicbg.spim.data.generic.sequence.ImgLoaderHint;
+import mpicbg.spim.data.registration.ViewRegistration;
+import mpicbg.spim.data.registration.ViewRegistrations;
+import mpicbg.spim.data.registration.ViewTransformAffine;
+import mpicbg.spim.data.sequence.Angle;
+import mpicbg.spim.data.sequence.Channel;
+import mpicbg.spim.data.sequence.FinalVoxelDimensions;
+import mpicbg.spim.data.sequence.Illumination;
+import mpicbg.spim.data.sequence.ImgLoader;
+import mpicbg.spim.data.sequence.MissingViews;
+import mpicbg.spim.data.sequence.SequenceDescription;
+import mpicbg.spim.data.sequence.SetupImgLoader;
+import mpicbg.spim.data.sequence.Tile;
+import mpicbg.spim.data.sequence.TimePoint;
+import mpicbg.spim.data.sequence.TimePoints;
+import mpicbg.spim.data.sequence.ViewId;
+import mpicbg.spim.data.sequence.ViewSetup;
+import mpicbg.spim.data.sequence.VoxelDimensions;
+import net.imglib2.Dimensions;
+import net.imglib2.FinalDimensions;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.preibisch.mvrecon.fiji.spimdata.SpimData2;
+import net.preibisch.mvrecon.fiji.spimdata.boundingbox.BoundingBoxes;
+import net.preibisch.mvrecon.fiji.spimdata.intensityadjust.IntensityAdjustments;
+import net.preibisch.mvrecon.fiji.spimdata.interestpoints.ViewInterestPoints;
+import net.preibisch.mvrecon.fiji.spimdata.pointspreadfunctions.PointSpreadFunctions;
+import net.preibisch.mvrecon.fiji.spimdata.stitchingresults.StitchingResults;
+
+public class TranslationFusionTest
+{
+	public static long seed = 4353;
+
+	// 2x2 tiles that overlap by 10 pixels, two of them with a subpixel offset
+	static final double[][] offsets = { { 0, 0, 0 }, { 30, 0.5, 0 }, { 0.25, 30, 1 }, { 30, 30, 0 } };
+	static final long[] size = { 40, 40, 6 };
+
+	@Test
+	public void testBlocksOpenEveryViewOnce()
+	{
+		final AtomicInteger[] numOpened = new AtomicInteger[ offsets.length ];
+		final SpimData2 data = createData( numOpened );
+		final TranslationFusion fusion = new TranslationFusion( data, getViewIds( data ), new float[ 3 ], new float[] { 5, 5, 2 } );
+
+		final float[] blockwise = fuseBlockwise( fusion, new int[] { 16, 16, 4 } );
+
+		for ( final AtomicInteger n : numOpened )
+			assertEquals( 1, n.get() );
+
+		// the same as fusing everything at once
+		final float[] whole = fusion.fuseBlock( fusion.getBoundingBox() );
+		assertEquals( whole.length, blockwise.length );
+		for ( int i = 0; i < whole.length; ++i )
+			assertEquals( whole[ i ], blockwise[ i ], 1e-4 );
+	}
+
+	@Test
+	public void testNumOpenViewsIsBounded()
+	{
+		final AtomicInteger[] numOpened = new AtomicInteger[ offsets.length ];
+		final SpimData2 data = createData( numOpened );
+		final TranslationFusion fusion = new TranslationFusion( data, getViewIds( data ), new float[ 3 ], new float[] { 5, 5, 2 } );
+		fusion.setNumOpenViews( 1 );
+
+		final float[] blockwise = fuseBlockwise( fusion, new int[] { 16, 16, 4 } );
+
+		// views are re-opened, but the result does not change
+		int total = 0;
+		for ( final AtomicInteger n : numOpened )
+		{
+			assertTrue( n.get() >= 1 );
+			total += n.get();
+		}
+		assertTrue( total > offsets.length );
+
+		final float[] whole = fusion.fuseBlock( fusion.getBoundingBox() );
+		for ( int i = 0; i < whole.length; ++i )
+			assertEquals( whole[ i ], blockwise[ i ], 1e-4 );
+	}
+
+	/* fuse block by block (in grid order) and put them together (x fastest) */
+	static float[] fuseBlockwise( final TranslationFusion fusion, final int[] blockSize )
+	{
+		final Interval bb = fusion.getBoundingBox();
+		final long[] dim = Intervals.dimensionsAsLongArray( bb );
+		final float[] res = new float[ (int) Intervals.numElements( bb ) ];
+
+		for ( long z = bb.min( 2 ); z <= bb.max( 2 ); z += blockSize[ 2 ] )
+			for ( long y = bb.min( 1 ); y <= bb.max( 1 ); y += blockSize[ 1 ] )
+				for ( long x = bb.min( 0 ); x <= bb.max( 0 ); x += blockSize[ 0 ] )
+				{
+					final long[] min = { x, y, z };
+					final long[] max = new long[ 3 ];
+					for ( int d = 0; d < 3; ++d )
+						max[ d ] = Math.min( bb.max( d ), min[ d ] + blockSize[ d ] - 1 );
+
+					final Interval block = new FinalInterval( min, max );
+					final float[] fused = fusion.fuseBlock( block );
+
+					int i = 0;
+					for ( long bz = min[ 2 ]; bz <= max[ 2 ]; ++bz )
+						for ( long by = min[ 1 ]; by <= max[ 1 ]; ++by )
+							for ( long bx = min[ 0 ]; bx <= max[ 0 ]; ++bx )
+								res[ (int) ( ( bx - bb.min( 0 ) ) + dim[ 0 ] * ( ( by - bb.min( 1 ) ) + dim[ 1 ] * ( bz - bb.min( 2 ) ) ) ) ] = fused[ i++ ];
+				}
+
+		return res;
+	}
+
+	static List< ViewId > getViewIds( final SpimData2 data )
+	{
+		return new ArrayList<>( data.getSequenceDescription().getViewDescriptions().keySet() );
+	}
+
+	/* one time point with a tile per offset, random images, counts how often every view is opened */
+	static SpimData2 createData( final AtomicInteger[] numOpened )
+	{
+		final ArrayList< ViewSetup > setups = new ArrayList<>();
+		final ArrayList< ViewRegistration > registrations = new ArrayList<>();
+
+		final Dimensions dim = new FinalDimensions( size );
+		final VoxelDimensions vd = new FinalVoxelDimensions( "px", 1, 1, 1 );
+
+		for ( int i = 0; i < offsets.length; ++i )
+		{
+			setups.add( new ViewSetup( i, "setup " + i, dim, vd, new Tile( i ), new Channel( 0 ), new Angle( 0 ), new Illumination( 0 ) ) );
+			numOpened[ i ] = new AtomicInteger();
+
+			final AffineTransform3D t = new AffineTransform3D();
+			t.setTranslation( offsets[ i ] );
+			final ViewRegistration vr = new ViewRegistration( 0, i );
+			vr.preconcatenateTransform( new ViewTransformAffine( "Translation", t ) );
+			vr.updateModel();
+			registrations.add( vr );
+		}
+
+		final ArrayList< TimePoint > t = new ArrayList<>();
+		t.add( new TimePoint( 0 ) );
+
+		final ImgLoader imgLoader = new ImgLoader()
+		{
+			@Override
+			public SetupImgLoader< ? > getSetupImgLoader( final int setupId )
+			{
+				return new SetupImgLoader< FloatType >()
+				{
+					@Override
+					public RandomAccessibleInterval< FloatType > getImage( final int timepointId, final ImgLoaderHint... hints )
+					{
+						return getFloatImage( timepointId, false, hints );
+					}
+
+					@Override
+					public RandomAccessibleInterval< FloatType > getFloatImage( final int timepointId, final boolean normalize, final ImgLoaderHint... hints )
+					{
+						numOpened[ setupId ].incrementAndGet();
+
+						final Random rnd = new Random( seed + setupId );
+						final Img< FloatType > img = ArrayImgs.floats( size );
+						for ( final FloatType v : img )
+							v.set( rnd.nextFloat() * 1000 );
+						return img;
+					}
+
+					@Override
+					public FloatType getImageType() { return new FloatType(); }
+
+					@Override
+					public Dimensions getImageSize( final int timepointId ) { return dim; }
+
+					@Override
+					public VoxelDimensions getVoxelSize( final int timepointId ) { return vd; }
+				};
+			}
+		};
+
+		final SequenceDescription sd = new SequenceDescription( new TimePoints( t ), setups, imgLoader, new MissingViews( new ArrayList<>() ) );
+
+		return new SpimData2(
+				URI.create( "/" ),
+				sd,
+				new ViewRegistrations( registrations ),
+				new ViewInterestPoints(),
+				new BoundingBoxes(),
+				new PointSpreadFunctions(),
+				new StitchingResults(),
+				new IntensityAdjustments() );
+	}
+}
@@ -0,0 +1,143 @@
+/*-
+ * #%L
+ * Multiview stitching of large datasets.
+ * %%
+ * Copyright (C) 2016 - 2024 Big Stitcher developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.stitcher.algorithm.globalopt;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import net.imglib2.realtransform.Translation;
+import net.imglib2.util.Pair;
+import net.imglib2.util.ValuePair;
+
+public class CoarseToFineTest
+{
+	final long[] finest = new long[] { 1, 1, 1 };
+	final List< long[] > levels = Arrays.asList( new long[] { 4, 4, 2 }, new long[] { 2, 2, 1 }, finest );
+
+	/**
+	 * one call of LevelShift
+	 */
+	private static class Call
+	{
+		final long[] ds;
+		final double[] estimate;
+		final int window;
+		final long maxShift;
+
+		Call( final long[] ds, final double[] estimate, final int window, final long maxShift )
+		{
+			this.ds = ds;
+			this.estimate = estimate;
+			this.window = window;
+			this.maxShift = maxShift;
+		}
+	}
+
+	/**
+	 * records all calls and returns the given results one after another
+	 */
+	private static TransformationTools.LevelShift recording( final List< Call > calls, final List< Pair< Translation, Double > > results )
+	{
+		return ( ds, estimate, window, maxShift ) -> {
+			calls.add( new Call( ds, estimate == null ? null : estimate.clone(), window, maxShift ) );
+			return results.get( calls.size() - 1 );
+		};
+	}
+
+	private static Pair< Translation, Double > result( final double r, final double... shift )
+	{
+		return new ValuePair<>( new Translation( shift ), r );
+	}
+
+	@Test
+	public void testEstimateIsScaledToTheNextLevel()
+	{
+		final List< Call > calls = new ArrayList<>();
+		final Pair< Translation, Double > finestResult = result( 0.9, 13.25, -8.5, 3.0 );
+
+		final Pair< Translation, Double > r = TransformationTools.computeShiftCoarseToFine( levels, finest, 64,
+				recording( calls, Arrays.asList( result( 0.5, 3, -2, 1.5 ), result( 0.7, 6.5, -4, 3 ), finestResult ) ) );
+
+		assertEquals( 3, calls.size() );
+
+		// coarsest level: whole overlap, no estimate
+		assertArrayEquals( new long[] { 4, 4, 2 }, calls.get( 0 ).ds );
+		assertNull( calls.get( 0 ).estimate );
+		assertEquals( 0, calls.get( 0 ).window );
+		assertEquals( -1, calls.get( 0 ).maxShift );
+
+		// 4,4,2 -> 2,2,1: the shift doubles in every dimension, 2 coarse pixels of tolerance
+		assertArrayEquals( new long[] { 2, 2, 1 }, calls.get( 1 ).ds );
+		assertArrayEquals( new double[] { 6, -4, 3 }, calls.get( 1 ).estimate, 1e-9 );
+		assertEquals( 64, calls.get( 1 ).window );
+		assertEquals( 4, calls.get( 1 ).maxShift );
+
+		// 2,2,1 -> 1,1,1: z is not scaled
+		assertArrayEquals( finest, calls.get( 2 ).ds );
+		assertArrayEquals( new double[] { 13, -8, 3 }, calls.get( 2 ).estimate, 1e-9 );
+		assertEquals( 4, calls.get( 2 ).maxShift );
+
+		// shift and r (of the whole overlap, see PairwiseStitchingTest) of the finest level
+		assertSame( finestResult, r );
+	}
+
+	@Test
+	public void testFallbackIfARefinementFails()
+	{
+		final List< Call > calls = new ArrayList<>();
+		final Pair< Translation, Double > fallback = result( 0.8, 13, -8, 3 );
+
+		final Pair< Translation, Double > r = TransformationTools.computeShiftCoarseToFine( levels, finest, 64,
+				recording( calls, Arrays.asList( result( 0.5, 3, -2, 1.5 ), null, fallback ) ) );
+
+		assertEquals( 3, calls.size() );
+
+		// normal phase correlation of the whole overlap at the finest level
+		assertArrayEquals( finest, calls.get( 2 ).ds );
+		assertNull( calls.get( 2 ).estimate );
+		assertEquals( 0, calls.get( 2 ).window );
+		assertEquals( -1, calls.get( 2 ).maxShift );
+		assertSame( fallback, r );
+	}
+
+	@Test
+	public void testFallbackIfTheCoarsestLevelFails()
+	{
+		final List< Call > calls = new ArrayList<>();
+
+		final Pair< Translation, Double > r = TransformationTools.computeShiftCoarseToFine( levels, finest, 64,
+				recording( calls, Arrays.asList( null, null ) ) );
+
+		assertEquals( 2, calls.size() );
+		assertArrayEquals( finest, calls.get( 1 ).ds );
+		assertNull( calls.get( 1 ).estimate );
+		assertNull( r );
+	}
+}
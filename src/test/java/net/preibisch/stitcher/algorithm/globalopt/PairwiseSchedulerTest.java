@@ -0,0 +1,159 @@
+/*-
+ * #%L
+ * Multiview stitching of large datasets.
+ * %%
+ * Copyright (C) 2016 - 2024 Big Stitcher developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.stitcher.algorithm.globalopt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import mpicbg.spim.data.sequence.ViewId;
+import net.imglib2.util.Pair;
+import net.imglib2.util.ValuePair;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
+
+public class PairwiseSchedulerTest
+{
+
+	public static long seed = 4353;
+
+	@Test( timeout = 60000 )
+	public void testAllResultsWithBoundedParallelism() throws Exception
+	{
+		final int numParallelPairs = 3;
+		final PairwiseScheduler scheduler = new PairwiseScheduler( numParallelPairs, 2 );
+
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger maxRunning = new AtomicInteger();
+
+		final List< Callable< Integer > > tasks = new ArrayList<>();
+		for ( int i = 0; i < 50; ++i )
+		{
+			final int id = i;
+			tasks.add( () -> {
+				maxRunning.accumulateAndGet( running.incrementAndGet(), Math::max );
+
+				// inner work of every pair on the shared pool, waited for from the pair thread
+				final List< Callable< Integer > > inner = new ArrayList<>();
+				for ( int j = 0; j < 8; ++j )
+				{
+					final int k = j;
+					inner.add( () -> { Thread.sleep( 1 ); return k; } );
+				}
+
+				int sum = 0;
+				for ( final Future< Integer > f : scheduler.getInnerService().invokeAll( inner ) )
+					sum += f.get();
+
+				running.decrementAndGet();
+				return sum == 28 ? id : -1;
+			} );
+		}
+
+		final List< Integer > results = new ArrayList<>();
+		try
+		{
+			scheduler.run( tasks, results::add );
+		}
+		finally
+		{
+			scheduler.shutdown();
+		}
+
+		Collections.sort( results );
+		for ( int i = 0; i < tasks.size(); ++i )
+			assertEquals( i, results.get( i ).intValue() );
+
+		assertTrue( maxRunning.get() <= numParallelPairs );
+	}
+
+	@Test( timeout = 60000 )
+	public void testFailurePropagates() throws Exception
+	{
+		final PairwiseScheduler scheduler = new PairwiseScheduler( 2, 2 );
+
+		final List< Callable< Integer > > tasks = new ArrayList<>();
+		for ( int i = 0; i < 10; ++i )
+		{
+			final int id = i;
+			tasks.add( () -> {
+				if ( id == 4 )
+					throw new IllegalStateException( "failed pair" );
+				return id;
+			} );
+		}
+
+		try
+		{
+			scheduler.run( tasks, null );
+			fail( "the failure of a task should be reported" );
+		}
+		catch ( final ExecutionException e )
+		{
+			assertTrue( e.getCause() instanceof IllegalStateException );
+		}
+		finally
+		{
+			scheduler.shutdown();
+		}
+	}
+
+	@Test
+	public void testSortByGroups()
+	{
+		final Random rnd = new Random( seed );
+
+		final List< Pair< Group< ViewId >, Group< ViewId > > > pairs = new ArrayList<>();
+		for ( int i = 0; i < 200; ++i )
+		{
+			final int a = rnd.nextInt( 20 );
+			final int b = a + 1 + rnd.nextInt( 5 );
+			pairs.add( new ValuePair<>( new Group<>( new ViewId( 0, a ), new ViewId( 0, a + 100 ) ), new Group<>( new ViewId( 0, b ) ) ) );
+		}
+
+		final List< Pair< Group< ViewId >, Group< ViewId > > > sorted = PairwiseScheduler.sortByGroups( pairs );
+		assertEquals( pairs.size(), sorted.size() );
+		assertTrue( sorted.containsAll( pairs ) );
+
+		// all pairs of a first group are contiguous
+		final HashSet< Group< ViewId > > done = new HashSet<>();
+		for ( int i = 0; i < sorted.size(); ++i )
+		{
+			final Group< ViewId > g = sorted.get( i ).getA();
+			if ( i > 0 && g.equals( sorted.get( i - 1 ).getA() ) )
+				continue;
+
+			assertTrue( done.add( g ) );
+		}
+	}
+}
@@ -0,0 +1,195 @@
+/*-
+ * #%L
+ * Multiview stitching of large datasets.
+ * %%
+ * Copyright (C) 2016 - 2024 Big Stitcher developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.stitcher.algorithm.lucaskanade;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.interpolation.randomaccess.NLinearInterpolatorFactory;
+import net.imglib2.realtransform.AffineTransform;
+import net.imglib2.realtransform.RealViews;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.LinAlgHelpers;
+import net.imglib2.view.Views;
+
+public class AlignTest
+{
+
+	public static long seed = 4353;
+
+	@Test
+	public void testPyramidMatchesAlign()
+	{
+		final ExecutorService service = Executors.newFixedThreadPool( Runtime.getRuntime().availableProcessors() );
+
+		// rotated by 2 degrees (around the origin) and shifted
+		final AffineTransform truth = rigid( 2 * Math.PI / 180, 2.5, -1.5 );
+		final double[][] blobs = blobs( new Random( seed ) );
+		final Img< FloatType > template = render( blobs, new AffineTransform( 2 ) );
+		final Img< FloatType > image = render( blobs, truth );
+
+		final WarpFunction warp = new RigidWarp( 2 );
+
+		final Align< FloatType > lk = new Align<>( template, new ArrayImgFactory<>( new FloatType() ), warp );
+		final AffineTransform plain = lk.align( image, 200, 1e-5, service ).copy();
+		assertTrue( lk.didConverge() );
+
+		final Align< FloatType > pyramid = Align.alignPyramid( template, image, warp, 2, 200, 1e-5, service );
+		assertTrue( pyramid.didConverge() );
+
+		service.shutdown();
+
+		assertTransformEquals( truth, plain, 0.01 );
+		assertTransformEquals( plain, pyramid.getCurrentTransform(), 0.01 );
+	}
+
+	@Test
+	public void testAlignStepMatchesPerParameterGradient()
+	{
+		final ExecutorService service = Executors.newFixedThreadPool( Runtime.getRuntime().availableProcessors() );
+
+		final double[][] blobs = blobs( new Random( seed ) );
+		final Img< FloatType > template = render( blobs, new AffineTransform( 2 ) );
+		final Img< FloatType > image = render( blobs, rigid( 2 * Math.PI / 180, 2.5, -1.5 ) );
+
+		final WarpFunction warp = new RigidWarp( 2 );
+		final int n = template.numDimensions();
+		final int numParameters = warp.numParameters();
+
+		final Align< FloatType > lk = new Align<>( template, new ArrayImgFactory<>( new FloatType() ), warp );
+		final AffineTransform initial = rigid( 1 * Math.PI / 180, 1.0, -0.5 );
+
+		for ( int step = 0; step < 3; ++step )
+		{
+			// what alignStep computed before: an error image and one dot product with each steepest descent image
+			final AffineTransform current = step == 0 ? initial : lk.getCurrentTransform().copy();
+
+			final Img< FloatType > gradients = ArrayImgs.floats( template.dimension( 0 ), template.dimension( 1 ), n );
+			Align.gradients( Views.extendBorder( template ), gradients );
+			final Img< FloatType > descent = ArrayImgs.floats( template.dimension( 0 ), template.dimension( 1 ), numParameters );
+			Align.computeSteepestDescents( gradients, warp, descent );
+			final double[][] Hinv = Align.computeInverseHessian( descent );
+
+			final Img< FloatType > error = ArrayImgs.floats( template.dimension( 0 ), template.dimension( 1 ) );
+			final RandomAccessibleInterval< FloatType > warped = Views.interval(
+					RealViews.affine( Views.interpolate( Views.extendBorder( image ), new NLinearInterpolatorFactory<>() ), current ),
+					template );
+			final Cursor< FloatType > cw = Views.flatIterable( warped ).cursor();
+			final Cursor< FloatType > ct = Views.flatIterable( template ).cursor();
+			for ( final FloatType e : Views.flatIterable( error ) )
+				e.set( cw.next().get() - ct.next().get() );
+
+			final double[] gradient = new double[ numParameters ];
+			for ( int p = 0; p < numParameters; ++p )
+			{
+				final Cursor< FloatType > ce = Views.flatIterable( error ).cursor();
+				for ( final FloatType t : Views.flatIterable( Views.hyperSlice( descent, n, p ) ) )
+					gradient[ p ] += t.getRealDouble() * ce.next().getRealDouble();
+			}
+
+			final double[] dp = new double[ numParameters ];
+			LinAlgHelpers.mult( Hinv, gradient, dp );
+			final AffineTransform expected = current.copy();
+			expected.preConcatenate( warp.getAffine( dp ) );
+
+			if ( step == 0 )
+				lk.setCurrentTransform( initial );
+
+			final double change = lk.alignStep( image, service );
+
+			assertEquals( LinAlgHelpers.length( dp ), change, 1e-5 );
+			assertTransformEquals( expected, lk.getCurrentTransform(), 1e-5 );
+		}
+
+		service.shutdown();
+	}
+
+	private static void assertTransformEquals( final AffineTransform expected, final AffineTransform actual, final double delta )
+	{
+		assertArrayEquals( expected.getRowPackedCopy(), actual.getRowPackedCopy(), delta );
+	}
+
+	private static AffineTransform rigid( final double angle, final double tx, final double ty )
+	{
+		final AffineTransform t = new AffineTransform( 2 );
+		t.set( Math.cos( angle ), 0, 0 );
+		t.set( -Math.sin( angle ), 0, 1 );
+		t.set( tx, 0, 2 );
+		t.set( Math.sin( angle ), 1, 0 );
+		t.set( Math.cos( angle ), 1, 1 );
+		t.set( ty, 1, 2 );
+		return t;
+	}
+
+	/*
+	 * random gaussian blobs (x, y, sigma, intensity) in the center of a 128x128 image
+	 */
+	private static double[][] blobs( final Random rnd )
+	{
+		final double[][] blobs = new double[ 12 ][];
+		for ( int i = 0; i < blobs.length; ++i )
+			blobs[ i ] = new double[] { 32 + rnd.nextDouble() * 64, 32 + rnd.nextDouble() * 64, 5 + rnd.nextDouble() * 5, 50 + rnd.nextDouble() * 100 };
+		return blobs;
+	}
+
+	/*
+	 * render the blobs at transform( x ), i.e. Align should find transform
+	 * when aligning it to the untransformed rendering
+	 */
+	private static Img< FloatType > render( final double[][] blobs, final AffineTransform transform )
+	{
+		final Img< FloatType > img = ArrayImgs.floats( 128, 128 );
+		final double[] x = new double[ 2 ];
+		final double[] y = new double[ 2 ];
+		final Cursor< FloatType > c = img.localizingCursor();
+
+		while ( c.hasNext() )
+		{
+			c.fwd();
+			c.localize( x );
+			transform.apply( x, y );
+
+			double v = 0;
+			for ( final double[] b : blobs )
+			{
+				final double dx = y[ 0 ] - b[ 0 ];
+				final double dy = y[ 1 ] - b[ 1 ];
+				v += b[ 3 ] * Math.exp( -( dx * dx + dy * dy ) / ( 2 * b[ 2 ] * b[ 2 ] ) );
+			}
+			c.get().set( (float) v );
+		}
+
+		return img;
+	}
+}
@@ -0,0 +1,137 @@
+/*-
+ * #%L
+ * Multiview stitching of large datasets.
+ * %%
+ * Copyright (C) 2016 - 2024 Big Stitcher developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.stitcher.gui.bdv;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import mpicbg.spim.data.generic.sequence.BasicViewDescription;
+import mpicbg.spim.data.registration.ViewRegistration;
+import mpicbg.spim.data.registration.ViewTransformAffine;
+import mpicbg.spim.data.sequence.ViewId;
+import net.imglib2.FinalRealInterval;
+import net.imglib2.RealInterval;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.preibisch.mvrecon.fiji.spimdata.SpimData2;
+import net.preibisch.stitcher.algorithm.BruteForceOverlap;
+import net.preibisch.stitcher.algorithm.SpatialGridIndex;
+import net.preibisch.stitcher.algorithm.TransformTools;
+import net.preibisch.stitcher.input.GenerateSpimData;
+
+public class BDVVisibilityHandlerNeighborhoodTest
+{
+
+	public static long seed = 4353;
+
+	@Test
+	public void testIndexMatchesBruteForce()
+	{
+		final Random rnd = new Random( seed );
+		final SpimData2 data = GenerateSpimData.grid3x2();
+		final SpatialGridIndex< ViewId > index = BDVVisibilityHandlerNeighborhood.getIndex( data, 0 );
+
+		assertEquals( data.getSequenceDescription().getViewDescriptions().size(), index.size() );
+
+		for ( int i = 0; i < 500; ++i )
+		{
+			final double[] min = new double[ 3 ];
+			final double[] max = new double[ 3 ];
+			for ( int d = 0; d < 3; ++d )
+			{
+				min[ d ] = rnd.nextDouble() * 1300 - 200;
+				max[ d ] = min[ d ] + rnd.nextDouble() * 300;
+			}
+
+			final FinalRealInterval query = new FinalRealInterval( min, max );
+			assertEquals( bruteForce( data, 0, query ), new HashSet<>( index.query( query ) ) );
+		}
+
+		// only the channels of the first tile
+		assertEquals(
+				new HashSet<>( Arrays.asList( new ViewId( 0, 0 ), new ViewId( 0, 4 ), new ViewId( 0, 8 ) ) ),
+				new HashSet<>( index.query( new FinalRealInterval( new double[] { 0, 0, 0 }, new double[] { 10, 10, 10 } ) ) ) );
+	}
+
+	@Test
+	public void testIndexIsRebuiltForChangedRegistrations()
+	{
+		final SpimData2 data = GenerateSpimData.grid3x2();
+		final SpatialGridIndex< ViewId > index = BDVVisibilityHandlerNeighborhood.getIndex( data, 0 );
+
+		// unchanged registrations -> same index
+		assertSame( index, BDVVisibilityHandlerNeighborhood.getIndex( data, 0 ) );
+
+		// overlap of the first and second tile
+		final FinalRealInterval query = new FinalRealInterval( new double[] { 500, 0, 0 }, new double[] { 505, 5, 5 } );
+		assertTrue( index.query( query ).contains( new ViewId( 0, 1 ) ) );
+
+		// move one view away
+		final ViewRegistration vr = data.getViewRegistrations().getViewRegistration( new ViewId( 0, 1 ) );
+		final AffineTransform3D shift = new AffineTransform3D();
+		shift.set( 10000, 0, 3 );
+		vr.preconcatenateTransform( new ViewTransformAffine( "Shift", shift ) );
+		vr.updateModel();
+
+		final SpatialGridIndex< ViewId > updated = BDVVisibilityHandlerNeighborhood.getIndex( data, 0 );
+		assertNotSame( index, updated );
+		assertFalse( updated.query( query ).contains( new ViewId( 0, 1 ) ) );
+		assertEquals( bruteForce( data, 0, query ), new HashSet<>( updated.query( query ) ) );
+	}
+
+	@Test
+	public void testTimepointWithoutViews()
+	{
+		final SpimData2 data = GenerateSpimData.grid3x2();
+		final SpatialGridIndex< ViewId > index = BDVVisibilityHandlerNeighborhood.getIndex( data, 1 );
+
+		assertEquals( 0, index.size() );
+		assertEquals( 0, index.query( new FinalRealInterval( new double[] { 0, 0, 0 }, new double[] { 1000, 1000, 1000 } ) ).size() );
+	}
+
+	private static Set< ViewId > bruteForce( final SpimData2 data, final int timepointId, final RealInterval query )
+	{
+		final Set< ViewId > expected = new HashSet<>();
+
+		for ( final BasicViewDescription< ? > vd : data.getSequenceDescription().getViewDescriptions().values() )
+		{
+			if ( vd.getTimePointId() != timepointId || !vd.isPresent() || !vd.getViewSetup().hasSize() )
+				continue;
+
+			final RealInterval bounds = TransformTools.getTransformedBoundingBox( Collections.singletonList( vd ), data.getViewRegistrations() );
+			if ( BruteForceOverlap.intersects( bounds, query ) )
+				expected.add( new ViewId( vd.getTimePointId(), vd.getViewSetupId() ) );
+		}
+
+		return expected;
+	}
+}
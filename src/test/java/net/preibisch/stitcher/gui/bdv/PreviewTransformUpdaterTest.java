@@ -0,0 +1,123 @@
+/*-
+ * #%L
+ * Multiview stitching of large datasets.
+ * %%
+ * Copyright (C) 2016 - 2024 Big Stitcher developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.stitcher.gui.bdv;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class PreviewTransformUpdaterTest
+{
+	// computations that return null leave BDV untouched, so no viewer is needed
+
+	@Test
+	public void testRequestsAreCoalesced() throws InterruptedException
+	{
+		final PreviewTransformUpdater updater = new PreviewTransformUpdater( 200 );
+		final AtomicInteger numComputed = new AtomicInteger();
+		final AtomicInteger lastComputed = new AtomicInteger( -1 );
+		final CountDownLatch done = new CountDownLatch( 1 );
+
+		for ( int i = 0; i < 10; ++i )
+		{
+			final int request = i;
+			updater.request( null, isCancelled -> {
+				numComputed.incrementAndGet();
+				lastComputed.set( request );
+				done.countDown();
+				return null;
+			} );
+		}
+
+		assertTrue( done.await( 5, TimeUnit.SECONDS ) );
+
+		// give superseded requests the chance to (wrongly) run
+		Thread.sleep( 300 );
+		updater.shutdown();
+
+		assertEquals( 1, numComputed.get() );
+		assertEquals( 9, lastComputed.get() );
+	}
+
+	@Test
+	public void testCancelDiscardsPendingRequest() throws InterruptedException
+	{
+		final PreviewTransformUpdater updater = new PreviewTransformUpdater( 100 );
+		final AtomicBoolean computed = new AtomicBoolean();
+
+		updater.request( null, isCancelled -> {
+			computed.set( true );
+			return null;
+		} );
+		updater.cancel();
+
+		Thread.sleep( 300 );
+		updater.shutdown();
+
+		assertFalse( computed.get() );
+	}
+
+	@Test
+	public void testNewerRequestCancelsRunningComputation() throws InterruptedException
+	{
+		final PreviewTransformUpdater updater = new PreviewTransformUpdater( 0 );
+		final CountDownLatch started = new CountDownLatch( 1 );
+		final CountDownLatch newerRequested = new CountDownLatch( 1 );
+		final AtomicBoolean sawCancel = new AtomicBoolean();
+		final CountDownLatch done = new CountDownLatch( 2 );
+
+		updater.request( null, isCancelled -> {
+			started.countDown();
+			try
+			{
+				newerRequested.await( 5, TimeUnit.SECONDS );
+			}
+			catch ( final InterruptedException e )
+			{
+				Thread.currentThread().interrupt();
+			}
+			sawCancel.set( isCancelled.getAsBoolean() );
+			done.countDown();
+			return null;
+		} );
+
+		assertTrue( started.await( 5, TimeUnit.SECONDS ) );
+
+		updater.request( null, isCancelled -> {
+			done.countDown();
+			return null;
+		} );
+		newerRequested.countDown();
+
+		assertTrue( done.await( 5, TimeUnit.SECONDS ) );
+		updater.shutdown();
+
+		assertTrue( sawCancel.get() );
+	}
+}
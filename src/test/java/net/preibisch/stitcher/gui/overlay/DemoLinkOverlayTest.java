@@ -0,0 +1,106 @@
+/*-
+ * #%L
+ * Multiview stitching of large datasets.
+ * %%
+ * Copyright (C) 2016 - 2024 Big Stitcher developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.stitcher.gui.overlay;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import mpicbg.spim.data.sequence.ViewId;
+import net.imglib2.util.Pair;
+import net.imglib2.util.ValuePair;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
+
+public class DemoLinkOverlayTest
+{
+
+	public static long seed = 4353;
+
+	@Test
+	public void testIndexedOverlapMatchesScan()
+	{
+		final Random rnd = new Random( seed );
+
+		for ( int run = 0; run < 20; ++run )
+		{
+			final List< Pair< Group< ViewId >, Group< ViewId > > > links = new ArrayList<>();
+			for ( int i = 0; i < 1 + rnd.nextInt( 20 ); ++i )
+				links.add( randomLink( rnd ) );
+
+			final Set< Pair< ViewId, ViewId > > index = DemoLinkOverlay.viewPairs( links );
+
+			for ( int i = 0; i < 200; ++i )
+			{
+				final Pair< Group< ViewId >, Group< ViewId > > p = randomLink( rnd );
+				assertEquals( DemoLinkOverlay.overlapsWith( p, links ), DemoLinkOverlay.overlapsWith( p, index ) );
+			}
+		}
+	}
+
+	@Test
+	public void testRemoveResultsFor()
+	{
+		final Group< ViewId > g1 = new Group<>( new ViewId( 0, 1 ) );
+		final Group< ViewId > g2 = new Group<>( new ViewId( 0, 2 ), new ViewId( 0, 3 ) );
+		final Group< ViewId > g3 = new Group<>( new ViewId( 0, 4 ) );
+
+		final Pair< Group< ViewId >, Group< ViewId > > l12 = new ValuePair<>( g1, g2 );
+		final Pair< Group< ViewId >, Group< ViewId > > l23 = new ValuePair<>( g2, g3 );
+		final Pair< Group< ViewId >, Group< ViewId > > l13 = new ValuePair<>( g1, g3 );
+
+		final DemoLinkOverlay overlay = new DemoLinkOverlay( null, null );
+		overlay.setFilteredResults( Arrays.asList( l12, l13 ) );
+		overlay.setInconsistentResults( Arrays.asList( l23 ) );
+
+		assertEquals( Arrays.asList( l12, l13 ), overlay.getFilteredResults() );
+		assertEquals( Arrays.asList( l23 ), overlay.getInconsistentResults() );
+
+		overlay.removeResultsFor( g2 );
+
+		assertEquals( Arrays.asList( l13 ), overlay.getFilteredResults() );
+		assertEquals( 0, overlay.getInconsistentResults().size() );
+
+		// setting new results replaces the old ones
+		overlay.setFilteredResults( Arrays.asList( l23 ) );
+		assertEquals( Arrays.asList( l23 ), overlay.getFilteredResults() );
+	}
+
+	private static Pair< Group< ViewId >, Group< ViewId > > randomLink( final Random rnd )
+	{
+		return new ValuePair<>( randomGroup( rnd ), randomGroup( rnd ) );
+	}
+
+	private static Group< ViewId > randomGroup( final Random rnd )
+	{
+		final HashSet< ViewId > views = new HashSet<>();
+		for ( int i = 0; i < 1 + rnd.nextInt( 3 ); ++i )
+			views.add( new ViewId( 0, rnd.nextInt( 12 ) ) );
+		return new Group<>( views );
+	}
+}
@@ -0,0 +1,89 @@
+/*-
+ * #%L
+ * Multiview stitching of large datasets.
+ * %%
+ * Copyright (C) 2016 - 2024 Big Stitcher developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.stitcher.headless;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import mpicbg.spim.data.sequence.Angle;
+import mpicbg.spim.data.sequence.Channel;
+import mpicbg.spim.data.sequence.FinalVoxelDimensions;
+import mpicbg.spim.data.sequence.Illumination;
+import mpicbg.spim.data.sequence.MissingViews;
+import mpicbg.spim.data.sequence.SequenceDescription;
+import mpicbg.spim.data.sequence.Tile;
+import mpicbg.spim.data.sequence.TimePoint;
+import mpicbg.spim.data.sequence.TimePoints;
+import mpicbg.spim.data.sequence.ViewId;
+import mpicbg.spim.data.sequence.ViewSetup;
+import net.imglib2.FinalDimensions;
+
+public class BatchFusionTest
+{
+	@Test
+	public void testOutputsSeparateIlluminationsAndAngles()
+	{
+		// 2 tiles x 2 illuminations x 2 angles, one channel
+		final ArrayList< ViewSetup > setups = new ArrayList<>();
+		for ( int a = 0; a < 2; ++a )
+			for ( int i = 0; i < 2; ++i )
+				for ( int t = 0; t < 2; ++t )
+				{
+					final int id = setups.size();
+					setups.add( new ViewSetup( id, "setup " + id, new FinalDimensions( 10, 10, 10 ), new FinalVoxelDimensions( "px", 1, 1, 1 ),
+							new Tile( t ), new Channel( 0 ), new Angle( a ), new Illumination( i ) ) );
+				}
+
+		final ArrayList< TimePoint > timepoints = new ArrayList<>();
+		timepoints.add( new TimePoint( 0 ) );
+
+		// the second tile of angle 1, illumination 1 is missing
+		final ArrayList< ViewId > missing = new ArrayList<>();
+		missing.add( new ViewId( 0, 7 ) );
+
+		final SequenceDescription sd = new SequenceDescription( new TimePoints( timepoints ), setups, null, new MissingViews( missing ) );
+
+		final Map< String, List< ViewId > > outputs = BatchFusion.getOutputs( sd );
+
+		assertEquals( new HashSet<>( Arrays.asList( "t0/c0/i0/a0", "t0/c0/i1/a0", "t0/c0/i0/a1", "t0/c0/i1/a1" ) ), outputs.keySet() );
+
+		// only tiles are fused together
+		assertEquals( new HashSet<>( Arrays.asList( new ViewId( 0, 0 ), new ViewId( 0, 1 ) ) ), getViewIds( outputs.get( "t0/c0/i0/a0" ) ) );
+		assertEquals( new HashSet<>( Arrays.asList( new ViewId( 0, 2 ), new ViewId( 0, 3 ) ) ), getViewIds( outputs.get( "t0/c0/i1/a0" ) ) );
+		assertEquals( new HashSet<>( Arrays.asList( new ViewId( 0, 4 ), new ViewId( 0, 5 ) ) ), getViewIds( outputs.get( "t0/c0/i0/a1" ) ) );
+		assertEquals( new HashSet<>( Arrays.asList( new ViewId( 0, 6 ) ) ), getViewIds( outputs.get( "t0/c0/i1/a1" ) ) );
+	}
+
+	static Set< ViewId > getViewIds( final List< ViewId > views )
+	{
+		return views.stream().map( v -> new ViewId( v.getTimePointId(), v.getViewSetupId() ) ).collect( Collectors.toSet() );
+	}
+}
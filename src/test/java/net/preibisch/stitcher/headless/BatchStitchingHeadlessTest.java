@@ -0,0 +1,140 @@
+/*-
+ * #%L
+ * Multiview stitching of large datasets.
+ * %%
+ * Copyright (C) 2016 - 2024 Big Stitcher developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.stitcher.headless;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.GraphicsEnvironment;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.regex.Pattern;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import mpicbg.spim.data.sequence.Channel;
+import mpicbg.spim.data.sequence.Tile;
+import net.preibisch.mvrecon.fiji.spimdata.SpimData2;
+import net.preibisch.stitcher.algorithm.GroupedViewAggregator;
+import net.preibisch.stitcher.algorithm.GroupedViewAggregator.ActionType;
+import net.preibisch.stitcher.algorithm.PairwiseStitchingParameters;
+import net.preibisch.stitcher.algorithm.SpimDataFilteringAndGrouping;
+
+public class BatchStitchingHeadlessTest
+{
+	// classes of these packages are only needed for dialogs and windows
+	private static final Pattern guiReference = Pattern.compile(
+			"(^|[L\\[(;])(ij|fiji|java/awt|javax/swing|net/preibisch/mvrecon/fiji/spimdata/explorer|net/preibisch/stitcher/gui)/" );
+
+	@BeforeClass
+	public static void setHeadless()
+	{
+		System.setProperty( "java.awt.headless", "true" );
+	}
+
+	@Test
+	public void testNoGuiReferences() throws IOException
+	{
+		final Class< ? >[] classes = {
+				BatchStitching.class,
+				SpimDataFilteringAndGrouping.class,
+				PairwiseStitchingParameters.class,
+				GroupedViewAggregator.class };
+
+		for ( final Class< ? > cl : classes )
+			for ( final String constant : getUtf8Constants( cl ) )
+				assertFalse( cl.getName() + " references " + constant, guiReference.matcher( constant ).find() );
+	}
+
+	@Test
+	public void testSetupHeadless()
+	{
+		assertTrue( GraphicsEnvironment.isHeadless() );
+
+		final Properties config = new Properties();
+		config.setProperty( "peaks_to_check", "3" );
+		config.setProperty( "min_overlap", "20" );
+		config.setProperty( "coarse_to_fine_levels", "2" );
+
+		final PairwiseStitchingParameters params = new BatchStitching( config ).getPairwiseStitchingParameters();
+		assertEquals( 3, params.peaksToCheck );
+		assertEquals( 0.2, params.minOverlap, 1e-9 );
+		assertEquals( 2, params.coarseToFineLevels );
+
+		final SpimDataFilteringAndGrouping< SpimData2 > grouping = new SpimDataFilteringAndGrouping<>( null );
+		grouping.addComparisonAxis( Tile.class );
+		grouping.addGroupingFactor( Channel.class );
+		grouping.getGroupedViewAggregator().addAction( ActionType.AVERAGE, Channel.class, null );
+
+		assertTrue( grouping.getGroupingFactors().contains( Channel.class ) );
+		assertFalse( grouping.getDialogWasCancelled() );
+	}
+
+	/* all UTF8 entries of the constant pool of a class (names, descriptors and string literals) */
+	private static List< String > getUtf8Constants( final Class< ? > cl ) throws IOException
+	{
+		final List< String > constants = new ArrayList<>();
+
+		try ( final InputStream is = cl.getResourceAsStream( cl.getSimpleName() + ".class" );
+				final DataInputStream in = new DataInputStream( is ) )
+		{
+			in.readInt(); // magic
+			in.readUnsignedShort(); // minor version
+			in.readUnsignedShort(); // major version
+
+			final int count = in.readUnsignedShort();
+			for ( int i = 1; i < count; ++i )
+			{
+				final int tag = in.readUnsignedByte();
+				switch ( tag )
+				{
+				case 1: // Utf8
+					constants.add( in.readUTF() );
+					break;
+				case 7: case 8: case 16: case 19: case 20: // Class, String, MethodType, Module, Package
+					in.skipBytes( 2 );
+					break;
+				case 15: // MethodHandle
+					in.skipBytes( 3 );
+					break;
+				case 3: case 4: case 9: case 10: case 11: case 12: case 17: case 18: // Integer, Float, refs, NameAndType, (Invoke)Dynamic
+					in.skipBytes( 4 );
+					break;
+				case 5: case 6: // Long, Double take two entries
+					in.skipBytes( 8 );
+					++i;
+					break;
+				default:
+					throw new IOException( "unknown constant pool tag " + tag + " in " + cl.getName() );
+				}
+			}
+		}
+
+		return constants;
+	}
+}
@@ -0,0 +1,154 @@
+/*-
+ * #%L
+ * Multiview stitching of large datasets.
+ * %%
+ * Copyright (C) 2016 - 2024 Big Stitcher developers.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 2 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/gpl-2.0.html>.
+ * #L%
+ */
+package net.preibisch.stitcher.process;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import mpicbg.spim.data.registration.ViewRegistration;
+import mpicbg.spim.data.registration.ViewTransformAffine;
+import mpicbg.spim.data.sequence.ViewId;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.util.Pair;
+import net.preibisch.mvrecon.fiji.spimdata.SpimData2;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.AllToAll;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.PairwiseSetup;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.grouping.Group;
+import net.preibisch.mvrecon.process.interestpointregistration.pairwise.constellation.overlap.SimpleBoundingBoxOverlap;
+import net.preibisch.stitcher.input.GenerateSpimData;
+
+public class ICPRefinementTest
+{
+
+	public static long seed = 4353;
+
+	@Test
+	public void testOverlappingPairsMatchAllToAll()
+	{
+		final Random rnd = new Random( seed );
+
+		for ( int i = 0; i < 20; ++i )
+		{
+			final SpimData2 data = GenerateSpimData.grid3x2();
+
+			// move the tiles (all channels of a tile together) randomly, some apart, some into each other
+			for ( int tile = 0; tile < 4; ++tile )
+				shiftTile( data, tile, rnd.nextInt( 400 ) - 200, rnd.nextInt( 400 ) - 200, rnd.nextInt( 20 ) - 10 );
+
+			compare( data, new HashSet<>() );
+			compare( data, tileGroups() );
+		}
+	}
+
+	@Test
+	public void testTouchingViewsArePaired()
+	{
+		final SpimData2 data = GenerateSpimData.grid3x2();
+
+		// tile 0 is [0, 511] in x and y, tile 1 now starts at x = 511 (touching), tile 2 at y = 511.5 (gap)
+		// and tile 3 at x = y = 511 (touching in a corner)
+		shiftTile( data, 1, 61, 0, 0 );
+		shiftTile( data, 2, 0, 61.5, 0 );
+		shiftTile( data, 3, 61, 61, 0 );
+
+		final Set< String > pairs = compare( data, new HashSet<>() );
+
+		assertTrue( pairs.contains( key( new ViewId( 0, 0 ), new ViewId( 0, 1 ) ) ) );
+		assertTrue( pairs.contains( key( new ViewId( 0, 0 ), new ViewId( 0, 3 ) ) ) );
+		assertFalse( pairs.contains( key( new ViewId( 0, 0 ), new ViewId( 0, 2 ) ) ) );
+	}
+
+	/*
+	 * the pairs of the spatial index setup must be the pairs of AllToAll after removing the non-overlapping ones
+	 */
+	private static Set< String > compare( final SpimData2 data, final Set< Group< ViewId > > groups )
+	{
+		final List< ViewId > viewIds = new ArrayList<>( data.getSequenceDescription().getViewDescriptions().keySet() );
+
+		final PairwiseSetup< ViewId > allToAll = new AllToAll<>( viewIds, groups );
+		allToAll.definePairs();
+		allToAll.removeNonOverlappingPairs( new SimpleBoundingBoxOverlap<>( data ) );
+
+		final PairwiseSetup< ViewId > indexed = ICPRefinement.overlappingPairsSetup( data, viewIds, groups );
+		indexed.definePairs();
+
+		final Set< String > expected = keys( allToAll.getPairs() );
+		final Set< String > actual = keys( indexed.getPairs() );
+
+		assertEquals( allToAll.getPairs().size(), indexed.getPairs().size() );
+		assertEquals( expected, actual );
+
+		return actual;
+	}
+
+	private static Set< Group< ViewId > > tileGroups()
+	{
+		final Set< Group< ViewId > > groups = new HashSet<>();
+		for ( int tile = 0; tile < 4; ++tile )
+			groups.add( new Group<>( Arrays.asList( new ViewId( 0, tile ), new ViewId( 0, tile + 4 ), new ViewId( 0, tile + 8 ) ) ) );
+		return groups;
+	}
+
+	private static void shiftTile( final SpimData2 data, final int tile, final double x, final double y, final double z )
+	{
+		final AffineTransform3D shift = new AffineTransform3D();
+		shift.set( x, 0, 3 );
+		shift.set( y, 1, 3 );
+		shift.set( z, 2, 3 );
+
+		// setups tile, tile + 4 and tile + 8 are the channels of a tile
+		for ( int setup = tile; setup < 12; setup += 4 )
+		{
+			final ViewRegistration vr = data.getViewRegistrations().getViewRegistration( new ViewId( 0, setup ) );
+			vr.preconcatenateTransform( new ViewTransformAffine( "Shift", shift ) );
+			vr.updateModel();
+		}
+	}
+
+	private static Set< String > keys( final List< Pair< ViewId, ViewId > > pairs )
+	{
+		final Set< String > keys = new HashSet<>();
+		for ( final Pair< ViewId, ViewId > pair : pairs )
+			keys.add( key( pair.getA(), pair.getB() ) );
+		return keys;
+	}
+
+	/*
+	 * order-independent key of a pair
+	 */
+	private static String key( final ViewId a, final ViewId b )
+	{
+		return a.compareTo( b ) < 0
+				? a.getTimePointId() + "-" + a.getViewSetupId() + "/" + b.getTimePointId() + "-" + b.getViewSetupId()
+				: key( b, a );
+	}
+}